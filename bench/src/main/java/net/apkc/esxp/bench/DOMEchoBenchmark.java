@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import net.apkc.esxp.utils.DOMEcho;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+/**
+ * Measures echoing a whole DOM tree with {@link DOMEcho} into a stream that discards the bytes,
+ * sequentially or rendering the pages in parallel on the common pool.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+@BenchmarkMode(
+        {
+            Mode.Throughput, Mode.AverageTime
+        })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DOMEchoBenchmark
+{
+
+    @Param(
+            {
+                "100", "10000"
+            })
+    public int pages;
+    @Param(
+            {
+                Documents.FLAT, Documents.DEEP, Documents.WIDE
+            })
+    public String shape;
+    @Param(
+            {
+                "false", "true"
+            })
+    public boolean parallel;
+    private Document doc;
+    private OutputStream sink;
+
+    @Setup
+    public void setUp(final Blackhole bh) throws Exception
+    {
+        doc = Documents.parse(pages, shape);
+        sink = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                bh.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                bh.consume(len);
+            }
+        };
+    }
+
+    @Benchmark
+    public void echo() throws IOException
+    {
+        new DOMEcho(sink).setPool(parallel ? ForkJoinPool.commonPool() : null).echo(doc);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import net.apkc.esxp.loader.DocumentLoader;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Generates the MediaWiki dumps used by the benchmarks, by number of pages and shape.
+ *
+ * <ul>
+ * <li>{@code flat}: pages as found in a dump, a few elements two or three levels deep.</li>
+ * <li>{@code deep}: each page also has a chain of nested sections {@link #DEPTH} levels deep.</li>
+ * <li>{@code wide}: each page also has {@link #WIDTH} sibling links with attributes.</li>
+ * </ul>
+ *
+ * All shapes have the same pages, so lookups and binding find the same values in all of them.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class Documents
+{
+
+    public static final String FLAT = "flat";
+    public static final String DEEP = "deep";
+    public static final String WIDE = "wide";
+    public static final int DEPTH = 32;
+    public static final int WIDTH = 64;
+
+    private Documents()
+    {
+    }
+
+    /**
+     * Returns a MediaWiki dump.
+     *
+     * @param pages The number of pages.
+     * @param shape The shape of the pages.
+     *
+     * @return The dump, encoded in UTF-8.
+     */
+    public static byte[] dump(int pages, String shape)
+    {
+        if (!FLAT.equals(shape) && !DEEP.equals(shape) && !WIDE.equals(shape))
+        {
+            throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+
+        StringBuilder b = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\" xml:lang=\"en\">\n")
+                .append("  <siteinfo><sitename>Wikipedia</sitename><base>http://en.wikipedia.org/wiki/Main_Page</base></siteinfo>\n");
+        for (int i = 1; i <= pages; i++)
+        {
+            b.append("  <page>\n")
+                    .append("    <title>Page ").append(i).append("</title>\n")
+                    .append("    <ns>0</ns>\n")
+                    .append("    <id>").append(i).append("</id>\n")
+                    .append("    <revision>\n")
+                    .append("      <id>").append(i * 10).append("</id>\n")
+                    .append("      <parentid>").append(i * 10 - 1).append("</parentid>\n")
+                    .append("      <timestamp>2014-07-02T00:00:00Z</timestamp>\n")
+                    .append("      <contributor><username>User ").append(i % 100).append("</username><id>").append(i % 100).append("</id></contributor>\n")
+                    .append("      <comment>Comment ").append(i).append("</comment>\n")
+                    .append("      <text xml:space=\"preserve\" id=\"").append(i * 100).append("\" bytes=\"").append(i * 3).append("\">")
+                    .append("Text of page ").append(i).append(", with  some   spaces.</text>\n")
+                    .append("      <sha1>").append(Integer.toHexString(i)).append("</sha1>\n")
+                    .append("      <model>wikitext</model>\n")
+                    .append("      <format>text/x-wiki</format>\n")
+                    .append("    </revision>\n");
+            if (DEEP.equals(shape))
+            {
+                for (int d = 0; d < DEPTH; d++)
+                {
+                    b.append("<section level=\"").append(d).append("\"><heading>Section ").append(d).append("</heading>");
+                }
+                for (int d = 0; d < DEPTH; d++)
+                {
+                    b.append("</section>");
+                }
+                b.append('\n');
+            }
+            else if (WIDE.equals(shape))
+            {
+                for (int w = 0; w < WIDTH; w++)
+                {
+                    b.append("    <link target=\"Page ").append(w).append("\" rel=\"related\">Link ").append(w).append("</link>\n");
+                }
+            }
+            b.append("  </page>\n");
+        }
+
+        return b.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a MediaWiki dump parsed with the shared loader.
+     *
+     * @param pages The number of pages.
+     * @param shape The shape of the pages.
+     *
+     * @return The DOM tree.
+     *
+     * @throws SAXException If the dump can't be parsed.
+     * @throws IOException  If the dump can't be read.
+     */
+    public static Document parse(int pages, String shape) throws SAXException, IOException
+    {
+        return DocumentLoader.getShared().parse(dump(pages, shape));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.apkc.esxp.exceptions.NodeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.DocumentIndex;
+import net.apkc.esxp.processor.FieldSelector;
+import net.apkc.esxp.processor.PathQuery;
+import net.apkc.esxp.processor.Processor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Measures each lookup method of the {@link Processor}, strict and non-strict. The lookups that
+ * search the document find the first match, and the missing ones search a tag that is not in the
+ * document, so strict lookups throw. The node lookups work on the last page. The indexed lookups
+ * search a {@link DocumentIndex} built once, in the setup.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+@BenchmarkMode(
+        {
+            Mode.Throughput, Mode.AverageTime
+        })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessorBenchmark
+{
+
+    private static final String ROOT = "mediawiki";
+    @Param(
+            {
+                "100", "10000"
+            })
+    public int pages;
+    @Param(
+            {
+                Documents.FLAT, Documents.DEEP, Documents.WIDE
+            })
+    public String shape;
+    @Param(
+            {
+                "true", "false"
+            })
+    public boolean strict;
+    private final Processor processor = Processor.newBuild();
+    private final PathQuery username = Processor.compile("page/revision/contributor/username");
+    private final FieldSelector fields = FieldSelector.newBuild()
+            .addTag("title")
+            .addTag("timestamp")
+            .addTag("username")
+            .addAttribute("text", "bytes")
+            .addTag("sha1");
+    private final String[] values = new String[fields.size()];
+    private Document doc;
+    private DocumentIndex index;
+    private Element lastPage;
+    private Element lastText;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        doc = Documents.parse(pages, shape);
+        NodeList list = doc.getElementsByTagName("page");
+        lastPage = (Element) list.item(list.getLength() - 1);
+        lastText = (Element) lastPage.getElementsByTagName("text").item(0);
+        index = DocumentIndex.of(doc);
+    }
+
+    @Benchmark
+    public String searchTagValue() throws TagNotFoundException
+    {
+        return processor.searchTagValue(doc, ROOT, "sha1", strict);
+    }
+
+    @Benchmark
+    public String searchTagValueIndexed() throws TagNotFoundException
+    {
+        return processor.searchTagValue(index, ROOT, "sha1", strict);
+    }
+
+    @Benchmark
+    public String searchTagValueMissing()
+    {
+        try
+        {
+            return processor.searchTagValue(doc, ROOT, "redirect", strict);
+        }
+        catch (TagNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String searchTagAttributeValue() throws Exception
+    {
+        return processor.searchTagAttributeValue(doc, ROOT, "text", "bytes", strict);
+    }
+
+    @Benchmark
+    public String getNodeValue() throws Exception
+    {
+        return processor.getNodeValue(lastText, strict);
+    }
+
+    @Benchmark
+    public String getNodeAttributeValue() throws Exception
+    {
+        return processor.getNodeAttributeValue(lastText, "bytes", strict);
+    }
+
+    @Benchmark
+    public String getNodeAttributeValueMissing()
+    {
+        try
+        {
+            return processor.getNodeAttributeValue(lastText, "deleted", strict);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Node retrieveSubNode() throws NodeNotFoundException
+    {
+        return processor.retrieveSubNode("revision", lastPage);
+    }
+
+    @Benchmark
+    public Node searchNode() throws NodeNotFoundException
+    {
+        return processor.searchNode(doc, ROOT, "contributor");
+    }
+
+    @Benchmark
+    public Node searchNodeIndexed() throws NodeNotFoundException
+    {
+        return processor.searchNode(index, ROOT, "contributor");
+    }
+
+    @Benchmark
+    public String searchValue() throws TagNotFoundException
+    {
+        return processor.searchValue(doc.getDocumentElement(), username, strict);
+    }
+
+    @Benchmark
+    public int searchValues() throws Exception
+    {
+        return processor.searchValues(doc, ROOT, fields, values, strict);
+    }
+}
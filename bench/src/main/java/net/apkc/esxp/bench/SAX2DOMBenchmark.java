@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.SAX2DOM;
+import net.apkc.esxp.utils.TextNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Node;
+
+/**
+ * Measures building a DOM tree from SAX events with {@link SAX2DOM}, storing the text as read or
+ * already collapsed, and with the parser alone for reference.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+@BenchmarkMode(
+        {
+            Mode.Throughput, Mode.AverageTime
+        })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SAX2DOMBenchmark
+{
+
+    @Param(
+            {
+                "100", "10000"
+            })
+    public int pages;
+    @Param(
+            {
+                Documents.FLAT, Documents.DEEP, Documents.WIDE
+            })
+    public String shape;
+    private final DocumentLoader loader = DocumentLoader.getShared();
+    private byte[] xml;
+
+    @Setup
+    public void setUp()
+    {
+        xml = Documents.dump(pages, shape);
+    }
+
+    @Benchmark
+    public Node build() throws Exception
+    {
+        SAX2DOM handler = new SAX2DOM();
+        loader.parse(xml, handler);
+        return handler.getDOM();
+    }
+
+    @Benchmark
+    public Node buildCollapsed() throws Exception
+    {
+        SAX2DOM handler = new SAX2DOM();
+        handler.setTextMode(TextNormalizer.COLLAPSE);
+        loader.parse(xml, handler);
+        return handler.getDOM();
+    }
+
+    @Benchmark
+    public Node parse() throws Exception
+    {
+        return loader.parse(xml);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Measures a full walk of a DOM tree with the pooled walkers, over ELEMENT and TEXT nodes.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+@BenchmarkMode(
+        {
+            Mode.Throughput, Mode.AverageTime
+        })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalkerBenchmark
+{
+
+    @Param(
+            {
+                "100", "10000"
+            })
+    public int pages;
+    @Param(
+            {
+                Documents.FLAT, Documents.DEEP, Documents.WIDE
+            })
+    public String shape;
+    @Param(
+            {
+                "stack", "sibling"
+            })
+    public String walker;
+    private Document doc;
+    private byte walkerID;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        doc = Documents.parse(pages, shape);
+        walkerID = "stack".equals(walker) ? DOMWalkerFactory.STACK_DOM_WALKER : DOMWalkerFactory.SIBLING_DOM_WALKER;
+    }
+
+    private int walk(byte nodes, Blackhole bh) throws Exception
+    {
+        DOMWalker w = DOMWalkerFactory.getWalker(walkerID).configure(doc.getDocumentElement(), nodes);
+        int count = 0;
+        try
+        {
+            while (w.hasNext())
+            {
+                Node n = w.nextNode();
+                bh.consume(n);
+                count++;
+            }
+        }
+        finally
+        {
+            w.release();
+        }
+
+        return count;
+    }
+
+    @Benchmark
+    public int elements(Blackhole bh) throws Exception
+    {
+        return walk(DOMWalker.ELEMENT_NODES, bh);
+    }
+
+    @Benchmark
+    public int texts(Blackhole bh) throws Exception
+    {
+        return walk(DOMWalker.TEXT_NODES, bh);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.apkc.esxp.bench.Documents;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.ParallelProcessor;
+import net.apkc.esxp.processor.RecordHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures unmarshalling a whole dump into {@link WikiPage}s, from its bytes: with the hand-written
+ * loop of {@link ProcessorTest}, with a {@link Binder} and with the {@link ParallelProcessor}. It
+ * lives in the package of the tests to use their example classes.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+@BenchmarkMode(
+        {
+            Mode.Throughput, Mode.AverageTime
+        })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BindingBenchmark
+{
+
+    @Param(
+            {
+                "100", "10000"
+            })
+    public int pages;
+    @Param(
+            {
+                Documents.FLAT, Documents.DEEP, Documents.WIDE
+            })
+    public String shape;
+    private byte[] xml;
+    private Binder<WikiPage> binder;
+    private ParallelProcessor<WikiPage> parallel;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        xml = Documents.dump(pages, shape);
+        binder = Binder.of(WikiPage.class);
+        parallel = ParallelProcessor.newBuild("page", binder);
+    }
+
+    @Benchmark
+    public List<WikiPage> handWritten() throws Exception
+    {
+        ProcessorTest loop = new ProcessorTest();
+        loop.doc = DocumentLoader.getShared().parse(xml);
+        loop.nodes = loop.doc.getElementsByTagName("mediawiki");
+        return loop.getPage();
+    }
+
+    @Benchmark
+    public List<WikiPage> binder() throws Exception
+    {
+        Document doc = DocumentLoader.getShared().parse(xml);
+        return binder.bindAll(doc.getDocumentElement());
+    }
+
+    @Benchmark
+    public long parallel() throws Exception
+    {
+        return parallel.process(xml, new RecordHandler<WikiPage>()
+        {
+            @Override
+            public void handle(WikiPage page)
+            {
+            }
+        });
+    }
+}
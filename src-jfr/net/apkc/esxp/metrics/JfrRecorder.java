@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.metrics;
+
+import org.w3c.dom.Node;
+
+/**
+ * Emits the events of {@link Flight} with the Java Flight Recorder. Loaded by Flight only if the JVM
+ * has it, so this class and the event classes are the only ones that need the {@code jdk.jfr}
+ * module.
+ *
+ * <p>
+ * Events are only created while a recording has them enabled, and the search and walk events are
+ * reused, so the hot paths don't allocate otherwise.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class JfrRecorder implements Recorder
+{
+
+    /** Instances used to check if each event is enabled in a recording. */
+    private final LoadEvent load = new LoadEvent();
+    private final BuildEvent build = new BuildEvent();
+    private final SearchEvent search = new SearchEvent();
+    private final WalkEvent walk = new WalkEvent();
+    private final BindEvent bind = new BindEvent();
+    /** The search event of each thread, reused by all lookups. */
+    private final ThreadLocal<SearchEvent> searches = new ThreadLocal<SearchEvent>()
+    {
+        @Override
+        protected SearchEvent initialValue()
+        {
+            return new SearchEvent();
+        }
+    };
+
+    JfrRecorder()
+    {
+    }
+
+    @Override
+    public FlightEvent beginLoad()
+    {
+        if (!load.isEnabled())
+        {
+            return null;
+        }
+
+        LoadEvent event = new LoadEvent();
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void endLoad(FlightEvent e, String parser, String systemId, long bytes)
+    {
+        LoadEvent event = (LoadEvent) e;
+        event.parser = parser;
+        event.systemId = systemId;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Override
+    public FlightEvent beginBuild()
+    {
+        if (!build.isEnabled())
+        {
+            return null;
+        }
+
+        BuildEvent event = new BuildEvent();
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void endBuild(FlightEvent e, long elements, long characters, long records)
+    {
+        BuildEvent event = (BuildEvent) e;
+        event.elements = elements;
+        event.characters = characters;
+        event.records = records;
+        event.commit();
+    }
+
+    @Override
+    public FlightEvent beginSearch()
+    {
+        if (!search.isEnabled())
+        {
+            return null;
+        }
+
+        SearchEvent event = searches.get();
+        event.nodesVisited = 0;
+        event.started = true;
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void endSearch(FlightEvent e, String method, Object target, String attribute, boolean hit)
+    {
+        SearchEvent event = (SearchEvent) e;
+        if (event.started)
+        {
+            event.started = false;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.method = method;
+                event.target = (target instanceof Node) ? ((Node) target).getNodeName() : String.valueOf(target);
+                event.attribute = attribute;
+                event.hit = hit;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public FlightEvent beginWalk(FlightEvent e)
+    {
+        if (!walk.isEnabled())
+        {
+            return e;
+        }
+
+        WalkEvent event = (e != null) ? (WalkEvent) e : new WalkEvent();
+        event.started = true;
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void endWalk(FlightEvent e, Object walker, int nodes)
+    {
+        WalkEvent event = (WalkEvent) e;
+        if (event != null && event.started)
+        {
+            event.started = false;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.walker = walker.getClass();
+                event.nodesVisited = nodes;
+                event.commit();
+            }
+        }
+        if (search.isEnabled())
+        {
+            SearchEvent current = searches.get();
+            if (current.started)
+            {
+                current.nodesVisited += nodes;
+            }
+        }
+    }
+
+    @Override
+    public FlightEvent beginBind()
+    {
+        if (!bind.isEnabled())
+        {
+            return null;
+        }
+
+        BindEvent event = new BindEvent();
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void endBind(FlightEvent e, Class<?> type, String record)
+    {
+        BindEvent event = (BindEvent) e;
+        event.type = type;
+        event.record = record;
+        event.commit();
+    }
+}
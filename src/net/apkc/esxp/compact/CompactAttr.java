@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * An attribute of an element of a compact document. Its index is the index of the attribute, not of
+ * a node.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CompactAttr extends CompactNode implements Attr
+{
+
+    /** The index of the element that owns this attribute. */
+    private final int owner;
+
+    CompactAttr(CompactTree tree, int index, int owner)
+    {
+        super(tree, index);
+        this.owner = owner;
+    }
+
+    @Override
+    int userDataKey()
+    {
+        return -index - 1;
+    }
+
+    @Override
+    int position()
+    {
+        return owner;
+    }
+
+    @Override
+    public String getNodeName()
+    {
+        return getName();
+    }
+
+    @Override
+    public String getNodeValue()
+    {
+        return getValue();
+    }
+
+    @Override
+    public short getNodeType()
+    {
+        return ATTRIBUTE_NODE;
+    }
+
+    @Override
+    public Node getParentNode()
+    {
+        return null;
+    }
+
+    @Override
+    public NodeList getChildNodes()
+    {
+        return CompactNodeList.empty(tree);
+    }
+
+    @Override
+    public Node getFirstChild()
+    {
+        return null;
+    }
+
+    @Override
+    public Node getLastChild()
+    {
+        return null;
+    }
+
+    @Override
+    public Node getPreviousSibling()
+    {
+        return null;
+    }
+
+    @Override
+    public Node getNextSibling()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean hasChildNodes()
+    {
+        return false;
+    }
+
+    @Override
+    public String getTextContent()
+    {
+        return getValue();
+    }
+
+    @Override
+    public boolean isEqualNode(Node arg)
+    {
+        // The value is not split into TEXT children, as other implementations do.
+        return arg != null && arg.getNodeType() == ATTRIBUTE_NODE && getName().equals(arg.getNodeName()) && getValue().equals(arg.getNodeValue());
+    }
+
+    @Override
+    public String getName()
+    {
+        return tree.names[tree.attrName[index]];
+    }
+
+    @Override
+    public boolean getSpecified()
+    {
+        return true;
+    }
+
+    @Override
+    public String getValue()
+    {
+        return tree.chars(tree.attrData[index], tree.attrLength[index]);
+    }
+
+    @Override
+    public void setValue(String value)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Element getOwnerElement()
+    {
+        return new CompactElement(tree, owner);
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isId()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NamedNodeMap;
+
+/**
+ * The attributes of an element of a compact document.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CompactAttributes implements NamedNodeMap
+{
+
+    private final CompactTree tree;
+    private final int element;
+
+    CompactAttributes(CompactTree tree, int element)
+    {
+        this.tree = tree;
+        this.element = element;
+    }
+
+    /**
+     * Returns the index of the attribute with a given name.
+     *
+     * @return The index or NONE if the element has no such attribute.
+     */
+    static int find(CompactTree tree, int element, String name)
+    {
+        int id = tree.findName(name);
+        if (id != CompactTree.NONE)
+        {
+            int first = tree.data[element];
+            for (int i = first; i < first + tree.length[element]; i++)
+            {
+                if (tree.attrName[i] == id)
+                {
+                    return i;
+                }
+            }
+        }
+
+        return CompactTree.NONE;
+    }
+
+    @Override
+    public Node getNamedItem(String name)
+    {
+        int attribute = find(tree, element, name);
+        return (attribute == CompactTree.NONE) ? null : new CompactAttr(tree, attribute, element);
+    }
+
+    @Override
+    public Node setNamedItem(Node arg)
+    {
+        throw CompactNode.readOnly();
+    }
+
+    @Override
+    public Node removeNamedItem(String name)
+    {
+        throw CompactNode.readOnly();
+    }
+
+    @Override
+    public Node item(int index)
+    {
+        return (index < 0 || index >= tree.length[element]) ? null : new CompactAttr(tree, tree.data[element] + index, element);
+    }
+
+    @Override
+    public int getLength()
+    {
+        return tree.length[element];
+    }
+
+    @Override
+    public Node getNamedItemNS(String namespaceURI, String localName)
+    {
+        throw CompactNode.notSupported();
+    }
+
+    @Override
+    public Node setNamedItemNS(Node arg)
+    {
+        throw CompactNode.readOnly();
+    }
+
+    @Override
+    public Node removeNamedItemNS(String namespaceURI, String localName)
+    {
+        throw CompactNode.readOnly();
+    }
+}
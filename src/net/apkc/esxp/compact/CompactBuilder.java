@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import java.util.Arrays;
+import net.apkc.esxp.utils.TextNormalizer;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Builds a {@link CompactDocument} from SAX events, the same way {@link net.apkc.esxp.utils.SAX2DOM}
+ * builds a DOM tree.
+ *
+ * <pre>
+ * CompactBuilder builder = new CompactBuilder();
+ * XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+ * reader.setContentHandler(builder);
+ * reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder); // Keep comments.
+ * reader.parse(new InputSource(xml));
+ * CompactDocument doc = builder.getDocument();
+ * </pre>
+ *
+ * <p>
+ * TEXT data is gathered in a buffer and, if a text mode was set, normalized in place once the whole
+ * node was received, before being added to the shared buffer of the document. Processing instructions and comments
+ * of the DTD are ignored. A builder can be reused for several documents, but not concurrently.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class CompactBuilder implements ContentHandler, LexicalHandler
+{
+
+    private CompactTree tree = null;
+    /** The open nodes, from the document down to the current element. */
+    private int[] open = new int[32];
+    /** The last child of each open node. */
+    private int[] last = new int[32];
+    private int depth = 0;
+    private byte textMode = TextNormalizer.RAW;
+    /** The TEXT data gathered for the next TEXT node. */
+    private char[] textBuf = new char[256];
+    private int textLen = 0;
+    /** The namespace declarations of the next element, as prefix and URI pairs. */
+    private String[] namespaceDecls = new String[8];
+    private int namespaceDeclsSize = 0;
+    private boolean inDTD = false;
+
+    /**
+     * Sets how TEXT data and attribute values are normalized. Must be called before parsing. By
+     * default text is stored as received ({@link TextNormalizer#RAW}).
+     *
+     * @param textMode One of the modes of {@link TextNormalizer}.
+     */
+    public void setTextMode(byte textMode)
+    {
+        this.textMode = textMode;
+    }
+
+    /**
+     * Returns the last document built.
+     *
+     * @return The document or NULL if none was built.
+     */
+    public CompactDocument getDocument()
+    {
+        return (tree != null) ? tree.document : null;
+    }
+
+    /**
+     * Adds the gathered text, normalized, as a new TEXT node.
+     */
+    private void flushText()
+    {
+        if (textLen == 0)
+        {
+            return;
+        }
+
+        int length = TextNormalizer.normalize(textBuf, 0, textLen, textMode);
+        textLen = 0;
+        if (length > 0)
+        {
+            add(CompactTree.TEXT, CompactTree.NONE, tree.addChars(textBuf, 0, length), length);
+        }
+    }
+
+    /**
+     * Adds a node as the last child of the current node.
+     */
+    private int add(byte kind, int name, int data, int length)
+    {
+        int node = tree.addNode(kind, open[depth], last[depth], name, data, length);
+        last[depth] = node;
+
+        return node;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+    {
+        // No text nodes can be children of root (DOM006 exception)
+        if (depth == 0)
+        {
+            return;
+        }
+
+        if (textLen + length > textBuf.length)
+        {
+            textBuf = Arrays.copyOf(textBuf, Math.max(textLen + length, textBuf.length << 1));
+        }
+        System.arraycopy(ch, start, textBuf, textLen, length);
+        textLen += length;
+    }
+
+    @Override
+    public void startDocument()
+    {
+        tree = new CompactTree();
+        depth = 0;
+        open[0] = 0;
+        last[0] = CompactTree.NONE;
+        textLen = 0;
+        namespaceDeclsSize = 0;
+    }
+
+    @Override
+    public void endDocument()
+    {
+        flushText();
+        tree.trim();
+
+        if (textMode != TextNormalizer.RAW)
+        {
+            TextNormalizer.markNormalized(tree.document, textMode);
+        }
+    }
+
+    @Override
+    public void startElement(String namespace, String localName, String qName, Attributes attrs)
+    {
+        flushText();
+
+        // Add namespace declarations first
+        int firstAttr = tree.attrSize;
+        for (int i = 0; i < namespaceDeclsSize; i += 2)
+        {
+            String prefix = namespaceDecls[i];
+            tree.addAttribute((prefix == null || prefix.isEmpty()) ? "xmlns" : "xmlns:" + prefix, namespaceDecls[i + 1]);
+        }
+        namespaceDeclsSize = 0;
+
+        final int nattrs = attrs.getLength();
+        for (int i = 0; i < nattrs; i++)
+        {
+            tree.addAttribute(attrs.getQName(i), TextNormalizer.normalize(attrs.getValue(i), textMode));
+        }
+
+        String name = (qName == null || qName.isEmpty()) ? localName : qName;
+        int node = add(CompactTree.ELEMENT, tree.nameId(name), firstAttr, tree.attrSize - firstAttr);
+
+        if (++depth == open.length)
+        {
+            open = Arrays.copyOf(open, depth << 1);
+            last = Arrays.copyOf(last, depth << 1);
+        }
+        open[depth] = node;
+        last[depth] = CompactTree.NONE;
+    }
+
+    @Override
+    public void endElement(String namespace, String localName, String qName)
+    {
+        flushText();
+        depth--;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri)
+    {
+        if (namespaceDeclsSize == namespaceDecls.length)
+        {
+            namespaceDecls = Arrays.copyOf(namespaceDecls, namespaceDeclsSize << 1);
+        }
+        namespaceDecls[namespaceDeclsSize++] = prefix;
+        namespaceDecls[namespaceDeclsSize++] = uri;
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix)
+    {
+        // do nothing
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+    {
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+    {
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+    }
+
+    @Override
+    public void skippedEntity(String name)
+    {
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length)
+    {
+        if (inDTD)
+        {
+            return;
+        }
+
+        flushText();
+        add(CompactTree.COMMENT, CompactTree.NONE, tree.addChars(ch, start, length), length);
+    }
+
+    @Override
+    public void startCDATA()
+    {
+    }
+
+    @Override
+    public void endCDATA()
+    {
+    }
+
+    @Override
+    public void startEntity(String name)
+    {
+    }
+
+    @Override
+    public void endEntity(String name)
+    {
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId)
+    {
+        inDTD = true;
+    }
+
+    @Override
+    public void endDTD()
+    {
+        inDTD = false;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.DOMException;
+
+/**
+ * Base of the TEXT and comment nodes of a compact document, whose characters are a range of the
+ * shared buffer.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+abstract class CompactCharacterData extends CompactNode implements CharacterData
+{
+
+    CompactCharacterData(CompactTree tree, int index)
+    {
+        super(tree, index);
+    }
+
+    @Override
+    public String getNodeValue()
+    {
+        return getData();
+    }
+
+    @Override
+    public String getTextContent()
+    {
+        return getData();
+    }
+
+    @Override
+    public String getData()
+    {
+        return tree.text(index);
+    }
+
+    @Override
+    public void setData(String data)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public int getLength()
+    {
+        return tree.length[index];
+    }
+
+    @Override
+    public String substringData(int offset, int count)
+    {
+        int length = tree.length[index];
+        if (offset < 0 || offset > length || count < 0)
+        {
+            throw new DOMException(DOMException.INDEX_SIZE_ERR, "The offset or count is not valid.");
+        }
+
+        return tree.chars(tree.data[index] + offset, Math.min(count, length - offset));
+    }
+
+    @Override
+    public void appendData(String arg)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void insertData(int offset, String arg)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteData(int offset, int count)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void replaceData(int offset, int count, String arg)
+    {
+        throw readOnly();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import net.apkc.esxp.walker.DOMWalker;
+import org.w3c.dom.Node;
+
+/**
+ * Traverses a compact document scanning its arrays.
+ *
+ * <p>
+ * The nodes of a compact document are stored in document order, and the subtree of a node is the
+ * range of nodes that follows it up to its next sibling or the next sibling of its closest ancestor
+ * that has one. So the walk of {@link net.apkc.esxp.walker.SiblingDOMWalker} is a linear scan of
+ * that range, skipping the nodes of other types, and skipping the children of a node is jumping to
+ * the end of its subtree. Only the nodes returned are created.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class CompactDOMWalker extends DOMWalker
+{
+
+    private CompactTree tree;
+    /** The index after the last node of the walk. */
+    private int end;
+    /** The index of the last node returned by nextNode(). */
+    private int current = CompactTree.NONE;
+    /** The index of the node to be returned by the next call to nextNode(). */
+    private int next = CompactTree.NONE;
+    /** The kind of nodes to process. */
+    private byte kind = CompactTree.ELEMENT;
+
+    private CompactDOMWalker()
+    {
+    }
+
+    public static CompactDOMWalker newBuild()
+    {
+        return new CompactDOMWalker();
+    }
+
+    @Override
+    public CompactDOMWalker configure(Node rootNode, byte nodesToProcess) throws Exception
+    {
+        if (rootNode == null)
+        {
+            throw new Exception("Root node in a DOM tree can't be NULL!");
+        }
+        if (!(rootNode instanceof CompactNode) || rootNode.getNodeType() == Node.ATTRIBUTE_NODE)
+        {
+            throw new Exception("Root node is not a node of a compact document!");
+        }
+
+        CompactNode root = (CompactNode) rootNode;
+        this.tree = root.tree;
+        this.end = (root.index == 0) ? tree.size : tree.following(root.index);
+        this.current = CompactTree.NONE;
+        this.next = root.index;
+        this.kind = (nodesToProcess == DOMWalker.TEXT_NODES) ? CompactTree.TEXT : CompactTree.ELEMENT;
+
+        return this;
+    }
+
+    @Override
+    public Node nextNode()
+    {
+        if (next == CompactTree.NONE)
+        {
+            return null;
+        }
+
+        current = next;
+        next = seek(current + 1);
+
+        if (COUNTING)
+        {
+            visited++;
+        }
+
+        return tree.node(current);
+    }
+
+    @Override
+    public void skipChildren()
+    {
+        if (current != CompactTree.NONE)
+        {
+            next = seek((current == 0) ? tree.size : tree.following(current));
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return next != CompactTree.NONE;
+    }
+
+    @Override
+    public void reset()
+    {
+        tree = null;
+        current = CompactTree.NONE;
+        next = CompactTree.NONE;
+        kind = CompactTree.ELEMENT;
+    }
+
+    /**
+     * Returns the first node of the kind being processed, starting at a given index.
+     */
+    private int seek(int node)
+    {
+        while (node < end && tree.kind[node] != kind)
+        {
+            node++;
+        }
+
+        return (node < end) ? node : CompactTree.NONE;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Current Node: " + tree.node(current).getNodeName();
+    }
+}
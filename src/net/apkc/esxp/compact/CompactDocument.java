@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+
+/**
+ * A read-only document that stores its tree in a few arrays instead of one object per node.
+ *
+ * <p>
+ * The structure of the tree is kept in parallel int arrays (parent, first child, next sibling, name
+ * and data of each node), names are interned, and the characters of all TEXT data, comments and
+ * attribute values are kept in one shared buffer. A document takes a fraction of the heap of the
+ * same document built with Xerces, and walking it in document order is a scan of the arrays.
+ * Documents are built from SAX events with a {@link CompactBuilder}.
+ * </p>
+ *
+ * <p>
+ * The document implements the DOM interfaces, so it works with the walkers and the
+ * {@link net.apkc.esxp.processor.Processor} as any other document. Nodes are flyweights created on
+ * demand, so they must be compared with {@link Node#isSameNode(Node)} or equals() instead of
+ * references. Methods that modify the document raise a {@link org.w3c.dom.DOMException}, and
+ * namespace URIs, processing instructions and the DTD are not kept.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class CompactDocument extends CompactNode implements Document
+{
+
+    CompactDocument(CompactTree tree)
+    {
+        super(tree, 0);
+    }
+
+    /**
+     * Checks if a node belongs to a compact document.
+     *
+     * @param node The node.
+     *
+     * @return TRUE if the node is part of a compact document.
+     */
+    public static boolean isCompact(Node node)
+    {
+        return node instanceof CompactNode;
+    }
+
+    /**
+     * Returns the number of nodes of this document, attributes excluded.
+     *
+     * @return The number of nodes.
+     */
+    public int getNodeCount()
+    {
+        return tree.size;
+    }
+
+    /**
+     * Returns an estimate of the heap used by this document.
+     *
+     * @return The size in bytes.
+     */
+    public long getHeapSize()
+    {
+        return tree.heapSize();
+    }
+
+    @Override
+    public String getNodeName()
+    {
+        return "#document";
+    }
+
+    @Override
+    public short getNodeType()
+    {
+        return DOCUMENT_NODE;
+    }
+
+    @Override
+    public Document getOwnerDocument()
+    {
+        return null;
+    }
+
+    @Override
+    public DocumentType getDoctype()
+    {
+        return null;
+    }
+
+    @Override
+    public DOMImplementation getImplementation()
+    {
+        return null;
+    }
+
+    @Override
+    public Element getDocumentElement()
+    {
+        for (int child = tree.firstChild(0); child != CompactTree.NONE; child = tree.nextSibling[child])
+        {
+            if (tree.kind[child] == CompactTree.ELEMENT)
+            {
+                return new CompactElement(tree, child);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Element createElement(String tagName)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public DocumentFragment createDocumentFragment()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Text createTextNode(String data)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Comment createComment(String data)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public CDATASection createCDATASection(String data)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public ProcessingInstruction createProcessingInstruction(String target, String data)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr createAttribute(String name)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public EntityReference createEntityReference(String name)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String tagname)
+    {
+        return CompactNodeList.elements(tree, 0, tagname);
+    }
+
+    @Override
+    public Node importNode(Node importedNode, boolean deep)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Element createElementNS(String namespaceURI, String qualifiedName)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr createAttributeNS(String namespaceURI, String qualifiedName)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public Element getElementById(String elementId)
+    {
+        return null;
+    }
+
+    @Override
+    public String getInputEncoding()
+    {
+        return null;
+    }
+
+    @Override
+    public String getXmlEncoding()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean getXmlStandalone()
+    {
+        return false;
+    }
+
+    @Override
+    public void setXmlStandalone(boolean xmlStandalone)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public String getXmlVersion()
+    {
+        return "1.0";
+    }
+
+    @Override
+    public void setXmlVersion(String xmlVersion)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean getStrictErrorChecking()
+    {
+        return true;
+    }
+
+    @Override
+    public void setStrictErrorChecking(boolean strictErrorChecking)
+    {
+    }
+
+    @Override
+    public String getDocumentURI()
+    {
+        return null;
+    }
+
+    @Override
+    public void setDocumentURI(String documentURI)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Node adoptNode(Node source)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public DOMConfiguration getDomConfig()
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public void normalizeDocument()
+    {
+    }
+
+    @Override
+    public Node renameNode(Node n, String namespaceURI, String qualifiedName)
+    {
+        throw readOnly();
+    }
+}
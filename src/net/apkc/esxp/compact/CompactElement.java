@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.TypeInfo;
+
+/**
+ * An element of a compact document. Namespace URIs are not kept, so the namespace-aware methods
+ * are not supported.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CompactElement extends CompactNode implements org.w3c.dom.Element
+{
+
+    CompactElement(CompactTree tree, int index)
+    {
+        super(tree, index);
+    }
+
+    @Override
+    public String getNodeName()
+    {
+        return tree.names[tree.name[index]];
+    }
+
+    @Override
+    public short getNodeType()
+    {
+        return ELEMENT_NODE;
+    }
+
+    @Override
+    public NamedNodeMap getAttributes()
+    {
+        return new CompactAttributes(tree, index);
+    }
+
+    @Override
+    public boolean hasAttributes()
+    {
+        return tree.length[index] > 0;
+    }
+
+    @Override
+    public String getPrefix()
+    {
+        String name = getNodeName();
+        int colon = name.indexOf(':');
+
+        return (colon < 0) ? null : name.substring(0, colon);
+    }
+
+    @Override
+    public String getLocalName()
+    {
+        String name = getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    @Override
+    public String getTextContent()
+    {
+        StringBuilder text = new StringBuilder();
+        int end = tree.following(index);
+        for (int i = index + 1; i < end; i++)
+        {
+            if (tree.kind[i] == CompactTree.TEXT)
+            {
+                tree.appendChars(text, tree.data[i], tree.length[i]);
+            }
+        }
+
+        return text.toString();
+    }
+
+    @Override
+    public String getTagName()
+    {
+        return getNodeName();
+    }
+
+    @Override
+    public String getAttribute(String name)
+    {
+        int attribute = CompactAttributes.find(tree, index, name);
+        return (attribute == CompactTree.NONE) ? "" : tree.chars(tree.attrData[attribute], tree.attrLength[attribute]);
+    }
+
+    @Override
+    public void setAttribute(String name, String value)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAttribute(String name)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNode(String name)
+    {
+        int attribute = CompactAttributes.find(tree, index, name);
+        return (attribute == CompactTree.NONE) ? null : new CompactAttr(tree, attribute, index);
+    }
+
+    @Override
+    public Attr setAttributeNode(Attr newAttr)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr removeAttributeNode(Attr oldAttr)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String name)
+    {
+        return CompactNodeList.elements(tree, index, name);
+    }
+
+    @Override
+    public String getAttributeNS(String namespaceURI, String localName)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public void setAttributeNS(String namespaceURI, String qualifiedName, String value)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAttributeNS(String namespaceURI, String localName)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNodeNS(String namespaceURI, String localName)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public Attr setAttributeNodeNS(Attr newAttr)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public boolean hasAttribute(String name)
+    {
+        return CompactAttributes.find(tree, index, name) != CompactTree.NONE;
+    }
+
+    @Override
+    public boolean hasAttributeNS(String namespaceURI, String localName)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo()
+    {
+        return null;
+    }
+
+    @Override
+    public void setIdAttribute(String name, boolean isId)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNS(String namespaceURI, String localName, boolean isId)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNode(Attr idAttr, boolean isId)
+    {
+        throw readOnly();
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * Base of the nodes of a compact document.
+ *
+ * <p>
+ * A node is a flyweight that holds only its tree and its index, created on demand by the navigation
+ * methods, so two objects for the same node are equal and {@link #isSameNode(Node)} compares
+ * indexes instead of references. All methods that modify the tree raise a {@link DOMException} with
+ * code {@code NO_MODIFICATION_ALLOWED_ERR}.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+abstract class CompactNode implements Node
+{
+
+    final CompactTree tree;
+    final int index;
+
+    CompactNode(CompactTree tree, int index)
+    {
+        this.tree = tree;
+        this.index = index;
+    }
+
+    static DOMException readOnly()
+    {
+        return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "A compact document is read-only.");
+    }
+
+    static DOMException notSupported()
+    {
+        return new DOMException(DOMException.NOT_SUPPORTED_ERR, "Not supported by a compact document.");
+    }
+
+    /**
+     * Returns the key of this node in the user data of the tree.
+     */
+    int userDataKey()
+    {
+        return index;
+    }
+
+    @Override
+    public String getNodeValue()
+    {
+        return null;
+    }
+
+    @Override
+    public void setNodeValue(String nodeValue)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Node getParentNode()
+    {
+        return tree.node(tree.parent[index]);
+    }
+
+    @Override
+    public NodeList getChildNodes()
+    {
+        return CompactNodeList.children(tree, index);
+    }
+
+    @Override
+    public Node getFirstChild()
+    {
+        return tree.node(tree.firstChild(index));
+    }
+
+    @Override
+    public Node getLastChild()
+    {
+        int last = CompactTree.NONE;
+        for (int child = tree.firstChild(index); child != CompactTree.NONE; child = tree.nextSibling[child])
+        {
+            last = child;
+        }
+
+        return tree.node(last);
+    }
+
+    @Override
+    public Node getPreviousSibling()
+    {
+        int parent = tree.parent[index];
+        if (parent == CompactTree.NONE)
+        {
+            return null;
+        }
+
+        int previous = CompactTree.NONE;
+        for (int child = tree.firstChild(parent); child != index; child = tree.nextSibling[child])
+        {
+            previous = child;
+        }
+
+        return tree.node(previous);
+    }
+
+    @Override
+    public Node getNextSibling()
+    {
+        return tree.node(tree.nextSibling[index]);
+    }
+
+    @Override
+    public NamedNodeMap getAttributes()
+    {
+        return null;
+    }
+
+    @Override
+    public Document getOwnerDocument()
+    {
+        return tree.document;
+    }
+
+    @Override
+    public Node insertBefore(Node newChild, Node refChild)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Node replaceChild(Node newChild, Node oldChild)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Node removeChild(Node oldChild)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public Node appendChild(Node newChild)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean hasChildNodes()
+    {
+        return tree.firstChild(index) != CompactTree.NONE;
+    }
+
+    @Override
+    public Node cloneNode(boolean deep)
+    {
+        throw notSupported();
+    }
+
+    @Override
+    public void normalize()
+    {
+        // Adjacent TEXT data is always stored as one node.
+    }
+
+    @Override
+    public boolean isSupported(String feature, String version)
+    {
+        return false;
+    }
+
+    @Override
+    public String getNamespaceURI()
+    {
+        return null;
+    }
+
+    @Override
+    public String getPrefix()
+    {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public String getLocalName()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean hasAttributes()
+    {
+        return false;
+    }
+
+    @Override
+    public String getBaseURI()
+    {
+        return null;
+    }
+
+    @Override
+    public short compareDocumentPosition(Node other)
+    {
+        if (!(other instanceof CompactNode) || ((CompactNode) other).tree != tree)
+        {
+            return DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+        }
+
+        int node = position();
+        int otherNode = ((CompactNode) other).position();
+        if (node == otherNode)
+        {
+            return (isSameNode(other)) ? 0 : DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC;
+        }
+        if (node < otherNode)
+        {
+            return (otherNode < tree.following(node))
+                   ? (short) (DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING)
+                   : DOCUMENT_POSITION_FOLLOWING;
+        }
+
+        return (node < tree.following(otherNode))
+               ? (short) (DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING)
+               : DOCUMENT_POSITION_PRECEDING;
+    }
+
+    /**
+     * Returns the index of the node that gives the position of this node in the document.
+     */
+    int position()
+    {
+        return index;
+    }
+
+    @Override
+    public String getTextContent()
+    {
+        return null;
+    }
+
+    @Override
+    public void setTextContent(String textContent)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isSameNode(Node other)
+    {
+        return equals(other);
+    }
+
+    @Override
+    public String lookupPrefix(String namespaceURI)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isDefaultNamespace(String namespaceURI)
+    {
+        return false;
+    }
+
+    @Override
+    public String lookupNamespaceURI(String prefix)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isEqualNode(Node arg)
+    {
+        if (arg == null || arg.getNodeType() != getNodeType()
+            || !equal(getNodeName(), arg.getNodeName())
+            || !equal(getNodeValue(), arg.getNodeValue()))
+        {
+            return false;
+        }
+
+        NamedNodeMap attributes = getAttributes();
+        NamedNodeMap otherAttributes = arg.getAttributes();
+        if (attributes != null && otherAttributes != null)
+        {
+            if (attributes.getLength() != otherAttributes.getLength())
+            {
+                return false;
+            }
+            for (int i = 0; i < attributes.getLength(); i++)
+            {
+                Node attribute = otherAttributes.getNamedItem(attributes.item(i).getNodeName());
+                if (attribute == null || !attributes.item(i).isEqualNode(attribute))
+                {
+                    return false;
+                }
+            }
+        }
+
+        Node child = getFirstChild();
+        Node otherChild = arg.getFirstChild();
+        while (child != null && otherChild != null)
+        {
+            if (!child.isEqualNode(otherChild))
+            {
+                return false;
+            }
+            child = child.getNextSibling();
+            otherChild = otherChild.getNextSibling();
+        }
+
+        return child == null && otherChild == null;
+    }
+
+    private static boolean equal(String a, String b)
+    {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    @Override
+    public Object getFeature(String feature, String version)
+    {
+        return null;
+    }
+
+    @Override
+    public Object setUserData(String key, Object data, UserDataHandler handler)
+    {
+        return tree.setUserData(userDataKey(), key, data);
+    }
+
+    @Override
+    public Object getUserData(String key)
+    {
+        return tree.getUserData(userDataKey(), key);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == null || obj.getClass() != getClass())
+        {
+            return false;
+        }
+
+        CompactNode node = (CompactNode) obj;
+        return node.tree == tree && node.index == index;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(tree) * 31 + index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + getNodeName() + ": " + getNodeValue() + "]";
+    }
+}
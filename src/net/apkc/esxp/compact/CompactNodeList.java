@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import java.util.Arrays;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A list of nodes of a compact document, kept as their indexes.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CompactNodeList implements NodeList
+{
+
+    private static final int[] EMPTY = new int[0];
+    private final CompactTree tree;
+    private final int[] nodes;
+    private final int length;
+
+    private CompactNodeList(CompactTree tree, int[] nodes, int length)
+    {
+        this.tree = tree;
+        this.nodes = nodes;
+        this.length = length;
+    }
+
+    static CompactNodeList empty(CompactTree tree)
+    {
+        return new CompactNodeList(tree, EMPTY, 0);
+    }
+
+    /**
+     * Returns the children of a node.
+     */
+    static CompactNodeList children(CompactTree tree, int parent)
+    {
+        int length = 0;
+        for (int child = tree.firstChild(parent); child != CompactTree.NONE; child = tree.nextSibling[child])
+        {
+            length++;
+        }
+
+        int[] nodes = new int[length];
+        int i = 0;
+        for (int child = tree.firstChild(parent); child != CompactTree.NONE; child = tree.nextSibling[child])
+        {
+            nodes[i++] = child;
+        }
+
+        return new CompactNodeList(tree, nodes, length);
+    }
+
+    /**
+     * Returns the elements with a given name below a node, in document order.
+     *
+     * @param name The name or "*" for all elements.
+     */
+    static CompactNodeList elements(CompactTree tree, int root, String name)
+    {
+        boolean all = name.equals("*");
+        int id = all ? CompactTree.NONE : tree.findName(name);
+        if (!all && id == CompactTree.NONE)
+        {
+            return empty(tree);
+        }
+
+        // Descendants are the nodes that follow the root up to the end of its subtree.
+        int end = (root == 0) ? tree.size : tree.following(root);
+        int[] nodes = new int[16];
+        int length = 0;
+        for (int i = root + 1; i < end; i++)
+        {
+            if (tree.kind[i] == CompactTree.ELEMENT && (all || tree.name[i] == id))
+            {
+                if (length == nodes.length)
+                {
+                    nodes = Arrays.copyOf(nodes, length << 1);
+                }
+                nodes[length++] = i;
+            }
+        }
+
+        return new CompactNodeList(tree, nodes, length);
+    }
+
+    @Override
+    public Node item(int index)
+    {
+        return (index < 0 || index >= length) ? null : tree.node(nodes[index]);
+    }
+
+    @Override
+    public int getLength()
+    {
+        return length;
+    }
+}
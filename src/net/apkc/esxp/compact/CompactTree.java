@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.compact;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The storage of a compact document.
+ *
+ * <p>
+ * Each node is an index into parallel arrays, assigned in document order, with the document node at
+ * index 0. As nodes are in document order, the first child of a node, if any, is always the next
+ * node, so it's not stored. Element and attribute names are interned into a table and referenced by id, and the
+ * characters of all TEXT data, comments and attribute values are kept in one shared buffer,
+ * referenced by offset and length. Like the strings of the JVM, the buffer holds one byte per
+ * character while all characters are ISO-8859-1, and is widened to chars on the first one that is
+ * not. For an element, the data and length of the node are the index of
+ * its first attribute and the number of attributes.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CompactTree
+{
+
+    static final byte DOCUMENT = 0x0;
+    static final byte ELEMENT = 0x1;
+    static final byte TEXT = 0x2;
+    static final byte COMMENT = 0x3;
+    static final int NONE = -1;
+    // Nodes.
+    byte[] kind = new byte[256];
+    int[] parent = new int[256];
+    int[] nextSibling = new int[256];
+    int[] name = new int[256];
+    int[] data = new int[256];
+    int[] length = new int[256];
+    int size = 0;
+    // Attributes.
+    int[] attrName = new int[64];
+    int[] attrData = new int[64];
+    int[] attrLength = new int[64];
+    int attrSize = 0;
+    // Characters, in latin1 until a character doesn't fit and then in chars.
+    private byte[] latin1 = new byte[4096];
+    private char[] chars = null;
+    private int charSize = 0;
+    // Names.
+    String[] names = new String[64];
+    int nameSize = 0;
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    /** User data, by node key and then by key. */
+    private Map<Integer, Map<String, Object>> userData;
+    final CompactDocument document;
+
+    CompactTree()
+    {
+        document = new CompactDocument(this);
+        addNode(DOCUMENT, NONE, NONE, NONE, 0, 0);
+    }
+
+    /**
+     * Adds a node as the last child of a parent.
+     *
+     * @param kind        The kind of node.
+     * @param parent      The parent or NONE for the document.
+     * @param prevSibling The current last child of the parent or NONE.
+     * @param name        The name id or NONE.
+     * @param data        The offset of the characters or the first attribute.
+     * @param length      The number of characters or attributes.
+     *
+     * @return The index of the new node.
+     */
+    int addNode(byte kind, int parent, int prevSibling, int name, int data, int length)
+    {
+        if (size == this.kind.length)
+        {
+            int capacity = size << 1;
+            this.kind = Arrays.copyOf(this.kind, capacity);
+            this.parent = Arrays.copyOf(this.parent, capacity);
+            this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+            this.name = Arrays.copyOf(this.name, capacity);
+            this.data = Arrays.copyOf(this.data, capacity);
+            this.length = Arrays.copyOf(this.length, capacity);
+        }
+
+        int node = size++;
+        this.kind[node] = kind;
+        this.parent[node] = parent;
+        this.nextSibling[node] = NONE;
+        this.name[node] = name;
+        this.data[node] = data;
+        this.length[node] = length;
+        if (prevSibling != NONE)
+        {
+            nextSibling[prevSibling] = node;
+        }
+
+        return node;
+    }
+
+    /**
+     * Adds an attribute of the element being added, which must be added right after.
+     *
+     * @return The index of the attribute.
+     */
+    int addAttribute(String name, String value)
+    {
+        if (attrSize == attrName.length)
+        {
+            int capacity = attrSize << 1;
+            attrName = Arrays.copyOf(attrName, capacity);
+            attrData = Arrays.copyOf(attrData, capacity);
+            attrLength = Arrays.copyOf(attrLength, capacity);
+        }
+
+        attrName[attrSize] = nameId(name);
+        attrLength[attrSize] = value.length();
+        attrData[attrSize] = addChars(value);
+
+        return attrSize++;
+    }
+
+    /**
+     * Appends characters to the shared buffer.
+     *
+     * @return The offset of the first character.
+     */
+    int addChars(char[] ch, int start, int len)
+    {
+        if (chars == null)
+        {
+            for (int i = start; i < start + len; i++)
+            {
+                if (ch[i] > 0xFF)
+                {
+                    widen();
+                    break;
+                }
+            }
+        }
+
+        int offset = charSize;
+        charSize += len;
+        if (chars != null)
+        {
+            if (charSize > chars.length)
+            {
+                chars = Arrays.copyOf(chars, Math.max(charSize, chars.length << 1));
+            }
+            System.arraycopy(ch, start, chars, offset, len);
+        }
+        else
+        {
+            if (charSize > latin1.length)
+            {
+                latin1 = Arrays.copyOf(latin1, Math.max(charSize, latin1.length << 1));
+            }
+            for (int i = 0; i < len; i++)
+            {
+                latin1[offset + i] = (byte) ch[start + i];
+            }
+        }
+
+        return offset;
+    }
+
+    int addChars(String s)
+    {
+        return addChars(s.toCharArray(), 0, s.length());
+    }
+
+    /**
+     * Moves the characters from the latin1 buffer to a char buffer.
+     */
+    private void widen()
+    {
+        chars = new char[Math.max(latin1.length, 16)];
+        for (int i = 0; i < charSize; i++)
+        {
+            chars[i] = (char) (latin1[i] & 0xFF);
+        }
+        latin1 = null;
+    }
+
+    /**
+     * Returns a range of the shared buffer.
+     */
+    String chars(int offset, int len)
+    {
+        return (chars != null) ? new String(chars, offset, len) : new String(latin1, offset, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Appends a range of the shared buffer to a builder.
+     */
+    void appendChars(StringBuilder b, int offset, int len)
+    {
+        if (chars != null)
+        {
+            b.append(chars, offset, len);
+        }
+        else
+        {
+            for (int i = offset; i < offset + len; i++)
+            {
+                b.append((char) (latin1[i] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a name, interning it if it's new.
+     */
+    int nameId(String name)
+    {
+        Integer id = nameIds.get(name);
+        if (id == null)
+        {
+            if (nameSize == names.length)
+            {
+                names = Arrays.copyOf(names, nameSize << 1);
+            }
+            id = nameSize;
+            names[nameSize++] = name;
+            nameIds.put(name, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the id of a name without interning it.
+     *
+     * @return The id or NONE if no node has that name.
+     */
+    int findName(String name)
+    {
+        Integer id = nameIds.get(name);
+        return (id == null) ? NONE : id;
+    }
+
+    /**
+     * Shrinks all arrays to their size once the document is complete.
+     */
+    void trim()
+    {
+        kind = Arrays.copyOf(kind, size);
+        parent = Arrays.copyOf(parent, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        name = Arrays.copyOf(name, size);
+        data = Arrays.copyOf(data, size);
+        length = Arrays.copyOf(length, size);
+        attrName = Arrays.copyOf(attrName, attrSize);
+        attrData = Arrays.copyOf(attrData, attrSize);
+        attrLength = Arrays.copyOf(attrLength, attrSize);
+        if (chars != null)
+        {
+            chars = Arrays.copyOf(chars, charSize);
+        }
+        else
+        {
+            latin1 = Arrays.copyOf(latin1, charSize);
+        }
+        names = Arrays.copyOf(names, nameSize);
+    }
+
+    /**
+     * Returns the flyweight of a node.
+     *
+     * @param node The index of the node.
+     *
+     * @return The node or NULL for NONE.
+     */
+    CompactNode node(int node)
+    {
+        if (node < 0)
+        {
+            return null;
+        }
+
+        switch (kind[node])
+        {
+            case ELEMENT:
+                return new CompactElement(this, node);
+            case TEXT:
+                return new CompactText(this, node);
+            case COMMENT:
+                return new CompactComment(this, node);
+            default:
+                return document;
+        }
+    }
+
+    /**
+     * Returns the index of the first child of a node, or NONE if it has no children.
+     */
+    int firstChild(int node)
+    {
+        int child = node + 1;
+        return (child < size && parent[child] == node) ? child : NONE;
+    }
+
+    /**
+     * Returns the index of the first node after the subtree of a given node, in document order.
+     */
+    int following(int node)
+    {
+        for (int n = node; n != NONE; n = parent[n])
+        {
+            if (nextSibling[n] != NONE)
+            {
+                return nextSibling[n];
+            }
+        }
+
+        return size;
+    }
+
+    String text(int node)
+    {
+        return chars(data[node], length[node]);
+    }
+
+    Object getUserData(int key, String name)
+    {
+        Map<String, Object> data = (userData != null) ? userData.get(key) : null;
+        return (data != null) ? data.get(name) : null;
+    }
+
+    Object setUserData(int key, String name, Object value)
+    {
+        if (userData == null)
+        {
+            userData = new HashMap<>();
+        }
+        Map<String, Object> data = userData.get(key);
+        if (data == null)
+        {
+            data = new HashMap<>();
+            userData.put(key, data);
+        }
+
+        return (value == null) ? data.remove(name) : data.put(name, value);
+    }
+
+    /**
+     * Returns an estimate of the heap used by the arrays of this tree.
+     *
+     * @return The size in bytes.
+     */
+    long heapSize()
+    {
+        long bytes = kind.length
+                     + 4L * (parent.length + nextSibling.length + name.length + data.length + length.length)
+                     + 4L * (attrName.length + attrData.length + attrLength.length)
+                     + ((chars != null) ? 2L * chars.length : latin1.length)
+                     + 4L * names.length;
+        for (int i = 0; i < nameSize; i++)
+        {
+            bytes += 40 + 2L * names[i].length();
+        }
+
+        return bytes;
+    }
+}
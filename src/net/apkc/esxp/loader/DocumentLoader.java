@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.loader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.metrics.FlightEvent;
+import net.apkc.esxp.utils.ByteBufferInputStream;
+import org.apache.log4j.Logger;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Parses documents into DOM trees or SAX events with preconfigured parsers, reused between documents.
+ *
+ * <p>
+ * The loader owns a {@link DocumentBuilderFactory} and a {@link SAXParserFactory}, created and
+ * configured once, the first time it parses. Each thread gets its own {@link DocumentBuilder} and
+ * {@link SAXParser}, which are reset after each document, so after the first document a thread parses
+ * there is no JAXP service lookup nor parser construction. The configuration can't change once the
+ * loader was used.
+ * </p>
+ *
+ * <p>
+ * The default configuration is the one used to focus on content: namespace aware, coalescing CDATA
+ * into TEXT, expanding entity references and ignoring comments and, when validating, whitespace in
+ * element content. Warnings are logged and errors stop the parsing. {@link #getShared()} returns a
+ * loader with this configuration, to be shared by the whole application.
+ * </p>
+ *
+ * <pre>
+ * DocumentLoader loader = DocumentLoader.newBuild()
+ *         .setSchema(SchemaRegistry.getShared().getSchema(xsd));
+ * Document doc = loader.parse(bytes);
+ * </pre>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class DocumentLoader
+{
+
+    private static final Logger LOG = Logger.getLogger(DocumentLoader.class.getName());
+    private static final DocumentLoader SHARED = new DocumentLoader();
+    /** Logs warnings and stops at errors. */
+    private static final ErrorHandler STRICT = new ErrorHandler()
+    {
+        @Override
+        public void warning(SAXParseException e)
+        {
+            LOG.warn("XML Warning: " + e.toString());
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException
+        {
+            throw e;
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException
+        {
+            throw e;
+        }
+    };
+    private boolean namespaceAware = true;
+    private boolean coalescing = true;
+    private boolean expandEntityReferences = true;
+    private boolean ignoringComments = true;
+    private boolean ignoringElementContentWhitespace = true;
+    private boolean secureProcessing = false;
+    private Schema schema = null;
+    private ErrorHandler errorHandler = STRICT;
+    /** The factories, created on first use, after which the configuration can't change. */
+    private volatile DocumentBuilderFactory domFactory = null;
+    private volatile SAXParserFactory saxFactory = null;
+    private final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<>();
+    private final ThreadLocal<SAXParser> parsers = new ThreadLocal<>();
+
+    private DocumentLoader()
+    {
+    }
+
+    public static DocumentLoader newBuild()
+    {
+        return new DocumentLoader();
+    }
+
+    /**
+     * Returns the loader with the default configuration, shared by the whole application. Its
+     * configuration can't be changed.
+     *
+     * @return The shared loader.
+     */
+    public static DocumentLoader getShared()
+    {
+        return SHARED;
+    }
+
+    private void checkConfigurable()
+    {
+        if (this == SHARED || domFactory != null || saxFactory != null)
+        {
+            throw new IllegalStateException("The configuration of a loader can't change once used!");
+        }
+    }
+
+    public DocumentLoader setNamespaceAware(boolean namespaceAware)
+    {
+        checkConfigurable();
+        this.namespaceAware = namespaceAware;
+        return this;
+    }
+
+    public DocumentLoader setCoalescing(boolean coalescing)
+    {
+        checkConfigurable();
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    public DocumentLoader setExpandEntityReferences(boolean expandEntityReferences)
+    {
+        checkConfigurable();
+        this.expandEntityReferences = expandEntityReferences;
+        return this;
+    }
+
+    public DocumentLoader setIgnoringComments(boolean ignoringComments)
+    {
+        checkConfigurable();
+        this.ignoringComments = ignoringComments;
+        return this;
+    }
+
+    public DocumentLoader setIgnoringElementContentWhitespace(boolean ignoringElementContentWhitespace)
+    {
+        checkConfigurable();
+        this.ignoringElementContentWhitespace = ignoringElementContentWhitespace;
+        return this;
+    }
+
+    /**
+     * Sets if the parsers limit the resources a document can use (see
+     * {@link XMLConstants#FEATURE_SECURE_PROCESSING}). FALSE by default.
+     *
+     * @param secureProcessing TRUE to limit the resources.
+     *
+     * @return This instance.
+     */
+    public DocumentLoader setSecureProcessing(boolean secureProcessing)
+    {
+        checkConfigurable();
+        this.secureProcessing = secureProcessing;
+        return this;
+    }
+
+    /**
+     * Sets the schema to validate the documents against, e.g. one from a {@link SchemaRegistry}.
+     *
+     * @param schema The schema, or NULL to not validate.
+     *
+     * @return This instance.
+     */
+    public DocumentLoader setSchema(Schema schema)
+    {
+        checkConfigurable();
+        this.schema = schema;
+        return this;
+    }
+
+    /**
+     * Sets the handler of the warnings and errors found while parsing. By default warnings are logged
+     * and errors stop the parsing.
+     *
+     * @param errorHandler The handler, which must be thread safe if the loader is used by many
+     *                     threads.
+     *
+     * @return This instance.
+     */
+    public DocumentLoader setErrorHandler(ErrorHandler errorHandler)
+    {
+        checkConfigurable();
+        this.errorHandler = (errorHandler != null) ? errorHandler : STRICT;
+        return this;
+    }
+
+    private DocumentBuilderFactory domFactory() throws ParserConfigurationException
+    {
+        DocumentBuilderFactory factory = domFactory;
+        if (factory == null)
+        {
+            synchronized (this)
+            {
+                if (domFactory == null)
+                {
+                    factory = DocumentBuilderFactory.newInstance();
+                    factory.setNamespaceAware(namespaceAware);
+                    factory.setCoalescing(coalescing);
+                    factory.setExpandEntityReferences(expandEntityReferences);
+                    factory.setIgnoringComments(ignoringComments);
+                    factory.setIgnoringElementContentWhitespace(ignoringElementContentWhitespace);
+                    factory.setValidating(false);
+                    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, secureProcessing);
+                    factory.setSchema(schema);
+                    domFactory = factory;
+                }
+                factory = domFactory;
+            }
+        }
+
+        return factory;
+    }
+
+    private SAXParserFactory saxFactory() throws ParserConfigurationException, SAXException
+    {
+        SAXParserFactory factory = saxFactory;
+        if (factory == null)
+        {
+            synchronized (this)
+            {
+                if (saxFactory == null)
+                {
+                    factory = SAXParserFactory.newInstance();
+                    factory.setNamespaceAware(namespaceAware);
+                    factory.setValidating(false);
+                    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, secureProcessing);
+                    factory.setSchema(schema);
+                    saxFactory = factory;
+                }
+                factory = saxFactory;
+            }
+        }
+
+        return factory;
+    }
+
+    /**
+     * Returns the DOM parser of the current thread, without a document loaded.
+     */
+    private DocumentBuilder builder() throws ParserConfigurationException
+    {
+        DocumentBuilder builder = builders.get();
+        if (builder == null)
+        {
+            builder = domFactory().newDocumentBuilder();
+            builders.set(builder);
+        }
+        builder.setErrorHandler(errorHandler);
+
+        return builder;
+    }
+
+    /**
+     * Returns the SAX parser of the current thread.
+     */
+    private SAXParser parser() throws ParserConfigurationException, SAXException
+    {
+        SAXParser parser = parsers.get();
+        if (parser == null)
+        {
+            parser = saxFactory().newSAXParser();
+            parsers.set(parser);
+        }
+
+        return parser;
+    }
+
+    /**
+     * Returns a new DOM parser with the configuration of the loader, owned by the caller, for callers
+     * that pool parsers themselves instead of keeping one per thread (e.g. when each task runs on its
+     * own short-lived thread). The parser should be reset after each document.
+     *
+     * @return The new parser.
+     *
+     * @throws ParserConfigurationException If the DOM parser can't be configured.
+     */
+    public DocumentBuilder newDocumentBuilder() throws ParserConfigurationException
+    {
+        DocumentBuilder builder = domFactory().newDocumentBuilder();
+        builder.setErrorHandler(errorHandler);
+
+        return builder;
+    }
+
+    /**
+     * Returns a new empty document.
+     *
+     * @return The document.
+     *
+     * @throws ParserConfigurationException If the DOM parser can't be configured.
+     */
+    public Document newDocument() throws ParserConfigurationException
+    {
+        return builder().newDocument();
+    }
+
+    /**
+     * Returns the DOM implementation of the DOM parser.
+     *
+     * @return The DOM implementation.
+     *
+     * @throws ParserConfigurationException If the DOM parser can't be configured.
+     */
+    public DOMImplementation getDOMImplementation() throws ParserConfigurationException
+    {
+        return builder().getDOMImplementation();
+    }
+
+    /**
+     * Parses a document into a DOM tree.
+     *
+     * @param source The document.
+     *
+     * @return The DOM tree.
+     *
+     * @throws SAXException If the document can't be parsed or the parser can't be configured.
+     * @throws IOException  If the document can't be read.
+     */
+    public Document parse(InputSource source) throws SAXException, IOException
+    {
+        DocumentBuilder builder;
+        try
+        {
+            builder = builder();
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new SAXException("Error configuring the DOM parser. Error: " + e.toString(), e);
+        }
+
+        final FlightEvent event = Flight.beginLoad();
+        final CountingStream counter = (event != null) ? CountingStream.of(source) : null;
+        try
+        {
+            return builder.parse((counter != null) ? counter.source : source);
+        }
+        finally
+        {
+            builder.reset(); // Drops the document, which the parser would keep until the next one.
+            Flight.endLoad(event, "DOM", source.getSystemId(), (counter != null) ? counter.count : -1);
+        }
+    }
+
+    public Document parse(InputStream xml) throws SAXException, IOException
+    {
+        return parse(new InputSource(xml));
+    }
+
+    public Document parse(byte[] xml) throws SAXException, IOException
+    {
+        return parse(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Parses the remaining bytes of a buffer into a DOM tree. The position of the buffer doesn't
+     * change.
+     */
+    public Document parse(ByteBuffer xml) throws SAXException, IOException
+    {
+        return parse(new ByteBufferInputStream(xml));
+    }
+
+    public Document parse(Path xml) throws SAXException, IOException
+    {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xml), 64 * 1024))
+        {
+            InputSource source = new InputSource(in);
+            source.setSystemId(xml.toUri().toString());
+            return parse(source);
+        }
+    }
+
+    /**
+     * Parses a document into SAX events. If the handler is also a {@link LexicalHandler} it receives
+     * the lexical events too.
+     *
+     * @param source  The document.
+     * @param handler The handler of the events.
+     *
+     * @throws SAXException If the document can't be parsed, the handler failed or the parser can't be
+     *                      configured.
+     * @throws IOException  If the document can't be read.
+     */
+    public void parse(InputSource source, ContentHandler handler) throws SAXException, IOException
+    {
+        SAXParser parser;
+        try
+        {
+            parser = parser();
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new SAXException("Error configuring the SAX parser. Error: " + e.toString(), e);
+        }
+
+        final FlightEvent event = Flight.beginLoad();
+        final CountingStream counter = (event != null) ? CountingStream.of(source) : null;
+        try
+        {
+            XMLReader reader = parser.getXMLReader();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(errorHandler);
+            if (handler instanceof LexicalHandler)
+            {
+                reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+            }
+            reader.parse((counter != null) ? counter.source : source);
+        }
+        finally
+        {
+            parser.reset(); // Drops the handlers, which the parser would keep until the next document.
+            Flight.endLoad(event, "SAX", source.getSystemId(), (counter != null) ? counter.count : -1);
+        }
+    }
+
+    public void parse(InputStream xml, ContentHandler handler) throws SAXException, IOException
+    {
+        parse(new InputSource(xml), handler);
+    }
+
+    public void parse(byte[] xml, ContentHandler handler) throws SAXException, IOException
+    {
+        parse(new ByteArrayInputStream(xml), handler);
+    }
+
+    /**
+     * Parses the remaining bytes of a buffer into SAX events. The position of the buffer doesn't
+     * change.
+     */
+    public void parse(ByteBuffer xml, ContentHandler handler) throws SAXException, IOException
+    {
+        parse(new ByteBufferInputStream(xml), handler);
+    }
+
+    public void parse(Path xml, ContentHandler handler) throws SAXException, IOException
+    {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xml), 64 * 1024))
+        {
+            InputSource source = new InputSource(in);
+            source.setSystemId(xml.toUri().toString());
+            parse(source, handler);
+        }
+    }
+
+    /**
+     * Counts the bytes read from the byte stream of a document, for its flight recorder event.
+     */
+    private static final class CountingStream extends FilterInputStream
+    {
+
+        /** A copy of the input source that reads through this stream. */
+        final InputSource source;
+        long count = 0;
+
+        private CountingStream(InputSource source)
+        {
+            super(source.getByteStream());
+            this.source = new InputSource(this);
+            this.source.setSystemId(source.getSystemId());
+            this.source.setPublicId(source.getPublicId());
+            this.source.setEncoding(source.getEncoding());
+        }
+
+        /**
+         * Returns a counting stream for the byte stream of an input source, or NULL if the parser
+         * won't read from one.
+         */
+        static CountingStream of(InputSource source)
+        {
+            return (source.getCharacterStream() == null && source.getByteStream() != null) ? new CountingStream(source) : null;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                count += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count += skipped;
+
+            return skipped;
+        }
+    }
+}
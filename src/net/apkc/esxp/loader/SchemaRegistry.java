@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import org.apache.log4j.Logger;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ * Cache of compiled XML Schemas.
+ *
+ * <p>
+ * Each schema is compiled once, the first time it's requested, and kept under its URI or, for
+ * schemas given as bytes, under the SHA-256 hash of its content. Threads requesting a schema while
+ * it's being compiled wait for that compilation instead of compiling it again. A {@link Schema} is
+ * thread safe and is shared by all threads, but {@link Validator} and {@link ValidatorHandler} aren't,
+ * so the registry keeps one of each per thread and schema, reset before each use.
+ * </p>
+ *
+ * <p>
+ * Schemas can be compiled ahead with {@link #preload(URL...)}, e.g. at startup, so the first document
+ * doesn't pay for it.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class SchemaRegistry
+{
+
+    private static final Logger LOG = Logger.getLogger(SchemaRegistry.class.getName());
+    private static final SchemaRegistry SHARED = new SchemaRegistry();
+    /** The compiled schemas, and the ones being compiled, by key. */
+    private final ConcurrentMap<String, FutureTask<Schema>> schemas = new ConcurrentHashMap<>();
+    /** The validators of the current thread, by schema. */
+    private final ThreadLocal<Map<Schema, Validator>> validators = new ThreadLocal<Map<Schema, Validator>>()
+    {
+        @Override
+        protected Map<Schema, Validator> initialValue()
+        {
+            return new WeakHashMap<>();
+        }
+    };
+    /** The validator handlers of the current thread, by schema. */
+    private final ThreadLocal<Map<Schema, ValidatorHandler>> handlers = new ThreadLocal<Map<Schema, ValidatorHandler>>()
+    {
+        @Override
+        protected Map<Schema, ValidatorHandler> initialValue()
+        {
+            return new WeakHashMap<>();
+        }
+    };
+    private volatile LSResourceResolver resolver = null;
+
+    private SchemaRegistry()
+    {
+    }
+
+    public static SchemaRegistry newBuild()
+    {
+        return new SchemaRegistry();
+    }
+
+    /**
+     * Returns the registry shared by the whole application.
+     *
+     * @return The shared registry.
+     */
+    public static SchemaRegistry getShared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Sets the resolver of the documents imported or included by the schemas compiled from now on, e.g.
+     * to serve local copies instead of fetching them from the network.
+     *
+     * @param resolver The resolver, or NULL for the default resolution.
+     *
+     * @return This instance.
+     */
+    public SchemaRegistry setResourceResolver(LSResourceResolver resolver)
+    {
+        this.resolver = resolver;
+        return this;
+    }
+
+    /**
+     * Compiles a set of schemas, if not compiled yet.
+     *
+     * @param urls The URLs of the schemas.
+     *
+     * @return This instance.
+     *
+     * @throws SAXException If a schema can't be compiled.
+     */
+    public SchemaRegistry preload(URL... urls) throws SAXException
+    {
+        for (URL url : urls)
+        {
+            getSchema(url);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the schema at a given URL, compiling it if needed. Relative imports and includes are
+     * resolved against the URL.
+     *
+     * @param url The URL of the schema.
+     *
+     * @return The compiled schema.
+     *
+     * @throws SAXException If the schema can't be compiled.
+     */
+    public Schema getSchema(final URL url) throws SAXException
+    {
+        return getSchema("uri:" + url.toExternalForm(), new StreamSource(url.toExternalForm()));
+    }
+
+    /**
+     * Returns the schema in a given file, compiling it if needed.
+     *
+     * @param file The file of the schema.
+     *
+     * @return The compiled schema.
+     *
+     * @throws SAXException If the schema can't be compiled.
+     * @throws IOException  If the path can't be turned into a URL.
+     */
+    public Schema getSchema(Path file) throws SAXException, IOException
+    {
+        return getSchema(file.toUri().toURL());
+    }
+
+    /**
+     * Returns the schema with a given content, compiling it if needed. Schemas with the same content
+     * are compiled once.
+     *
+     * @param xsd The content of the schema.
+     *
+     * @return The compiled schema.
+     *
+     * @throws SAXException If the schema can't be compiled.
+     */
+    public Schema getSchema(byte[] xsd) throws SAXException
+    {
+        return getSchema("sha-256:" + hash(xsd), new StreamSource(new ByteArrayInputStream(xsd)));
+    }
+
+    /**
+     * Reads a schema from a stream and returns it, compiling it if needed. The stream is read to its
+     * end but not closed.
+     *
+     * @param xsd The stream with the content of the schema.
+     *
+     * @return The compiled schema.
+     *
+     * @throws SAXException If the schema can't be compiled.
+     * @throws IOException  If the stream can't be read.
+     */
+    public Schema getSchema(InputStream xsd) throws SAXException, IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8 * 1024];
+        for (int read = xsd.read(buffer); read != -1; read = xsd.read(buffer))
+        {
+            content.write(buffer, 0, read);
+        }
+
+        return getSchema(content.toByteArray());
+    }
+
+    private Schema getSchema(String key, final Source source) throws SAXException
+    {
+        FutureTask<Schema> task = schemas.get(key);
+        if (task == null)
+        {
+            final FutureTask<Schema> compilation = new FutureTask<>(new Callable<Schema>()
+            {
+                @Override
+                public Schema call() throws SAXException
+                {
+                    return compile(source);
+                }
+            });
+
+            task = schemas.putIfAbsent(key, compilation);
+            if (task == null)
+            {
+                task = compilation;
+                task.run();
+            }
+        }
+
+        try
+        {
+            return task.get();
+        }
+        catch (ExecutionException e)
+        {
+            schemas.remove(key, task); // Let the next request try again.
+            if (e.getCause() instanceof SAXException)
+            {
+                throw (SAXException) e.getCause();
+            }
+            if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Interrupted while compiling schema " + key + ".", e);
+        }
+    }
+
+    private Schema compile(Source source) throws SAXException
+    {
+        long start = System.nanoTime();
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        if (resolver != null)
+        {
+            factory.setResourceResolver(resolver);
+        }
+        Schema schema = factory.newSchema(source);
+
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug(">>> SCHEMA COMPILED: " + source.getSystemId() + " IN " + ((System.nanoTime() - start) / 1000000) + " MS");
+        }
+
+        return schema;
+    }
+
+    private static String hash(byte[] content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available!", e);
+        }
+    }
+
+    /**
+     * Returns the validator of the current thread for a given schema, reset.
+     *
+     * @param schema The schema.
+     *
+     * @return The validator, which must not be shared with other threads.
+     */
+    public Validator getValidator(Schema schema)
+    {
+        Map<Schema, Validator> cached = validators.get();
+        Validator validator = cached.get(schema);
+        if (validator == null)
+        {
+            validator = schema.newValidator();
+            cached.put(schema, validator);
+        }
+        else
+        {
+            validator.reset();
+        }
+
+        return validator;
+    }
+
+    /**
+     * Returns the validator handler of the current thread for a given schema. The handler starts
+     * over on each startDocument() event, so it must be used for one document at a time, and keeps the
+     * content handler and error handler set by the last user.
+     *
+     * @param schema The schema.
+     *
+     * @return The validator handler, which must not be shared with other threads.
+     */
+    public ValidatorHandler getValidatorHandler(Schema schema)
+    {
+        Map<Schema, ValidatorHandler> cached = handlers.get();
+        ValidatorHandler handler = cached.get(schema);
+        if (handler == null)
+        {
+            handler = schema.newValidatorHandler();
+            cached.put(schema, handler);
+        }
+
+        return handler;
+    }
+
+    /**
+     * Returns the number of schemas compiled or being compiled.
+     *
+     * @return The number of schemas.
+     */
+    public int size()
+    {
+        return schemas.size();
+    }
+
+    /**
+     * Drops all compiled schemas. Validators already handed out keep working.
+     */
+    public void clear()
+    {
+        schemas.clear();
+    }
+}
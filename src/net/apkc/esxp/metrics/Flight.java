@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.metrics;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Emits the Java Flight Recorder events of ESXP: document loads, SAX2DOM builds, searches of the
+ * processor, walks and object bindings. JFR records the thread, the duration and, except for
+ * searches, the stack trace of each event.
+ *
+ * <p>
+ * Events are only created while a recording has them enabled, and the search and walk events are
+ * reused, so the hot paths don't allocate otherwise. The event classes need the {@code jdk.jfr}
+ * module, which is part of Java 11 or later and of some Java 8 builds, so they are built from the
+ * separate source root src-jfr and loaded by name. On any other JVM, when they were not built, or
+ * when started with {@code -Desxp.jfr=false}, {@link #ENABLED} is FALSE and they are never loaded.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class Flight
+{
+
+    private static final Logger LOG = Logger.getLogger(Flight.class.getName());
+    /** The system property that disables the events when set to FALSE. */
+    public static final String PROPERTY = "esxp.jfr";
+    /** The class that emits the events, in src-jfr. */
+    private static final String RECORDER_CLASS = "net.apkc.esxp.metrics.JfrRecorder";
+    /** The recorder, or NULL if events can't be emitted. */
+    private static final Recorder RECORDER = load();
+    /** If events can be emitted. Read once, when this class is initialized. */
+    public static final boolean ENABLED = RECORDER != null;
+
+    private Flight()
+    {
+    }
+
+    private static Recorder load()
+    {
+        if ("false".equalsIgnoreCase(System.getProperty(PROPERTY)))
+        {
+            return null;
+        }
+
+        try
+        {
+            if (!(Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null))
+            {
+                return null;
+            }
+
+            return (Recorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            if (LOG.isDebugEnabled())
+            {
+                LOG.debug("Java Flight Recorder is not available. Error: " + e.toString());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Starts the event of a document load.
+     *
+     * @return The event, or NULL if it isn't being recorded.
+     */
+    public static FlightEvent beginLoad()
+    {
+        return ENABLED ? RECORDER.beginLoad() : null;
+    }
+
+    /**
+     * Ends and commits the event of a document load.
+     *
+     * @param event    The event given by {@link #beginLoad()}, or NULL.
+     * @param parser   DOM or SAX.
+     * @param systemId The system ID of the document, if any.
+     * @param bytes    The bytes read, or -1 if unknown.
+     */
+    public static void endLoad(FlightEvent event, String parser, String systemId, long bytes)
+    {
+        if (event != null)
+        {
+            RECORDER.endLoad(event, parser, systemId, bytes);
+        }
+    }
+
+    /**
+     * Starts the event of a DOM tree built by SAX2DOM.
+     *
+     * @return The event, or NULL if it isn't being recorded.
+     */
+    public static FlightEvent beginBuild()
+    {
+        return ENABLED ? RECORDER.beginBuild() : null;
+    }
+
+    /**
+     * Ends and commits the event of a DOM tree built by SAX2DOM.
+     *
+     * @param event      The event given by {@link #beginBuild()}, or NULL.
+     * @param elements   The start tags received.
+     * @param characters The characters received.
+     * @param records    The records handled.
+     */
+    public static void endBuild(FlightEvent event, long elements, long characters, long records)
+    {
+        if (event != null)
+        {
+            RECORDER.endBuild(event, elements, characters, records);
+        }
+    }
+
+    /**
+     * Starts the event of a lookup of the processor, using the event of the current thread.
+     *
+     * @return The event, or NULL if it isn't being recorded.
+     */
+    public static FlightEvent beginSearch()
+    {
+        return ENABLED ? RECORDER.beginSearch() : null;
+    }
+
+    /**
+     * Ends and commits the event of a lookup of the processor.
+     *
+     * @param event     The event given by {@link #beginSearch()}, or NULL.
+     * @param method    The ID of the method in {@link ProcessorMetrics}.
+     * @param target    The tag, query or node searched. Nodes are recorded by name.
+     * @param attribute The attribute searched, or NULL.
+     * @param hit       If the lookup found what it searched.
+     */
+    public static void endSearch(FlightEvent event, byte method, Object target, String attribute, boolean hit)
+    {
+        if (event != null)
+        {
+            RECORDER.endSearch(event, ProcessorMetrics.METHODS[method], target, attribute, hit);
+        }
+    }
+
+    /**
+     * Starts the event of a walk of a DOM tree.
+     *
+     * @param event The event of the walker, or NULL if it has none yet.
+     *
+     * @return The event to keep in the walker, which is created if a walk is being recorded.
+     */
+    public static FlightEvent beginWalk(FlightEvent event)
+    {
+        return ENABLED ? RECORDER.beginWalk(event) : event;
+    }
+
+    /**
+     * Ends and commits the event of a walk of a DOM tree, if it lasted longer than its threshold,
+     * and adds the nodes visited to the lookup of the current thread.
+     *
+     * @param event  The event of the walker, or NULL.
+     * @param walker The walker.
+     * @param nodes  The nodes visited.
+     */
+    public static void endWalk(FlightEvent event, Object walker, int nodes)
+    {
+        if (ENABLED)
+        {
+            RECORDER.endWalk(event, walker, nodes);
+        }
+    }
+
+    /**
+     * Starts the event of an object binding.
+     *
+     * @return The event, or NULL if it isn't being recorded.
+     */
+    public static FlightEvent beginBind()
+    {
+        return ENABLED ? RECORDER.beginBind() : null;
+    }
+
+    /**
+     * Ends and commits the event of an object binding.
+     *
+     * @param event  The event given by {@link #beginBind()}, or NULL.
+     * @param type   The type of the object.
+     * @param record The tag's name of the record.
+     */
+    public static void endBind(FlightEvent event, Class<?> type, String record)
+    {
+        if (event != null)
+        {
+            RECORDER.endBind(event, type, record);
+        }
+    }
+}
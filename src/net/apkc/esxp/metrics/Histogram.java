@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of positive values in power of two buckets, striped so threads can record concurrently
+ * without contending on a single counter.
+ *
+ * <p>
+ * Bucket 0 counts the value 0 and bucket <i>b</i> the values in [2<sup>b-1</sup>, 2<sup>b</sup>),
+ * so with nanoseconds bucket 11 holds the latencies from 1024ns to 2047ns.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class Histogram
+{
+
+    private static final int BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Histogram()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long value)
+    {
+        buckets[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(Math.max(0L, value)))].increment();
+    }
+
+    /**
+     * Returns the count of each bucket, up to the last one that isn't empty.
+     *
+     * @return The counts.
+     */
+    long[] snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        int length = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = buckets[i].sum();
+            if (counts[i] > 0)
+            {
+                length = i + 1;
+            }
+        }
+
+        long[] trimmed = new long[length];
+        System.arraycopy(counts, 0, trimmed, 0, length);
+
+        return trimmed;
+    }
+
+    void reset()
+    {
+        for (LongAdder bucket : buckets)
+        {
+            bucket.reset();
+        }
+    }
+}
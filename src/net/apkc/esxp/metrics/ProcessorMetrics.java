@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Opt-in metrics of the hot paths of the processor, exposed over JMX.
+ *
+ * <p>
+ * Metrics are disabled unless the JVM is started with {@code -Desxp.metrics=true}, in which case
+ * this class registers itself in the platform MBean server as {@value #OBJECT_NAME} when first
+ * used. It counts the lookups, hits, misses, strict mode exceptions and latency of each method of
+ * {@link net.apkc.esxp.processor.Processor}, the nodes visited by each walk of a
+ * {@link net.apkc.esxp.walker.DOMWalker}, and the characters normalized by
+ * {@link net.apkc.esxp.utils.TextNormalizer}.
+ * </p>
+ *
+ * <p>
+ * All counters are {@link LongAdder}s, which spread concurrent updates over several cells, so
+ * recording doesn't make threads contend. The recording methods are static and check
+ * {@link #ENABLED}, a constant for the JIT compiler, first; when metrics are disabled they are
+ * inlined into empty bodies and cost nothing.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class ProcessorMetrics implements ProcessorMetricsMXBean
+{
+
+    private static final Logger LOG = Logger.getLogger(ProcessorMetrics.class.getName());
+    /** The system property that enables the metrics. */
+    public static final String PROPERTY = "esxp.metrics";
+    /** If the metrics are enabled. Read once, when this class is initialized. */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+    /** The name of the MBean. */
+    public static final String OBJECT_NAME = "net.apkc.esxp:type=ProcessorMetrics";
+    public static final byte SEARCH_VALUE = 0x0;
+    public static final byte SEARCH_PATH = 0x1;
+    public static final byte SEARCH_TAG_VALUE = 0x2;
+    public static final byte SEARCH_TAG_ATTRIBUTE_VALUE = 0x3;
+    public static final byte GET_NODE_ATTRIBUTE_VALUE = 0x4;
+    public static final byte GET_NODE_VALUE = 0x5;
+    public static final byte RETRIEVE_SUB_NODE = 0x6;
+    public static final byte SEARCH_NODE = 0x7;
+    public static final byte SEARCH_VALUES = 0x8;
+    /** The name of each method, indexed by its ID. */
+    static final String[] METHODS =
+    {
+        "searchValue", "searchNode(PathQuery)", "searchTagValue", "searchTagAttributeValue",
+        "getNodeAttributeValue", "getNodeValue", "retrieveSubNode", "searchNode", "searchValues"
+    };
+    private static final LongAdder[] HITS = adders(METHODS.length);
+    private static final LongAdder[] MISSES = adders(METHODS.length);
+    private static final LongAdder[] STRICT_EXCEPTIONS = adders(METHODS.length);
+    private static final Histogram[] LATENCY = new Histogram[METHODS.length];
+    private static final LongAdder WALKS = new LongAdder();
+    private static final LongAdder NODES_VISITED = new LongAdder();
+    private static final Histogram NODES_PER_WALK = new Histogram();
+    private static final LongAdder NORMALIZATIONS = new LongAdder();
+    private static final LongAdder NORMALIZED_CHARS = new LongAdder();
+
+    static
+    {
+        for (int i = 0; i < LATENCY.length; i++)
+        {
+            LATENCY[i] = new Histogram();
+        }
+
+        if (ENABLED)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new ProcessorMetrics(), new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException e)
+            {
+                LOG.warn("Error registering the processor metrics in JMX. Error: " + e.toString());
+            }
+        }
+    }
+
+    private ProcessorMetrics()
+    {
+    }
+
+    /**
+     * Checks if the metrics are enabled. If they are, the MBean is registered by the time this
+     * method returns, so it can be called to make it available before the first lookup.
+     *
+     * @return The value of {@link #ENABLED}.
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the start time of a lookup, to be given to {@link #hit(byte, long)} or
+     * {@link #miss(byte, long, boolean)}.
+     *
+     * @return The current value of {@link System#nanoTime()}, or 0 if metrics are disabled.
+     */
+    public static long start()
+    {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records a lookup that found what it searched.
+     *
+     * @param method The ID of the method.
+     * @param start  The start time given by {@link #start()}.
+     */
+    public static void hit(byte method, long start)
+    {
+        if (ENABLED)
+        {
+            HITS[method].increment();
+            LATENCY[method].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a lookup that found nothing.
+     *
+     * @param method The ID of the method.
+     * @param start  The start time given by {@link #start()}.
+     * @param strict If the method is raising an exception because it was called in strict mode.
+     */
+    public static void miss(byte method, long start, boolean strict)
+    {
+        if (ENABLED)
+        {
+            MISSES[method].increment();
+            if (strict)
+            {
+                STRICT_EXCEPTIONS[method].increment();
+            }
+            LATENCY[method].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a walk of a DOM tree.
+     *
+     * @param nodes The nodes visited.
+     */
+    public static void walked(int nodes)
+    {
+        if (ENABLED)
+        {
+            WALKS.increment();
+            NODES_VISITED.add(nodes);
+            NODES_PER_WALK.record(nodes);
+        }
+    }
+
+    /**
+     * Records a normalization of text.
+     *
+     * @param chars The characters normalized.
+     */
+    public static void normalized(int chars)
+    {
+        if (ENABLED)
+        {
+            NORMALIZATIONS.increment();
+            NORMALIZED_CHARS.add(chars);
+        }
+    }
+
+    private static LongAdder[] adders(int length)
+    {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++)
+        {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    private static Map<String, Long> byMethod(LongAdder[] adders)
+    {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < METHODS.length; i++)
+        {
+            counts.put(METHODS[i], adders[i].sum());
+        }
+
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLookups()
+    {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < METHODS.length; i++)
+        {
+            counts.put(METHODS[i], HITS[i].sum() + MISSES[i].sum());
+        }
+
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getHits()
+    {
+        return byMethod(HITS);
+    }
+
+    @Override
+    public Map<String, Long> getMisses()
+    {
+        return byMethod(MISSES);
+    }
+
+    @Override
+    public Map<String, Long> getStrictExceptions()
+    {
+        return byMethod(STRICT_EXCEPTIONS);
+    }
+
+    @Override
+    public Map<String, long[]> getLatencyHistograms()
+    {
+        Map<String, long[]> histograms = new LinkedHashMap<>();
+        for (int i = 0; i < METHODS.length; i++)
+        {
+            histograms.put(METHODS[i], LATENCY[i].snapshot());
+        }
+
+        return histograms;
+    }
+
+    @Override
+    public long getWalks()
+    {
+        return WALKS.sum();
+    }
+
+    @Override
+    public long getNodesVisited()
+    {
+        return NODES_VISITED.sum();
+    }
+
+    @Override
+    public long[] getNodesVisitedHistogram()
+    {
+        return NODES_PER_WALK.snapshot();
+    }
+
+    @Override
+    public long getNormalizations()
+    {
+        return NORMALIZATIONS.sum();
+    }
+
+    @Override
+    public long getNormalizedChars()
+    {
+        return NORMALIZED_CHARS.sum();
+    }
+
+    @Override
+    public void reset()
+    {
+        for (int i = 0; i < METHODS.length; i++)
+        {
+            HITS[i].reset();
+            MISSES[i].reset();
+            STRICT_EXCEPTIONS[i].reset();
+            LATENCY[i].reset();
+        }
+        WALKS.reset();
+        NODES_VISITED.reset();
+        NODES_PER_WALK.reset();
+        NORMALIZATIONS.reset();
+        NORMALIZED_CHARS.reset();
+    }
+}
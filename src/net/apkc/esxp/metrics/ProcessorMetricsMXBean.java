@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ProcessorMetrics}, registered as
+ * {@value ProcessorMetrics#OBJECT_NAME}.
+ *
+ * <p>
+ * Counters by method are keyed by the name of the method of the processor. Histograms are arrays
+ * of power of two buckets: the first bucket counts zeros and bucket <i>b</i> the values in
+ * [2<sup>b-1</sup>, 2<sup>b</sup>), up to the last bucket that isn't empty.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public interface ProcessorMetricsMXBean
+{
+
+    /**
+     * Returns the number of calls to each lookup method, hits plus misses.
+     *
+     * @return The calls by method.
+     */
+    Map<String, Long> getLookups();
+
+    /**
+     * Returns the number of lookups of each method that found what they searched.
+     *
+     * @return The hits by method.
+     */
+    Map<String, Long> getHits();
+
+    /**
+     * Returns the number of lookups of each method that found nothing, whether they returned an
+     * empty value or raised an exception.
+     *
+     * @return The misses by method.
+     */
+    Map<String, Long> getMisses();
+
+    /**
+     * Returns the number of exceptions raised by each method because it was called in strict mode
+     * and found nothing.
+     *
+     * @return The strict mode exceptions by method.
+     */
+    Map<String, Long> getStrictExceptions();
+
+    /**
+     * Returns the latency histogram of each lookup method, in nanoseconds.
+     *
+     * @return The histograms by method.
+     */
+    Map<String, long[]> getLatencyHistograms();
+
+    /**
+     * Returns the number of walks of a DOM tree, counted when their walker is released.
+     *
+     * @return The walks.
+     */
+    long getWalks();
+
+    /**
+     * Returns the number of nodes returned by all walkers.
+     *
+     * @return The nodes visited.
+     */
+    long getNodesVisited();
+
+    /**
+     * Returns the histogram of nodes visited by each walk.
+     *
+     * @return The histogram.
+     */
+    long[] getNodesVisitedHistogram();
+
+    /**
+     * Returns the number of strings and char arrays given to {@link net.apkc.esxp.utils.TextNormalizer}.
+     *
+     * @return The normalizations.
+     */
+    long getNormalizations();
+
+    /**
+     * Returns the number of characters given to {@link net.apkc.esxp.utils.TextNormalizer}.
+     *
+     * @return The characters.
+     */
+    long getNormalizedChars();
+
+    /**
+     * Sets all counters and histograms to zero.
+     */
+    void reset();
+}
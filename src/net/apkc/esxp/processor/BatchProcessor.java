@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.ByteBufferInputStream;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * XML Processor for many small independent messages (e.g. the requests received by a gateway), each
+ * parsed into a DOM tree and converted into an object by an {@link Unmarshaller}.
+ *
+ * <p>
+ * Each message is parsed and unmarshalled as one task on an {@link Executor}. By default the tasks
+ * run on virtual threads when the JVM has them (Java 21 or later), so unmarshallers that block don't
+ * hold a platform thread, and otherwise on a pool shared by all processors with one thread per
+ * processor. At most {@link #setConcurrency(int)} messages are in flight at any time: submitting more
+ * blocks the caller until one completes, which bounds memory and pushes back on the producer.
+ * </p>
+ *
+ * <p>
+ * The parsers are kept in a pool of the processor instead of one per thread, because a virtual
+ * thread lives for one task and a per-thread parser would be created for each message. A task takes
+ * an idle parser, or creates one if none is idle, and returns it reset when the message is done, so
+ * the processor never creates more parsers than its concurrency limit, whatever the threads that run
+ * the tasks.
+ * </p>
+ *
+ * <pre>
+ * BatchProcessor&lt;WikiPage&gt; batch = BatchProcessor.newBuild(Binder.of(WikiPage.class)).setConcurrency(64);
+ * CompletableFuture&lt;WikiPage&gt; page = batch.submit(message);
+ * Iterator&lt;WikiPage&gt; pages = batch.process(messages.iterator()); // In the order of the messages.
+ * </pre>
+ *
+ * @param <T> The type of the objects.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class BatchProcessor<T extends UnmarshalledObject>
+{
+
+    private static final Logger LOG = Logger.getLogger(BatchProcessor.class.getName());
+    private final Unmarshaller<T> unmarshaller;
+    /** The idle parsers. */
+    private final Queue<DocumentBuilder> parsers = new ConcurrentLinkedQueue<>();
+    private DocumentLoader loader = DocumentLoader.getShared();
+    private Executor executor = null;
+    private int concurrency = Runtime.getRuntime().availableProcessors() * 4;
+    private Semaphore permits = new Semaphore(concurrency);
+
+    private BatchProcessor(Unmarshaller<T> unmarshaller)
+    {
+        this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * Creates a new processor.
+     *
+     * @param <T>          The type of the objects.
+     * @param unmarshaller The unmarshaller of the messages, called with their root element from
+     *                     several threads at once, e.g. a {@link Binder}.
+     *
+     * @return The new processor.
+     */
+    public static <T extends UnmarshalledObject> BatchProcessor<T> newBuild(Unmarshaller<T> unmarshaller)
+    {
+        return new BatchProcessor<>(unmarshaller);
+    }
+
+    /**
+     * Sets the loader whose configuration is used to create the parsers. By default the shared
+     * loader. Must be set before the first message is submitted.
+     *
+     * @param loader The loader.
+     *
+     * @return This instance.
+     */
+    public BatchProcessor<T> setLoader(DocumentLoader loader)
+    {
+        this.loader = loader;
+        this.parsers.clear();
+        return this;
+    }
+
+    /**
+     * Sets the executor where messages are processed. By default virtual threads if the JVM has them,
+     * otherwise a pool shared by all processors. Must be set before the first message is submitted.
+     *
+     * @param executor The executor.
+     *
+     * @return This instance.
+     */
+    public BatchProcessor<T> setExecutor(Executor executor)
+    {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of messages in flight, which is also the maximum number of parsers. By
+     * default four per processor. Must be set before the first message is submitted.
+     *
+     * @param concurrency The maximum number of messages.
+     *
+     * @return This instance.
+     */
+    public BatchProcessor<T> setConcurrency(int concurrency)
+    {
+        if (concurrency < 1)
+        {
+            throw new IllegalArgumentException("The concurrency must be at least 1!");
+        }
+
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+        return this;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * Submits a message, blocking while the maximum number of messages is in flight.
+     *
+     * @param xml The message.
+     *
+     * @return The future object, which fails with a {@link SAXException} if the message is not
+     *         well-formed, an {@link IOException} if it can't be read or a {@link BindingException}
+     *         if it can't be converted.
+     */
+    public CompletableFuture<T> submit(byte[] xml)
+    {
+        return submit(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Submits the remaining bytes of a buffer as a message, blocking while the maximum number of
+     * messages is in flight. The buffer must not be modified until the message is processed, but its
+     * position doesn't change.
+     *
+     * @param xml The message.
+     *
+     * @return The future object, as {@link #submit(byte[])}.
+     */
+    public CompletableFuture<T> submit(ByteBuffer xml)
+    {
+        return submit(new ByteBufferInputStream(xml));
+    }
+
+    /**
+     * Submits a message read from a stream, blocking while the maximum number of messages is in
+     * flight. The stream is read by the task and is not closed.
+     *
+     * @param xml The message.
+     *
+     * @return The future object, as {@link #submit(byte[])}.
+     */
+    public CompletableFuture<T> submit(final InputStream xml)
+    {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try
+        {
+            permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        try
+        {
+            executor().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        result.complete(process(xml));
+                    }
+                    catch (Throwable e)
+                    {
+                        result.completeExceptionally(e);
+                    }
+                    finally
+                    {
+                        permits.release();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            permits.release();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Submits all messages of a collection, blocking while the maximum number of messages is in
+     * flight.
+     *
+     * @param messages The messages.
+     *
+     * @return The future objects, in the order of the messages.
+     */
+    public List<CompletableFuture<T>> submitAll(Collection<byte[]> messages)
+    {
+        List<CompletableFuture<T>> results = new ArrayList<>(messages.size());
+        for (byte[] xml : messages)
+        {
+            results.add(submit(xml));
+        }
+
+        return results;
+    }
+
+    /**
+     * Processes a sequence of messages, returning their objects in the order of the messages. The
+     * messages are submitted as the objects are consumed, keeping at most the maximum number of
+     * messages in flight ahead of the consumer.
+     *
+     * <p>
+     * The iterator throws a {@link CompletionException} with the cause of the failure if a message
+     * can't be processed.
+     * </p>
+     *
+     * @param messages The messages.
+     *
+     * @return The objects.
+     */
+    public Iterator<T> process(Iterator<byte[]> messages)
+    {
+        return new Ordered(messages);
+    }
+
+    /**
+     * Processes a stream of messages, as {@link #process(Iterator)}. Closing the returned stream
+     * closes the stream of messages.
+     *
+     * @param messages The messages.
+     *
+     * @return The objects, in the order of the messages.
+     */
+    public Stream<T> process(final Stream<byte[]> messages)
+    {
+        Spliterator<T> objects = Spliterators.spliteratorUnknownSize(process(messages.iterator()), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(objects, false).onClose(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                messages.close();
+            }
+        });
+    }
+
+    /**
+     * Parses and unmarshals one message with an idle parser.
+     */
+    private T process(InputStream xml) throws ParserConfigurationException, SAXException, IOException, BindingException
+    {
+        DocumentBuilder parser = parsers.poll();
+        if (parser == null)
+        {
+            parser = loader.newDocumentBuilder();
+            if (LOG.isTraceEnabled())
+            {
+                LOG.trace(">>> NEW PARSER");
+            }
+        }
+
+        Document doc;
+        try
+        {
+            doc = parser.parse(new InputSource(xml));
+        }
+        finally
+        {
+            parser.reset();
+            parsers.offer(parser);
+        }
+
+        try
+        {
+            return unmarshaller.bind(doc.getDocumentElement());
+        }
+        catch (BindingException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new BindingException("Error converting a message. Error: " + e.toString(), e);
+        }
+    }
+
+    private Executor executor()
+    {
+        return (executor != null) ? executor : DefaultExecutor.EXECUTOR;
+    }
+
+    /**
+     * Submits the messages of an iterator ahead of the consumer and returns their objects in order.
+     */
+    private final class Ordered implements Iterator<T>
+    {
+
+        private final Iterator<byte[]> messages;
+        private final ArrayDeque<CompletableFuture<T>> window = new ArrayDeque<>();
+
+        private Ordered(Iterator<byte[]> messages)
+        {
+            this.messages = messages;
+        }
+
+        private void fill()
+        {
+            while (window.size() < concurrency && messages.hasNext())
+            {
+                window.add(submit(messages.next()));
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            fill();
+            return !window.isEmpty();
+        }
+
+        @Override
+        public T next()
+        {
+            fill();
+            if (window.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+
+            return window.poll().join();
+        }
+    }
+
+    /**
+     * The executor used when none is given, created on first use: virtual threads if the JVM has them,
+     * otherwise a pool of daemon threads, one per processor.
+     */
+    private static final class DefaultExecutor
+    {
+
+        private static final Executor EXECUTOR = create();
+
+        private static Executor create()
+        {
+            try
+            {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("Virtual threads are not available, using a pool of threads.");
+                }
+            }
+
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "esxp-batch-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a batch of records of a document, one after the other, inside a root element, so that they
+ * can be parsed as one document.
+ *
+ * <p>
+ * The records are given as the start and end offsets of each one inside a block of bytes (see
+ * {@link RecordScanner}), and are read straight from the block without copying it.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class BatchStream extends InputStream
+{
+
+    private static final byte[] BATCH_START = "<records>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_END = "</records>".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buf;
+    private final int[] ranges;
+    /** The segment being read: -1 is the start tag of the root, ranges.length/2 its end tag. */
+    private int segment = -1;
+    private int pos;
+
+    BatchStream(ByteBuffer buf, int[] ranges)
+    {
+        this.buf = buf.duplicate(); // Each stream reads from its own view of the block.
+        this.ranges = ranges;
+    }
+
+    /**
+     * Returns the encoding of a document, from its first bytes, to read its batches with.
+     *
+     * @param buf The first bytes of the document.
+     * @param len The number of bytes.
+     *
+     * @return The encoding.
+     *
+     * @throws IOException If the encoding is not one where markup characters are single bytes.
+     */
+    static String encoding(ByteBuffer buf, int len) throws IOException
+    {
+        String encoding = RecordScanner.encoding(buf, 0, len);
+        if (encoding.toUpperCase().startsWith("UTF-16") || encoding.toUpperCase().startsWith("UTF-32"))
+        {
+            throw new IOException("The encoding \"" + encoding + "\" is not supported.");
+        }
+
+        return encoding;
+    }
+
+    @Override
+    public int read()
+    {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        int records = ranges.length / 2;
+        while (segment <= records)
+        {
+            if (segment < 0 || segment == records)
+            {
+                byte[] tag = (segment < 0) ? BATCH_START : BATCH_END;
+                if (pos < tag.length)
+                {
+                    int n = Math.min(len, tag.length - pos);
+                    System.arraycopy(tag, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            }
+            else if (pos < ranges[segment * 2 + 1])
+            {
+                int n = Math.min(len, ranges[segment * 2 + 1] - pos);
+                buf.position(pos);
+                buf.get(b, off, n);
+                pos += n;
+                return n;
+            }
+
+            segment++;
+            pos = (segment >= 0 && segment < records) ? ranges[segment * 2] : 0;
+        }
+
+        return -1;
+    }
+}
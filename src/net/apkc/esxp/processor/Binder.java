@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.metrics.FlightEvent;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Node;
+
+/**
+ * Unmarshaller of {@link UnmarshalledObject} subclasses whose fields or setters are annotated with
+ * {@link NodePath}.
+ *
+ * <p>
+ * The annotations of a class are compiled once, on the first call to {@link #of(Class)}, into a
+ * dispatch table: a tree of path steps where each step holds the setters bound to it as
+ * {@link MethodHandle}s. Binding a record is then a single walk of the record's subtree that only
+ * descends into elements present in the table, and calls the setters of each element it reaches.
+ * No reflection is used after the table was compiled.
+ * </p>
+ *
+ * <p>
+ * Element names are matched ignoring the case of ASCII letters, like the record tags of the
+ * {@link ParallelProcessor} and the {@link Pipeline}, so {@code <Page>} is a record of
+ * {@code page}. Non-ASCII characters must match exactly. When a path matches several elements of a
+ * record, the setter is called for each one in document order, so the last value wins. Binders are
+ * thread-safe.
+ * </p>
+ *
+ * <pre>
+ * List&lt;WikiPage&gt; pages = Binder.of(WikiPage.class).bindAll(doc.getDocumentElement());
+ * </pre>
+ *
+ * @param <T> The type of the objects.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class Binder<T extends UnmarshalledObject> implements Unmarshaller<T>
+{
+
+    private static final Logger LOG = Logger.getLogger(Binder.class.getName());
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    /** The type of all compiled setters. */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, UnmarshalledObject.class, String.class);
+    private static final ConcurrentMap<Class<?>, Binder<?>> BINDERS = new ConcurrentHashMap<>();
+    private final byte WALKER = DOMWalkerFactory.SIBLING_DOM_WALKER;
+    private final Processor processor = Processor.newBuild();
+    private final Class<T> type;
+    /** The constructor without parameters of the class, as ()UnmarshalledObject. */
+    private final MethodHandle constructor;
+    /** The first step of the dispatch table, the record element. */
+    private Step record;
+
+    private Binder(Class<T> type) throws BindingException
+    {
+        this.type = type;
+
+        try
+        {
+            Constructor<T> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            constructor = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(UnmarshalledObject.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException | SecurityException e)
+        {
+            throw new BindingException("The class \"" + type.getName() + "\" must have a constructor without parameters.", e);
+        }
+
+        try
+        {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+            {
+                for (Field f : c.getDeclaredFields())
+                {
+                    NodePath path = f.getAnnotation(NodePath.class);
+                    if (path != null)
+                    {
+                        if (Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers()))
+                        {
+                            throw new BindingException("The field \"" + f + "\" can't be static or final.");
+                        }
+                        f.setAccessible(true);
+                        add(path, LOOKUP.unreflectSetter(f), f.getType(), f.toString());
+                    }
+                }
+
+                for (Method m : c.getDeclaredMethods())
+                {
+                    NodePath path = m.getAnnotation(NodePath.class);
+                    if (path != null && !m.isBridge())
+                    {
+                        if (Modifier.isStatic(m.getModifiers()) || m.getParameterTypes().length != 1)
+                        {
+                            throw new BindingException("The method \"" + m + "\" must be an instance method with one parameter.");
+                        }
+                        m.setAccessible(true);
+                        MethodHandle setter = LOOKUP.unreflect(m);
+                        add(path, setter.asType(setter.type().changeReturnType(void.class)), m.getParameterTypes()[0], m.toString());
+                    }
+                }
+            }
+        }
+        catch (IllegalAccessException | SecurityException e)
+        {
+            throw new BindingException("Error compiling the paths of class \"" + type.getName() + "\". Error: " + e.toString(), e);
+        }
+
+        if (record == null)
+        {
+            throw new BindingException("The class \"" + type.getName() + "\" has no field or method annotated with @NodePath.");
+        }
+    }
+
+    /**
+     * Returns the binder of a given class, compiling it on the first call.
+     *
+     * @param <T>  The type of the objects.
+     * @param type The class of the objects.
+     *
+     * @return The binder.
+     *
+     * @throws BindingException If the annotations of the class are not valid.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends UnmarshalledObject> Binder<T> of(Class<T> type) throws BindingException
+    {
+        Binder<?> binder = BINDERS.get(type);
+        if (binder == null)
+        {
+            binder = new Binder<>(type);
+            Binder<?> previous = BINDERS.putIfAbsent(type, binder);
+            if (previous != null)
+            {
+                binder = previous;
+            }
+            else if (LOG.isTraceEnabled())
+            {
+                LOG.trace(">>> BINDER COMPILED: " + type.getName());
+            }
+        }
+
+        return (Binder<T>) binder;
+    }
+
+    /**
+     * Returns the name of the record element, the first step of all paths.
+     *
+     * @return The tag's name of the records.
+     */
+    public String getRecordTag()
+    {
+        return record.name;
+    }
+
+    /**
+     * Creates a new object and binds it to a record.
+     *
+     * @param node The record element.
+     *
+     * @return The new object.
+     *
+     * @throws BindingException If the node is not a record or a setter failed.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T bind(Node node) throws BindingException
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE || !record.matches(node.getNodeName()))
+        {
+            throw new BindingException("The node \"" + node.getNodeName() + "\" is not a \"" + record.name + "\" record.");
+        }
+
+        final FlightEvent event = Flight.beginBind();
+        try
+        {
+            UnmarshalledObject object = (UnmarshalledObject) constructor.invokeExact();
+            bind(node, record, object);
+
+            return (T) object;
+        }
+        catch (BindingException e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new BindingException("Error binding \"" + type.getName() + "\". Error: " + e.toString(), e);
+        }
+        finally
+        {
+            Flight.endBind(event, type, record.name);
+        }
+    }
+
+    /**
+     * Binds a new object to each record found walking the tree from a given node, the node
+     * included. Records inside another record are not bound.
+     *
+     * @param root The node to start searching from.
+     *
+     * @return The objects in document order.
+     *
+     * @throws BindingException If a setter failed.
+     */
+    public List<T> bindAll(Node root) throws BindingException
+    {
+        final List<T> objects = new ArrayList<>();
+        bindAll(root, new RecordHandler<T>()
+        {
+            @Override
+            public void handle(T object)
+            {
+                objects.add(object);
+            }
+        });
+
+        return objects;
+    }
+
+    /**
+     * Binds a new object to each record found walking the tree from a given node, the node
+     * included, and hands each object to a handler. Records inside another record are not bound.
+     *
+     * @param root    The node to start searching from.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of objects bound.
+     *
+     * @throws BindingException If a setter or the handler failed.
+     */
+    public long bindAll(Node root, RecordHandler<T> handler) throws BindingException
+    {
+        long records = 0;
+        DOMWalker walker = DOMWalkerFactory.getWalker(WALKER, root);
+        try
+        {
+            walker.configure(root, DOMWalker.ELEMENT_NODES);
+            while (walker.hasNext())
+            {
+                Node node = walker.nextNode();
+                if (record.matches(node.getNodeName()))
+                {
+                    handler.handle(bind(node));
+                    walker.skipChildren();
+                    records++;
+                }
+            }
+        }
+        catch (BindingException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new BindingException("Error handling record #" + records + ". Error: " + e.toString(), e);
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return records;
+    }
+
+    /**
+     * Calls the setters of an element matched by a step and continues with the children of the
+     * element that match a child step.
+     */
+    private void bind(Node node, Step step, UnmarshalledObject object) throws Throwable
+    {
+        for (Binding binding : step.bindings)
+        {
+            String value = (binding.attribute == null)
+                           ? processor.getNodeValue(node, false)
+                           : processor.getNodeAttributeValue(node, binding.attribute, false);
+            if (binding.acceptsEmpty || value.length() > 0)
+            {
+                binding.setter.invokeExact(object, value);
+            }
+        }
+
+        if (step.children.length == 0)
+        {
+            return;
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+            {
+                Step next = step.child(child.getNodeName());
+                if (next != null)
+                {
+                    bind(child, next, object);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a setter to the dispatch table.
+     *
+     * @param path      The annotation.
+     * @param setter    The setter as (Class, Type)void.
+     * @param valueType The type of the value.
+     * @param member    The name of the field or method, for error messages.
+     */
+    private void add(NodePath path, MethodHandle setter, Class<?> valueType, String member) throws BindingException, IllegalAccessException
+    {
+        String[] names = path.value().split("/", -1);
+        for (String name : names)
+        {
+            if (name.isEmpty())
+            {
+                throw new BindingException("The path \"" + path.value() + "\" of \"" + member + "\" is not valid.");
+            }
+        }
+        if (record == null)
+        {
+            record = new Step(names[0]);
+        }
+        else if (!record.matches(names[0]))
+        {
+            throw new BindingException("The path \"" + path.value() + "\" of \"" + member + "\" doesn't start with \"" + record.name + "\".");
+        }
+
+        MethodHandle converter = converter(valueType);
+        if (converter == null)
+        {
+            throw new BindingException("The type \"" + valueType.getName() + "\" of \"" + member + "\" is not supported.");
+        }
+
+        Step step = record;
+        for (int i = 1; i < names.length; i++)
+        {
+            Step next = step.child(names[i]);
+            if (next == null)
+            {
+                next = new Step(names[i]);
+                step.children = Arrays.copyOf(step.children, step.children.length + 1);
+                step.children[step.children.length - 1] = next;
+            }
+            step = next;
+        }
+
+        step.bindings = Arrays.copyOf(step.bindings, step.bindings.length + 1);
+        step.bindings[step.bindings.length - 1] = new Binding(
+                path.attribute().isEmpty() ? null : path.attribute(),
+                MethodHandles.filterArguments(setter, 1, converter).asType(SETTER_TYPE),
+                valueType == String.class);
+    }
+
+    /**
+     * Returns a method handle that converts a String into a given type, as (String)type.
+     *
+     * @return The converter or NULL if the type is not supported.
+     */
+    private static MethodHandle converter(Class<?> valueType) throws IllegalAccessException
+    {
+        try
+        {
+            MethodHandle converter;
+            if (valueType == String.class)
+            {
+                converter = MethodHandles.identity(String.class);
+            }
+            else if (valueType == int.class || valueType == Integer.class)
+            {
+                converter = LOOKUP.findStatic(Integer.class, "parseInt", MethodType.methodType(int.class, String.class));
+            }
+            else if (valueType == long.class || valueType == Long.class)
+            {
+                converter = LOOKUP.findStatic(Long.class, "parseLong", MethodType.methodType(long.class, String.class));
+            }
+            else if (valueType == boolean.class || valueType == Boolean.class)
+            {
+                converter = LOOKUP.findStatic(Boolean.class, "parseBoolean", MethodType.methodType(boolean.class, String.class));
+            }
+            else
+            {
+                return null;
+            }
+
+            return converter.asType(MethodType.methodType(valueType, String.class));
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * A step of a path in the dispatch table.
+     */
+    private static final class Step
+    {
+
+        private final String name;
+        /** The name with ASCII letters in lower case. */
+        private final String folded;
+        private Step[] children = new Step[0];
+        private Binding[] bindings = new Binding[0];
+
+        private Step(String name)
+        {
+            this.name = name;
+            final char[] chars = name.toCharArray();
+            for (int i = 0; i < chars.length; i++)
+            {
+                chars[i] = lowerCase(chars[i]);
+            }
+            this.folded = new String(chars);
+        }
+
+        private Step child(String name)
+        {
+            for (Step child : children)
+            {
+                if (child.matches(name))
+                {
+                    return child;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Checks if an element name is the name of this step, ignoring the case of ASCII letters.
+         */
+        private boolean matches(String name)
+        {
+            if (name.length() != folded.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < folded.length(); i++)
+            {
+                if (lowerCase(name.charAt(i)) != folded.charAt(i))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static char lowerCase(char c)
+        {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+        }
+    }
+
+    /**
+     * A setter bound to a step.
+     */
+    private static final class Binding
+    {
+
+        /** The attribute name or NULL for the element's TEXT data. */
+        private final String attribute;
+        /** The setter as (UnmarshalledObject, String)void. */
+        private final MethodHandle setter;
+        /** If the setter takes empty values, only String setters do. */
+        private final boolean acceptsEmpty;
+
+        private Binding(String attribute, MethodHandle setter, boolean acceptsEmpty)
+        {
+            this.attribute = attribute;
+            this.setter = setter;
+            this.acceptsEmpty = acceptsEmpty;
+        }
+    }
+}
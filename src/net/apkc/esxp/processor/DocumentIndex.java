@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.apkc.esxp.utils.SymbolTable;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Index of all ELEMENT nodes of a document, keyed by the symbol of their tag name in a
+ * {@link SymbolTable}, so tag names are matched ignoring case.
+ *
+ * <p>
+ * The index is built in one pass over the document and keeps the nodes of each tag in document
+ * order, which is the same order in which a {@link net.apkc.esxp.walker.DOMWalker} visits them,
+ * along with the pre-order number of each element and of its last descendant. Finding the first
+ * element with a tag under any element is then a binary search on the nodes of the tag.
+ * </p>
+ *
+ * <p>
+ * An index is only built when asked for, with {@link #of(Document)} or by a builder of documents,
+ * and is handed to the processor explicitly. Building it doesn't modify the document in any way.
+ * Once built the index can't change, so it can be shared by any number of threads, but it is a
+ * snapshot: if elements are inserted into or removed from the document afterwards, a new index must
+ * be built.
+ * </p>
+ *
+ * <p>
+ * Builders of documents, like {@link net.apkc.esxp.utils.SAX2DOM}, can index the elements while
+ * creating them, with {@link #newBuild(Document)}, {@link #add(Node)} and {@link #seal()}, instead
+ * of having the document walked again.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class DocumentIndex
+{
+
+    private static final Logger LOG = Logger.getLogger(DocumentIndex.class.getName());
+    /** The indexed document. */
+    private final Document doc;
+    /** The symbols of the tag names. */
+    private final SymbolTable symbols = new SymbolTable();
+    /** Symbol of a tag name -> ELEMENT nodes in document order. */
+    private final List<List<Node>> tags = new ArrayList<>();
+    /** Symbol of a tag name -> pre-order number of each of its nodes, parallel to the lists of tags. */
+    private int[][] orders = new int[16][];
+    /** All ELEMENT nodes, in pre-order. */
+    private Node[] elements = new Node[64];
+    private int size = 0;
+    /** Pre-order number of the last descendant of each element, or of the element if it has none. */
+    private int[] ends = null;
+    /** Hash table of pre-order number + 1 of each element, by node, 0 if the slot is empty. */
+    private int[] slots = null;
+    /** If all elements were added, after which the index can't change. */
+    private boolean sealed = false;
+
+    private DocumentIndex(Document doc)
+    {
+        this.doc = doc;
+    }
+
+    /**
+     * Builds the index of a given document, walking all its elements once.
+     *
+     * @param doc The document to index.
+     *
+     * @return The index of the document.
+     */
+    public static DocumentIndex of(Document doc)
+    {
+        return new DocumentIndex(doc).build().seal();
+    }
+
+    /**
+     * Returns a new empty index of a given document, to be filled with {@link #add(Node)} while the
+     * document is built and then sealed with {@link #seal()}.
+     *
+     * @param doc The document to index.
+     *
+     * @return The new index.
+     */
+    public static DocumentIndex newBuild(Document doc)
+    {
+        return new DocumentIndex(doc);
+    }
+
+    /**
+     * Adds an element to the index. Elements must be added in document order, i.e. each element
+     * after its parent and its previous siblings and their children.
+     *
+     * @param element The ELEMENT node.
+     *
+     * @return This instance.
+     */
+    public DocumentIndex add(Node element)
+    {
+        if (sealed)
+        {
+            throw new IllegalStateException("The index is already sealed!");
+        }
+
+        final int symbol = symbols.add(element.getNodeName());
+        if (symbol == tags.size())
+        {
+            tags.add(new ArrayList<Node>());
+            if (symbol == orders.length)
+            {
+                orders = Arrays.copyOf(orders, symbol << 1);
+            }
+            orders[symbol] = new int[4];
+        }
+
+        final List<Node> nodes = tags.get(symbol);
+        if (nodes.size() == orders[symbol].length)
+        {
+            orders[symbol] = Arrays.copyOf(orders[symbol], nodes.size() << 1);
+        }
+        orders[symbol][nodes.size()] = size;
+        nodes.add(element);
+
+        if (size == elements.length)
+        {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        elements[size++] = element;
+
+        return this;
+    }
+
+    /**
+     * Ends the building of this index, after which it can't be changed and can be queried.
+     *
+     * @return This instance.
+     */
+    public DocumentIndex seal()
+    {
+        if (sealed)
+        {
+            return this;
+        }
+
+        sealed = true;
+        for (int i = 0; i < tags.size(); i++)
+        {
+            ((ArrayList<Node>) tags.get(i)).trimToSize();
+            tags.set(i, Collections.unmodifiableList(tags.get(i)));
+        }
+        elements = Arrays.copyOf(elements, size);
+
+        // An element ends right before the first element that isn't its descendant.
+        ends = new int[size];
+        int[] open = new int[16];
+        int depth = 0;
+        for (int i = 0; i < size; i++)
+        {
+            final Node parent = elements[i].getParentNode();
+            while (depth > 0 && !elements[open[depth - 1]].isSameNode(parent))
+            {
+                ends[open[--depth]] = i - 1;
+            }
+            if (depth == open.length)
+            {
+                open = Arrays.copyOf(open, depth << 1);
+            }
+            open[depth++] = i;
+        }
+        while (depth > 0)
+        {
+            ends[open[--depth]] = size - 1;
+        }
+
+        int capacity = 2;
+        while (capacity < size << 1)
+        {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++)
+        {
+            for (int slot = hash(elements[i]) & (capacity - 1);; slot = (slot + 1) & (capacity - 1))
+            {
+                if (slots[slot] == 0)
+                {
+                    slots[slot] = i + 1;
+                    break;
+                }
+            }
+        }
+
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> DOCUMENT INDEXED: " + size + " ELEMENTS, " + tags.size() + " TAGS");
+        }
+
+        return this;
+    }
+
+    /**
+     * Walks the document once, in pre-order and visiting only ELEMENT nodes, and adds each element
+     * to the list of its tag.
+     *
+     * @return This instance.
+     */
+    private DocumentIndex build()
+    {
+        Node root = doc.getDocumentElement();
+        Node node = root;
+        while (node != null)
+        {
+            add(node);
+
+            // Next element in pre-order: first child, else next sibling of this node or an ancestor.
+            Node next = firstElement(node.getFirstChild());
+            while (next == null && !node.isSameNode(root))
+            {
+                next = firstElement(node.getNextSibling());
+                node = node.getParentNode();
+            }
+            node = next;
+        }
+
+        return this;
+    }
+
+    private static Node firstElement(Node node)
+    {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE)
+        {
+            node = node.getNextSibling();
+        }
+
+        return node;
+    }
+
+    private static int hash(Node node)
+    {
+        final int h = node.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the pre-order number of an element of the index.
+     *
+     * @param node The node.
+     *
+     * @return The number or -1 if the node is not in the index.
+     */
+    private int position(Node node)
+    {
+        final int mask = slots.length - 1;
+        for (int i = hash(node) & mask;; i = (i + 1) & mask)
+        {
+            final int slot = slots[i];
+            if (slot == 0)
+            {
+                return -1;
+            }
+            if (elements[slot - 1].isSameNode(node))
+            {
+                return slot - 1;
+            }
+        }
+    }
+
+    private void checkSealed()
+    {
+        if (!sealed)
+        {
+            throw new IllegalStateException("The index is still being built!");
+        }
+    }
+
+    /**
+     * Returns the indexed document.
+     *
+     * @return The document.
+     */
+    public Document getDocument()
+    {
+        return doc;
+    }
+
+    /**
+     * Returns all ELEMENT nodes with a given tag name, ignoring case.
+     *
+     * @param tag The tag's name.
+     *
+     * @return The nodes in document order, or an empty list.
+     */
+    public List<Node> getNodes(String tag)
+    {
+        checkSealed();
+        final int symbol = symbols.lookup(tag);
+        return (symbol != SymbolTable.NOT_FOUND) ? tags.get(symbol) : Collections.<Node>emptyList();
+    }
+
+    /**
+     * Returns the first element named as the root node, the same node returned by
+     * {@code doc.getElementsByTagName(rootNodeName).item(0)}.
+     *
+     * @param rootNodeName The name of the root node.
+     *
+     * @return The root node or NULL if not found.
+     */
+    public Node getRootNode(String rootNodeName)
+    {
+        if (rootNodeName.equals("*"))
+        {
+            return doc.getDocumentElement();
+        }
+
+        List<Node> nodes = getNodes(rootNodeName);
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            if (nodes.get(i).getNodeName().equals(rootNodeName))
+            {
+                return nodes.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first element with a given tag name, ignoring case, found in the subtree of a given
+     * root node (root included). This is the first node a walker started at the root node finds.
+     *
+     * <p>
+     * The root node is found in a hash table and the node in the list of its tag with a binary
+     * search, so the time taken depends neither on the depth of the root node nor on the size of its
+     * subtree.
+     * </p>
+     *
+     * @param root The root node.
+     * @param tag  The tag's name.
+     *
+     * @return The node or NULL if not found.
+     */
+    public Node searchNode(Node root, String tag)
+    {
+        checkSealed();
+        final int symbol = symbols.lookup(tag);
+        if (symbol == SymbolTable.NOT_FOUND || root == null)
+        {
+            return null;
+        }
+
+        final List<Node> nodes = tags.get(symbol);
+        if (root.getNodeType() == Node.DOCUMENT_NODE)
+        {
+            return root.isSameNode(doc) ? nodes.get(0) : null;
+        }
+
+        final int first = position(root);
+        if (first < 0)
+        {
+            return null; // Not an element of this document.
+        }
+
+        int i = Arrays.binarySearch(orders[symbol], 0, nodes.size(), first);
+        if (i < 0)
+        {
+            i = -i - 1;
+        }
+
+        return (i < nodes.size() && orders[symbol][i] <= ends[first]) ? nodes.get(i) : null;
+    }
+}
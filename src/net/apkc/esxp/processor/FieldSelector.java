@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.apkc.esxp.utils.SymbolTable;
+
+/**
+ * Set of fields to extract from a DOM tree in one pass. Each field is either the value of a tag or
+ * the value of an attribute of a tag.
+ *
+ * <p>
+ * Fields are numbered in the order they were added, and that number is the position of the field's
+ * value in the array filled by {@link Processor#searchValues(org.w3c.dom.Node, FieldSelector, String[], boolean)}.
+ * Once configured a selector can be shared between threads.
+ * </p>
+ *
+ * <pre>
+ * FieldSelector fields = FieldSelector.newBuild()
+ *         .addTag("title")                // 0
+ *         .addTag("timestamp")            // 1
+ *         .addAttribute("text", "bytes"); // 2
+ * </pre>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class FieldSelector
+{
+
+    /** Separator between tag and attribute name in the keys of attribute fields. */
+    public static final char ATTRIBUTE_SEPARATOR = '@';
+    /** The tag of each field. */
+    private final List<String> tags = new ArrayList<>();
+    /** The attribute of each field, or NULL if the field is the tag's value. */
+    private final List<String> attributes = new ArrayList<>();
+    /** The symbols of the tag names. */
+    private final SymbolTable symbols = new SymbolTable();
+    /** Symbol of a tag name -> fields of that tag. */
+    private int[][] fieldsByTag = new int[0][];
+
+    private FieldSelector()
+    {
+    }
+
+    public static FieldSelector newBuild()
+    {
+        return new FieldSelector();
+    }
+
+    /**
+     * Adds a field for the value of a tag.
+     *
+     * @param tag The tag's name.
+     *
+     * @return This instance.
+     */
+    public FieldSelector addTag(String tag)
+    {
+        return add(tag, null);
+    }
+
+    /**
+     * Adds a field for the value of an attribute of a tag.
+     *
+     * @param tag           The tag's name.
+     * @param attributeName The attribute name.
+     *
+     * @return This instance.
+     */
+    public FieldSelector addAttribute(String tag, String attributeName)
+    {
+        if (attributeName == null)
+        {
+            throw new IllegalArgumentException("The attribute name can't be NULL!");
+        }
+
+        return add(tag, attributeName);
+    }
+
+    private FieldSelector add(String tag, String attributeName)
+    {
+        if (tag == null)
+        {
+            throw new IllegalArgumentException("The tag name can't be NULL!");
+        }
+
+        int field = tags.size();
+        tags.add(tag);
+        attributes.add(attributeName);
+
+        int symbol = symbols.add(tag);
+        if (symbol == fieldsByTag.length)
+        {
+            fieldsByTag = Arrays.copyOf(fieldsByTag, symbol + 1);
+            fieldsByTag[symbol] = new int[0];
+        }
+        int[] fields = Arrays.copyOf(fieldsByTag[symbol], fieldsByTag[symbol].length + 1);
+        fields[fields.length - 1] = field;
+        fieldsByTag[symbol] = fields;
+
+        return this;
+    }
+
+    /**
+     * Returns the number of fields.
+     *
+     * @return The number of fields.
+     */
+    public int size()
+    {
+        return tags.size();
+    }
+
+    /**
+     * Returns the tag of a field.
+     *
+     * @param field The field number.
+     *
+     * @return The tag's name.
+     */
+    public String getTag(int field)
+    {
+        return tags.get(field);
+    }
+
+    /**
+     * Returns the attribute of a field.
+     *
+     * @param field The field number.
+     *
+     * @return The attribute name or NULL if the field is the tag's value.
+     */
+    public String getAttribute(int field)
+    {
+        return attributes.get(field);
+    }
+
+    /**
+     * Returns the key of a field, which is the tag's name for tag fields and "tag@attribute" for
+     * attribute fields.
+     *
+     * @param field The field number.
+     *
+     * @return The key of the field.
+     */
+    public String getKey(int field)
+    {
+        return (attributes.get(field) == null) ? tags.get(field) : tags.get(field) + ATTRIBUTE_SEPARATOR + attributes.get(field);
+    }
+
+    /**
+     * Returns the fields of a given tag, ignoring case.
+     *
+     * @param tag The tag's name.
+     *
+     * @return The field numbers or NULL if no field uses the tag.
+     */
+    int[] getFields(String tag)
+    {
+        int symbol = symbols.lookup(tag);
+        return (symbol != SymbolTable.NOT_FOUND) ? fieldsByTag[symbol] : null;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field or a setter of an {@link UnmarshalledObject} to the value of a node.
+ *
+ * <p>
+ * The path is made of the names of the elements, separated by "/", from the record element down to
+ * the node, e.g. "page/revision/contributor/id". All paths of a class must start with the same
+ * record element. If an attribute is given, the value is the attribute's value, otherwise it's the
+ * element's TEXT data.
+ * </p>
+ *
+ * <pre>
+ * &#64;NodePath("page/revision/id")
+ * void setRevId(String p)
+ *
+ * &#64;NodePath(value = "page/revision/text", attribute = "bytes")
+ * void setRevTextBytes(String p)
+ * </pre>
+ *
+ * <p>
+ * Setters take one parameter, and setters and fields can be of type String, int, long or boolean
+ * (or their wrappers).
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ * @see Binder
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(
+{
+    ElementType.FIELD, ElementType.METHOD
+})
+public @interface NodePath
+{
+
+    /**
+     * The path of the element, from the record element.
+     *
+     * @return The path.
+     */
+    String value();
+
+    /**
+     * The name of the attribute of the element, or an empty string for the element's TEXT data.
+     *
+     * @return The attribute name.
+     */
+    String attribute() default "";
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.MappedFileInput;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * XML Processor that parses the records of a large document (e.g. each {@code <page>} of a
+ * MediaWiki dump) in parallel.
+ *
+ * <p>
+ * The calling thread scans the bytes of the document for the boundaries of the records, without
+ * parsing them, and groups consecutive records into batches of about {@link #setBatchSize(int)}
+ * bytes. Each batch is parsed into its own DOM tree and its records converted by the
+ * {@link Unmarshaller} on a {@link ForkJoinPool}, so the parse and the binding scale with the
+ * number of workers while the scan, which is much cheaper, stays sequential. Only a few batches per
+ * worker are in flight at any time, so memory is bounded when reading from a stream. Files are
+ * mapped in memory one window at a time, so they are scanned and parsed straight from the page
+ * cache without copying them into the heap.
+ * </p>
+ *
+ * <p>
+ * The objects are handed to the {@link RecordHandler} in document order from the calling thread, or
+ * in the order the batches complete if the processor is unordered, then from the worker threads but
+ * never concurrently.
+ * </p>
+ *
+ * <p>
+ * Limits: each record is parsed without the context of the document, so the record elements must
+ * be written without a namespace prefix, namespace declarations and entities of the root element or
+ * the DTD are not seen by the parser, and the document must use an encoding where markup
+ * characters are single bytes (e.g. UTF-8 or ISO-8859-1).
+ * </p>
+ *
+ * @param <T> The type of the objects.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class ParallelProcessor<T extends UnmarshalledObject>
+{
+
+    private static final Logger LOG = Logger.getLogger(ParallelProcessor.class.getName());
+    private final String recordTag;
+    private final Unmarshaller<T> unmarshaller;
+    private final DocumentLoader loader = DocumentLoader.newBuild()
+            .setNamespaceAware(false)
+            .setCoalescing(false)
+            .setIgnoringComments(false)
+            .setSecureProcessing(true);
+    private ForkJoinPool pool;
+    private boolean ordered = true;
+    /** The minimum size in bytes of a batch of records. */
+    private int batchSize = 1 << 20;
+    /** The size in bytes of the blocks read from a stream or mapped from a file. */
+    private int chunkSize = 1 << 24;
+
+    private ParallelProcessor(String recordTag, Unmarshaller<T> unmarshaller) throws ParserConfigurationException
+    {
+        this.recordTag = recordTag;
+        this.unmarshaller = unmarshaller;
+        loader.newDocument(); // Fail here if the configuration is not supported.
+    }
+
+    /**
+     * Creates a new processor.
+     *
+     * @param <T>          The type of the objects.
+     * @param recordTag    The tag's name of the records, matched ignoring the case of ASCII letters.
+     * @param unmarshaller The unmarshaller of the records, e.g. a {@link Binder}.
+     *
+     * @return The new processor.
+     *
+     * @throws ParserConfigurationException If the DOM parser can't be configured.
+     */
+    public static <T extends UnmarshalledObject> ParallelProcessor<T> newBuild(String recordTag, Unmarshaller<T> unmarshaller)
+            throws ParserConfigurationException
+    {
+        return new ParallelProcessor<>(recordTag, unmarshaller);
+    }
+
+    /**
+     * Sets the pool where records are parsed. By default a pool shared by all processors, with one
+     * worker per processor, is used.
+     *
+     * @param pool The pool.
+     *
+     * @return This instance.
+     */
+    public ParallelProcessor<T> setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Sets if the objects are handed to the handler in document order. The default is TRUE.
+     *
+     * @param ordered FALSE to hand them as soon as their batch is done.
+     *
+     * @return This instance.
+     */
+    public ParallelProcessor<T> setOrdered(boolean ordered)
+    {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Sets the minimum size of a batch of records. The default is 1MiB.
+     *
+     * @param batchSize The size in bytes.
+     *
+     * @return This instance.
+     */
+    public ParallelProcessor<T> setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the size of the blocks read from a stream or mapped from a file. Blocks grow if a record is
+     * larger. The default is 16MiB.
+     *
+     * @param chunkSize The size in bytes.
+     *
+     * @return This instance.
+     */
+    public ParallelProcessor<T> setChunkSize(int chunkSize)
+    {
+        this.chunkSize = Math.max(1024, chunkSize);
+        return this;
+    }
+
+    /**
+     * Processes all records of a document held in memory.
+     *
+     * @param xml     The XML document.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of records processed.
+     *
+     * @throws IOException      If the encoding of the document is not supported.
+     * @throws SAXException     If a record is not well-formed.
+     * @throws BindingException If a record can't be converted or the handler failed.
+     */
+    public long process(byte[] xml, RecordHandler<T> handler) throws IOException, SAXException, BindingException
+    {
+        ByteBuffer buf = ByteBuffer.wrap(xml);
+        Run run = new Run(handler, BatchStream.encoding(buf, xml.length));
+        try
+        {
+            scan(run, buf, xml.length, true);
+            run.finish();
+        }
+        finally
+        {
+            run.cancel();
+        }
+
+        return run.records;
+    }
+
+    /**
+     * Processes all records of a document read from a stream. The stream is not closed.
+     *
+     * @param xml     The XML document.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of records processed.
+     *
+     * @throws IOException      If the stream can't be read or the encoding is not supported.
+     * @throws SAXException     If a record is not well-formed.
+     * @throws BindingException If a record can't be converted or the handler failed.
+     */
+    public long process(InputStream xml, RecordHandler<T> handler) throws IOException, SAXException, BindingException
+    {
+        byte[] buf = new byte[chunkSize];
+        int len = fill(xml, buf, 0);
+        Run run = new Run(handler, BatchStream.encoding(ByteBuffer.wrap(buf), len));
+        try
+        {
+            while (true)
+            {
+                boolean eof = len < buf.length;
+                int keep = scan(run, ByteBuffer.wrap(buf), len, eof);
+                if (eof)
+                {
+                    break;
+                }
+
+                // Records already found keep a reference to the old block, so always copy.
+                int remaining = len - keep;
+                byte[] next = new byte[Math.max(chunkSize, remaining * 2)];
+                System.arraycopy(buf, keep, next, 0, remaining);
+                buf = next;
+                len = fill(xml, buf, remaining);
+            }
+            run.finish();
+        }
+        finally
+        {
+            run.cancel();
+        }
+
+        return run.records;
+    }
+
+    /**
+     * Processes all records of a file, mapping it in memory one window at a time.
+     *
+     * @param xml     The XML document.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of records processed.
+     *
+     * @throws IOException      If the file can't be read or the encoding is not supported.
+     * @throws SAXException     If a record is not well-formed.
+     * @throws BindingException If a record can't be converted or the handler failed.
+     */
+    public long process(Path xml, RecordHandler<T> handler) throws IOException, SAXException, BindingException
+    {
+        try (MappedFileInput input = MappedFileInput.open(xml))
+        {
+            long position = 0;
+            int windowSize = chunkSize;
+            ByteBuffer window = input.map(position, windowSize);
+            Run run = new Run(handler, BatchStream.encoding(window, window.limit()));
+            try
+            {
+                while (true)
+                {
+                    boolean eof = position + window.limit() >= input.size();
+                    int keep = scan(run, window, window.limit(), eof);
+                    if (eof)
+                    {
+                        break;
+                    }
+
+                    // The next window starts at the first record not found, which is never copied.
+                    if (keep == 0)
+                    {
+                        windowSize = (windowSize > Integer.MAX_VALUE / 2) ? Integer.MAX_VALUE : windowSize * 2;
+                    }
+                    position += keep;
+                    window = input.map(position, windowSize);
+                }
+                run.finish();
+            }
+            finally
+            {
+                run.cancel();
+            }
+
+            return run.records;
+        }
+    }
+
+    /**
+     * Finds the records of a block and adds them to the batches.
+     *
+     * @return The offset of the first byte of the block that was not scanned.
+     */
+    private int scan(Run run, ByteBuffer buf, int len, boolean eof) throws IOException, SAXException, BindingException
+    {
+        RecordScanner scanner = new RecordScanner(recordTag);
+        int p = 0;
+        while (scanner.find(buf, p, len))
+        {
+            run.add(buf, scanner.start(), scanner.end());
+            p = scanner.end();
+        }
+        if (eof && scanner.start() < len)
+        {
+            throw new SAXException("XML document structures must start and end within the same entity.");
+        }
+
+        return scanner.start();
+    }
+
+    /**
+     * Reads from a stream until a buffer is full or the stream ends.
+     *
+     * @return The number of bytes in the buffer.
+     */
+    private static int fill(InputStream in, byte[] buf, int off) throws IOException
+    {
+        int n;
+        while (off < buf.length && (n = in.read(buf, off, buf.length - off)) >= 0)
+        {
+            off += n;
+        }
+
+        return off;
+    }
+
+    private ForkJoinPool pool()
+    {
+        return (pool != null) ? pool : DefaultPool.POOL;
+    }
+
+    /**
+     * The state of one call to process().
+     */
+    private final class Run
+    {
+
+        private final RecordHandler<T> handler;
+        private final String encoding;
+        private final ForkJoinPool pool = pool();
+        /** The batches in flight, in document order. */
+        private final Deque<ForkJoinTask<List<T>>> batches = new ArrayDeque<>();
+        private final int window = pool.getParallelism() * 2 + 1;
+        /** The batch being filled: its block and the start and end offsets of each record. */
+        private ByteBuffer buf;
+        private int[] ranges = new int[64];
+        private int count;
+        private int bytes;
+        private long records;
+
+        private Run(RecordHandler<T> handler, String encoding)
+        {
+            this.handler = handler;
+            this.encoding = encoding;
+        }
+
+        private void add(ByteBuffer block, int start, int end) throws IOException, SAXException, BindingException
+        {
+            if (block != buf && count > 0)
+            {
+                submit();
+            }
+            if (count * 2 == ranges.length)
+            {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+
+            buf = block;
+            ranges[count * 2] = start;
+            ranges[count * 2 + 1] = end;
+            count++;
+            bytes += end - start;
+            if (bytes >= batchSize)
+            {
+                submit();
+            }
+        }
+
+        private void submit() throws IOException, SAXException, BindingException
+        {
+            batches.add(pool.submit(new Batch(this, buf, Arrays.copyOf(ranges, count * 2))));
+            count = 0;
+            bytes = 0;
+            while (batches.size() > window)
+            {
+                complete(batches.poll());
+            }
+        }
+
+        private void finish() throws IOException, SAXException, BindingException
+        {
+            if (count > 0)
+            {
+                submit();
+            }
+            while (!batches.isEmpty())
+            {
+                complete(batches.poll());
+            }
+        }
+
+        /**
+         * Waits for a batch and, if ordered, hands its objects to the handler. The exception of a
+         * failed batch comes wrapped, by the task and again by the pool, so it's rethrown as the
+         * first exception of the chain that process() declares.
+         */
+        private void complete(ForkJoinTask<List<T>> batch) throws IOException, SAXException, BindingException
+        {
+            List<T> objects;
+            try
+            {
+                objects = batch.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new BindingException("Interrupted while waiting for records.", e);
+            }
+            catch (ExecutionException e)
+            {
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                {
+                    if (cause instanceof SAXException)
+                    {
+                        throw (SAXException) cause;
+                    }
+                    if (cause instanceof BindingException)
+                    {
+                        throw (BindingException) cause;
+                    }
+                    if (cause instanceof IOException)
+                    {
+                        throw (IOException) cause;
+                    }
+                }
+                throw new BindingException("Error processing records. Error: " + e.getCause().toString(), e.getCause());
+            }
+
+            if (ordered)
+            {
+                handle(objects);
+            }
+        }
+
+        private void handle(List<T> objects) throws BindingException
+        {
+            for (T object : objects)
+            {
+                try
+                {
+                    handler.handle(object);
+                }
+                catch (Exception e)
+                {
+                    throw new BindingException("Error handling record #" + records + ". Error: " + e.toString(), e);
+                }
+                records++;
+            }
+        }
+
+        /**
+         * Cancels the batches still in flight after an error.
+         */
+        private void cancel()
+        {
+            for (ForkJoinTask<List<T>> batch : batches)
+            {
+                batch.cancel(false);
+            }
+            batches.clear();
+        }
+    }
+
+    /**
+     * Parses a batch of records and converts them.
+     */
+    private final class Batch implements Callable<List<T>>
+    {
+
+        private final Run run;
+        private final ByteBuffer buf;
+        private final int[] ranges;
+
+        private Batch(Run run, ByteBuffer buf, int[] ranges)
+        {
+            this.run = run;
+            this.buf = buf;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public List<T> call() throws Exception
+        {
+            InputSource source = new InputSource(new BatchStream(buf, ranges));
+            source.setEncoding(run.encoding);
+            Document doc = loader.parse(source);
+
+            List<T> objects = new ArrayList<>(ranges.length / 2);
+            for (Node n = doc.getDocumentElement().getFirstChild(); n != null; n = n.getNextSibling())
+            {
+                if (n.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    objects.add(unmarshaller.bind(n));
+                }
+            }
+
+            if (!ordered)
+            {
+                synchronized (run)
+                {
+                    run.handle(objects);
+                }
+            }
+            if (LOG.isTraceEnabled())
+            {
+                LOG.trace(">>> BATCH DONE: " + objects.size() + " records");
+            }
+
+            return objects;
+        }
+    }
+
+    /**
+     * The pool used when none is given, created on first use.
+     */
+    private static final class DefaultPool
+    {
+
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.apkc.esxp.utils.SymbolTable;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A compiled path query, made with {@link Processor#compile(String)}.
+ *
+ * <p>
+ * Queries are a subset of XPath's abbreviated syntax: steps separated by {@code /} (child) or
+ * {@code //} (descendant), each one a tag name (matched ignoring case, as in the rest of the
+ * processor) or {@code *}, optionally followed by a positional predicate {@code [n]} counted from 1
+ * among the matching children of the same parent. The last step can be an attribute, {@code @name}.
+ * Queries are relative to the node they are evaluated on, unless they start with {@code /} or
+ * {@code //}, in which case they start at the document.
+ * </p>
+ *
+ * <pre>
+ * page/revision/contributor/id      The id of the contributors, not of the pages or revisions.
+ * page[2]/title                     The title of the second page.
+ * //text/&#64;bytes                      The bytes attribute of all text elements.
+ * </pre>
+ *
+ * <p>
+ * The steps are compiled into a nondeterministic automaton whose active states are kept in a bit set
+ * per open element, so a query is evaluated in one pass of a {@link DOMWalker} over the elements,
+ * computing the states of each element from the ones of its parent, without backtracking. Subtrees
+ * where no state is active are skipped. A compiled query holds no evaluation state, so it can be
+ * shared between threads and used with any number of documents.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class PathQuery
+{
+
+    private static final Logger LOG = Logger.getLogger(PathQuery.class.getName());
+    /** The most steps a query can have, one per bit of the states. */
+    public static final int MAX_STEPS = 64;
+    /** Symbol of the steps that match any element. */
+    private static final int WILDCARD = -2;
+    private final String query;
+    /** If the query starts at the document instead of the node it is evaluated on. */
+    private final boolean absolute;
+    /** The symbol of the tag name of each step, in the symbols table, or WILDCARD. */
+    private final int[] names;
+    /** If each step is a descendant step, otherwise it is a child step. */
+    private final boolean[] descendant;
+    /** The position required by each step, or 0 if any. */
+    private final int[] positions;
+    /** The attribute selected by the query, or NULL if it selects elements. */
+    private final String attribute;
+    /** The tag names of the steps. */
+    private final SymbolTable symbols;
+
+    private PathQuery(String query, boolean absolute, int[] names, boolean[] descendant, int[] positions, String attribute, SymbolTable symbols)
+    {
+        this.query = query;
+        this.absolute = absolute;
+        this.names = names;
+        this.descendant = descendant;
+        this.positions = positions;
+        this.attribute = attribute;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Compiles a query.
+     *
+     * @param query The query.
+     *
+     * @return The compiled query.
+     *
+     * @throws IllegalArgumentException If the query is not valid.
+     */
+    static PathQuery compile(String query)
+    {
+        if (query == null || query.trim().isEmpty())
+        {
+            throw new IllegalArgumentException("The query can't be empty!");
+        }
+
+        final String q = query.trim();
+        final SymbolTable symbols = new SymbolTable();
+        int[] names = new int[8];
+        boolean[] descendant = new boolean[8];
+        int[] positions = new int[8];
+        int steps = 0;
+        String attribute = null;
+
+        int i = 0;
+        final boolean absolute = q.charAt(0) == '/';
+        if (q.startsWith(".//"))
+        {
+            i = 1; // Descendants of the node the query is evaluated on.
+        }
+        while (i < q.length())
+        {
+            if (attribute != null)
+            {
+                throw invalid(q, "the attribute must be the last step");
+            }
+
+            boolean desc = false;
+            if (q.startsWith("//", i))
+            {
+                desc = true;
+                i += 2;
+            }
+            else if (q.charAt(i) == '/')
+            {
+                i++;
+            }
+            else if (i > 0)
+            {
+                throw invalid(q, "expected / at " + i);
+            }
+
+            int end = i;
+            while (end < q.length() && q.charAt(end) != '/' && q.charAt(end) != '[')
+            {
+                end++;
+            }
+            final String name = q.substring(i, end).trim();
+            if (name.isEmpty() || name.equals("@"))
+            {
+                throw invalid(q, "empty step at " + i);
+            }
+            i = end;
+
+            int position = 0;
+            if (i < q.length() && q.charAt(i) == '[')
+            {
+                end = q.indexOf(']', i);
+                if (end < 0)
+                {
+                    throw invalid(q, "unclosed predicate at " + i);
+                }
+                try
+                {
+                    position = Integer.parseInt(q.substring(i + 1, end).trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    throw invalid(q, "only positional predicates are supported");
+                }
+                if (position < 1)
+                {
+                    throw invalid(q, "positions start at 1");
+                }
+                i = end + 1;
+            }
+
+            if (name.charAt(0) == '@')
+            {
+                if (desc || position != 0 || steps == 0)
+                {
+                    throw invalid(q, "the attribute must be a child step of an element step");
+                }
+                attribute = name.substring(1);
+                continue;
+            }
+
+            if (steps == MAX_STEPS)
+            {
+                throw invalid(q, "more than " + MAX_STEPS + " steps");
+            }
+            if (steps == names.length)
+            {
+                names = Arrays.copyOf(names, steps << 1);
+                descendant = Arrays.copyOf(descendant, steps << 1);
+                positions = Arrays.copyOf(positions, steps << 1);
+            }
+            names[steps] = name.equals("*") ? WILDCARD : symbols.add(name);
+            descendant[steps] = desc;
+            positions[steps] = position;
+            steps++;
+        }
+
+        if (steps == 0)
+        {
+            throw invalid(q, "no element steps");
+        }
+
+        return new PathQuery(q, absolute, Arrays.copyOf(names, steps), Arrays.copyOf(descendant, steps), Arrays.copyOf(positions, steps), attribute, symbols);
+    }
+
+    private static IllegalArgumentException invalid(String query, String reason)
+    {
+        return new IllegalArgumentException("Invalid query \"" + query + "\": " + reason + ".");
+    }
+
+    /**
+     * Returns the attribute selected by this query.
+     *
+     * @return The attribute name, or NULL if the query selects elements.
+     */
+    public String getAttribute()
+    {
+        return attribute;
+    }
+
+    /**
+     * Returns the number of element steps.
+     */
+    int size()
+    {
+        return names.length;
+    }
+
+    boolean isAbsolute()
+    {
+        return absolute;
+    }
+
+    /**
+     * Returns the case-folded tag name of a step, or NULL if the step matches any element.
+     */
+    String getName(int step)
+    {
+        return (names[step] == WILDCARD) ? null : symbols.getName(names[step]);
+    }
+
+    boolean isDescendant(int step)
+    {
+        return descendant[step];
+    }
+
+    int getPosition(int step)
+    {
+        return positions[step];
+    }
+
+    /**
+     * Returns the first node selected by this query, in document order.
+     *
+     * @param context The node to evaluate the query on.
+     *
+     * @return The ELEMENT node, or ATTRIBUTE node if the query selects an attribute, or NULL if none.
+     */
+    public Node select(Node context)
+    {
+        final List<Node> matches = new ArrayList<>(1);
+        evaluate(context, matches, true);
+
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Returns all nodes selected by this query, in document order.
+     *
+     * @param context The node to evaluate the query on.
+     *
+     * @return The ELEMENT nodes, or ATTRIBUTE nodes if the query selects an attribute.
+     */
+    public List<Node> selectAll(Node context)
+    {
+        final List<Node> matches = new ArrayList<>();
+        evaluate(context, matches, false);
+
+        return matches;
+    }
+
+    /**
+     * Walks the subtree of the context node once, adding the nodes selected to a list.
+     *
+     * @param context The node to evaluate the query on.
+     * @param matches The list of nodes selected.
+     * @param first   If the walk stops at the first node selected.
+     */
+    private void evaluate(Node context, List<Node> matches, boolean first)
+    {
+        if (absolute && context.getNodeType() != Node.DOCUMENT_NODE)
+        {
+            context = context.getOwnerDocument();
+        }
+
+        final int last = names.length - 1;
+        // The open elements, from the context node down, with their states and the number of
+        // children matched by each step.
+        Node[] nodes = new Node[16];
+        long[] states = new long[16];
+        int[][] counts = new int[16][];
+        int top = -1;
+
+        DOMWalker walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER, context);
+        try
+        {
+            walker.configure(context, DOMWalker.ELEMENT_NODES);
+            walker.nextNode(); // The context node itself.
+            nodes[++top] = context;
+            states[top] = 1L;
+            counts[top] = new int[names.length];
+
+            while (walker.hasNext())
+            {
+                final Node node = walker.nextNode();
+                final Node parent = node.getParentNode();
+                while (!nodes[top].isSameNode(parent))
+                {
+                    nodes[top--] = null;
+                }
+
+                final int symbol = symbols.lookup(node.getNodeName());
+                final int[] count = counts[top];
+                long next = 0L;
+                boolean selected = false;
+                for (long active = states[top]; active != 0L; active &= active - 1)
+                {
+                    final int step = Long.numberOfTrailingZeros(active);
+                    if (descendant[step])
+                    {
+                        next |= 1L << step; // Keeps looking further down.
+                    }
+                    if ((names[step] == WILDCARD || names[step] == symbol) && (++count[step] == positions[step] || positions[step] == 0))
+                    {
+                        if (step == last)
+                        {
+                            selected = true;
+                        }
+                        else
+                        {
+                            next |= 1L << (step + 1);
+                        }
+                    }
+                }
+
+                if (selected)
+                {
+                    final Node match = (attribute == null) ? node : attribute(node);
+                    if (match != null)
+                    {
+                        matches.add(match);
+                        if (first)
+                        {
+                            return;
+                        }
+                    }
+                }
+
+                if (next == 0L)
+                {
+                    walker.skipChildren();
+                }
+                else
+                {
+                    if (++top == nodes.length)
+                    {
+                        nodes = Arrays.copyOf(nodes, top << 1);
+                        states = Arrays.copyOf(states, top << 1);
+                        counts = Arrays.copyOf(counts, top << 1);
+                    }
+                    if (counts[top] == null)
+                    {
+                        counts[top] = new int[names.length];
+                    }
+                    else
+                    {
+                        Arrays.fill(counts[top], 0);
+                    }
+                    nodes[top] = node;
+                    states[top] = next;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error evaluating query \"" + query + "\". Error: " + e.toString(), e);
+        }
+        finally
+        {
+            walker.release();
+        }
+    }
+
+    private Node attribute(Node element)
+    {
+        final NamedNodeMap attributes = element.getAttributes();
+
+        return (attributes != null) ? attributes.getNamedItem(attribute) : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return query;
+    }
+}
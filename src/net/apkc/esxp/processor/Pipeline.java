@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.RingBuffer;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * XML Processor that ingests the records of a large document (e.g. each {@code <page>} of a
+ * MediaWiki dump) as a pipeline of stages running at the same time, each on its own threads.
+ *
+ * <ol>
+ * <li>Read: the calling thread reads the document and scans its bytes for the boundaries of the
+ * records, grouping consecutive records into micro-batches of about {@link #setBatchSize(int)}
+ * bytes. Reading is sequential, so this stage has one thread.</li>
+ * <li>Parse: {@link #setParseThreads(int)} threads parse each batch into a DOM tree.</li>
+ * <li>Bind: {@link #setBindThreads(int)} threads convert the records of each tree with the
+ * {@link Unmarshaller}.</li>
+ * <li>Sink: {@link #setSinkThreads(int)} threads hand the objects to the {@link RecordHandler}.</li>
+ * </ol>
+ *
+ * <p>
+ * The stages are connected by bounded {@link RingBuffer}s of {@link #setCapacity(int)} batches, so
+ * while a stage waits (e.g. the reader for the disk, or the sink for a database) the others keep
+ * working on the batches already queued, and when a stage is slower than the ones before it the
+ * queues fill up and stop them, bounding memory to a few batches per stage instead of the whole
+ * document.
+ * </p>
+ *
+ * <p>
+ * The objects reach the handler in the order batches leave the bind stage, which is the document
+ * order only if the parse and bind stages have one thread each. The handler is called concurrently
+ * only if the sink has several threads. For objects in document order with the parse on many
+ * threads, use the {@link ParallelProcessor}, which has the same limits on the records.
+ * </p>
+ *
+ * @param <T> The type of the objects.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class Pipeline<T extends UnmarshalledObject>
+{
+
+    private static final Logger LOG = Logger.getLogger(Pipeline.class.getName());
+    private final String recordTag;
+    private final Unmarshaller<T> unmarshaller;
+    private final DocumentLoader loader = DocumentLoader.newBuild()
+            .setNamespaceAware(false)
+            .setCoalescing(false)
+            .setIgnoringComments(false)
+            .setSecureProcessing(true);
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int bindThreads = 1;
+    private int sinkThreads = 1;
+    /** The number of batches each queue between two stages holds. */
+    private int capacity = 16;
+    /** The minimum size in bytes of a batch of records. */
+    private int batchSize = 1 << 18;
+    /** The size in bytes of the blocks read from the document. */
+    private int chunkSize = 1 << 20;
+
+    private Pipeline(String recordTag, Unmarshaller<T> unmarshaller) throws ParserConfigurationException
+    {
+        this.recordTag = recordTag;
+        this.unmarshaller = unmarshaller;
+        loader.newDocument(); // Fail here if the configuration is not supported.
+    }
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param <T>          The type of the objects.
+     * @param recordTag    The tag's name of the records, matched ignoring the case of ASCII letters.
+     * @param unmarshaller The unmarshaller of the records, e.g. a {@link Binder}.
+     *
+     * @return The new pipeline.
+     *
+     * @throws ParserConfigurationException If the DOM parser can't be configured.
+     */
+    public static <T extends UnmarshalledObject> Pipeline<T> newBuild(String recordTag, Unmarshaller<T> unmarshaller)
+            throws ParserConfigurationException
+    {
+        return new Pipeline<>(recordTag, unmarshaller);
+    }
+
+    /**
+     * Sets the number of threads that parse batches. The default is one per processor.
+     *
+     * @param threads The number of threads.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setParseThreads(int threads)
+    {
+        this.parseThreads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that convert records. The default is 1.
+     *
+     * @param threads The number of threads.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setBindThreads(int threads)
+    {
+        this.bindThreads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that hand objects to the handler. The default is 1, so the handler
+     * is never called concurrently.
+     *
+     * @param threads The number of threads.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setSinkThreads(int threads)
+    {
+        this.sinkThreads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of batches queued between two stages. The default is 16.
+     *
+     * @param capacity The number of batches, rounded up to a power of 2.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setCapacity(int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+        return this;
+    }
+
+    /**
+     * Sets the minimum size of a batch of records. The default is 256KiB.
+     *
+     * @param batchSize The size in bytes.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the size of the blocks read from the document. Blocks grow if a record is larger. The
+     * default is 1MiB.
+     *
+     * @param chunkSize The size in bytes.
+     *
+     * @return This instance.
+     */
+    public Pipeline<T> setChunkSize(int chunkSize)
+    {
+        this.chunkSize = Math.max(1024, chunkSize);
+        return this;
+    }
+
+    /**
+     * Processes all records of a document read from a stream. The stream is not closed.
+     *
+     * @param xml     The XML document.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of records processed.
+     *
+     * @throws IOException      If the stream can't be read or the encoding is not supported.
+     * @throws SAXException     If a record is not well-formed.
+     * @throws BindingException If a record can't be converted or the handler failed.
+     */
+    public long process(InputStream xml, RecordHandler<T> handler) throws IOException, SAXException, BindingException
+    {
+        byte[] buf = new byte[chunkSize];
+        int len = fill(xml, buf, 0);
+        Run run = new Run(handler, BatchStream.encoding(ByteBuffer.wrap(buf), len));
+        run.start();
+        try
+        {
+            RecordScanner scanner = new RecordScanner(recordTag);
+            while (true)
+            {
+                boolean eof = len < buf.length;
+                ByteBuffer block = ByteBuffer.wrap(buf);
+                int p = 0;
+                while (scanner.find(block, p, len))
+                {
+                    run.add(block, scanner.start(), scanner.end());
+                    p = scanner.end();
+                }
+                if (eof)
+                {
+                    if (scanner.start() < len)
+                    {
+                        throw new SAXException("XML document structures must start and end within the same entity.");
+                    }
+                    break;
+                }
+
+                // Batches already queued keep a reference to the old block, so always copy.
+                int keep = scanner.start();
+                int remaining = len - keep;
+                byte[] next = new byte[Math.max(chunkSize, remaining * 2)];
+                System.arraycopy(buf, keep, next, 0, remaining);
+                buf = next;
+                len = fill(xml, buf, remaining);
+            }
+            run.finish();
+        }
+        catch (IOException | SAXException | InterruptedException | RuntimeException e)
+        {
+            run.fail(e);
+        }
+
+        return run.await();
+    }
+
+    /**
+     * Processes all records of a file.
+     *
+     * @param xml     The XML document.
+     * @param handler The handler of the objects.
+     *
+     * @return The number of records processed.
+     *
+     * @throws IOException      If the file can't be read or the encoding is not supported.
+     * @throws SAXException     If a record is not well-formed.
+     * @throws BindingException If a record can't be converted or the handler failed.
+     */
+    public long process(Path xml, RecordHandler<T> handler) throws IOException, SAXException, BindingException
+    {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xml), chunkSize))
+        {
+            return process(in, handler);
+        }
+    }
+
+    /**
+     * Reads from a stream until a buffer is full or the stream ends.
+     *
+     * @return The number of bytes in the buffer.
+     */
+    private static int fill(InputStream in, byte[] buf, int off) throws IOException
+    {
+        int n;
+        while (off < buf.length && (n = in.read(buf, off, buf.length - off)) >= 0)
+        {
+            off += n;
+        }
+
+        return off;
+    }
+
+    /**
+     * A batch of records on its way through the stages.
+     */
+    private final class Batch
+    {
+
+        /** The block and the start and end offsets of each record, until parsed. */
+        private ByteBuffer buf;
+        private int[] ranges;
+        /** The parsed records, until converted. */
+        private Document doc;
+        private List<T> objects;
+
+        private Batch(ByteBuffer buf, int[] ranges)
+        {
+            this.buf = buf;
+            this.ranges = ranges;
+        }
+    }
+
+    /**
+     * The state of one call to process(): the queues, the threads of the stages and the batch being
+     * filled by the reader.
+     */
+    private final class Run
+    {
+
+        private final RecordHandler<T> handler;
+        private final String encoding;
+        private final RingBuffer<Batch> scanned = RingBuffer.newBuild(capacity);
+        private final RingBuffer<Batch> parsed = RingBuffer.newBuild(capacity);
+        private final RingBuffer<Batch> bound = RingBuffer.newBuild(capacity);
+        private final List<Thread> threads = new ArrayList<>();
+        /** The first error of any stage, which stops all of them. */
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicLong records = new AtomicLong();
+        private ByteBuffer buf;
+        private int[] ranges = new int[64];
+        private int count;
+        private int bytes;
+
+        private Run(RecordHandler<T> handler, String encoding)
+        {
+            this.handler = handler;
+            this.encoding = encoding;
+        }
+
+        private void start()
+        {
+            stage("parse", parseThreads, scanned, parsed, new Step()
+            {
+                @Override
+                void process(Batch batch) throws Exception
+                {
+                    InputSource source = new InputSource(new BatchStream(batch.buf, batch.ranges));
+                    source.setEncoding(encoding);
+                    batch.doc = loader.parse(source);
+                    batch.buf = null;
+                    batch.ranges = null;
+                }
+            });
+            stage("bind", bindThreads, parsed, bound, new Step()
+            {
+                @Override
+                void process(Batch batch) throws Exception
+                {
+                    batch.objects = new ArrayList<>();
+                    for (Node n = batch.doc.getDocumentElement().getFirstChild(); n != null; n = n.getNextSibling())
+                    {
+                        if (n.getNodeType() == Node.ELEMENT_NODE)
+                        {
+                            batch.objects.add(unmarshaller.bind(n));
+                        }
+                    }
+                    batch.doc = null;
+                }
+            });
+            stage("sink", sinkThreads, bound, null, new Step()
+            {
+                @Override
+                void process(Batch batch) throws Exception
+                {
+                    for (T object : batch.objects)
+                    {
+                        try
+                        {
+                            handler.handle(object);
+                        }
+                        catch (Exception e)
+                        {
+                            throw new BindingException("Error handling record. Error: " + e.toString(), e);
+                        }
+                        records.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Starts the threads of a stage. The last thread of the stage to finish closes its output.
+         */
+        private void stage(final String name, int count, final RingBuffer<Batch> in, final RingBuffer<Batch> out, final Step step)
+        {
+            final AtomicInteger running = new AtomicInteger(count);
+            for (int i = 1; i <= count; i++)
+            {
+                Thread t = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Batch batch;
+                            while ((batch = in.take()) != null && failure.get() == null)
+                            {
+                                step.process(batch);
+                                if (out != null)
+                                {
+                                    out.put(batch);
+                                }
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            fail(e);
+                        }
+                        finally
+                        {
+                            if (running.decrementAndGet() == 0 && out != null)
+                            {
+                                out.close();
+                            }
+                        }
+                    }
+                }, "esxp-pipeline-" + name + "-" + i);
+                t.setDaemon(true);
+                threads.add(t);
+                t.start();
+            }
+        }
+
+        private void add(ByteBuffer block, int start, int end) throws InterruptedException
+        {
+            if (block != buf && count > 0)
+            {
+                submit();
+            }
+            if (count * 2 == ranges.length)
+            {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+
+            buf = block;
+            ranges[count * 2] = start;
+            ranges[count * 2 + 1] = end;
+            count++;
+            bytes += end - start;
+            if (bytes >= batchSize)
+            {
+                submit();
+            }
+        }
+
+        private void submit() throws InterruptedException
+        {
+            scanned.put(new Batch(buf, Arrays.copyOf(ranges, count * 2)));
+            count = 0;
+            bytes = 0;
+        }
+
+        private void finish() throws InterruptedException
+        {
+            if (count > 0)
+            {
+                submit();
+            }
+            scanned.close();
+        }
+
+        /**
+         * Records the first error and closes all queues, which stops the threads of all stages.
+         */
+        private void fail(Throwable e)
+        {
+            if (failure.compareAndSet(null, e) && LOG.isDebugEnabled())
+            {
+                LOG.debug("Pipeline stopped. Error: " + e.toString());
+            }
+            scanned.close();
+            parsed.close();
+            bound.close();
+        }
+
+        /**
+         * Waits for all stages and throws the first error, if any.
+         */
+        private long await() throws IOException, SAXException, BindingException
+        {
+            for (Thread t : threads)
+            {
+                while (t.isAlive())
+                {
+                    try
+                    {
+                        t.join();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        fail(e);
+                    }
+                }
+            }
+
+            Throwable e = failure.get();
+            if (e == null)
+            {
+                return records.get();
+            }
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+                throw new BindingException("Interrupted while processing records.", e);
+            }
+            if (e instanceof IOException)
+            {
+                throw (IOException) e;
+            }
+            if (e instanceof SAXException)
+            {
+                throw (SAXException) e;
+            }
+            if (e instanceof BindingException)
+            {
+                throw (BindingException) e;
+            }
+            if (e instanceof Error)
+            {
+                throw (Error) e;
+            }
+            throw new BindingException("Error processing records. Error: " + e.toString(), e);
+        }
+    }
+
+    /**
+     * The work of a stage on one batch.
+     */
+    private abstract class Step
+    {
+
+        abstract void process(Batch batch) throws Exception;
+    }
+}
@@ -25,11 +25,18 @@
  */
 package net.apkc.esxp.processor;
 
+import java.util.Arrays;
+import java.util.Map;
 import net.apkc.esxp.exceptions.AttributeNotFoundException;
 import net.apkc.esxp.exceptions.InvalidNodeException;
 import net.apkc.esxp.exceptions.NodeNotFoundException;
 import net.apkc.esxp.exceptions.TagNotFoundException;
 import net.apkc.esxp.exceptions.TextNotFoundException;
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.metrics.FlightEvent;
+import net.apkc.esxp.metrics.ProcessorMetrics;
+import net.apkc.esxp.utils.SymbolTable;
+import net.apkc.esxp.utils.TextNormalizer;
 import net.apkc.esxp.walker.DOMWalker;
 import net.apkc.esxp.walker.DOMWalkerFactory;
 import org.apache.log4j.Logger;
@@ -49,7 +56,9 @@ public class Processor
 {
 
     private static final Logger LOG = Logger.getLogger(Processor.class.getName());
-    private final byte WALKER = DOMWalkerFactory.STACK_DOM_WALKER;
+    private final byte WALKER = DOMWalkerFactory.SIBLING_DOM_WALKER;
+    /** How TEXT data and attribute values are normalized. */
+    private byte textMode = TextNormalizer.COLLAPSE;
 
     private Processor()
     {
@@ -60,6 +69,107 @@ public class Processor
         return new Processor();
     }
 
+    /**
+     * Sets how TEXT data and attribute values retrieved by this processor are normalized. The default
+     * is {@link TextNormalizer#COLLAPSE}. Documents built by {@link net.apkc.esxp.utils.SAX2DOM} with
+     * the same normalization mode are not normalized again.
+     *
+     * @param textMode One of the modes of {@link TextNormalizer}.
+     *
+     * @return This instance.
+     */
+    public Processor setTextMode(byte textMode)
+    {
+        this.textMode = textMode;
+        return this;
+    }
+
+    /**
+     * Compiles a path query, e.g. {@code page/revision/contributor/id}, to be evaluated with
+     * {@link #searchValue(Node, PathQuery, boolean)}, {@link #searchNode(Node, PathQuery)} or the
+     * query itself. See {@link PathQuery} for the syntax.
+     *
+     * @param query The query.
+     *
+     * @return The compiled query, which can be shared between threads and documents.
+     *
+     * @throws IllegalArgumentException If the query is not valid.
+     */
+    public static PathQuery compile(String query)
+    {
+        return PathQuery.compile(query);
+    }
+
+    /**
+     * Evaluates a path query and retrieves the value of the first node selected: the TEXT data of an
+     * element or the value of an attribute.
+     *
+     * @param root   The node to evaluate the query on.
+     * @param query  The compiled query.
+     * @param strict If TRUE this method will raise an exception if the query selected nothing. If
+     *               FALSE will return an empty string.
+     *
+     * @return The value.
+     *
+     * @throws TagNotFoundException If the query selected nothing.
+     */
+    public String searchValue(Node root, PathQuery query, boolean strict)
+            throws TagNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        try
+        {
+            Node node = query.select(root);
+            if (node != null)
+            {
+                String value = (node.getNodeType() == Node.ATTRIBUTE_NODE) ? normalize(node, node.getNodeValue()) : findText(node);
+                hit(ProcessorMetrics.SEARCH_VALUE, start, event, query, null);
+                return (value != null) ? value : "";
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
+        }
+
+        miss(ProcessorMetrics.SEARCH_VALUE, start, event, query, null, strict);
+        if (strict)
+        {
+            throw new TagNotFoundException("The path \"" + query + "\" was not found in the XML.");
+        }
+        else
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Evaluates a path query and retrieves the first node selected.
+     *
+     * @param root  The node to evaluate the query on.
+     * @param query The compiled query.
+     *
+     * @return The node.
+     *
+     * @throws NodeNotFoundException If the query selected nothing.
+     */
+    public Node searchNode(Node root, PathQuery query)
+            throws NodeNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        Node node = query.select(root);
+        if (node == null)
+        {
+            miss(ProcessorMetrics.SEARCH_PATH, start, event, query, null, false);
+            throw new NodeNotFoundException("The path \"" + query + "\" was not found in the XML.");
+        }
+
+        hit(ProcessorMetrics.SEARCH_PATH, start, event, query, null);
+        return node;
+    }
+
     /**
      * Walks the DOM tree in search of a given tag and when found retrieves the tag's value.
      *
@@ -76,41 +186,56 @@ public class Processor
     public String searchTagValue(Document doc, String rootNodeName, String tag, boolean strict)
             throws TagNotFoundException
     {
-        NodeList nodes = doc.getElementsByTagName(rootNodeName);
-
-        try
-        {
-            DOMWalker walker = DOMWalkerFactory.getWalker(WALKER).configure(nodes.item(0), DOMWalker.ELEMENT_NODES);
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return tagValue(searchTag(searchRoot(doc, rootNodeName), tag), tag, strict, start, event);
+    }
 
-            if (LOG.isTraceEnabled())
-            {
-                LOG.trace(">>> OBTAINING TAG: " + tag);
-            }
+    /**
+     * Searches the index of a document for a given tag and when found retrieves the tag's value. Finds
+     * the same tag as {@link #searchTagValue(Document, String, String, boolean)} without walking the
+     * tree.
+     *
+     * @param index        The index of the XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param tag          The tag's name
+     * @param strict       If TRUE this method will raise an exception if the tag to search was not found. If
+     *                     FALSE will return an empty string.
+     *
+     * @return The tag's value
+     *
+     * @throws TagNotFoundException If the required tag was not found.
+     */
+    public String searchTagValue(DocumentIndex index, String rootNodeName, String tag, boolean strict)
+            throws TagNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return tagValue(searchTag(index, rootNodeName, tag), tag, strict, start, event);
+    }
 
-            while (walker.hasNext())
+    /**
+     * Retrieves the value of the tag found by one of the searchTagValue methods.
+     */
+    private String tagValue(Node node, String tag, boolean strict, long start, FlightEvent event)
+            throws TagNotFoundException
+    {
+        if (node != null)
+        {
+            String text = findText(node);
+            if (text != null)
             {
-                Node node = walker.nextNode();
-
-                if (LOG.isTraceEnabled())
-                {
-                    LOG.trace("\t> " + node.getNodeName());
-                }
-                if (node.getNodeName().equalsIgnoreCase(tag))
-                {
-                    return getNodeValue(node, strict);
-                }
+                hit(ProcessorMetrics.SEARCH_TAG_VALUE, start, event, tag, null);
+                return text;
             }
-
-            if (LOG.isTraceEnabled())
+            else if (!strict)
             {
-                LOG.trace(">>> END OBTAININ TAG: " + tag);
+                miss(ProcessorMetrics.SEARCH_TAG_VALUE, start, event, tag, null, false);
+                return "";
             }
         }
-        catch (Exception e)
-        {
-            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
-        }
 
+        miss(ProcessorMetrics.SEARCH_TAG_VALUE, start, event, tag, null, strict);
         if (strict)
         {
             throw new TagNotFoundException("The tag \"" + tag + "\" was not found in the XML.");
@@ -140,50 +265,81 @@ public class Processor
             throws TagNotFoundException,
                    AttributeNotFoundException
     {
-        NodeList nodes = doc.getElementsByTagName(rootNodeName);
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return tagAttributeValue(searchTag(searchRoot(doc, rootNodeName), tag), tag, attributeName, strict, start, event);
+    }
+
+    /**
+     * Searches the index of a document for a given tag and when found retrieves the tag's attribute
+     * value. Finds the same tag as {@link #searchTagAttributeValue(Document, String, String, String, boolean)}
+     * without walking the tree.
+     *
+     * @param index         The index of the XML document to parse.
+     * @param rootNodeName  The name of the root node of the XML.
+     * @param tag           The tag's name
+     * @param attributeName The attribute name
+     * @param strict        If TRUE this method will raise an exception if the tag or attribute to search were not found. If
+     *                      FALSE will return an empty string.
+     *
+     * @return The attribute value
+     *
+     * @throws TagNotFoundException       If the required tag was not found.
+     * @throws AttributeNotFoundException If the required attribute was not found.
+     */
+    public String searchTagAttributeValue(DocumentIndex index, String rootNodeName, String tag, String attributeName, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return tagAttributeValue(searchTag(index, rootNodeName, tag), tag, attributeName, strict, start, event);
+    }
 
+    /**
+     * Retrieves the attribute value of the tag found by one of the searchTagAttributeValue methods.
+     */
+    private String tagAttributeValue(Node node, String tag, String attributeName, boolean strict, long start, FlightEvent event)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
         try
         {
-            DOMWalker walker = DOMWalkerFactory.getWalker(WALKER).configure(nodes.item(0), DOMWalker.ELEMENT_NODES);
-            while (walker.hasNext())
+            if (node != null)
             {
-                Node node = walker.nextNode();
-                if (node.getNodeType() == Node.ELEMENT_NODE)
+                NamedNodeMap attributes = node.getAttributes();
+                if (attributes == null)
                 {
-                    if (node.getNodeName().equalsIgnoreCase(tag))
+                    if (strict)
                     {
-                        NamedNodeMap attributes = node.getAttributes();
-                        if (attributes == null)
+                        throw new AttributeNotFoundException("The tag \"" + tag + "\" does not contain attributes.");
+                    }
+                    else
+                    {
+                        miss(ProcessorMetrics.SEARCH_TAG_ATTRIBUTE_VALUE, start, event, tag, attributeName, false);
+                        return "";
+                    }
+                }
+                else
+                {
+                    Node attribute = attributes.getNamedItem(attributeName);
+                    if (attribute == null)
+                    {
+                        if (strict)
                         {
-                            if (strict)
-                            {
-                                throw new AttributeNotFoundException("The tag \"" + tag + "\" does not contain attributes.");
-                            }
-                            else
-                            {
-                                return "";
-                            }
+                            throw new AttributeNotFoundException("The attribute \"" + attribute + "\" does not exists.");
                         }
                         else
                         {
-                            Node attribute = attributes.getNamedItem(attributeName);
-                            if (attribute == null)
-                            {
-                                if (strict)
-                                {
-                                    throw new AttributeNotFoundException("The attribute \"" + attribute + "\" does not exists.");
-                                }
-                                else
-                                {
-                                    return "";
-                                }
-                            }
-                            else
-                            {
-                                return attribute.getNodeValue();
-                            }
+                            miss(ProcessorMetrics.SEARCH_TAG_ATTRIBUTE_VALUE, start, event, tag, attributeName, false);
+                            return "";
                         }
                     }
+                    else
+                    {
+                        hit(ProcessorMetrics.SEARCH_TAG_ATTRIBUTE_VALUE, start, event, tag, attributeName);
+                        return attribute.getNodeValue();
+                    }
                 }
             }
         }
@@ -192,6 +348,7 @@ public class Processor
             LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
         }
 
+        miss(ProcessorMetrics.SEARCH_TAG_ATTRIBUTE_VALUE, start, event, tag, attributeName, strict);
         if (strict)
         {
             throw new TagNotFoundException("The tag \"" + tag + "\" was not found in the XML.");
@@ -202,6 +359,128 @@ public class Processor
         }
     }
 
+    /**
+     * Finds the root node of a document, the first element named as the root node, the same node
+     * returned by {@code doc.getElementsByTagName(rootNodeName).item(0)} without creating a node list.
+     *
+     * @param doc          The XML document.
+     * @param rootNodeName The name of the root node, or "*" for the document element.
+     *
+     * @return The root node or NULL if not found.
+     */
+    private Node searchRoot(Document doc, String rootNodeName)
+    {
+        Node element = doc.getDocumentElement();
+        if (element == null || rootNodeName.equals("*") || element.getNodeName().equals(rootNodeName))
+        {
+            return element;
+        }
+
+        DOMWalker walker = DOMWalkerFactory.getWalker(WALKER, element);
+        try
+        {
+            walker.configure(element, DOMWalker.ELEMENT_NODES);
+            while (walker.hasNext())
+            {
+                Node node = walker.nextNode();
+                if (node.getNodeName().equals(rootNodeName))
+                {
+                    return node;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return null;
+    }
+
+    /**
+     * Walks the DOM tree from a root node in search of the first tag with a given name, ignoring case.
+     * The name is folded once, so each node visited is matched without folding the search again.
+     *
+     * @param root The root node.
+     * @param tag  The tag's name.
+     *
+     * @return The tag or NULL if not found.
+     */
+    private Node searchTag(Node root, String tag)
+    {
+        final String folded = SymbolTable.fold(tag);
+        DOMWalker walker = DOMWalkerFactory.getWalker(WALKER, root);
+        try
+        {
+            walker.configure(root, DOMWalker.ELEMENT_NODES);
+
+            if (LOG.isTraceEnabled())
+            {
+                LOG.trace(">>> OBTAINING TAG: " + tag);
+            }
+
+            while (walker.hasNext())
+            {
+                Node node = walker.nextNode();
+
+                if (LOG.isTraceEnabled())
+                {
+                    LOG.trace("\t> " + node.getNodeName());
+                }
+                if (SymbolTable.matches(folded, node.getNodeName()))
+                {
+                    return node;
+                }
+            }
+
+            if (LOG.isTraceEnabled())
+            {
+                LOG.trace(">>> END OBTAININ TAG: " + tag);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return null;
+    }
+
+    /**
+     * Searches the index of a document for the first tag with a given name, ignoring case, under the
+     * root node.
+     *
+     * @param index        The index of the XML document.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param tag          The tag's name.
+     *
+     * @return The tag or NULL if not found.
+     */
+    private Node searchTag(DocumentIndex index, String rootNodeName, String tag)
+    {
+        Node root = index.getRootNode(rootNodeName);
+        if (root == null)
+        {
+            LOG.error("Error parsing DOM tree. Error: The root node \"" + rootNodeName + "\" was not found.");
+            return null;
+        }
+
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> OBTAINING TAG: " + tag);
+        }
+
+        return index.searchNode(root, tag);
+    }
+
     /**
      * Retrieves a specific attribute value from a given element node.
      *
@@ -219,14 +498,18 @@ public class Processor
             throws AttributeNotFoundException,
                    InvalidNodeException
     {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
         if (node.getNodeType() != Node.ELEMENT_NODE)
         {
+            miss(ProcessorMetrics.GET_NODE_ATTRIBUTE_VALUE, start, event, node, attributeName, false);
             throw new InvalidNodeException("The node is not an element node.");
         }
 
         NamedNodeMap attributeList = node.getAttributes();
         if (attributeList == null)
         {
+            miss(ProcessorMetrics.GET_NODE_ATTRIBUTE_VALUE, start, event, node, attributeName, strict);
             if (strict)
             {
                 throw new AttributeNotFoundException("The node does not contain attributes.");
@@ -242,6 +525,7 @@ public class Processor
             Node attribute = attributeList.getNamedItem(attributeName);
             if (attribute == null)
             {
+                miss(ProcessorMetrics.GET_NODE_ATTRIBUTE_VALUE, start, event, node, attributeName, strict);
                 if (strict)
                 {
                     throw new AttributeNotFoundException("The attribute does not exists.");
@@ -253,11 +537,9 @@ public class Processor
             }
             else
             {
-                String text = attribute.getNodeValue();
-                text = text.replaceAll("\\s+", " ");
-                text = text.trim();
-
-                return text;
+                String value = normalize(attribute, attribute.getNodeValue());
+                hit(ProcessorMetrics.GET_NODE_ATTRIBUTE_VALUE, start, event, node, attributeName);
+                return value;
             }
         }
     }
@@ -276,9 +558,39 @@ public class Processor
     public String getNodeValue(Node node, boolean strict)
             throws TextNotFoundException
     {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        String text = findText(node);
+        if (text != null)
+        {
+            hit(ProcessorMetrics.GET_NODE_VALUE, start, event, node, null);
+            return text;
+        }
+
+        miss(ProcessorMetrics.GET_NODE_VALUE, start, event, node, null, strict);
+        if (strict)
+        {
+            throw new TextNotFoundException("This node contains no text.");
+        }
+        else
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Finds the first TEXT data of a node that isn't empty once normalized, ignoring comments.
+     *
+     * @param node The node from where to extract TEXT data.
+     *
+     * @return The normalized text or NULL if none was found.
+     */
+    private String findText(Node node)
+    {
+        DOMWalker walker = DOMWalkerFactory.getWalker(WALKER, node);
         try
         {
-            DOMWalker walker = DOMWalkerFactory.getWalker(WALKER).configure(node, DOMWalker.TEXT_NODES);
+            walker.configure(node, DOMWalker.TEXT_NODES);
             while (walker.hasNext())
             {
                 Node currentNode = walker.nextNode();
@@ -289,9 +601,7 @@ public class Processor
 
                 if (currentNode.getNodeType() == Node.TEXT_NODE)
                 {
-                    String text = currentNode.getNodeValue();
-                    text = text.replaceAll("\\s+", " ");
-                    text = text.trim();
+                    String text = normalize(currentNode, currentNode.getNodeValue());
 
                     if (text.length() > 0)
                     {
@@ -304,15 +614,49 @@ public class Processor
         {
             LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
         }
-
-        if (strict)
+        finally
         {
-            throw new TextNotFoundException("This node contains no text.");
+            walker.release();
         }
-        else
+
+        return null;
+    }
+
+    /**
+     * Records a lookup that found what it searched, in the metrics and the flight recorder.
+     */
+    private static void hit(byte method, long start, FlightEvent event, Object target, String attribute)
+    {
+        ProcessorMetrics.hit(method, start);
+        Flight.endSearch(event, method, target, attribute, true);
+    }
+
+    /**
+     * Records a lookup that found nothing, in the metrics and the flight recorder.
+     */
+    private static void miss(byte method, long start, FlightEvent event, Object target, String attribute, boolean strict)
+    {
+        ProcessorMetrics.miss(method, start, strict);
+        Flight.endSearch(event, method, target, attribute, false);
+    }
+
+    /**
+     * Normalizes TEXT data or an attribute value, unless the node's document was already normalized
+     * at parse time with the same mode.
+     *
+     * @param node The node holding the text.
+     * @param text The text.
+     *
+     * @return The normalized text.
+     */
+    private String normalize(Node node, String text)
+    {
+        if (textMode == TextNormalizer.RAW || TextNormalizer.isMarkedNormalized(node, textMode))
         {
-            return "";
+            return text;
         }
+
+        return TextNormalizer.normalize(text, textMode);
     }
 
     /**
@@ -335,8 +679,11 @@ public class Processor
     public Node retrieveSubNode(String name, Node node)
             throws NodeNotFoundException
     {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
         if (node.getNodeType() != Node.ELEMENT_NODE || !node.hasChildNodes())
         {
+            miss(ProcessorMetrics.RETRIEVE_SUB_NODE, start, event, name, null, false);
             return null;
         }
 
@@ -348,11 +695,13 @@ public class Processor
             {
                 if (subnode.getNodeName().equals(name))
                 {
+                    hit(ProcessorMetrics.RETRIEVE_SUB_NODE, start, event, name, null);
                     return subnode;
                 }
             }
         }
 
+        miss(ProcessorMetrics.RETRIEVE_SUB_NODE, start, event, name, null, false);
         throw new NodeNotFoundException("A sub node named \"" + name + "\" was not found.");
     }
 
@@ -370,41 +719,371 @@ public class Processor
     public Node searchNode(Document doc, String rootNodeName, String tag)
             throws NodeNotFoundException
     {
-        NodeList nodes = doc.getElementsByTagName(rootNodeName);
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return foundNode(searchTag(searchRoot(doc, rootNodeName), tag), tag, start, event);
+    }
 
-        try
+    /**
+     * Searches the index of a document for a given node and when found retrieves the node. Finds the
+     * same node as {@link #searchNode(Document, String, String)} without walking the tree.
+     *
+     * @param index        The index of the XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param tag          The tag's name
+     *
+     * @return The node
+     *
+     * @throws NodeNotFoundException If the required node was not found.
+     */
+    public Node searchNode(DocumentIndex index, String rootNodeName, String tag)
+            throws NodeNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        return foundNode(searchTag(index, rootNodeName, tag), tag, start, event);
+    }
+
+    /**
+     * Returns the node found by one of the searchNode methods.
+     */
+    private Node foundNode(Node node, String tag, long start, FlightEvent event)
+            throws NodeNotFoundException
+    {
+        if (node != null)
         {
-            DOMWalker walker = DOMWalkerFactory.getWalker(WALKER).configure(nodes.item(0), DOMWalker.ELEMENT_NODES);
+            hit(ProcessorMetrics.SEARCH_NODE, start, event, tag, null);
+            return node;
+        }
 
-            if (LOG.isTraceEnabled())
-            {
-                LOG.trace(">>> OBTAINING TAG: " + tag);
-            }
+        miss(ProcessorMetrics.SEARCH_NODE, start, event, tag, null, false);
+        throw new NodeNotFoundException("The node \"" + tag + "\" was not found in the XML.");
+    }
 
-            while (walker.hasNext())
+    /**
+     * Walks the DOM tree once in search of a set of fields and retrieves the value of each one.
+     *
+     * <p>
+     * Each field takes its value from the first tag with its name (ignoring case) found while walking
+     * the tree, the same tag {@link #searchTagValue(Document, String, String, boolean)} and
+     * {@link #searchTagAttributeValue(Document, String, String, String, boolean)} would find, and
+     * gets the value those methods would return: tag fields take the tag's TEXT data and attribute
+     * fields the attribute's value. A tag without TEXT data or without the attribute gives an empty
+     * value that isn't counted as found, or in strict mode raises the same exception. The walk stops
+     * as soon as the tags of all fields have been found.
+     * </p>
+     *
+     * @param root   The node to start searching from.
+     * @param fields The fields to search.
+     * @param values The array to fill with the value of each field, indexed by field number. Must be
+     *               at least as long as the number of fields.
+     * @param strict If TRUE this method will raise an exception if the value of a field was not found.
+     *               If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     */
+    public int searchValues(Node root, FieldSelector fields, String[] values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        final int size = fields.size();
+        Arrays.fill(values, 0, size, null);
+
+        int found = 0;
+        int resolved = 0;
+        DOMWalker walker = DOMWalkerFactory.getWalker(WALKER, root);
+        try
+        {
+            walker.configure(root, DOMWalker.ELEMENT_NODES);
+            while (resolved < size && walker.hasNext())
             {
                 Node node = walker.nextNode();
+                int[] matches = fields.getFields(node.getNodeName());
+                if (matches == null)
+                {
+                    continue;
+                }
 
-                if (LOG.isTraceEnabled())
+                for (int field : matches)
                 {
-                    LOG.trace("\t> " + node.getNodeName());
+                    if (values[field] != null)
+                    {
+                        continue; // Already resolved by a previous tag.
+                    }
+
+                    if (fieldValue(node, fields, field, values, strict))
+                    {
+                        found++;
+                    }
+                    resolved++;
                 }
-                if (node.getNodeName().equalsIgnoreCase(tag))
+            }
+        }
+        catch (TagNotFoundException | AttributeNotFoundException e)
+        {
+            miss(ProcessorMetrics.SEARCH_VALUES, start, event, root, null, true);
+            throw e;
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return endValues(root, fields, values, strict, found, start, event);
+    }
+
+    /**
+     * Searches the index of a document for a set of fields and retrieves the value of each one, the
+     * same values {@link #searchValues(Node, FieldSelector, String[], boolean)} retrieves from the
+     * root node, without walking the tree.
+     *
+     * @param index        The index of the XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param fields       The fields to search.
+     * @param values       The array to fill with the value of each field, indexed by field number.
+     * @param strict       If TRUE this method will raise an exception if the value of a field was not
+     *                     found. If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     */
+    public int searchValues(DocumentIndex index, String rootNodeName, FieldSelector fields, String[] values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        final long start = ProcessorMetrics.start();
+        final FlightEvent event = Flight.beginSearch();
+        final int size = fields.size();
+        Arrays.fill(values, 0, size, null);
+
+        Node root = index.getRootNode(rootNodeName);
+        if (root == null)
+        {
+            LOG.error("Error parsing DOM tree. Error: The root node \"" + rootNodeName + "\" was not found.");
+        }
+
+        int found = 0;
+        try
+        {
+            for (int field = 0; field < size && root != null; field++)
+            {
+                Node node = index.searchNode(root, fields.getTag(field));
+                if (node != null && fieldValue(node, fields, field, values, strict))
                 {
-                    return node;
+                    found++;
                 }
             }
+        }
+        catch (TagNotFoundException | AttributeNotFoundException e)
+        {
+            miss(ProcessorMetrics.SEARCH_VALUES, start, event, root, null, true);
+            throw e;
+        }
 
-            if (LOG.isTraceEnabled())
+        return endValues(root, fields, values, strict, found, start, event);
+    }
+
+    /**
+     * Retrieves the value of a field from its tag, the value searchTagValue or
+     * searchTagAttributeValue would return for the tag.
+     *
+     * @return TRUE if the value was found, FALSE if the tag has no TEXT data or lacks the attribute,
+     *         in which case the value is an empty string.
+     */
+    private boolean fieldValue(Node node, FieldSelector fields, int field, String[] values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        String attributeName = fields.getAttribute(field);
+        if (attributeName == null)
+        {
+            String text = findText(node);
+            if (text != null)
             {
-                LOG.trace(">>> END OBTAININ TAG: " + tag);
+                values[field] = text;
+                return true;
+            }
+            else if (strict)
+            {
+                throw new TagNotFoundException("The tag \"" + fields.getTag(field) + "\" contains no text.");
             }
         }
-        catch (Exception e)
+        else
         {
-            LOG.error("Error parsing DOM tree. Error: " + e.toString(), e);
+            NamedNodeMap attributes = node.getAttributes();
+            Node attribute = (attributes != null) ? attributes.getNamedItem(attributeName) : null;
+            if (attribute != null)
+            {
+                values[field] = attribute.getNodeValue();
+                return true;
+            }
+            else if (strict)
+            {
+                throw new AttributeNotFoundException("The attribute \"" + attributeName + "\" of tag \"" + fields.getTag(field) + "\" does not exists.");
+            }
         }
 
-        throw new NodeNotFoundException("The node \"" + tag + "\" was not found in the XML.");
+        values[field] = "";
+        return false;
+    }
+
+    /**
+     * Fills the values of the fields whose tag was not found and records the lookup.
+     */
+    private int endValues(Node root, FieldSelector fields, String[] values, boolean strict, int found, long start, FlightEvent event)
+            throws TagNotFoundException
+    {
+        final int size = fields.size();
+        for (int field = 0; field < size; field++)
+        {
+            if (values[field] == null)
+            {
+                if (strict)
+                {
+                    miss(ProcessorMetrics.SEARCH_VALUES, start, event, root, null, true);
+                    throw new TagNotFoundException("The tag \"" + fields.getTag(field) + "\" was not found in the XML.");
+                }
+                else
+                {
+                    values[field] = "";
+                }
+            }
+        }
+
+        if (found == size)
+        {
+            hit(ProcessorMetrics.SEARCH_VALUES, start, event, root, null);
+        }
+        else
+        {
+            miss(ProcessorMetrics.SEARCH_VALUES, start, event, root, null, false);
+        }
+
+        return found;
+    }
+
+    /**
+     * Puts the value of each field in a map, keyed by {@link FieldSelector#getKey(int)}.
+     */
+    private static void put(FieldSelector fields, String[] tmp, Map<String, String> values)
+    {
+        for (int field = 0; field < tmp.length; field++)
+        {
+            values.put(fields.getKey(field), tmp[field]);
+        }
+    }
+
+    /**
+     * Walks the DOM tree once in search of a set of fields and retrieves the value of each one.
+     *
+     * @param root   The node to start searching from.
+     * @param fields The fields to search.
+     * @param values The map to fill with the value of each field, keyed by {@link FieldSelector#getKey(int)}.
+     * @param strict If TRUE this method will raise an exception if the value of a field was not found.
+     *               If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     *
+     * @see #searchValues(Node, FieldSelector, String[], boolean)
+     */
+    public int searchValues(Node root, FieldSelector fields, Map<String, String> values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        String[] tmp = new String[fields.size()];
+        int found = searchValues(root, fields, tmp, strict);
+        put(fields, tmp, values);
+
+        return found;
+    }
+
+    /**
+     * Walks the DOM tree once in search of a set of fields and retrieves the value of each one.
+     *
+     * @param doc          The XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param fields       The fields to search.
+     * @param values       The array to fill with the value of each field, indexed by field number.
+     * @param strict       If TRUE this method will raise an exception if the value of a field was not
+     *                     found. If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     *
+     * @see #searchValues(Node, FieldSelector, String[], boolean)
+     */
+    public int searchValues(Document doc, String rootNodeName, FieldSelector fields, String[] values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        return searchValues(searchRoot(doc, rootNodeName), fields, values, strict);
+    }
+
+    /**
+     * Walks the DOM tree once in search of a set of fields and retrieves the value of each one.
+     *
+     * @param doc          The XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param fields       The fields to search.
+     * @param values       The map to fill with the value of each field, keyed by {@link FieldSelector#getKey(int)}.
+     * @param strict       If TRUE this method will raise an exception if the value of a field was not
+     *                     found. If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     *
+     * @see #searchValues(Node, FieldSelector, String[], boolean)
+     */
+    public int searchValues(Document doc, String rootNodeName, FieldSelector fields, Map<String, String> values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        return searchValues(searchRoot(doc, rootNodeName), fields, values, strict);
+    }
+
+    /**
+     * Searches the index of a document for a set of fields and retrieves the value of each one.
+     *
+     * @param index        The index of the XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param fields       The fields to search.
+     * @param values       The map to fill with the value of each field, keyed by {@link FieldSelector#getKey(int)}.
+     * @param strict       If TRUE this method will raise an exception if the value of a field was not
+     *                     found. If FALSE the value of that field will be an empty string.
+     *
+     * @return The number of fields found.
+     *
+     * @throws TagNotFoundException       If the tag of a field was not found, or has no TEXT data.
+     * @throws AttributeNotFoundException If the tag of a field was found but not its attribute.
+     *
+     * @see #searchValues(DocumentIndex, String, FieldSelector, String[], boolean)
+     */
+    public int searchValues(DocumentIndex index, String rootNodeName, FieldSelector fields, Map<String, String> values, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        String[] tmp = new String[fields.size()];
+        int found = searchValues(index, rootNodeName, fields, tmp, strict);
+        put(fields, tmp, values);
+
+        return found;
     }
 }
@@ -0,0 +1,813 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.apkc.esxp.utils.SymbolTable;
+import net.apkc.esxp.utils.TextNormalizer;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Set of path queries evaluated together, in one pass over a DOM tree or a SAX or StAX stream.
+ *
+ * <p>
+ * Queries have the syntax of {@link PathQuery}, without positional predicates. All queries are
+ * evaluated on a document, or on a record with {@link #evaluate(Node, QueryHandler)}: relative
+ * queries start at the document element (or record) and absolute ones at the document, so
+ * {@code page/title} and {@code /mediawiki/page/title} select the same elements of a MediaWiki dump.
+ * </p>
+ *
+ * <p>
+ * The steps of all queries form one automaton, whose states are sets of steps, and which is turned
+ * into a deterministic automaton lazily, one transition at a time, as in Aho-Corasick: each element
+ * moves from the state of its parent to the state cached for its tag name, found by the symbol of
+ * the name in a {@link SymbolTable}. Once the transitions used by a kind of document are cached,
+ * each element costs one symbol lookup and one array read, whatever the number of queries, and
+ * subtrees no query can match are skipped. The cache is dropped if it grows beyond
+ * {@link #MAX_STATES} states: the dropped states lose their transitions and are never extended
+ * again, so they are freed once the evaluations that hold them end.
+ * </p>
+ *
+ * <p>
+ * Attribute matches are reported at the start of their element. Element matches are reported with
+ * the first TEXT data directly inside the element which is not empty once normalized (or an empty
+ * string): at the start of the element on a DOM tree and at its end on a stream. CDATA sections are
+ * read as TEXT data, on a DOM tree as well as on a stream, where SAX can't tell them apart, unlike
+ * the lookups of the {@link Processor}, which read TEXT nodes only. Once configured a set can be
+ * shared between threads.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class QuerySet
+{
+
+    private static final Logger LOG = Logger.getLogger(QuerySet.class.getName());
+    /** The most states of the deterministic automaton kept in its cache. */
+    public static final int MAX_STATES = 10000;
+    /** Symbol of the steps that match any element. */
+    private static final int WILDCARD = -2;
+    private static final int[] NONE = new int[0];
+    /** The state of elements below which no query can match. */
+    private static final State DEAD = new State(NONE, NONE);
+    /** The tag names of the steps. */
+    private final SymbolTable symbols = new SymbolTable();
+    /** The text of each query. */
+    private final List<String> queries = new ArrayList<>();
+    /** The attribute selected by each query, or NULL if it selects elements. */
+    private String[] attributes = new String[8];
+    /** The symbol of the tag name of each step of all queries, or WILDCARD. */
+    private int[] stepNames = new int[16];
+    /** If each step is a descendant step. */
+    private boolean[] stepDescendant = new boolean[16];
+    /** The query matched by each step if it's the last step of its query, -1 otherwise. */
+    private int[] stepQuery = new int[16];
+    /** The first step of each query. */
+    private int[] firstSteps = new int[8];
+    private int steps = 0;
+    private byte textMode = TextNormalizer.COLLAPSE;
+    /** The states of the deterministic automaton, keyed by themselves. */
+    private final Map<State, State> states = new HashMap<>();
+    /** The state of the document, NULL until the first evaluation after a change. */
+    private volatile State start = null;
+
+    private QuerySet()
+    {
+    }
+
+    public static QuerySet newBuild()
+    {
+        return new QuerySet();
+    }
+
+    /**
+     * Sets how the values reported are normalized. The default is {@link TextNormalizer#COLLAPSE}.
+     *
+     * @param textMode One of the modes of {@link TextNormalizer}.
+     *
+     * @return This instance.
+     */
+    public QuerySet setTextMode(byte textMode)
+    {
+        this.textMode = textMode;
+        return this;
+    }
+
+    /**
+     * Adds a query to the set.
+     *
+     * @param query The query.
+     *
+     * @return The number of the query, which is the number reported with its matches.
+     *
+     * @throws IllegalArgumentException If the query is not valid or has positional predicates.
+     */
+    public synchronized int add(String query)
+    {
+        final PathQuery compiled = PathQuery.compile(query);
+        final int number = queries.size();
+
+        // Relative queries start at the document element, i.e. /*/query.
+        final int size = compiled.size() + (compiled.isAbsolute() ? 0 : 1);
+        if (steps + size > stepNames.length)
+        {
+            final int length = Math.max(steps + size, stepNames.length << 1);
+            stepNames = Arrays.copyOf(stepNames, length);
+            stepDescendant = Arrays.copyOf(stepDescendant, length);
+            stepQuery = Arrays.copyOf(stepQuery, length);
+        }
+        if (number == attributes.length)
+        {
+            attributes = Arrays.copyOf(attributes, number << 1);
+            firstSteps = Arrays.copyOf(firstSteps, number << 1);
+        }
+
+        int step = steps;
+        if (!compiled.isAbsolute())
+        {
+            stepNames[step] = WILDCARD;
+            stepDescendant[step] = false;
+            stepQuery[step++] = -1;
+        }
+        for (int i = 0; i < compiled.size(); i++)
+        {
+            if (compiled.getPosition(i) != 0)
+            {
+                throw new IllegalArgumentException("Invalid query \"" + query + "\": positional predicates are not supported in a query set.");
+            }
+
+            final String name = compiled.getName(i);
+            stepNames[step] = (name == null) ? WILDCARD : symbols.add(name);
+            stepDescendant[step] = compiled.isDescendant(i);
+            stepQuery[step++] = (i == compiled.size() - 1) ? number : -1;
+        }
+
+        firstSteps[number] = steps;
+        steps = step;
+        attributes[number] = compiled.getAttribute();
+        queries.add(compiled.toString());
+        dropStates();
+
+        return number;
+    }
+
+    /**
+     * Returns the number of queries.
+     *
+     * @return The number of queries.
+     */
+    public int size()
+    {
+        return queries.size();
+    }
+
+    /**
+     * Returns a query.
+     *
+     * @param query The number of the query.
+     *
+     * @return The query.
+     */
+    public String getQuery(int query)
+    {
+        return queries.get(query);
+    }
+
+    /**
+     * Returns the attribute selected by a query.
+     *
+     * @param query The number of the query.
+     *
+     * @return The attribute name, or NULL if the query selects elements.
+     */
+    public String getAttribute(int query)
+    {
+        return attributes[query];
+    }
+
+    /**
+     * Returns the number of states of the deterministic automaton built so far.
+     *
+     * @return The number of states.
+     */
+    public synchronized int getStateCount()
+    {
+        return states.size();
+    }
+
+    /**
+     * Walks a DOM tree once and reports the matches of all queries.
+     *
+     * @param root    The document or the element to evaluate the queries on, which takes the place of
+     *                the document element.
+     * @param handler The handler of the matches.
+     *
+     * @return The number of matches.
+     *
+     * @throws Exception If the tree can't be walked or the handler failed.
+     */
+    public long evaluate(Node root, QueryHandler handler) throws Exception
+    {
+        if (root.getNodeType() == Node.DOCUMENT_NODE)
+        {
+            root = ((Document) root).getDocumentElement();
+        }
+
+        long matches = 0;
+        // The open elements and their states, after a slot for the parent of the root.
+        Node[] nodes = new Node[16];
+        State[] stack = new State[16];
+        int top = 0;
+        stack[0] = start();
+
+        DOMWalker walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER, root);
+        try
+        {
+            walker.configure(root, DOMWalker.ELEMENT_NODES);
+            while (walker.hasNext())
+            {
+                final Node node = walker.nextNode();
+                if (top > 0)
+                {
+                    final Node parent = node.getParentNode();
+                    while (top > 1 && !nodes[top].isSameNode(parent))
+                    {
+                        nodes[top--] = null;
+                    }
+                }
+
+                final State state = next(stack[top], node.getNodeName());
+                for (int query : state.matches)
+                {
+                    String value;
+                    if (attributes[query] == null)
+                    {
+                        value = text(node);
+                    }
+                    else
+                    {
+                        final NamedNodeMap attrs = node.getAttributes();
+                        final Node attribute = (attrs != null) ? attrs.getNamedItem(attributes[query]) : null;
+                        value = (attribute != null) ? TextNormalizer.normalize(attribute.getNodeValue(), textMode) : null;
+                    }
+
+                    if (value != null)
+                    {
+                        handler.handle(query, value);
+                        matches++;
+                    }
+                }
+
+                if (state.steps.length == 0)
+                {
+                    walker.skipChildren();
+                }
+                else
+                {
+                    if (++top == nodes.length)
+                    {
+                        nodes = Arrays.copyOf(nodes, top << 1);
+                        stack = Arrays.copyOf(stack, top << 1);
+                    }
+                    nodes[top] = node;
+                    stack[top] = state;
+                }
+            }
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return matches;
+    }
+
+    /**
+     * Reads a StAX stream to its end and reports the matches of all queries.
+     *
+     * @param reader  The reader, at the start of the document.
+     * @param handler The handler of the matches.
+     *
+     * @return The number of matches.
+     *
+     * @throws XMLStreamException If the stream can't be read or the handler failed.
+     */
+    public long evaluate(XMLStreamReader reader, QueryHandler handler) throws XMLStreamException
+    {
+        final Matcher matcher = new Matcher(handler);
+        try
+        {
+            while (reader.hasNext())
+            {
+                switch (reader.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final String prefix = reader.getPrefix();
+                        final String name = (prefix == null || prefix.isEmpty()) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+                        final State state = matcher.startElement(name);
+                        if (state != null)
+                        {
+                            for (int query : state.matches)
+                            {
+                                if (attributes[query] != null)
+                                {
+                                    matcher.attribute(query, attribute(reader, attributes[query]));
+                                }
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        matcher.endElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        matcher.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                }
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new XMLStreamException("Error handling match #" + matcher.matches + ". Error: " + e.toString(), e);
+        }
+
+        return matcher.matches;
+    }
+
+    /**
+     * Returns a SAX handler that reports the matches of all queries while a document is parsed.
+     *
+     * @param handler The handler of the matches.
+     *
+     * @return The SAX handler, for one document at a time.
+     */
+    public ContentHandler newContentHandler(final QueryHandler handler)
+    {
+        return new DefaultHandler()
+        {
+            private final Matcher matcher = new Matcher(handler);
+
+            @Override
+            public void startDocument()
+            {
+                matcher.reset();
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException
+            {
+                try
+                {
+                    final State state = matcher.startElement((qName == null || qName.isEmpty()) ? localName : qName);
+                    if (state != null)
+                    {
+                        for (int query : state.matches)
+                        {
+                            if (attributes[query] != null)
+                            {
+                                matcher.attribute(query, attrs.getValue(attributes[query]));
+                            }
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new SAXException("Error handling match #" + matcher.matches + ". Error: " + e.toString(), e);
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException
+            {
+                try
+                {
+                    matcher.endElement();
+                }
+                catch (Exception e)
+                {
+                    throw new SAXException("Error handling match #" + matcher.matches + ". Error: " + e.toString(), e);
+                }
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length)
+            {
+                matcher.characters(ch, start, length);
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length)
+            {
+                matcher.characters(ch, start, length);
+            }
+        };
+    }
+
+    private static String attribute(XMLStreamReader reader, String name)
+    {
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+        {
+            final String prefix = reader.getAttributePrefix(i);
+            final String localName = reader.getAttributeLocalName(i);
+            if ((prefix == null || prefix.isEmpty()) ? name.equals(localName) : name.equals(prefix + ":" + localName))
+            {
+                return reader.getAttributeValue(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first TEXT data (or CDATA section) directly inside an element which is not empty
+     * once normalized.
+     */
+    private String text(Node element)
+    {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE)
+            {
+                final String text = TextNormalizer.normalize(child.getNodeValue(), textMode);
+                if (!text.isEmpty())
+                {
+                    return text;
+                }
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Returns the state of the document.
+     */
+    private State start()
+    {
+        State state = start;
+        if (state == null)
+        {
+            synchronized (this)
+            {
+                if (start == null)
+                {
+                    final int[] first = Arrays.copyOf(firstSteps, queries.size());
+                    Arrays.sort(first);
+                    start = intern(new State(first, NONE));
+                }
+                state = start;
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Returns the state of an element, given the state of its parent.
+     *
+     * @param state The state of the parent.
+     * @param name  The tag's name of the element.
+     *
+     * @return The state of the element.
+     */
+    private State next(State state, String name)
+    {
+        if (state.steps.length == 0)
+        {
+            return DEAD;
+        }
+
+        final int symbol = symbols.lookup(name);
+        State next;
+        if (symbol == SymbolTable.NOT_FOUND)
+        {
+            next = state.other;
+        }
+        else
+        {
+            final State[] transitions = state.transitions;
+            next = (symbol < transitions.length) ? transitions[symbol] : null;
+        }
+
+        return (next != null) ? next : transition(state, symbol);
+    }
+
+    /**
+     * Computes a transition of the automaton and caches it.
+     */
+    private synchronized State transition(State state, int symbol)
+    {
+        int[] next = new int[state.steps.length * 2];
+        int size = 0;
+        int[] matched = NONE;
+        for (int step : state.steps)
+        {
+            if (stepDescendant[step])
+            {
+                next[size++] = step; // Keeps looking further down.
+            }
+            if (stepNames[step] == WILDCARD || stepNames[step] == symbol)
+            {
+                if (stepQuery[step] >= 0)
+                {
+                    matched = Arrays.copyOf(matched, matched.length + 1);
+                    matched[matched.length - 1] = stepQuery[step];
+                }
+                else
+                {
+                    next[size++] = step + 1;
+                }
+            }
+        }
+
+        next = Arrays.copyOf(next, size);
+        Arrays.sort(next);
+        Arrays.sort(matched);
+        int unique = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (unique == 0 || next[unique - 1] != next[i])
+            {
+                next[unique++] = next[i];
+            }
+        }
+
+        if (states.size() >= MAX_STATES)
+        {
+            if (LOG.isDebugEnabled())
+            {
+                LOG.debug(">>> QUERY SET AUTOMATON CACHE DROPPED: " + states.size() + " STATES");
+            }
+            dropStates();
+        }
+
+        final State target = (unique == 0 && matched.length == 0) ? DEAD : intern(new State(Arrays.copyOf(next, unique), matched));
+        if (states.get(state) != state)
+        {
+            // A dropped state, still used by an evaluation: linking it to the new states would keep
+            // the old automaton reachable from the new one.
+            return target;
+        }
+        if (symbol == SymbolTable.NOT_FOUND)
+        {
+            state.other = target;
+        }
+        else
+        {
+            State[] transitions = state.transitions;
+            if (symbol >= transitions.length)
+            {
+                transitions = Arrays.copyOf(transitions, symbols.size());
+            }
+            else
+            {
+                transitions = transitions.clone();
+            }
+            transitions[symbol] = target;
+            state.transitions = transitions;
+        }
+
+        return target;
+    }
+
+    /**
+     * Drops the cache of states, unlinking them so the evaluations still running don't keep the
+     * whole automaton reachable.
+     */
+    private void dropStates()
+    {
+        for (State state : states.keySet())
+        {
+            state.transitions = State.EMPTY;
+            state.other = null;
+        }
+        states.clear();
+        start = null;
+    }
+
+    private State intern(State state)
+    {
+        final State cached = states.get(state);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        states.put(state, state);
+
+        return state;
+    }
+
+    /**
+     * A state of the deterministic automaton: the steps to match below an element and the queries
+     * matched by the element itself.
+     */
+    private static final class State
+    {
+
+        private static final State[] EMPTY = new State[0];
+        /** The steps to match by the children of the element, sorted. */
+        private final int[] steps;
+        /** The queries matched by the element, sorted. */
+        private final int[] matches;
+        private final int hash;
+        /** The cached transitions, by symbol. Replaced, never modified, once published. */
+        private volatile State[] transitions = EMPTY;
+        /** The cached transition for names that are not the name of any step. */
+        private volatile State other;
+
+        private State(int[] steps, int[] matches)
+        {
+            this.steps = steps;
+            this.matches = matches;
+            this.hash = 31 * Arrays.hashCode(steps) + Arrays.hashCode(matches);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof State))
+            {
+                return false;
+            }
+
+            final State other = (State) obj;
+            return hash == other.hash && Arrays.equals(steps, other.steps) && Arrays.equals(matches, other.matches);
+        }
+    }
+
+    /**
+     * Evaluation of the queries over a stream of events.
+     */
+    private final class Matcher
+    {
+
+        private final QueryHandler handler;
+        /** The states of the open elements, after the state of the document. */
+        private State[] stack = new State[16];
+        /** The value found for each open element, if it matched an element query. */
+        private String[] values = new String[16];
+        private int top = 0;
+        /** The depth inside a subtree being skipped, 0 if none. */
+        private int skipDepth = 0;
+        /** The current run of TEXT data of the open element. */
+        private final StringBuilder text = new StringBuilder();
+        private long matches = 0;
+
+        private Matcher(QueryHandler handler)
+        {
+            this.handler = handler;
+            reset();
+        }
+
+        private void reset()
+        {
+            Arrays.fill(stack, null);
+            Arrays.fill(values, null);
+            stack[0] = start();
+            top = 0;
+            skipDepth = 0;
+            text.setLength(0);
+            matches = 0;
+        }
+
+        /**
+         * Enters an element.
+         *
+         * @return The state of the element or NULL if the element is skipped.
+         */
+        private State startElement(String name)
+        {
+            if (skipDepth > 0)
+            {
+                skipDepth++;
+                return null;
+            }
+
+            flushText();
+            final State state = next(stack[top], name);
+            if (state == DEAD)
+            {
+                skipDepth = 1;
+                return null;
+            }
+
+            if (++top == stack.length)
+            {
+                stack = Arrays.copyOf(stack, top << 1);
+                values = Arrays.copyOf(values, top << 1);
+            }
+            stack[top] = state;
+            values[top] = null;
+
+            return state;
+        }
+
+        private void attribute(int query, String value) throws Exception
+        {
+            if (value != null)
+            {
+                handler.handle(query, TextNormalizer.normalize(value, textMode));
+                matches++;
+            }
+        }
+
+        private void endElement() throws Exception
+        {
+            if (skipDepth > 0)
+            {
+                skipDepth--;
+                return;
+            }
+
+            flushText();
+            final State state = stack[top];
+            for (int query : state.matches)
+            {
+                if (attributes[query] == null)
+                {
+                    handler.handle(query, (values[top] != null) ? values[top] : "");
+                    matches++;
+                }
+            }
+            stack[top] = null;
+            values[top--] = null;
+        }
+
+        private void characters(char[] ch, int start, int length)
+        {
+            if (skipDepth == 0 && top > 0 && values[top] == null && stack[top].matches.length > 0)
+            {
+                text.append(ch, start, length);
+            }
+        }
+
+        /**
+         * Ends the current run of TEXT data, which is the value of the open element if it's the
+         * first one not empty.
+         */
+        private void flushText()
+        {
+            if (text.length() > 0)
+            {
+                final String value = TextNormalizer.normalize(text.toString(), textMode);
+                text.setLength(0);
+                if (!value.isEmpty())
+                {
+                    values[top] = value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds the boundaries of the records of a document (e.g. each {@code <page>} of a MediaWiki dump)
+ * scanning its bytes, without parsing it.
+ *
+ * <p>
+ * The scan relies on the fact that a '&lt;' in an XML document always starts markup, except inside
+ * comments, CDATA sections and processing instructions, which are skipped. It works on any encoding
+ * where the markup characters are single bytes, like UTF-8 and the ISO-8859 family, but not on
+ * UTF-16. Records nested inside another record are part of the outer one.
+ * </p>
+ *
+ * <p>
+ * The tag's name is matched ignoring the case of ASCII letters, like the record modes of the
+ * {@link StreamingProcessor} and {@link net.apkc.esxp.utils.SAX2DOM}, so {@code <Page>} and
+ * {@code <PAGE>} are records of {@code page}. Non-ASCII characters must match exactly.
+ * </p>
+ *
+ * <p>
+ * The bytes are read with the absolute get methods of a {@link ByteBuffer}, so the scan works the
+ * same on a heap array, wrapped, and on a file mapped in memory, without copying it.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class RecordScanner
+{
+
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_START = "![CDATA[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PI_END = "?>".getBytes(StandardCharsets.US_ASCII);
+    /** The tag's name of the records, with ASCII letters in lower case. */
+    private final byte[] tag;
+    /** The offset of the first byte of the last record found. */
+    private int start;
+    /** The offset after the last byte of the last record found. */
+    private int end;
+
+    RecordScanner(String recordTag)
+    {
+        tag = recordTag.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < tag.length; i++)
+        {
+            tag[i] = lowerCase(tag[i]);
+        }
+    }
+
+    /**
+     * Finds the next complete record in a range of bytes.
+     *
+     * @param buf  The bytes.
+     * @param from The offset to start scanning at, outside of any markup.
+     * @param to   The offset after the last byte to scan.
+     *
+     * @return TRUE if a record was found, its range is then given by start() and end(). FALSE if there
+     *         are no more complete records in the range, start() is then the offset of the first byte
+     *         that could belong to a record that continues after the range.
+     */
+    boolean find(ByteBuffer buf, int from, int to)
+    {
+        int depth = 0;
+        int recordStart = -1;
+        int p = from;
+        while (true)
+        {
+            int lt = indexOf(buf, (byte) '<', p, to);
+            if (lt < 0 || lt + 1 >= to)
+            {
+                start = (recordStart >= 0) ? recordStart : (lt < 0 ? to : lt);
+                return false;
+            }
+
+            int markupEnd;
+            byte b = buf.get(lt + 1);
+            if (b == '!')
+            {
+                if (lt + 3 < to && buf.get(lt + 2) == '-' && buf.get(lt + 3) == '-')
+                {
+                    markupEnd = indexOf(buf, COMMENT_END, lt + 4, to);
+                }
+                else if (startsWith(buf, CDATA_START, lt + 1, to))
+                {
+                    markupEnd = indexOf(buf, CDATA_END, lt + 1 + CDATA_START.length, to);
+                }
+                else if (lt + 1 + CDATA_START.length <= to)
+                {
+                    markupEnd = declarationEnd(buf, lt + 2, to);
+                }
+                else
+                {
+                    markupEnd = -1;
+                }
+            }
+            else if (b == '?')
+            {
+                markupEnd = indexOf(buf, PI_END, lt + 2, to);
+            }
+            else if (b == '/')
+            {
+                markupEnd = indexOf(buf, (byte) '>', lt + 2, to);
+                if (markupEnd >= 0 && depth > 0 && isTag(buf, lt + 2, markupEnd + 1) && --depth == 0)
+                {
+                    start = recordStart;
+                    end = markupEnd + 1;
+                    return true;
+                }
+            }
+            else
+            {
+                markupEnd = tagEnd(buf, lt + 1, to);
+                if (markupEnd >= 0 && isTag(buf, lt + 1, markupEnd + 1))
+                {
+                    boolean empty = buf.get(markupEnd - 1) == '/';
+                    if (depth == 0)
+                    {
+                        recordStart = lt;
+                        if (empty)
+                        {
+                            start = recordStart;
+                            end = markupEnd + 1;
+                            return true;
+                        }
+                    }
+                    if (!empty)
+                    {
+                        depth++;
+                    }
+                }
+            }
+
+            if (markupEnd < 0)
+            {
+                start = (recordStart >= 0) ? recordStart : lt;
+                return false;
+            }
+            p = markupEnd + 1;
+        }
+    }
+
+    int start()
+    {
+        return start;
+    }
+
+    int end()
+    {
+        return end;
+    }
+
+    /**
+     * Returns the encoding given in the XML declaration of a document, or UTF-8 if there is none.
+     *
+     * @param buf  The bytes of the document.
+     * @param from The offset of the first byte.
+     * @param to   The offset after the last byte available.
+     *
+     * @return The name of the encoding.
+     */
+    static String encoding(ByteBuffer buf, int from, int to)
+    {
+        if (from + 1 < to && ((buf.get(from) == (byte) 0xFE && buf.get(from + 1) == (byte) 0xFF) || (buf.get(from) == (byte) 0xFF && buf.get(from + 1) == (byte) 0xFE)))
+        {
+            return "UTF-16";
+        }
+        if (!startsWith(buf, "<?xml".getBytes(StandardCharsets.US_ASCII), skipBOM(buf, from, to), to))
+        {
+            return "UTF-8";
+        }
+
+        int declarationEnd = indexOf(buf, PI_END, from, to);
+        int p = indexOf(buf, "encoding".getBytes(StandardCharsets.US_ASCII), from, declarationEnd);
+        if (declarationEnd < 0 || p < 0)
+        {
+            return "UTF-8";
+        }
+        while (p < declarationEnd && buf.get(p) != '"' && buf.get(p) != '\'')
+        {
+            p++;
+        }
+        int close = (p < declarationEnd) ? indexOf(buf, buf.get(p), p + 1, declarationEnd) : -1;
+
+        if (close < 0)
+        {
+            return "UTF-8";
+        }
+        byte[] name = new byte[close - p - 1];
+        for (int i = 0; i < name.length; i++)
+        {
+            name[i] = buf.get(p + 1 + i);
+        }
+
+        return new String(name, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the offset after the byte order mark of UTF-8, if any.
+     */
+    static int skipBOM(ByteBuffer buf, int from, int to)
+    {
+        if (from + 2 < to && buf.get(from) == (byte) 0xEF && buf.get(from + 1) == (byte) 0xBB && buf.get(from + 2) == (byte) 0xBF)
+        {
+            return from + 3;
+        }
+
+        return from;
+    }
+
+    /**
+     * Checks if the name that starts at a given offset is the tag's name of the records, ignoring
+     * the case of ASCII letters.
+     *
+     * @param limit The offset after the end of the tag.
+     */
+    private boolean isTag(ByteBuffer buf, int p, int limit)
+    {
+        if (p + tag.length >= limit)
+        {
+            return false;
+        }
+        for (int i = 0; i < tag.length; i++)
+        {
+            if (lowerCase(buf.get(p + i)) != tag[i])
+            {
+                return false;
+            }
+        }
+        byte b = buf.get(p + tag.length);
+
+        return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte lowerCase(byte b)
+    {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+
+    /**
+     * Returns the offset of the '&gt;' that closes a start tag, ignoring the ones inside attribute
+     * values, or -1 if the tag is not complete.
+     */
+    private static int tagEnd(ByteBuffer buf, int p, int to)
+    {
+        byte quote = 0;
+        for (; p < to; p++)
+        {
+            byte b = buf.get(p);
+            if (quote != 0)
+            {
+                if (b == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if (b == '"' || b == '\'')
+            {
+                quote = b;
+            }
+            else if (b == '>')
+            {
+                return p;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the '&gt;' that closes a declaration (e.g. a DOCTYPE), skipping its
+     * internal subset, or -1 if the declaration is not complete.
+     */
+    private static int declarationEnd(ByteBuffer buf, int p, int to)
+    {
+        int brackets = 0;
+        for (; p < to; p++)
+        {
+            byte b = buf.get(p);
+            if (b == '[')
+            {
+                brackets++;
+            }
+            else if (b == ']')
+            {
+                brackets--;
+            }
+            else if (b == '>' && brackets <= 0)
+            {
+                return p;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (buf.get(i) == b)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the last byte of a sequence, or -1 if it's not found.
+     */
+    private static int indexOf(ByteBuffer buf, byte[] seq, int from, int to)
+    {
+        for (int i = from; i + seq.length <= to; i++)
+        {
+            if (buf.get(i) == seq[0] && startsWith(buf, seq, i, to))
+            {
+                return i + seq.length - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, byte[] seq, int from, int to)
+    {
+        if (from + seq.length > to)
+        {
+            return false;
+        }
+        for (int i = 0; i < seq.length; i++)
+        {
+            if (buf.get(from + i) != seq[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
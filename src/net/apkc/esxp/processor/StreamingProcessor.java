@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.processor;
+
+import java.io.InputStream;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.NodeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.TextNormalizer;
+import org.apache.log4j.Logger;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * XML Processor for documents of any size.
+ *
+ * <p>
+ * Works like {@link Processor} but over a forward-only StAX cursor instead of a DOM tree, so the
+ * document is never held in memory. Searches stop reading as soon as the tag is found, and nodes
+ * are only materialized for the subtree being returned. Large documents made of a sequence of
+ * records, such as MediaWiki dumps, can be processed with
+ * {@link #processRecords(InputStream, String, RecordHandler)}, which builds one record at a time,
+ * so memory is bounded by the largest record.
+ * </p>
+ *
+ * <p>
+ * CDATA sections are read as TEXT data and comments and processing instructions are ignored, the
+ * same as parsing with coalescing and ignoring comments. Input streams are not closed.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class StreamingProcessor
+{
+
+    private static final Logger LOG = Logger.getLogger(StreamingProcessor.class.getName());
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private final DOMImplementation dom;
+    /** How TEXT data and attribute values are normalized. */
+    private byte textMode = TextNormalizer.COLLAPSE;
+
+    private StreamingProcessor() throws ParserConfigurationException
+    {
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        dom = DocumentLoader.getShared().getDOMImplementation();
+    }
+
+    public static StreamingProcessor newBuild() throws ParserConfigurationException
+    {
+        return new StreamingProcessor();
+    }
+
+    /**
+     * Sets how TEXT data is normalized. The default is {@link TextNormalizer#COLLAPSE}.
+     *
+     * @param textMode One of the modes of {@link TextNormalizer}.
+     *
+     * @return This instance.
+     */
+    public StreamingProcessor setTextMode(byte textMode)
+    {
+        this.textMode = textMode;
+        return this;
+    }
+
+    /**
+     * Reads the XML in search of a given tag and when found retrieves the tag's value.
+     *
+     * @param xml          The XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param tag          The tag's name
+     * @param strict       If TRUE this method will raise an exception if the tag to search was not found. If
+     *                     FALSE will return an empty string.
+     *
+     * @return The tag's value
+     *
+     * @throws TagNotFoundException If the required tag was not found.
+     *
+     * @see Processor#searchTagValue(Document, String, String, boolean)
+     */
+    public String searchTagValue(InputStream xml, String rootNodeName, String tag, boolean strict)
+            throws TagNotFoundException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = factory.createXMLStreamReader(xml);
+            if (seekRoot(reader, rootNodeName) && seekTag(reader, tag))
+            {
+                String text = readText(reader);
+                if (text.length() > 0 || !strict)
+                {
+                    return text;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing XML stream. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            close(reader);
+        }
+
+        if (strict)
+        {
+            throw new TagNotFoundException("The tag \"" + tag + "\" was not found in the XML.");
+        }
+        else
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Reads the XML in search of a given tag and when found retrieves the tag's attribute value.
+     *
+     * @param xml           The XML document to parse.
+     * @param rootNodeName  The name of the root node of the XML.
+     * @param tag           The tag's name
+     * @param attributeName The attribute name
+     * @param strict        If TRUE this method will raise an exception if the tag or attribute to search were not found. If
+     *                      FALSE will return an empty string.
+     *
+     * @return The attribute value
+     *
+     * @throws TagNotFoundException       If the required tag was not found.
+     * @throws AttributeNotFoundException If the required attribute was not found.
+     *
+     * @see Processor#searchTagAttributeValue(Document, String, String, String, boolean)
+     */
+    public String searchTagAttributeValue(InputStream xml, String rootNodeName, String tag, String attributeName, boolean strict)
+            throws TagNotFoundException,
+                   AttributeNotFoundException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = factory.createXMLStreamReader(xml);
+            if (seekRoot(reader, rootNodeName) && seekTag(reader, tag))
+            {
+                for (int i = 0; i < reader.getAttributeCount(); i++)
+                {
+                    if (qName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)).equals(attributeName))
+                    {
+                        return reader.getAttributeValue(i);
+                    }
+                }
+
+                if (strict)
+                {
+                    throw new AttributeNotFoundException("The attribute \"" + attributeName + "\" does not exists.");
+                }
+                else
+                {
+                    return "";
+                }
+            }
+        }
+        catch (AttributeNotFoundException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing XML stream. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            close(reader);
+        }
+
+        if (strict)
+        {
+            throw new TagNotFoundException("The tag \"" + tag + "\" was not found in the XML.");
+        }
+        else
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Reads the XML in search of a given node and when found retrieves the node. Only the node's
+     * subtree is built, as the document element of a new document.
+     *
+     * @param xml          The XML document to parse.
+     * @param rootNodeName The name of the root node of the XML.
+     * @param tag          The tag's name
+     *
+     * @return The node
+     *
+     * @throws NodeNotFoundException If the required node was not found.
+     *
+     * @see Processor#searchNode(Document, String, String)
+     */
+    public Node searchNode(InputStream xml, String rootNodeName, String tag)
+            throws NodeNotFoundException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = factory.createXMLStreamReader(xml);
+            if (seekRoot(reader, rootNodeName) && seekTag(reader, tag))
+            {
+                return readRecord(reader);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error parsing XML stream. Error: " + e.toString(), e);
+        }
+        finally
+        {
+            close(reader);
+        }
+
+        throw new NodeNotFoundException("The node \"" + tag + "\" was not found in the XML.");
+    }
+
+    /**
+     * Reads the XML and hands each record to a handler as soon as its end tag is read.
+     *
+     * <p>
+     * A record is an element whose name matches the record tag (ignoring case), wherever it appears
+     * in the document. Each record is built as the document element of its own new document, so it
+     * can be queried with {@link Processor} and walked with any {@link net.apkc.esxp.walker.DOMWalker},
+     * and it is released once the handler returns. Records nested inside another record are part of
+     * the outer record.
+     * </p>
+     *
+     * @param xml       The XML document to parse.
+     * @param recordTag The tag's name of the records.
+     * @param handler   The handler of the records.
+     *
+     * @return The number of records handled.
+     *
+     * @throws XMLStreamException If the XML can't be parsed or the handler failed.
+     */
+    public long processRecords(InputStream xml, String recordTag, RecordHandler<Element> handler)
+            throws XMLStreamException
+    {
+        long records = 0;
+        XMLStreamReader reader = factory.createXMLStreamReader(xml);
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && qName(reader.getPrefix(), reader.getLocalName()).equalsIgnoreCase(recordTag))
+                {
+                    Element record = readRecord(reader);
+                    try
+                    {
+                        handler.handle(record);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new XMLStreamException("Error handling record #" + records + ". Error: " + e.toString(), e);
+                    }
+                    records++;
+                }
+            }
+        }
+        finally
+        {
+            close(reader);
+        }
+
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> RECORDS PROCESSED: " + records);
+        }
+
+        return records;
+    }
+
+    /**
+     * Advances the reader to the start of the first element named as the root node.
+     *
+     * @return TRUE if found, FALSE if the document ended.
+     */
+    private boolean seekRoot(XMLStreamReader reader, String rootNodeName) throws XMLStreamException
+    {
+        while (reader.hasNext())
+        {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                && (rootNodeName.equals("*") || qName(reader.getPrefix(), reader.getLocalName()).equals(rootNodeName)))
+            {
+                return true;
+            }
+        }
+
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> ROOT NODE NOT FOUND: " + rootNodeName);
+        }
+
+        return false;
+    }
+
+    /**
+     * Advances the reader, from the start of the root node, to the start of the first element with a
+     * given name (ignoring case) inside the root node, the root node included.
+     *
+     * @return TRUE if found, FALSE if the root node ended.
+     */
+    private boolean seekTag(XMLStreamReader reader, String tag) throws XMLStreamException
+    {
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> OBTAINING TAG: " + tag);
+        }
+
+        int depth = 0;
+        do
+        {
+            switch (reader.getEventType())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (qName(reader.getPrefix(), reader.getLocalName()).equalsIgnoreCase(tag))
+                    {
+                        return true;
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (--depth == 0)
+                    {
+                        return false;
+                    }
+                    break;
+            }
+        }
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.END_DOCUMENT);
+
+        return false;
+    }
+
+    /**
+     * Reads, from the start of an element to its end, the first TEXT data of the element which is
+     * not empty once normalized. Only TEXT data directly inside the element is considered.
+     *
+     * @return The normalized text, or an empty string.
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException
+    {
+        StringBuilder text = new StringBuilder();
+        int depth = 0;
+        while (reader.hasNext())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (depth == 0)
+                    {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth++ == 0 && text.length() > 0)
+                    {
+                        // The element's children split its TEXT data in several TEXT nodes.
+                        String value = TextNormalizer.normalize(text.toString(), textMode);
+                        if (value.length() > 0)
+                        {
+                            return value;
+                        }
+                        text.setLength(0);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth-- == 0)
+                    {
+                        return TextNormalizer.normalize(text.toString(), textMode);
+                    }
+                    break;
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Builds the element at the current position of the reader, with all its subtree, as the
+     * document element of a new document. The reader is left at the end of the element.
+     *
+     * @return The element.
+     */
+    private Element readRecord(XMLStreamReader reader) throws XMLStreamException
+    {
+        Document doc = dom.createDocument(null, null, null);
+        Node parent = doc;
+        Element record = null;
+        do
+        {
+            switch (reader.getEventType())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element element = doc.createElementNS(reader.getNamespaceURI(), qName(reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++)
+                    {
+                        String prefix = reader.getNamespacePrefix(i);
+                        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                                               (prefix == null || prefix.isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                                               reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++)
+                    {
+                        String uri = reader.getAttributeNamespace(i);
+                        element.setAttributeNS((uri == null || uri.isEmpty()) ? null : uri,
+                                               qName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                                               reader.getAttributeValue(i));
+                    }
+                    parent.appendChild(element);
+                    parent = element;
+                    if (record == null)
+                    {
+                        record = element;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    Node last = parent.getLastChild();
+                    if (last != null && last.getNodeType() == Node.TEXT_NODE)
+                    {
+                        // TEXT data split by a comment or processing instruction, which are ignored.
+                        ((Text) last).appendData(reader.getText());
+                    }
+                    else
+                    {
+                        parent.appendChild(doc.createTextNode(reader.getText()));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    parent = parent.getParentNode();
+                    if (parent == doc)
+                    {
+                        return record;
+                    }
+                    break;
+            }
+        }
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.END_DOCUMENT);
+
+        throw new XMLStreamException("Unexpected end of document inside element \"" + record.getNodeName() + "\".");
+    }
+
+    private static String qName(String prefix, String localName)
+    {
+        return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static void close(XMLStreamReader reader)
+    {
+        if (reader != null)
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (XMLStreamException e)
+            {
+                LOG.warn("Error closing XML stream. Error: " + e.toString(), e);
+            }
+        }
+    }
+}
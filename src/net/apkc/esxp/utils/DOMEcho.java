@@ -55,12 +55,17 @@
  */
 package net.apkc.esxp.utils;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
-import org.w3c.dom.Entity;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
@@ -76,183 +81,552 @@ import org.w3c.dom.Node;
  * useful) DOM trees. Program also shows an example of using an
  * ErrorHandler.
  *
+ * <p>
+ * The tree is walked with an explicit stack, so documents of any depth can be echoed, and each
+ * line is encoded as UTF-8 straight into a reusable buffer, which is written to the stream or
+ * channel only when full and at the end of each echo (Comment by Andreas P. Koenzen).
+ * </p>
+ *
+ * <p>
+ * With a pool (see {@link #setPool(ForkJoinPool)}) the subtrees under the document element are
+ * rendered in parallel, each into its own buffer, and written in document order, so the output is
+ * the same as when echoing sequentially.
+ * </p>
+ *
  * @author Edwin Goei <edwingo@apache.org>
  */
 public class DOMEcho
 {
 
-    /** All output will use this encoding. */
-    private final String ENCODING = "UTF-8";
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Initial size of the buffer of each subtree rendered in parallel. */
+    private static final int SUBTREE_BUFFER_SIZE = 4 * 1024;
+    /** Subtrees rendered ahead of the one being written, per thread of the pool. */
+    private static final int SUBTREES_PER_THREAD = 4;
     /** Indentation will be in multiples of basicIndent. */
-    private final String INDENT = "  ";
-    /** Output goes here. */
-    private PrintWriter out;
-    /** Indent level. */
-    private int indent = 0;
+    private static final byte[] INDENT = {' ', ' '};
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    /** Output goes here, to one of them. */
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    /** Renders into the output buffer. */
+    private final Renderer renderer;
+    /** The pool where subtrees are rendered in parallel, or NULL. */
+    private ForkJoinPool pool = null;
 
     public DOMEcho(OutputStream out)
     {
+        this.out = out;
+        this.channel = null;
+        this.renderer = new Renderer(this, BUFFER_SIZE);
+    }
+
+    public DOMEcho(WritableByteChannel channel)
+    {
+        this.out = null;
+        this.channel = channel;
+        this.renderer = new Renderer(this, BUFFER_SIZE);
+    }
+
+    /**
+     * Sets the pool where the children of the document element, or of the node echoed if it isn't a
+     * document, are rendered in parallel. The default is NULL, which renders everything in the
+     * calling thread.
+     *
+     * <p>
+     * The tree is only read, but it must be safe to read from several threads. Deferred Xerces DOM
+     * trees, which create their nodes when first read, are expanded by the calling thread one subtree
+     * at a time before handing it to the pool.
+     * </p>
+     *
+     * @param pool The pool, or NULL.
+     *
+     * @return This instance.
+     */
+    public DOMEcho setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Echoes a DOM tree and flushes the output.
+     *
+     * @param n Node to print.
+     *
+     * @throws IOException If the output can't be written.
+     */
+    public void echo(Node n) throws IOException
+    {
+        Node split = null;
+        if (pool != null)
+        {
+            split = (n.getNodeType() == Node.DOCUMENT_NODE) ? ((Document) n).getDocumentElement() : n;
+        }
+
         try
         {
-            this.out = new PrintWriter(new OutputStreamWriter(out, ENCODING), true);
+            renderer.render(n, 0, split);
+            renderer.drain();
+            if (out != null)
+            {
+                out.flush();
+            }
         }
-        catch (UnsupportedEncodingException ex)
+        finally
         {
+            renderer.clear();
         }
     }
 
     /**
-     * Echo common attributes of a DOM node and terminate output with an
-     * EOL character.
-     *
-     * @param n Node to print.
+     * Renders the children of a node in parallel and appends them in order to the output buffer.
+     * Called by the renderer once it rendered the node itself and its attributes.
      */
-    private void printlnCommon(Node n)
+    private void echoChildren(Node parent, int indent) throws IOException
     {
-        out.print(" nodeName=\"" + n.getNodeName() + "\"");
+        final boolean deferred = isDeferred(parent);
+        final int window = Math.max(1, pool.getParallelism() * SUBTREES_PER_THREAD);
+        final ArrayDeque<ForkJoinTask<Renderer>> tasks = new ArrayDeque<>(window);
+        try
+        {
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (deferred)
+                {
+                    expand(child);
+                }
+                tasks.add(pool.submit(new Subtree(child, indent)));
+                if (tasks.size() >= window)
+                {
+                    Renderer subtree = tasks.poll().join();
+                    renderer.append(subtree.buffer, subtree.length);
+                }
+            }
 
-        String val = n.getNamespaceURI();
-        if (val != null)
+            while (!tasks.isEmpty())
+            {
+                Renderer subtree = tasks.poll().join();
+                renderer.append(subtree.buffer, subtree.length);
+            }
+        }
+        finally
         {
-            out.print(" uri=\"" + val + "\"");
+            for (ForkJoinTask<Renderer> task : tasks)
+            {
+                task.cancel(false);
+            }
         }
+    }
 
-        val = n.getPrefix();
-        if (val != null)
+    private void write(byte[] bytes, int length) throws IOException
+    {
+        if (out != null)
         {
-            out.print(" pre=\"" + val + "\"");
+            out.write(bytes, 0, length);
         }
-
-        val = n.getLocalName();
-        if (val != null)
+        else
         {
-            out.print(" local=\"" + val + "\"");
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
         }
+    }
 
-        val = n.getNodeValue();
-        if (val != null)
+    /**
+     * Checks if a node belongs to a deferred Xerces DOM tree, whose nodes are created when first read
+     * and can't be read from several threads until then.
+     */
+    private static boolean isDeferred(Node node)
+    {
+        Document doc = node.getOwnerDocument();
+        return doc != null && doc.getClass().getSimpleName().startsWith("Deferred");
+    }
+
+    /**
+     * Reads every node of a subtree, with its attributes, so a deferred tree creates them.
+     */
+    private static void expand(Node root)
+    {
+        Node n = root;
+        while (n != null)
         {
-            out.print(" nodeValue=");
-            if (val.trim().equals(""))
+            n.getNodeName();
+            n.getNodeValue();
+            NamedNodeMap attributes = n.getAttributes();
+            if (attributes != null)
             {
-                out.print("[WS]"); // Whitespace
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    expand(attributes.item(i));
+                }
             }
-            else
+
+            // Next node in document order, never going above the root.
+            Node next = n.getFirstChild();
+            while (next == null && n != root)
             {
-                out.print("\"" + n.getNodeValue() + "\"");
+                next = n.getNextSibling();
+                if (next == null)
+                {
+                    n = n.getParentNode();
+                }
             }
+            n = next;
         }
-
-        out.println();
     }
 
     /**
-     * Indent to the current level in multiples of basicIndent.
+     * Renders one subtree into its own buffer.
      */
-    private void outputIndentation()
+    private static final class Subtree implements Callable<Renderer>
     {
-        for (int i = 0; i < indent; i++)
+
+        private final Node root;
+        private final int indent;
+
+        Subtree(Node root, int indent)
         {
-            out.print(INDENT);
+            this.root = root;
+            this.indent = indent;
+        }
+
+        @Override
+        public Renderer call() throws IOException
+        {
+            Renderer renderer = new Renderer(null, SUBTREE_BUFFER_SIZE);
+            renderer.render(root, indent, null);
+
+            return renderer;
         }
     }
 
     /**
-     * Recursive routine to print out DOM tree nodes.
-     *
-     * @param n Node to print.
+     * Walks a tree in document order with an explicit stack of nodes and their indent levels, and
+     * renders each node as a line of UTF-8 into a buffer. The buffer is written to the output of its
+     * echo when full or, without one, grows.
      */
-    public void echo(Node n)
+    private static final class Renderer
     {
-        outputIndentation(); // Indent to the current level before printing anything
 
-        int type = n.getNodeType();
-        switch (type)
+        /** The echo whose output receives the buffer, or NULL to keep everything in the buffer. */
+        private final DOMEcho echo;
+        byte[] buffer;
+        int length = 0;
+        /** Nodes pending to be printed, with their indent levels. */
+        private Node[] nodes = new Node[64];
+        private int[] indents = new int[64];
+        private int size = 0;
+
+        Renderer(DOMEcho echo, int bufferSize)
         {
-            case Node.ATTRIBUTE_NODE:
-                out.print("ATTR:");
-                printlnCommon(n);
-                break;
-            case Node.CDATA_SECTION_NODE:
-                out.print("CDATA:");
-                printlnCommon(n);
-                break;
-            case Node.COMMENT_NODE:
-                out.print("COMM:");
-                printlnCommon(n);
-                break;
-            case Node.DOCUMENT_FRAGMENT_NODE:
-                out.print("DOC_FRAG:");
-                printlnCommon(n);
-                break;
-            case Node.DOCUMENT_NODE:
-                out.print("DOC:");
-                printlnCommon(n);
-                break;
-            case Node.DOCUMENT_TYPE_NODE:
-                out.print("DOC_TYPE:");
-                printlnCommon(n);
-
-                // Print entities if any
-                NamedNodeMap nodeMap = ((DocumentType) n).getEntities();
-                indent += 2;
-                for (int i = 0; i < nodeMap.getLength(); i++)
+            this.echo = echo;
+            this.buffer = new byte[bufferSize];
+        }
+
+        /**
+         * Prints a node and everything under it.
+         *
+         * @param root   The node.
+         * @param indent The indent level of the node.
+         * @param split  The node whose children are echoed in parallel by the echo, or NULL.
+         */
+        void render(Node root, int indent, Node split) throws IOException
+        {
+            final int base = size;
+            push(root, indent);
+            while (size > base)
+            {
+                final Node n = nodes[--size];
+                final int level = indents[size];
+                nodes[size] = null;
+
+                print(n, level);
+                if (n == split)
                 {
-                    Entity entity = (Entity) nodeMap.item(i);
-                    echo(entity);
+                    // The attributes first, then the children on the pool.
+                    final int mark = size;
+                    pushProperties(n, level);
+                    while (size > mark)
+                    {
+                        Node property = pop();
+                        render(property, indents[size], null);
+                    }
+                    echo.echoChildren(n, level + 1);
+                    continue;
                 }
-                indent -= 2;
-                break;
-            case Node.ELEMENT_NODE:
-                out.print("ELEM:");
-                printlnCommon(n);
-
-                // Print attributes if any.  Note: element attributes are not
-                // children of ELEMENT_NODEs but are properties of their
-                // associated ELEMENT_NODE.  For this reason, they are printed
-                // with 2x the indent level to indicate this.
-                NamedNodeMap atts = n.getAttributes();
-                indent += 2;
-                for (int i = 0; i < atts.getLength(); i++)
+
+                // Children are printed after the attributes or entities, so they are pushed first.
+                for (Node child = n.getLastChild(); child != null; child = child.getPreviousSibling())
                 {
-                    Node att = atts.item(i);
-                    echo(att);
+                    push(child, level + 1);
                 }
-                indent -= 2;
-                break;
-            case Node.ENTITY_NODE:
-                out.print("ENT:");
-                printlnCommon(n);
-                break;
-            case Node.ENTITY_REFERENCE_NODE:
-                out.print("ENT_REF:");
-                printlnCommon(n);
-                break;
-            case Node.NOTATION_NODE:
-                out.print("NOTATION:");
-                printlnCommon(n);
-                break;
-            case Node.PROCESSING_INSTRUCTION_NODE:
-                out.print("PROC_INST:");
-                printlnCommon(n);
-                break;
-            case Node.TEXT_NODE:
-                out.print("TEXT:");
-                printlnCommon(n);
-                break;
-            default:
-                out.print("UNSUPPORTED NODE: " + type);
-                printlnCommon(n);
-                break;
+                pushProperties(n, level);
+            }
+        }
+
+        /**
+         * Pushes the attributes of an element or the entities of a document type, which are printed
+         * with 2x the indent level, as they are not children of the node but its properties.
+         */
+        private void pushProperties(Node n, int level)
+        {
+            NamedNodeMap properties = null;
+            if (n.getNodeType() == Node.ELEMENT_NODE)
+            {
+                properties = n.getAttributes();
+            }
+            else if (n.getNodeType() == Node.DOCUMENT_TYPE_NODE)
+            {
+                properties = ((DocumentType) n).getEntities();
+            }
+
+            if (properties != null)
+            {
+                for (int i = properties.getLength() - 1; i >= 0; i--)
+                {
+                    push(properties.item(i), level + 2);
+                }
+            }
+        }
+
+        private void push(Node n, int level)
+        {
+            if (size == nodes.length)
+            {
+                nodes = Arrays.copyOf(nodes, size << 1);
+                indents = Arrays.copyOf(indents, size << 1);
+            }
+            nodes[size] = n;
+            indents[size++] = level;
+        }
+
+        /**
+         * Pops a node, leaving its indent level at indents[size].
+         */
+        private Node pop()
+        {
+            Node n = nodes[--size];
+            nodes[size] = null;
+
+            return n;
+        }
+
+        /**
+         * Prints the line of a node.
+         */
+        private void print(Node n, int level) throws IOException
+        {
+            for (int i = 0; i < level; i++)
+            {
+                append(INDENT, INDENT.length);
+            }
+
+            int type = n.getNodeType();
+            switch (type)
+            {
+                case Node.ATTRIBUTE_NODE:
+                    append("ATTR:");
+                    break;
+                case Node.CDATA_SECTION_NODE:
+                    append("CDATA:");
+                    break;
+                case Node.COMMENT_NODE:
+                    append("COMM:");
+                    break;
+                case Node.DOCUMENT_FRAGMENT_NODE:
+                    append("DOC_FRAG:");
+                    break;
+                case Node.DOCUMENT_NODE:
+                    append("DOC:");
+                    break;
+                case Node.DOCUMENT_TYPE_NODE:
+                    append("DOC_TYPE:");
+                    break;
+                case Node.ELEMENT_NODE:
+                    append("ELEM:");
+                    break;
+                case Node.ENTITY_NODE:
+                    append("ENT:");
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    append("ENT_REF:");
+                    break;
+                case Node.NOTATION_NODE:
+                    append("NOTATION:");
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    append("PROC_INST:");
+                    break;
+                case Node.TEXT_NODE:
+                    append("TEXT:");
+                    break;
+                default:
+                    append("UNSUPPORTED NODE: ");
+                    append(Integer.toString(type));
+                    break;
+            }
+
+            printCommon(n);
+        }
+
+        /**
+         * Prints the common attributes of a DOM node and terminates the line.
+         */
+        private void printCommon(Node n) throws IOException
+        {
+            append(" nodeName=\"");
+            append(n.getNodeName());
+            append("\"");
+
+            String val = n.getNamespaceURI();
+            if (val != null)
+            {
+                append(" uri=\"");
+                append(val);
+                append("\"");
+            }
+
+            val = n.getPrefix();
+            if (val != null)
+            {
+                append(" pre=\"");
+                append(val);
+                append("\"");
+            }
+
+            val = n.getLocalName();
+            if (val != null)
+            {
+                append(" local=\"");
+                append(val);
+                append("\"");
+            }
+
+            val = n.getNodeValue();
+            if (val != null)
+            {
+                append(" nodeValue=");
+                if (isWhitespace(val))
+                {
+                    append("[WS]"); // Whitespace
+                }
+                else
+                {
+                    append("\"");
+                    append(val);
+                    append("\"");
+                }
+            }
+
+            append(LINE_SEPARATOR);
+        }
+
+        /**
+         * Checks if a string would be empty once trimmed.
+         */
+        private static boolean isWhitespace(String s)
+        {
+            for (int i = 0; i < s.length(); i++)
+            {
+                if (s.charAt(i) > ' ')
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Appends bytes, which are written straight to the output if they don't fit in the buffer.
+         */
+        void append(byte[] bytes, int count) throws IOException
+        {
+            while (length + count > buffer.length)
+            {
+                if (echo != null && length == 0)
+                {
+                    echo.write(bytes, count);
+                    return;
+                }
+                drain();
+            }
+            System.arraycopy(bytes, 0, buffer, length, count);
+            length += count;
+        }
+
+        /**
+         * Appends a string encoded as UTF-8. Unpaired surrogates are written as '?'.
+         */
+        private void append(String s) throws IOException
+        {
+            final int count = s.length();
+            for (int i = 0; i < count; i++)
+            {
+                if (length + 4 > buffer.length)
+                {
+                    drain();
+                }
+
+                char c = s.charAt(i);
+                if (c < 0x80)
+                {
+                    buffer[length++] = (byte) c;
+                }
+                else if (c < 0x800)
+                {
+                    buffer[length++] = (byte) (0xC0 | (c >> 6));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(s.charAt(i + 1)))
+                {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[length++] = (byte) (0xF0 | (cp >> 18));
+                    buffer[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+                }
+                else if (Character.isSurrogate(c))
+                {
+                    buffer[length++] = (byte) '?';
+                }
+                else
+                {
+                    buffer[length++] = (byte) (0xE0 | (c >> 12));
+                    buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Writes the buffer to the output of the echo or, without one, makes it larger.
+         */
+        void drain() throws IOException
+        {
+            if (echo != null)
+            {
+                echo.write(buffer, length);
+                length = 0;
+            }
+            else
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length << 1);
+            }
         }
 
-        // Print children if any
-        indent++;
-        for (Node child = n.getFirstChild(); child != null;
-             child = child.getNextSibling())
+        /**
+         * Drops all pending nodes and buffered bytes, after an echo.
+         */
+        void clear()
         {
-            echo(child);
+            Arrays.fill(nodes, 0, size, null);
+            size = 0;
+            length = 0;
         }
-        indent--;
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.log4j.Logger;
+
+/**
+ * Read-only access to a file through windows mapped in memory with {@link FileChannel#map}.
+ *
+ * <p>
+ * The bytes of a mapped window are read straight from the OS page cache, so files of any size can be
+ * scanned and parsed without copying them into heap buffers, and the pages stay cached across runs.
+ * Only one window of the file needs to be mapped at a time, which keeps the address space used by
+ * multi-GB files bounded. A window can't be unmapped explicitly; it's released when its buffer is
+ * garbage collected, and it remains valid after this input is closed.
+ * </p>
+ *
+ * <pre>
+ * try (MappedFileInput input = MappedFileInput.open(Paths.get("dump.xml")))
+ * {
+ *     Document doc = builder.parse(new InputSource(input.newInputStream()));
+ * }
+ * </pre>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class MappedFileInput implements Closeable
+{
+
+    private static final Logger LOG = Logger.getLogger(MappedFileInput.class.getName());
+    /** The default size of a window, 256MiB. */
+    public static final int WINDOW_SIZE = 1 << 28;
+    private final FileChannel channel;
+    private final long size;
+
+    private MappedFileInput(Path file) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    /**
+     * Opens a file.
+     *
+     * @param file The file.
+     *
+     * @return The new input.
+     *
+     * @throws IOException If the file can't be opened.
+     */
+    public static MappedFileInput open(Path file) throws IOException
+    {
+        return new MappedFileInput(file);
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return The size in bytes.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Maps a window of the file. The window ends at the end of the file if it's shorter than the
+     * length given.
+     *
+     * @param position The offset in the file of the first byte.
+     * @param length   The maximum length of the window.
+     *
+     * @return A read-only buffer with the bytes of the window, from position 0.
+     *
+     * @throws IOException If the window can't be mapped.
+     */
+    public ByteBuffer map(long position, int length) throws IOException
+    {
+        long available = Math.max(0, size - position);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, available));
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace(">>> WINDOW MAPPED: " + position + "+" + window.limit());
+        }
+
+        return window;
+    }
+
+    /**
+     * Returns a stream that reads the whole file, mapping one window of {@link #WINDOW_SIZE} bytes
+     * at a time.
+     *
+     * @return The new stream.
+     */
+    public InputStream newInputStream()
+    {
+        return newInputStream(WINDOW_SIZE);
+    }
+
+    /**
+     * Returns a stream that reads the whole file, mapping one window at a time.
+     *
+     * @param windowSize The size of the windows.
+     *
+     * @return The new stream.
+     */
+    public InputStream newInputStream(final int windowSize)
+    {
+        return new InputStream()
+        {
+            private long position = 0;
+            private ByteBuffer window = ByteBuffer.allocate(0);
+
+            @Override
+            public int read() throws IOException
+            {
+                return next() ? (window.get() & 0xFF) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0)
+                {
+                    return 0;
+                }
+                if (!next())
+                {
+                    return -1;
+                }
+
+                int n = Math.min(len, window.remaining());
+                window.get(b, off, n);
+
+                return n;
+            }
+
+            @Override
+            public int available()
+            {
+                return window.remaining();
+            }
+
+            /**
+             * Maps the next window if the current one was read.
+             *
+             * @return FALSE if the file was read.
+             */
+            private boolean next() throws IOException
+            {
+                if (!window.hasRemaining() && position < size)
+                {
+                    window = map(position, windowSize);
+                    position += window.limit();
+                }
+
+                return window.hasRemaining();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
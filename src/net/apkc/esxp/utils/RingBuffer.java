@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for handing objects from one group of threads to another.
+ *
+ * <p>
+ * The queue is an array of slots used as a ring, following the design of Dmitry Vyukov's bounded
+ * multi-producer multi-consumer queue: each slot has a sequence number that tells if it's free for
+ * the producer at a given position or full for the consumer at a given position, so producers and
+ * consumers only contend, with one compare-and-set, on their own cursor. Any number of threads can
+ * put and take at the same time.
+ * </p>
+ *
+ * <p>
+ * {@link #put(Object)} and {@link #take()} wait while the queue is full or empty, spinning briefly,
+ * then yielding and then parking, which keeps the latency of a hand-off low without burning a core
+ * while a stage waits. A full queue stops the producers, so the memory in flight is bounded by the
+ * capacity. Once the producers are done they {@link #close()} the queue, and consumers drain it and
+ * then get NULL.
+ * </p>
+ *
+ * @param <E> The type of the objects.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class RingBuffer<E>
+{
+
+    private static final int SPINS = 64;
+    private static final int YIELDS = 64;
+    private static final long PARK_NANOS = 50000;
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    /** The position each slot is free for (== position) or full for (== position + 1). */
+    private final AtomicLongArray sequences;
+    /** The position of the next put. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The position of the next take. */
+    private final AtomicLong head = new AtomicLong();
+    private volatile boolean closed = false;
+
+    private RingBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+        {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Creates a new queue.
+     *
+     * @param <E>      The type of the objects.
+     * @param capacity The minimum number of objects the queue can hold, rounded up to a power of 2.
+     *
+     * @return The new queue.
+     */
+    public static <E> RingBuffer<E> newBuild(int capacity)
+    {
+        if (capacity < 1 || capacity > (1 << 30))
+        {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30!");
+        }
+
+        return new RingBuffer<>(capacity);
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of objects in the queue, which is only an estimate while other threads use
+     * it.
+     *
+     * @return The number of objects.
+     */
+    public int size()
+    {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /**
+     * Adds an object if the queue is not full.
+     *
+     * @param e The object, not NULL.
+     *
+     * @return TRUE if added, FALSE if the queue is full.
+     */
+    public boolean offer(E e)
+    {
+        if (e == null)
+        {
+            throw new NullPointerException("NULL can't be added to a queue!");
+        }
+
+        while (true)
+        {
+            long pos = tail.get();
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(pos, pos + 1))
+                {
+                    slots.lazySet(slot, e);
+                    sequences.set(slot, pos + 1); // Publishes the object to the consumer of pos.
+                    return true;
+                }
+            }
+            else if (diff < 0)
+            {
+                return false; // The consumer of pos - capacity has not taken its object yet.
+            }
+        }
+    }
+
+    /**
+     * Removes an object if the queue is not empty.
+     *
+     * @return The object, or NULL if the queue is empty.
+     */
+    public E poll()
+    {
+        while (true)
+        {
+            long pos = head.get();
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - (pos + 1);
+            if (diff == 0)
+            {
+                if (head.compareAndSet(pos, pos + 1))
+                {
+                    E e = slots.get(slot);
+                    slots.lazySet(slot, null);
+                    sequences.set(slot, pos + mask + 1); // Frees the slot for the producer of the next lap.
+                    return e;
+                }
+            }
+            else if (diff < 0)
+            {
+                return null; // The producer of pos has not added its object yet.
+            }
+        }
+    }
+
+    /**
+     * Adds an object, waiting while the queue is full.
+     *
+     * @param e The object, not NULL.
+     *
+     * @throws InterruptedException  If the thread is interrupted while waiting.
+     * @throws IllegalStateException If the queue is closed.
+     */
+    public void put(E e) throws InterruptedException
+    {
+        int waits = 0;
+        while (true)
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("The queue is closed!");
+            }
+            if (offer(e))
+            {
+                return;
+            }
+            waits = backOff(waits);
+        }
+    }
+
+    /**
+     * Removes an object, waiting while the queue is empty and open.
+     *
+     * @return The object, or NULL if the queue is closed and empty.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public E take() throws InterruptedException
+    {
+        int waits = 0;
+        while (true)
+        {
+            E e = poll();
+            if (e != null)
+            {
+                return e;
+            }
+            if (closed)
+            {
+                return poll(); // Objects added before the queue was closed are visible now.
+            }
+            waits = backOff(waits);
+        }
+    }
+
+    /**
+     * Closes the queue, once all objects were added. Consumers still take the objects in the queue.
+     */
+    public void close()
+    {
+        closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    private static int backOff(int waits) throws InterruptedException
+    {
+        if (Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+
+        if (waits >= SPINS + YIELDS)
+        {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        else if (waits >= SPINS)
+        {
+            Thread.yield();
+        }
+
+        return waits + 1;
+    }
+}
@@ -17,10 +17,13 @@
  */
 package net.apkc.esxp.utils;
 
-import java.util.Stack;
-import java.util.Vector;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Arrays;
 import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.metrics.FlightEvent;
+import net.apkc.esxp.processor.DocumentIndex;
+import net.apkc.esxp.processor.RecordHandler;
 import org.w3c.dom.Comment;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -44,15 +47,47 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
     private Node _root = null;
     private Document _document = null;
     private Node _nextSibling = null;
-    private Stack<Node> _nodeStk = new Stack<>();
-    private Vector<String> _namespaceDecls = null;
+    /** The open nodes, from the root down to the current element. */
+    private Node[] _nodeStk = new Node[32];
+    private int _nodeStkSize = 0;
+    /** The namespace declarations of the next element, as prefix and URI pairs. */
+    private String[] _namespaceDecls = new String[8];
+    private int _namespaceDeclsSize = 0;
     private Node _lastSibling = null;
+    private byte _textMode = TextNormalizer.RAW;
+    /** The TEXT data gathered for the next TEXT node, reused for all nodes. */
+    private char[] _textBuf = new char[256];
+    private int _textLen = 0;
+    /** The include and exclude paths, rooted at the document element, or NULL to build everything. */
+    private PathStep _paths = null;
+    /** The step matched by each open node, parallel to the node stack. NULL once no path goes deeper. */
+    private PathStep[] _stepStk = new PathStep[32];
+    /** The size of the node stack when the innermost included subtree was entered. */
+    private int _includedDepth = 0;
+    /** The depth inside a subtree being dropped, 0 if none. */
+    private int _skipDepth = 0;
+    /** The tag's name of the records, or NULL if the whole document is built. */
+    private String _recordTag = null;
+    private RecordHandler<Element> _recordHandler = null;
+    /** The size of the node stack when the current record was entered. */
+    private int _recordDepth = Integer.MAX_VALUE;
+    private long _records = 0;
+    /** The document of the nodes being created, the one of the current record if any. */
+    private Document _owner = null;
+    private boolean _indexing = false;
+    /** The index of the document being built, and of the current record if any. */
+    private DocumentIndex _index = null;
+    private DocumentIndex _recordIndex = null;
+    /** The flight recorder event of the document being built, if recorded. */
+    private FlightEvent _buildEvent = null;
+    private long _elements = 0;
+    private long _characters = 0;
 
     public SAX2DOM() throws ParserConfigurationException
     {
-        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        _document = factory.newDocumentBuilder().newDocument();
+        _document = DocumentLoader.getShared().newDocument();
         _root = _document;
+        _owner = _document;
     }
 
     public SAX2DOM(Node root, Node nextSibling) throws ParserConfigurationException
@@ -68,12 +103,12 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
         }
         else
         {
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            _document = factory.newDocumentBuilder().newDocument();
+            _document = DocumentLoader.getShared().newDocument();
             _root = _document;
         }
 
         _nextSibling = nextSibling;
+        _owner = _document;
     }
 
     public SAX2DOM(Node root) throws ParserConfigurationException
@@ -86,88 +121,363 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
         return _root;
     }
 
-    @Override
-    public void characters(char[] ch, int start, int length)
+    /**
+     * Hands each record of the document to a handler as soon as its end tag arrives, instead of adding
+     * it to the DOM. Must be called before parsing.
+     *
+     * <p>
+     * A record is an element whose name matches the record tag (ignoring case), wherever it appears
+     * in the document, as in {@link net.apkc.esxp.processor.StreamingProcessor}. Each record is built
+     * as the document element of its own new document, so it can be queried with
+     * {@link net.apkc.esxp.processor.Processor} and walked with any
+     * {@link net.apkc.esxp.walker.DOMWalker}, and nothing references it once the handler returns.
+     * Records nested inside another record are part of the outer record. The include and exclude paths
+     * apply to the records too.
+     * </p>
+     *
+     * <p>
+     * Outside the records the DOM is built as usual, except for comments, processing instructions and
+     * TEXT nodes made only of whitespace (e.g. the indentation between records), which are dropped.
+     * This way the memory used is bounded by the largest record and not by the size of the document.
+     * </p>
+     *
+     * @param recordTag The tag's name of the records.
+     * @param handler   The handler of the records.
+     */
+    public void setRecordHandler(String recordTag, RecordHandler<Element> handler)
     {
-        final Node last = (Node) _nodeStk.peek();
+        if (recordTag == null || handler == null)
+        {
+            throw new IllegalArgumentException("Record tag and handler can't be NULL!");
+        }
 
-        // No text nodes can be children of root (DOM006 exception)
-        if (last != _document)
+        _recordTag = recordTag;
+        _recordHandler = handler;
+    }
+
+    /**
+     * Sets if the elements are added to a {@link DocumentIndex} while the DOM is built, so the
+     * document (and the document of each record) doesn't need to be walked again to index it, and the
+     * tag names are hashed once, when each element is created. The index is returned by
+     * {@link #getIndex()}. Only whole documents are indexed, not nodes built into an existing
+     * document. Must be called before parsing.
+     *
+     * @param indexing TRUE to index the elements, FALSE by default.
+     */
+    public void setIndexing(boolean indexing)
+    {
+        _indexing = indexing;
+    }
+
+    /**
+     * Returns the index of the document built, once it ends, or of the record being handled, while
+     * the record handler runs.
+     *
+     * @return The index, or NULL if indexing is off or the document hasn't ended yet.
+     */
+    public DocumentIndex getIndex()
+    {
+        if (_recordIndex != null)
         {
-            final String text = new String(ch, start, length);
-            if (_lastSibling != null && _lastSibling.getNodeType() == Node.TEXT_NODE)
+            return (_recordDepth == Integer.MAX_VALUE) ? _recordIndex : null;
+        }
+
+        return (_index != null && _nodeStkSize == 0) ? _index : null;
+    }
+
+    /**
+     * Returns the number of records handled so far.
+     *
+     * @return The number of records.
+     */
+    public long getRecordCount()
+    {
+        return _records;
+    }
+
+    /**
+     * Sets how TEXT data and attribute values are normalized while building the DOM. Must be called
+     * before parsing. By default text is stored as received ({@link TextNormalizer#RAW}).
+     *
+     * <p>
+     * The text of each TEXT node is always gathered in a buffer and the node is created once the whole
+     * text was received. When normalizing, the text is normalized in the buffer and TEXT nodes left
+     * empty are not created. A whole document built
+     * this way is marked as normalized, so a {@link net.apkc.esxp.processor.Processor} using the
+     * same mode doesn't normalize its values again.
+     * </p>
+     *
+     * @param textMode One of the modes of {@link TextNormalizer}.
+     */
+    public void setTextMode(byte textMode)
+    {
+        _textMode = textMode;
+    }
+
+    /**
+     * Builds only the subtree at the given path, plus the elements on the way to it. Can be called many
+     * times to build several subtrees, must be called before parsing.
+     *
+     * <p>
+     * Paths are element names separated by slashes, starting below the document element, e.g.
+     * {@code page/title} in a MediaWiki dump. Names are matched with the local name of the elements. Once
+     * an include path is given, the document element is always built, the elements on the way to an
+     * included subtree are built with their attributes only, and the events of everything else are
+     * dropped before any node is created.
+     * </p>
+     *
+     * @param path The path of the subtree.
+     */
+    public void includePath(String path)
+    {
+        final PathStep step = addPath(path);
+        step.include = true;
+        _paths.hasIncludes = true;
+    }
+
+    /**
+     * Drops the subtree at the given path, even inside an included subtree, e.g.
+     * {@code page/revision/text} when only the metadata of the pages is needed. The events of the
+     * subtree are only counted until its end, nothing is built. Can be called many times, must be called
+     * before parsing.
+     *
+     * @param path The path of the subtree, as in {@link #includePath(String)}.
+     */
+    public void excludePath(String path)
+    {
+        addPath(path).exclude = true;
+    }
+
+    /**
+     * Adds the steps of a path to the paths tree.
+     *
+     * @return The last step of the path.
+     */
+    private PathStep addPath(String path)
+    {
+        if (path == null || path.replace('/', ' ').trim().isEmpty())
+        {
+            throw new IllegalArgumentException("Path can't be empty!");
+        }
+
+        if (_paths == null)
+        {
+            _paths = new PathStep(null);
+        }
+
+        PathStep step = _paths;
+        for (String name : path.split("/"))
+        {
+            if (!name.isEmpty())
             {
-                ((Text) _lastSibling).appendData(text);
+                step = step.add(name);
             }
-            else if (last == _root && _nextSibling != null)
+        }
+
+        return step;
+    }
+
+    /**
+     * Tells if the content of the current node (TEXT, comments and processing instructions) is built.
+     */
+    private boolean buildsContent()
+    {
+        return _skipDepth == 0 && _nodeStkSize > _includedDepth;
+    }
+
+    /**
+     * Tells if the current node is outside the records, when handling records.
+     */
+    private boolean outsideRecord()
+    {
+        return _recordTag != null && _nodeStkSize <= _recordDepth;
+    }
+
+    /**
+     * Tells if some characters are all whitespace.
+     */
+    private static boolean isWhitespace(char[] ch, int length)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (ch[i] > ' ')
             {
-                _lastSibling = last.insertBefore(_document.createTextNode(text), _nextSibling);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the gathered text, normalized, as a new TEXT node.
+     */
+    private void flushText()
+    {
+        if (_textLen == 0)
+        {
+            return;
+        }
+
+        final int length = TextNormalizer.normalize(_textBuf, 0, _textLen, _textMode);
+        _textLen = 0;
+        if (length > 0 && !(outsideRecord() && isWhitespace(_textBuf, length)))
+        {
+            final Node last = _nodeStk[_nodeStkSize - 1];
+            final Text text = _owner.createTextNode(new String(_textBuf, 0, length));
+            if (last == _root && _nextSibling != null)
+            {
+                _lastSibling = last.insertBefore(text, _nextSibling);
             }
             else
             {
-                _lastSibling = last.appendChild(_document.createTextNode(text));
+                _lastSibling = last.appendChild(text);
             }
+        }
+    }
 
+    @Override
+    public void characters(char[] ch, int start, int length)
+    {
+        _characters += length;
+        // No text nodes can be children of root (DOM006 exception)
+        if (buildsContent() && _nodeStk[_nodeStkSize - 1] != _document)
+        {
+            if (_textBuf.length < _textLen + length)
+            {
+                _textBuf = Arrays.copyOf(_textBuf, Math.max(_textLen + length, _textBuf.length << 1));
+            }
+
+            System.arraycopy(ch, start, _textBuf, _textLen, length);
+            _textLen += length;
         }
     }
 
     @Override
     public void startDocument()
     {
-        _nodeStk.push(_root);
+        _buildEvent = Flight.beginBuild();
+        _elements = 0;
+        _characters = 0;
+        _skipDepth = 0;
+        _includedDepth = (_paths != null && _paths.hasIncludes) ? Integer.MAX_VALUE : 0;
+        _recordDepth = Integer.MAX_VALUE;
+        _records = 0;
+        _owner = _document;
+        _index = (_indexing && _root == _document) ? DocumentIndex.newBuild(_document) : null;
+        push(_root, _paths);
     }
 
     @Override
     public void endDocument()
     {
-        _nodeStk.pop();
+        flushText();
+        _nodeStk[--_nodeStkSize] = null;
+
+        if (_textMode != TextNormalizer.RAW && _root == _document)
+        {
+            TextNormalizer.markNormalized(_document, _textMode);
+        }
+        if (_index != null)
+        {
+            _index.seal();
+        }
+
+        Flight.endBuild(_buildEvent, _elements, _characters, _records);
+        _buildEvent = null;
     }
 
     @Override
     public void startElement(String namespace, String localName, String qName, Attributes attrs)
     {
-        final Element tmp = (Element) _document.createElementNS(namespace, qName);
+        _elements++;
+        if (_skipDepth > 0)
+        {
+            _skipDepth++;
+            return;
+        }
 
-        // Add namespace declarations first
-        if (_namespaceDecls != null)
+        PathStep step = null;
+        if (_paths != null)
         {
-            final int nDecls = _namespaceDecls.size();
-            for (int i = 0; i < nDecls; i++)
+            final PathStep parent = _stepStk[_nodeStkSize - 1];
+            if (_nodeStkSize == 1)
+            {
+                // The document element, always built.
+                step = _paths;
+            }
+            else if (parent != null)
             {
-                final String prefix = (String) _namespaceDecls.elementAt(i++);
+                step = parent.child((localName == null || localName.isEmpty()) ? qName : localName);
+            }
 
-                if (prefix == null || prefix.equals(Constants.EMPTYSTRING))
-                {
-                    tmp.setAttributeNS(Constants.XMLNS_URI, Constants.XMLNS_PREFIX, (String) _namespaceDecls.elementAt(i));
-                }
-                else
-                {
-                    tmp.setAttributeNS(Constants.XMLNS_URI, Constants.XMLNS_STRING + prefix, (String) _namespaceDecls.elementAt(i));
-                }
+            if ((step != null && step.exclude) || (step == null && _nodeStkSize <= _includedDepth))
+            {
+                Arrays.fill(_namespaceDecls, 0, _namespaceDeclsSize, null);
+                _namespaceDeclsSize = 0;
+                _skipDepth = 1;
+                return;
             }
-            _namespaceDecls.clear();
         }
 
+        flushText();
+        final boolean record = _recordTag != null && _nodeStkSize <= _recordDepth && qName.equalsIgnoreCase(_recordTag);
+        if (record)
+        {
+            _owner = _document.getImplementation().createDocument(null, null, null);
+            _recordIndex = _indexing ? DocumentIndex.newBuild(_owner) : null;
+        }
+        final Element tmp = (Element) _owner.createElementNS(namespace, qName);
+        final DocumentIndex index = (_recordDepth != Integer.MAX_VALUE || record) ? _recordIndex : _index;
+        if (index != null)
+        {
+            index.add(tmp);
+        }
+
+        // Add namespace declarations first
+        for (int i = 0; i < _namespaceDeclsSize; i++)
+        {
+            final String prefix = _namespaceDecls[i++];
+
+            if (prefix == null || prefix.equals(Constants.EMPTYSTRING))
+            {
+                tmp.setAttributeNS(Constants.XMLNS_URI, Constants.XMLNS_PREFIX, _namespaceDecls[i]);
+            }
+            else
+            {
+                tmp.setAttributeNS(Constants.XMLNS_URI, Constants.XMLNS_STRING + prefix, _namespaceDecls[i]);
+            }
+        }
+        Arrays.fill(_namespaceDecls, 0, _namespaceDeclsSize, null);
+        _namespaceDeclsSize = 0;
+
         // Add attributes to element
         final int nattrs = attrs.getLength();
         for (int i = 0; i < nattrs; i++)
         {
+            final String value = TextNormalizer.normalize(attrs.getValue(i), _textMode);
             if (attrs.getLocalName(i) == null)
             {
-                tmp.setAttribute(attrs.getQName(i), attrs.getValue(i));
+                tmp.setAttribute(attrs.getQName(i), value);
             }
             else
             {
-                tmp.setAttributeNS(attrs.getURI(i), attrs.getQName(i), attrs.getValue(i));
+                tmp.setAttributeNS(attrs.getURI(i), attrs.getQName(i), value);
             }
         }
 
         // Append this new node onto current stack node
-        Node last = (Node) _nodeStk.peek();
+        Node last = _nodeStk[_nodeStkSize - 1];
 
+        // A record is the document element of its own document.
+        if (record)
+        {
+            _owner.appendChild(tmp);
+            _recordDepth = _nodeStkSize;
+        }
         // If the SAX2DOM is created with a non-null next sibling node,
         // insert the result nodes before the next sibling under the root.
-        if (last == _root && _nextSibling != null)
+        else if (last == _root && _nextSibling != null)
         {
             last.insertBefore(tmp, _nextSibling);
         }
@@ -177,26 +487,101 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
         }
 
         // Push this node onto stack
-        _nodeStk.push(tmp);
+        if (step != null && step.include && _nodeStkSize < _includedDepth)
+        {
+            _includedDepth = _nodeStkSize;
+        }
+        push(tmp, (step != null && step.children.length > 0) ? step : null);
         _lastSibling = null;
     }
 
     @Override
-    public void endElement(String namespace, String localName, String qName)
+    public void endElement(String namespace, String localName, String qName) throws SAXException
     {
-        _nodeStk.pop();
+        if (_skipDepth > 0)
+        {
+            _skipDepth--;
+            return;
+        }
+
+        flushText();
+        final Node node = _nodeStk[--_nodeStkSize];
+        _nodeStk[_nodeStkSize] = null;
+        _stepStk[_nodeStkSize] = null;
+        if (_nodeStkSize == _includedDepth)
+        {
+            _includedDepth = Integer.MAX_VALUE;
+        }
         _lastSibling = null;
+
+        if (_nodeStkSize == _recordDepth)
+        {
+            handleRecord((Element) node);
+        }
+    }
+
+    /**
+     * Hands a finished record to the record handler and goes back to the main document.
+     */
+    private void handleRecord(Element record) throws SAXException
+    {
+        _recordDepth = Integer.MAX_VALUE;
+        if (_textMode != TextNormalizer.RAW)
+        {
+            TextNormalizer.markNormalized(_owner, _textMode);
+        }
+        if (_recordIndex != null)
+        {
+            _recordIndex.seal();
+        }
+        _owner = _document;
+
+        try
+        {
+            _recordHandler.handle(record);
+        }
+        catch (Exception e)
+        {
+            throw new SAXException("Error handling record #" + _records + ". Error: " + e.toString(), e);
+        }
+        finally
+        {
+            _recordIndex = null;
+        }
+        _records++;
+    }
+
+    /**
+     * Pushes a node onto the stack of open nodes.
+     *
+     * @param node The node.
+     * @param step The step of the paths tree matched by the node.
+     */
+    private void push(Node node, PathStep step)
+    {
+        if (_nodeStkSize == _nodeStk.length)
+        {
+            _nodeStk = Arrays.copyOf(_nodeStk, _nodeStkSize << 1);
+            _stepStk = Arrays.copyOf(_stepStk, _nodeStkSize << 1);
+        }
+        _stepStk[_nodeStkSize] = step;
+        _nodeStk[_nodeStkSize++] = node;
     }
 
     @Override
     public void startPrefixMapping(String prefix, String uri)
     {
-        if (_namespaceDecls == null)
+        if (_skipDepth > 0)
         {
-            _namespaceDecls = new Vector<>(2);
+            return;
         }
-        _namespaceDecls.addElement(prefix);
-        _namespaceDecls.addElement(uri);
+
+        if (_namespaceDeclsSize + 2 > _namespaceDecls.length)
+        {
+            _namespaceDecls = Arrays.copyOf(_namespaceDecls, _namespaceDecls.length << 1);
+        }
+        _namespaceDecls[_namespaceDeclsSize++] = prefix;
+        _namespaceDecls[_namespaceDeclsSize++] = uri;
     }
 
     @Override
@@ -213,8 +598,14 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
     @Override
     public void processingInstruction(String target, String data)
     {
-        final Node last = (Node) _nodeStk.peek();
-        ProcessingInstruction pi = _document.createProcessingInstruction(target, data);
+        if (!buildsContent() || outsideRecord())
+        {
+            return;
+        }
+
+        flushText();
+        final Node last = _nodeStk[_nodeStkSize - 1];
+        ProcessingInstruction pi = _owner.createProcessingInstruction(target, data);
         if (pi != null)
         {
             if (last == _root && _nextSibling != null)
@@ -243,8 +634,14 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
     @Override
     public void comment(char[] ch, int start, int length)
     {
-        final Node last = (Node) _nodeStk.peek();
-        Comment comment = _document.createComment(new String(ch, start, length));
+        if (!buildsContent() || outsideRecord())
+        {
+            return;
+        }
+
+        flushText();
+        final Node last = _nodeStk[_nodeStkSize - 1];
+        Comment comment = _owner.createComment(new String(ch, start, length));
         if (comment != null)
         {
             if (last == _root && _nextSibling != null)
@@ -290,6 +687,53 @@ public class SAX2DOM implements ContentHandler, LexicalHandler
     {
     }
 
+    /**
+     * A step of the include and exclude paths, i.e. an element name and the steps below it.
+     */
+    private static final class PathStep
+    {
+
+        private final String name;
+        private PathStep[] children = new PathStep[0];
+        /** If the subtree at this step is built. */
+        private boolean include = false;
+        /** If the subtree at this step is dropped, which wins over include. */
+        private boolean exclude = false;
+        /** Only used in the root step, if there are include paths at all. */
+        private boolean hasIncludes = false;
+
+        private PathStep(String name)
+        {
+            this.name = name;
+        }
+
+        private PathStep child(String name)
+        {
+            for (PathStep child : children)
+            {
+                if (child.name.equals(name))
+                {
+                    return child;
+                }
+            }
+
+            return null;
+        }
+
+        private PathStep add(String name)
+        {
+            PathStep child = child(name);
+            if (child == null)
+            {
+                child = new PathStep(name);
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+
+            return child;
+        }
+    }
+
     /**
      * This class defines constants used by both the compiler and the
      * runtime system.
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.utils;
+
+import java.util.Arrays;
+
+/**
+ * Table of tag names, ignoring case, where each distinct name gets a small number (its symbol) in
+ * the order the names are added.
+ *
+ * <p>
+ * Two names get the same symbol if and only if they are equal ignoring case, the same semantics of
+ * {@link String#equalsIgnoreCase(String)}. Names are hashed and compared case-folding one character
+ * at a time, so {@link #lookup(String)} never allocates. Once a name is resolved to its symbol,
+ * matching it is comparing two ints.
+ * </p>
+ *
+ * <p>
+ * Lookups can run concurrently once the table is built, but adding names isn't thread safe.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class SymbolTable
+{
+
+    /** Symbol returned for names that are not in the table. */
+    public static final int NOT_FOUND = -1;
+    /** Size of the cache of names recently added, by identity. */
+    private static final int RECENT_SIZE = 64;
+    /** Case-folded name of each symbol. */
+    private String[] names = new String[16];
+    /** Hash table of symbol + 1 for each slot, 0 if the slot is empty. */
+    private int[] slots = new int[32];
+    private int size = 0;
+    /**
+     * The last names added and their symbols, by identity. Parsers usually hand the same String
+     * instance for each occurrence of a name, which then needs no hashing at all.
+     */
+    private final String[] recentNames = new String[RECENT_SIZE];
+    private final int[] recentSymbols = new int[RECENT_SIZE];
+
+    /**
+     * Case-folds a name. Two names are equal ignoring case if and only if their folded forms are
+     * equal, the same semantics of {@link String#equalsIgnoreCase(String)}.
+     *
+     * @param name The name to fold.
+     *
+     * @return The folded name, which is the same instance if the name is already folded.
+     */
+    public static String fold(String name)
+    {
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (fold(c) != c)
+            {
+                char[] folded = name.toCharArray();
+                for (int j = i; j < folded.length; j++)
+                {
+                    folded[j] = fold(folded[j]);
+                }
+
+                return new String(folded);
+            }
+        }
+
+        return name;
+    }
+
+    private static char fold(char c)
+    {
+        return (c < 0x80) ? ((c >= 'A' && c <= 'Z') ? (char) (c + 32) : c) : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Hash of the folded form of a name, computed without folding it.
+     */
+    private static int hash(String name)
+    {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++)
+        {
+            h = 31 * h + fold(name.charAt(i));
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Tells if a name is equal, ignoring case, to a folded name, without allocating. Folding a
+     * searched name once with {@link #fold(String)} and matching each candidate with this method has
+     * the same semantics of {@link String#equalsIgnoreCase(String)}.
+     *
+     * @param folded The folded name.
+     * @param name   The name to match.
+     *
+     * @return TRUE if the names are equal ignoring case.
+     */
+    public static boolean matches(String folded, String name)
+    {
+        if (folded.length() != name.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (fold(name.charAt(i)) != folded.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the symbol of a name, ignoring case.
+     *
+     * @param name The name.
+     *
+     * @return The symbol or {@link #NOT_FOUND} if the name is not in the table.
+     */
+    public int lookup(String name)
+    {
+        final int mask = slots.length - 1;
+        for (int i = hash(name) & mask;; i = (i + 1) & mask)
+        {
+            final int slot = slots[i];
+            if (slot == 0)
+            {
+                return NOT_FOUND;
+            }
+            if (matches(names[slot - 1], name))
+            {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds a name to the table, if no name equal to it ignoring case is there already.
+     *
+     * @param name The name.
+     *
+     * @return The symbol of the name.
+     */
+    public int add(String name)
+    {
+        final int recent = System.identityHashCode(name) & (RECENT_SIZE - 1);
+        if (recentNames[recent] == name)
+        {
+            return recentSymbols[recent];
+        }
+
+        int symbol = lookup(name);
+        if (symbol == NOT_FOUND)
+        {
+            symbol = size++;
+            if (symbol == names.length)
+            {
+                names = Arrays.copyOf(names, symbol << 1);
+            }
+            names[symbol] = fold(name);
+            if (size << 1 > slots.length)
+            {
+                rehash();
+            }
+            else
+            {
+                insert(slots, symbol);
+            }
+        }
+
+        recentNames[recent] = name;
+        recentSymbols[recent] = symbol;
+
+        return symbol;
+    }
+
+    private void insert(int[] table, int symbol)
+    {
+        final int mask = table.length - 1;
+        int i = hash(names[symbol]) & mask;
+        while (table[i] != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        table[i] = symbol + 1;
+    }
+
+    private void rehash()
+    {
+        final int[] table = new int[slots.length << 1];
+        for (int symbol = 0; symbol < size; symbol++)
+        {
+            insert(table, symbol);
+        }
+        slots = table;
+    }
+
+    /**
+     * Returns the case-folded name of a symbol.
+     *
+     * @param symbol The symbol.
+     *
+     * @return The folded name.
+     */
+    public String getName(int symbol)
+    {
+        if (symbol < 0 || symbol >= size)
+        {
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
+        }
+
+        return names[symbol];
+    }
+
+    /**
+     * Returns the number of symbols, which are numbered from 0 to size() - 1.
+     *
+     * @return The number of symbols.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
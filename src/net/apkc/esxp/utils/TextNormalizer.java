@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.utils;
+
+import net.apkc.esxp.metrics.ProcessorMetrics;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Whitespace normalization of TEXT data and attribute values.
+ *
+ * <p>
+ * All modes work in a single scan over the characters. Text that is already normalized is returned
+ * as is, without allocating anything, and text that isn't is normalized in a per-thread scratch
+ * buffer, so the only allocation is the resulting string.
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #RAW}: Text is left untouched.</li>
+ * <li>{@link #TRIM}: Leading and trailing characters lower or equal than space are removed, as in
+ * {@link String#trim()}.</li>
+ * <li>{@link #COLLAPSE}: Each run of whitespace ({@code [ \t\n\x0B\f\r]}) is replaced by one space and
+ * then the text is trimmed. Same result as {@code text.replaceAll("\\s+", " ").trim()}.</li>
+ * <li>{@link #XSD_REPLACE}: XML Schema's {@code replace}, each tab, line feed and carriage return is
+ * replaced by a space.</li>
+ * <li>{@link #XSD_COLLAPSE}: XML Schema's {@code collapse}, after {@code replace} each run of spaces is
+ * replaced by one space and leading and trailing spaces are removed.</li>
+ * </ul>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public final class TextNormalizer
+{
+
+    public static final byte RAW = 0x0;
+    public static final byte TRIM = 0x1;
+    public static final byte COLLAPSE = 0x2;
+    public static final byte XSD_REPLACE = 0x3;
+    public static final byte XSD_COLLAPSE = 0x4;
+    /** Key of the user data which marks a document as normalized at parse time. */
+    private static final String USER_DATA_KEY = TextNormalizer.class.getName();
+    /** Larger scratch buffers than this are not kept between calls. */
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+    private static final ThreadLocal<char[]> SCRATCH = new ThreadLocal<char[]>()
+    {
+        @Override
+        protected char[] initialValue()
+        {
+            return new char[256];
+        }
+    };
+
+    private TextNormalizer()
+    {
+    }
+
+    /**
+     * Normalizes a string.
+     *
+     * @param text The text to normalize.
+     * @param mode The normalization mode.
+     *
+     * @return The normalized text, which is the same instance if it was already normalized.
+     */
+    public static String normalize(String text, byte mode)
+    {
+        if (mode == RAW)
+        {
+            return text;
+        }
+
+        ProcessorMetrics.normalized(text.length());
+        if (isNormalized(text, mode))
+        {
+            return text;
+        }
+        if (mode == TRIM)
+        {
+            return text.trim();
+        }
+
+        final int length = text.length();
+        char[] buffer = SCRATCH.get();
+        if (buffer.length < length)
+        {
+            buffer = new char[Math.max(length, buffer.length << 1)];
+            if (buffer.length <= MAX_SCRATCH_SIZE)
+            {
+                SCRATCH.set(buffer);
+            }
+        }
+
+        text.getChars(0, length, buffer, 0);
+        return new String(buffer, 0, apply(buffer, 0, length, mode));
+    }
+
+    /**
+     * Normalizes a region of a char array in place. The normalized text is written at the start of
+     * the region.
+     *
+     * @param ch     The characters.
+     * @param start  The start of the region.
+     * @param length The length of the region.
+     * @param mode   The normalization mode.
+     *
+     * @return The length of the normalized text.
+     */
+    public static int normalize(char[] ch, int start, int length, byte mode)
+    {
+        if (mode != RAW)
+        {
+            ProcessorMetrics.normalized(length);
+        }
+
+        return apply(ch, start, length, mode);
+    }
+
+    private static int apply(char[] ch, int start, int length, byte mode)
+    {
+        switch (mode)
+        {
+            case TRIM:
+                return trim(ch, start, length);
+            case COLLAPSE:
+                return collapse(ch, start, length, false);
+            case XSD_REPLACE:
+                for (int i = start; i < start + length; i++)
+                {
+                    if (isXSDSpace(ch[i]))
+                    {
+                        ch[i] = ' ';
+                    }
+                }
+                return length;
+            case XSD_COLLAPSE:
+                return collapse(ch, start, length, true);
+            default:
+                return length;
+        }
+    }
+
+    /**
+     * Checks if a string is already normalized, which means that normalizing it would return the
+     * same text.
+     *
+     * @param text The text to check.
+     * @param mode The normalization mode.
+     *
+     * @return TRUE if the text is normalized, FALSE otherwise.
+     */
+    public static boolean isNormalized(String text, byte mode)
+    {
+        final int length = text.length();
+        switch (mode)
+        {
+            case TRIM:
+                return length == 0 || (text.charAt(0) > ' ' && text.charAt(length - 1) > ' ');
+            case COLLAPSE:
+                if (length > 0 && (text.charAt(0) <= ' ' || text.charAt(length - 1) <= ' '))
+                {
+                    return false;
+                }
+                for (int i = 0; i < length; i++)
+                {
+                    char c = text.charAt(i);
+                    // A space is never the last char here, so there is always a next one.
+                    if (isSpace(c) && (c != ' ' || isSpace(text.charAt(i + 1))))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            case XSD_REPLACE:
+                for (int i = 0; i < length; i++)
+                {
+                    if (isXSDSpace(text.charAt(i)))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            case XSD_COLLAPSE:
+                if (length > 0 && (text.charAt(0) == ' ' || text.charAt(length - 1) == ' '))
+                {
+                    return false;
+                }
+                for (int i = 0; i < length; i++)
+                {
+                    char c = text.charAt(i);
+                    if (isXSDSpace(c) || (c == ' ' && text.charAt(i + 1) == ' '))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Marks a document as normalized at parse time with a given mode, so that processors using the
+     * same mode don't normalize its text again.
+     *
+     * @param doc  The document.
+     * @param mode The normalization mode used to build the document.
+     */
+    public static void markNormalized(Document doc, byte mode)
+    {
+        doc.setUserData(USER_DATA_KEY, (mode == RAW) ? null : Byte.valueOf(mode), null);
+    }
+
+    /**
+     * Checks if the document of a given node was normalized at parse time with a given mode.
+     *
+     * @param node A node of the document.
+     * @param mode The normalization mode.
+     *
+     * @return TRUE if the document was normalized with that mode, FALSE otherwise.
+     */
+    public static boolean isMarkedNormalized(Node node, byte mode)
+    {
+        Document doc = (node.getNodeType() == Node.DOCUMENT_NODE) ? (Document) node : node.getOwnerDocument();
+        if (doc == null)
+        {
+            return false;
+        }
+
+        Object marked = doc.getUserData(USER_DATA_KEY);
+        return marked instanceof Byte && ((Byte) marked) == mode;
+    }
+
+    private static int trim(char[] ch, int start, int length)
+    {
+        int from = start;
+        int to = start + length;
+        while (from < to && ch[from] <= ' ')
+        {
+            from++;
+        }
+        while (to > from && ch[to - 1] <= ' ')
+        {
+            to--;
+        }
+
+        if (from > start)
+        {
+            System.arraycopy(ch, from, ch, start, to - from);
+        }
+
+        return to - from;
+    }
+
+    private static int collapse(char[] ch, int start, int length, boolean xsd)
+    {
+        // Trim first, a run of whitespace touching either end is removed and not replaced.
+        int from = start;
+        int to = start + length;
+        while (from < to && (xsd ? isXSDSpaceOrSpace(ch[from]) : ch[from] <= ' '))
+        {
+            from++;
+        }
+        while (to > from && (xsd ? isXSDSpaceOrSpace(ch[to - 1]) : ch[to - 1] <= ' '))
+        {
+            to--;
+        }
+
+        int n = start;
+        boolean inRun = false;
+        for (int i = from; i < to; i++)
+        {
+            char c = ch[i];
+            if (xsd ? isXSDSpaceOrSpace(c) : isSpace(c))
+            {
+                if (!inRun)
+                {
+                    ch[n++] = ' ';
+                    inRun = true;
+                }
+            }
+            else
+            {
+                ch[n++] = c;
+                inRun = false;
+            }
+        }
+
+        return n - start;
+    }
+
+    /**
+     * Checks for the characters matched by the regular expression {@code \s}.
+     */
+    private static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    /**
+     * Checks for the characters replaced by a space in XML Schema's {@code replace}.
+     */
+    private static boolean isXSDSpace(char c)
+    {
+        return c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isXSDSpaceOrSpace(char c)
+    {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+}
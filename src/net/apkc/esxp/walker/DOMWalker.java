@@ -25,6 +25,9 @@
  */
 package net.apkc.esxp.walker;
 
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.metrics.FlightEvent;
+import net.apkc.esxp.metrics.ProcessorMetrics;
 import org.w3c.dom.Node;
 
 /**
@@ -38,6 +41,16 @@ public abstract class DOMWalker
 
     public static final byte ELEMENT_NODES = 0x0;
     public static final byte TEXT_NODES = 0x1;
+    /** If walkers count the nodes they visit, for the metrics or the flight recorder. */
+    protected static final boolean COUNTING = ProcessorMetrics.ENABLED || Flight.ENABLED;
+    /** The ID of this walker in {@link DOMWalkerFactory}. */
+    byte walkerID;
+    /** If this walker is in the pool of a thread, waiting to be reused. */
+    boolean pooled = false;
+    /** Nodes returned by nextNode() since the walker was released, counted if {@link #COUNTING}. */
+    protected int visited = 0;
+    /** The flight recorder event of the current walk, reused by all walks of this walker. */
+    private FlightEvent walkEvent;
 
     /**
      * This method initializes the walker by passing the root node.
@@ -72,4 +85,41 @@ public abstract class DOMWalker
      * @return TRUE if there are more nodes, FALSE otherwise.
      */
     public abstract boolean hasNext();
+
+    /**
+     * Clears the state of this walker, dropping all references to nodes, so it can be configured
+     * again with a new root node.
+     */
+    public abstract void reset();
+
+    /**
+     * Resets this walker and returns it to the pool of the current thread, so the next call to
+     * {@link DOMWalkerFactory#getWalker(byte)} reuses it instead of creating a new walker.
+     * <p>
+     * The walker must not be used after this call. Walkers that are never released are simply
+     * garbage collected.
+     * </p>
+     */
+    public void release()
+    {
+        if (COUNTING)
+        {
+            ProcessorMetrics.walked(visited);
+            Flight.endWalk(walkEvent, this, visited);
+            visited = 0;
+        }
+        reset();
+        DOMWalkerFactory.release(this);
+    }
+
+    /**
+     * Starts a walk, when this walker is handed out by {@link DOMWalkerFactory}.
+     */
+    void begin()
+    {
+        if (Flight.ENABLED)
+        {
+            walkEvent = Flight.beginWalk(walkEvent);
+        }
+    }
 }
@@ -25,9 +25,19 @@
  */
 package net.apkc.esxp.walker;
 
+import net.apkc.esxp.compact.CompactDOMWalker;
+import net.apkc.esxp.compact.CompactDocument;
+import org.w3c.dom.Node;
+
 /**
  * Factory class for the DOM walker.
  *
+ * <p>
+ * Walkers are pooled per thread. Each thread keeps up to {@link #POOL_SIZE} released walkers of each
+ * type and hands them out again on {@link #getWalker(byte)}, so a thread that releases its walkers
+ * after use doesn't allocate new ones in steady state.
+ * </p>
+ *
  * @author Andreas P. Koenzen <akc at apkc.net>
  * @version 0.1
  */
@@ -35,6 +45,20 @@ public class DOMWalkerFactory
 {
 
     public static final byte STACK_DOM_WALKER = 0x1;
+    public static final byte SIBLING_DOM_WALKER = 0x2;
+    public static final byte COMPACT_DOM_WALKER = 0x3;
+    /** Maximum number of released walkers of each type kept by each thread. */
+    static final int POOL_SIZE = 8;
+    /** Number of walker types, the highest walker ID plus one. */
+    private static final int WALKER_TYPES = COMPACT_DOM_WALKER + 1;
+    private static final ThreadLocal<Pool> POOL = new ThreadLocal<Pool>()
+    {
+        @Override
+        protected Pool initialValue()
+        {
+            return new Pool();
+        }
+    };
 
     /**
      * Returns a given DOM walker.
@@ -45,12 +69,94 @@ public class DOMWalkerFactory
      */
     public static DOMWalker getWalker(byte walkerID)
     {
+        DOMWalker walker = POOL.get().take(walkerID);
+        if (walker != null)
+        {
+            walker.begin();
+            return walker;
+        }
+
         switch (walkerID)
         {
             case STACK_DOM_WALKER:
-                return StackDOMWalker.newBuild();
+                walker = StackDOMWalker.newBuild();
+                break;
+            case SIBLING_DOM_WALKER:
+                walker = SiblingDOMWalker.newBuild();
+                break;
+            case COMPACT_DOM_WALKER:
+                walker = CompactDOMWalker.newBuild();
+                break;
             default:
-                return StackDOMWalker.newBuild();
+                walker = StackDOMWalker.newBuild();
+                walkerID = STACK_DOM_WALKER;
+                break;
+        }
+        walker.walkerID = walkerID;
+        walker.begin();
+
+        return walker;
+    }
+
+    /**
+     * Returns the DOM walker to use for a given root node: the {@link CompactDOMWalker} for the nodes
+     * of a {@link CompactDocument}, which only walk with it efficiently, and the given walker for any
+     * other node.
+     *
+     * @param walkerID The ID of the walker to use for other nodes.
+     * @param rootNode The root node to walk.
+     *
+     * @return A DOM walker instance.
+     */
+    public static DOMWalker getWalker(byte walkerID, Node rootNode)
+    {
+        return getWalker(CompactDocument.isCompact(rootNode) ? COMPACT_DOM_WALKER : walkerID);
+    }
+
+    /**
+     * Returns a walker to the pool of the current thread.
+     *
+     * @param walker The walker, already reset.
+     */
+    static void release(DOMWalker walker)
+    {
+        if (!walker.pooled)
+        {
+            POOL.get().put(walker);
+        }
+    }
+
+    /**
+     * Released walkers of one thread, a stack per walker type.
+     */
+    private static final class Pool
+    {
+
+        private final DOMWalker[][] walkers = new DOMWalker[WALKER_TYPES][POOL_SIZE];
+        private final int[] sizes = new int[WALKER_TYPES];
+
+        private DOMWalker take(byte walkerID)
+        {
+            if (walkerID < 0 || walkerID >= WALKER_TYPES || sizes[walkerID] == 0)
+            {
+                return null;
+            }
+
+            DOMWalker walker = walkers[walkerID][--sizes[walkerID]];
+            walkers[walkerID][sizes[walkerID]] = null;
+            walker.pooled = false;
+
+            return walker;
+        }
+
+        private void put(DOMWalker walker)
+        {
+            byte walkerID = walker.walkerID;
+            if (sizes[walkerID] < POOL_SIZE)
+            {
+                walker.pooled = true;
+                walkers[walkerID][sizes[walkerID]++] = walker;
+            }
         }
     }
 }
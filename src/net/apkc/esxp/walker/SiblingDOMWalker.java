@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.walker;
+
+import org.w3c.dom.Node;
+
+/**
+ * Traverses a DOM tree following the links between nodes, without any buffer.
+ *
+ * <p>
+ * The walk is the same pre-order walk of {@link StackDOMWalker}: the root node first and then, from
+ * left to right, each child of the type being processed followed by its own children. Instead of
+ * keeping the pending nodes in a stack, the next node is found from the current one: its first child
+ * if any, otherwise the next sibling of the node or of its closest ancestor that has one, never going
+ * above the root node.
+ * </p>
+ *
+ * <p>
+ * The next node is always computed ahead, right after a call to nextNode(), so skipping the children
+ * of the current node is just computing it again without descending into them.
+ * </p>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+public class SiblingDOMWalker extends DOMWalker
+{
+
+    /** The node where the walk started. */
+    private Node rootNode;
+    /** The last node returned by nextNode(). */
+    private Node currentNode;
+    /** The node to be returned by the next call to nextNode(). */
+    private Node next;
+    /**
+     * The DOM type of the nodes to process.
+     * Node.ELEMENT_NODE = Process only ELEMENT nodes.
+     * Node.TEXT_NODE = Process only TEXT nodes.
+     */
+    private short nodeType = Node.ELEMENT_NODE;
+
+    private SiblingDOMWalker()
+    {
+    }
+
+    public static SiblingDOMWalker newBuild()
+    {
+        return new SiblingDOMWalker();
+    }
+
+    @Override
+    public SiblingDOMWalker configure(Node rootNode, byte nodesToProcess) throws Exception
+    {
+        if (rootNode == null)
+        {
+            throw new Exception("Root node in a DOM tree can't be NULL!");
+        }
+
+        this.rootNode = rootNode;
+        this.currentNode = null;
+        this.next = rootNode;
+        this.nodeType = (nodesToProcess == DOMWalker.TEXT_NODES) ? Node.TEXT_NODE : Node.ELEMENT_NODE;
+
+        return this;
+    }
+
+    @Override
+    public Node nextNode()
+    {
+        if (next == null)
+        {
+            return null;
+        }
+
+        currentNode = next;
+        next = following(currentNode, true);
+
+        if (COUNTING)
+        {
+            visited++;
+        }
+
+        return currentNode;
+    }
+
+    @Override
+    public void skipChildren()
+    {
+        if (currentNode != null)
+        {
+            next = following(currentNode, false);
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return next != null;
+    }
+
+    @Override
+    public void reset()
+    {
+        rootNode = null;
+        currentNode = null;
+        next = null;
+        nodeType = Node.ELEMENT_NODE;
+    }
+
+    /**
+     * Finds the node that follows a given node in the walk.
+     *
+     * @param node    The node.
+     * @param descend If the children of the node should be visited.
+     *
+     * @return The following node or NULL if the walk is over.
+     */
+    private Node following(Node node, boolean descend)
+    {
+        if (descend)
+        {
+            Node child = firstOfType(node.getFirstChild());
+            if (child != null)
+            {
+                return child;
+            }
+        }
+
+        while (node != null && !node.isSameNode(rootNode))
+        {
+            Node sibling = firstOfType(node.getNextSibling());
+            if (sibling != null)
+            {
+                return sibling;
+            }
+            node = node.getParentNode();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first node of the type being processed, starting at a given node and following its
+     * siblings.
+     */
+    private Node firstOfType(Node node)
+    {
+        while (node != null && node.getNodeType() != nodeType)
+        {
+            node = node.getNextSibling();
+        }
+
+        return node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Current Node: " + currentNode.getNodeName();
+    }
+}
@@ -89,8 +89,8 @@ public class StackDOMWalker extends DOMWalker
     private Node currentNode;
     /** Child nodes of the current node. */
     private NodeList currentChildren;
-    /** Stack of nodes. */
-    private Stack<Node> nodes;
+    /** Stack of nodes, reused between configurations. */
+    private final Stack<Node> nodes = new Stack<>();
     /**
      * If this parser should process ELEMENT nodes or TEXT nodes.
      * 0x0 = Process only ELEMENT nodes.
@@ -115,7 +115,7 @@ public class StackDOMWalker extends DOMWalker
             throw new Exception("Root node in a DOM tree can't be NULL!");
         }
 
-        nodes = new Stack<>();
+        nodes.clear();
         nodes.add(rootNode);
         this.nodesToProcess = nodesToProcess;
 
@@ -131,6 +131,11 @@ public class StackDOMWalker extends DOMWalker
         }
 
         currentNode = nodes.pop();
+        if (COUNTING)
+        {
+            visited++;
+        }
+
         currentChildren = currentNode.getChildNodes();
 
         int childLen = (currentChildren != null) ? currentChildren.getLength() : 0;
@@ -160,7 +165,7 @@ public class StackDOMWalker extends DOMWalker
     public void skipChildren()
     {
         int childLen = (currentChildren != null) ? currentChildren.getLength() : 0;
-        for (int i = 0; i < childLen; i++)
+        for (int i = 0; i < childLen && !nodes.isEmpty(); i++)
         {
             Node child = nodes.peek();
             if (child.equals(currentChildren.item(i)))
@@ -176,6 +181,15 @@ public class StackDOMWalker extends DOMWalker
         return nodes.size() > 0;
     }
 
+    @Override
+    public void reset()
+    {
+        nodes.clear();
+        currentNode = null;
+        currentChildren = null;
+        nodesToProcess = 0x0;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.processor.BatchProcessor;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.Unmarshaller;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that the {@link BatchProcessor} returns the same objects as parsing and binding each
+ * message in turn, in order, with a malformed message failing only its own future and never more
+ * messages in flight than its limit, and compares the time of both.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class BatchProcessorTest
+{
+
+    static final Logger LOG = Logger.getLogger(BatchProcessorTest.class.getName());
+    static final int MESSAGES = 20000;
+    static final int CONCURRENCY = 16;
+    final List<byte[]> messages = new ArrayList<>(MESSAGES);
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    Binder<WikiPage> binder;
+
+    BatchProcessorTest configure() throws Exception
+    {
+        for (int i = 1; i <= MESSAGES; i++)
+        {
+            messages.add(("<page><title>Page " + i + "</title><ns>0</ns><id>" + i + "</id><revision><id>" + (i * 10) + "</id>"
+                          + "<timestamp>2014-07-02T00:00:00Z</timestamp><contributor><username>User " + (i % 100) + "</username>"
+                          + "<id>" + (i % 100) + "</id></contributor><text id=\"" + (i * 100) + "\">Text of page " + i + "</text>"
+                          + "<sha1>" + Integer.toHexString(i) + "</sha1></revision></page>").getBytes(StandardCharsets.UTF_8));
+        }
+        binder = Binder.of(WikiPage.class);
+
+        return this;
+    }
+
+    /**
+     * Returns the binder, also tracking how many messages are bound at once.
+     */
+    Unmarshaller<WikiPage> counting()
+    {
+        return new Unmarshaller<WikiPage>()
+        {
+            @Override
+            public WikiPage bind(Node record) throws Exception
+            {
+                int n = inFlight.incrementAndGet();
+                int max;
+                while (n > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, n))
+                {
+                }
+                try
+                {
+                    return binder.bind(record);
+                }
+                finally
+                {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    List<WikiPage> sequential() throws Exception
+    {
+        List<WikiPage> pages = new ArrayList<>(MESSAGES);
+        for (byte[] xml : messages)
+        {
+            pages.add(binder.bind(DocumentLoader.getShared().parse(xml).getDocumentElement()));
+        }
+
+        return pages;
+    }
+
+    static boolean same(List<WikiPage> expected, List<WikiPage> actual)
+    {
+        if (expected.size() != actual.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++)
+        {
+            if (!expected.get(i).toString().equals(actual.get(i).toString()))
+            {
+                System.err.println("Expected: " + expected.get(i) + "\nActual:   " + actual.get(i));
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args)
+    {
+        ExecutorService threads = Executors.newFixedThreadPool(CONCURRENCY * 2); // More threads than messages in flight.
+        try
+        {
+            BatchProcessorTest test = new BatchProcessorTest().configure();
+            BatchProcessor<WikiPage> batch = BatchProcessor.newBuild(test.counting()).setConcurrency(CONCURRENCY).setExecutor(threads);
+            List<WikiPage> expected = test.sequential();
+
+            List<WikiPage> submitted = new ArrayList<>(MESSAGES);
+            for (CompletableFuture<WikiPage> page : batch.submitAll(test.messages))
+            {
+                submitted.add(page.get());
+            }
+            List<WikiPage> iterated = new ArrayList<>(MESSAGES);
+            for (Iterator<WikiPage> pages = batch.process(test.messages.iterator()); pages.hasNext();)
+            {
+                iterated.add(pages.next());
+            }
+            List<WikiPage> streamed = batch.process(test.messages.stream()).collect(Collectors.toList());
+            boolean ok = same(expected, submitted) && same(expected, iterated) && same(expected, streamed);
+            ok &= test.maxInFlight.get() <= CONCURRENCY;
+
+            CompletableFuture<WikiPage> malformed = batch.submit("<page><title>Page</page>".getBytes(StandardCharsets.UTF_8));
+            CompletableFuture<WikiPage> wellFormed = batch.submit(test.messages.get(0));
+            try
+            {
+                malformed.get();
+                ok = false;
+            }
+            catch (ExecutionException e)
+            {
+                ok &= e.getCause() instanceof SAXException;
+            }
+            ok &= wellFormed.get().toString().equals(expected.get(0).toString());
+
+            batch = BatchProcessor.newBuild(test.binder); // On the default executor.
+            long sequential = Long.MAX_VALUE;
+            long batched = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++)
+            {
+                long start = System.nanoTime();
+                test.sequential();
+                sequential = Math.min(sequential, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (Iterator<WikiPage> pages = batch.process(test.messages.iterator()); pages.hasNext();)
+                {
+                    pages.next();
+                }
+                batched = Math.min(batched, System.nanoTime() - start);
+            }
+
+            String result = "Messages: " + MESSAGES + ", sequential: " + (sequential / 1000000) + " ms, batch: " + (batched / 1000000)
+                            + " ms, most in flight: " + test.maxInFlight.get() + " of " + CONCURRENCY + " on " + (CONCURRENCY * 2) + " threads";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The batch processor didn't return the expected objects.");
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.exceptions.ParserNotInitializedException;
+import net.apkc.esxp.processor.Binder;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that the {@link Binder} unmarshals the same pages as the hand-written loop of
+ * {@link ProcessorTest} and compares the time of both.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class BinderTest
+{
+
+    static final Logger LOG = Logger.getLogger(BinderTest.class.getName());
+    static final int PAGES = 5000;
+    static final int ROUNDS = 20;
+    final ProcessorTest loop = new ProcessorTest();
+    Binder<WikiPage> binder;
+
+    BinderTest configure() throws ParserConfigurationException, BindingException
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = (Element) doc.appendChild(doc.createElement("mediawiki"));
+        for (int i = 1; i <= PAGES; i++)
+        {
+            Element page = (Element) root.appendChild(doc.createElement("page"));
+            add(page, "title", "Page " + i);
+            add(page, "ns", "0");
+            add(page, "id", String.valueOf(i));
+            Element revision = add(page, "revision", null);
+            add(revision, "id", String.valueOf(i * 10));
+            add(revision, "parentid", String.valueOf(i * 10 - 1));
+            add(revision, "timestamp", "2014-07-02T00:00:00Z");
+            Element contributor = add(revision, "contributor", null);
+            add(contributor, "username", "User " + (i % 100));
+            add(contributor, "id", String.valueOf(i % 100));
+            add(revision, "minor", "");
+            add(revision, "comment", "Comment " + i);
+            Element text = add(revision, "text", "Text of page " + i + ", with  some   spaces.");
+            text.setAttribute("id", String.valueOf(i * 100));
+            text.setAttribute("bytes", String.valueOf(i * 3));
+            add(revision, "sha1", Integer.toHexString(i));
+            add(revision, "model", "wikitext");
+            add(revision, "format", "text/x-wiki");
+        }
+
+        loop.doc = doc;
+        loop.nodes = doc.getElementsByTagName("mediawiki");
+        binder = Binder.of(WikiPage.class);
+
+        return this;
+    }
+
+    static Element add(Element parent, String name, String text)
+    {
+        Element e = (Element) parent.appendChild(parent.getOwnerDocument().createElement(name));
+        if (text != null)
+        {
+            e.appendChild(parent.getOwnerDocument().createTextNode(text));
+        }
+
+        return e;
+    }
+
+    boolean same(List<WikiPage> expected, List<WikiPage> actual)
+    {
+        if (expected.size() != PAGES || actual.size() != PAGES)
+        {
+            return false;
+        }
+        for (int i = 0; i < PAGES; i++)
+        {
+            WikiPage e = expected.get(i);
+            WikiPage a = actual.get(i);
+            if (!e.toString().equals(a.toString()) || !e.getRevText().equals(a.getRevText()))
+            {
+                System.err.println("Expected: " + e + "\nActual:   " + a);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            BinderTest test = new BinderTest().configure();
+            if (!test.same(test.loop.getPage(), test.binder.bindAll(test.loop.doc.getDocumentElement())))
+            {
+                System.err.println("Binder and hand-written loop don't match.");
+                System.exit(1);
+            }
+
+            long loopTime = Long.MAX_VALUE;
+            long binderTime = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++)
+            {
+                long start = System.nanoTime();
+                test.loop.getPage();
+                loopTime = Math.min(loopTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                test.binder.bindAll(test.loop.doc.getDocumentElement());
+                binderTime = Math.min(binderTime, System.nanoTime() - start);
+            }
+
+            String result = "Pages: " + PAGES + ", hand-written loop: " + (loopTime / 1000) + " us, binder: " + (binderTime / 1000) + " us";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (ParserConfigurationException | BindingException | ParserNotInitializedException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
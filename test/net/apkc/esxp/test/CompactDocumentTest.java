@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.compact.CompactBuilder;
+import net.apkc.esxp.compact.CompactDocument;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.exceptions.NodeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.FieldSelector;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.utils.TextNormalizer;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that a {@link CompactDocument} gives the same results as a Xerces DOM tree of the same
+ * document, and compares the heap used and the time of a full walk of both. The heap of the compact
+ * document is also measured with TEXT data collapsed, the default of the processor, which drops
+ * the whitespace between elements.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class CompactDocumentTest
+{
+
+    static final Logger LOG = Logger.getLogger(CompactDocumentTest.class.getName());
+    static final int PAGES = 20000;
+    final Processor processor = Processor.newBuild();
+    byte[] xml;
+
+    CompactDocumentTest configure()
+    {
+        xml = ParallelProcessorTest.dump(PAGES);
+        return this;
+    }
+
+    Document xerces() throws ParserConfigurationException, SAXException, IOException
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setCoalescing(true);
+        // Build all nodes now, as walking the tree would do, instead of keeping them in Xerces' own arrays.
+        factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+
+    CompactDocument compact(byte textMode) throws ParserConfigurationException, SAXException, IOException
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        CompactBuilder builder = new CompactBuilder();
+        builder.setTextMode(textMode);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(builder);
+        reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+
+        return builder.getDocument();
+    }
+
+    boolean same(Document expected, Document actual)
+            throws BindingException, TagNotFoundException, AttributeNotFoundException, NodeNotFoundException
+    {
+        if (!actual.getDocumentElement().isEqualNode(expected.getDocumentElement()))
+        {
+            System.err.println("Trees are not equal.");
+            return false;
+        }
+
+        FieldSelector fields = FieldSelector.newBuild().addTag("title").addTag("comment").addAttribute("text", "bytes");
+        String[] e = new String[fields.size()];
+        String[] a = new String[fields.size()];
+        Node page = expected.getElementsByTagName("page").item(PAGES / 2);
+        Node compactPage = actual.getElementsByTagName("page").item(PAGES / 2);
+        processor.searchValues(page, fields, e, true);
+        processor.searchValues(compactPage, fields, a, true);
+        if (!Arrays.equals(e, a)
+            || !processor.searchTagValue(expected, "mediawiki", "sitename", true).equals(processor.searchTagValue(actual, "mediawiki", "sitename", true))
+            || !processor.searchNode(actual, "mediawiki", "contributor").isEqualNode(processor.searchNode(expected, "mediawiki", "contributor")))
+        {
+            System.err.println("Searches don't match.");
+            return false;
+        }
+
+        Binder<WikiPage> binder = Binder.of(WikiPage.class);
+        return ParallelProcessorTest.same(binder.bindAll(expected), binder.bindAll(actual));
+    }
+
+    static long usedHeap()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    static long walk(Node root) throws Exception
+    {
+        long start = System.nanoTime();
+        int nodes = 0;
+        DOMWalker walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER, root).configure(root, DOMWalker.ELEMENT_NODES);
+        while (walker.hasNext())
+        {
+            nodes += (walker.nextNode() != null) ? 1 : 0;
+        }
+        walker.release();
+
+        return (nodes > 0) ? System.nanoTime() - start : -1;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            CompactDocumentTest test = new CompactDocumentTest().configure();
+            if (!test.same(test.xerces(), test.compact(TextNormalizer.RAW)))
+            {
+                System.exit(1);
+            }
+
+            long base = usedHeap();
+            CompactDocument compact = test.compact(TextNormalizer.COLLAPSE);
+            long collapsedHeap = usedHeap() - base;
+            compact = null;
+            base = usedHeap();
+            compact = test.compact(TextNormalizer.RAW);
+            long compactHeap = usedHeap() - base;
+            base = usedHeap();
+            Document xerces = test.xerces();
+            long xercesHeap = usedHeap() - base;
+
+            long xercesWalk = Long.MAX_VALUE;
+            long compactWalk = Long.MAX_VALUE;
+            for (int i = 0; i < 10; i++)
+            {
+                xercesWalk = Math.min(xercesWalk, walk(xerces));
+                compactWalk = Math.min(compactWalk, walk(compact));
+            }
+
+            String result = "File: " + (test.xml.length / 1024) + " KiB"
+                            + ", Xerces: " + (xercesHeap / 1024) + " KiB, " + (xercesWalk / 1000) + " us walk"
+                            + ", compact: " + (compactHeap / 1024) + " KiB, " + (compactWalk / 1000) + " us walk"
+                            + ", compact and collapsed: " + (collapsedHeap / 1024) + " KiB"
+                            + ", heap reduction: " + String.format("%.1f", (double) xercesHeap / compactHeap) + "x"
+                            + " (" + String.format("%.1f", (double) xercesHeap / collapsedHeap) + "x collapsed)";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import org.apache.log4j.Logger;
+
+/**
+ * Generates MediaWiki exports (version 0.8, valid against test/resources/test.xsd) of any size,
+ * from a seed, so the same seed and settings always give the same bytes.
+ *
+ * <p>
+ * The document is written as it's generated, so its size is only limited by the disk: from a few
+ * KiB up to tens of GiB. The settings are:
+ * </p>
+ *
+ * <ul>
+ * <li>The size: a number of pages, a number of bytes, or both, whichever is reached first.</li>
+ * <li>The revisions of each page, uniformly between a minimum and a maximum.</li>
+ * <li>The size of each revision text, log-normally distributed around a median and capped, like
+ * the articles of a real wiki.</li>
+ * <li>The nesting depth of the wiki markup in the texts (templates inside templates, links inside
+ * them). The schema fixes the depth of the elements, so nesting is in the text, escaped, as in a
+ * real dump.</li>
+ * <li>The Unicode mix: the share of words written in Latin-1, Greek, Cyrillic, CJK or emoji
+ * characters (the last ones outside the BMP) instead of ASCII.</li>
+ * </ul>
+ *
+ * <pre>
+ * java net.apkc.esxp.test.CorpusGenerator dump.xml 10GiB [seed] [unicodeMix] [nestingDepth]
+ * </pre>
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+final class CorpusGenerator
+{
+
+    static final Logger LOG = Logger.getLogger(CorpusGenerator.class.getName());
+    static final String NAMESPACE = "http://www.mediawiki.org/xml/export-0.8/";
+    /** The syllables of ASCII words, as arrays so they are copied as they are into text with other scripts. */
+    static final char[][] SYLLABLES =
+    {
+        "ka".toCharArray(), "lo".toCharArray(), "mi".toCharArray(), "ne".toCharArray(), "ru".toCharArray(), "sa".toCharArray(),
+        "to".toCharArray(), "vi".toCharArray(), "wen".toCharArray(), "dor".toCharArray(), "tal".toCharArray(), "bri".toCharArray(),
+        "ex".toCharArray(), "qua".toCharArray(), "zen".toCharArray(), "pol".toCharArray(), "am".toCharArray(), "is".toCharArray()
+    };
+    /** The first code point and the number of code points of each script of the Unicode mix. */
+    static final int[][] SCRIPTS =
+    {
+        {
+            0xE0, 0x16 // Latin-1 lower case letters.
+        },
+        {
+            0x3B1, 0x19 // Greek.
+        },
+        {
+            0x430, 0x20 // Cyrillic.
+        },
+        {
+            0x4E00, 0x5000 // CJK ideographs.
+        },
+        {
+            0x1F600, 0x50 // Emoji, outside the BMP.
+        }
+    };
+    private final long seed;
+    private long pages = Long.MAX_VALUE;
+    private long targetBytes = Long.MAX_VALUE;
+    private int minRevisions = 1;
+    private int maxRevisions = 1;
+    private int medianTextSize = 2048;
+    private double textSizeSigma = 1.0;
+    private int maxTextSize = 1 << 20;
+    private int nestingDepth = 3;
+    private double unicodeMix = 0.1;
+    /** The state of one call to write(). */
+    private SplittableRandom random;
+    private final StringBuilder text = new StringBuilder();
+    /** The escaped text being written. */
+    private char[] escaped = new char[1024];
+    private long revisionId;
+
+    private CorpusGenerator(long seed)
+    {
+        this.seed = seed;
+    }
+
+    static CorpusGenerator newBuild(long seed)
+    {
+        return new CorpusGenerator(seed);
+    }
+
+    CorpusGenerator setPages(long pages)
+    {
+        this.pages = pages;
+        return this;
+    }
+
+    /**
+     * Sets the size of the document. The document ends with the first page that reaches about that
+     * size.
+     */
+    CorpusGenerator setTargetBytes(long targetBytes)
+    {
+        this.targetBytes = targetBytes;
+        return this;
+    }
+
+    CorpusGenerator setRevisions(int min, int max)
+    {
+        this.minRevisions = Math.max(1, min);
+        this.maxRevisions = Math.max(this.minRevisions, max);
+        return this;
+    }
+
+    /**
+     * Sets the distribution of the size of the revision texts, in characters.
+     *
+     * @param median The median size.
+     * @param sigma  The standard deviation of the logarithm of the size: 0 gives all texts the median
+     *               size, 1 gives sizes mostly between a third and three times the median.
+     * @param max    The maximum size.
+     */
+    CorpusGenerator setTextSize(int median, double sigma, int max)
+    {
+        this.medianTextSize = Math.max(1, median);
+        this.textSizeSigma = Math.max(0, sigma);
+        this.maxTextSize = Math.max(1, max);
+        return this;
+    }
+
+    CorpusGenerator setNestingDepth(int nestingDepth)
+    {
+        this.nestingDepth = Math.max(0, nestingDepth);
+        return this;
+    }
+
+    /**
+     * Sets the share of non-ASCII words, between 0 and 1.
+     */
+    CorpusGenerator setUnicodeMix(double unicodeMix)
+    {
+        this.unicodeMix = Math.min(1, Math.max(0, unicodeMix));
+        return this;
+    }
+
+    /**
+     * Writes a document to a file.
+     *
+     * @return The number of pages written.
+     */
+    long write(Path file) throws IOException
+    {
+        try (OutputStream out = Files.newOutputStream(file))
+        {
+            return write(out);
+        }
+    }
+
+    /**
+     * Writes a document to a stream, in UTF-8. The stream is not closed.
+     *
+     * @return The number of pages written.
+     */
+    long write(OutputStream out) throws IOException
+    {
+        random = new SplittableRandom(seed);
+        revisionId = 0;
+        CountingStream counter = new CountingStream(new BufferedOutputStream(out, 1 << 16));
+        Writer w = new OutputStreamWriter(counter, StandardCharsets.UTF_8);
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        w.write("<mediawiki xmlns=\"" + NAMESPACE + "\" version=\"0.8\" xml:lang=\"en\">\n");
+        w.write("  <siteinfo>\n    <sitename>Wikipedia</sitename>\n    <base>http://en.wikipedia.org/wiki/Main_Page</base>\n"
+                + "    <generator>ESXP CorpusGenerator</generator>\n    <case>first-letter</case>\n    <namespaces>\n"
+                + "      <namespace key=\"0\" case=\"first-letter\" />\n      <namespace key=\"1\" case=\"first-letter\">Talk</namespace>\n"
+                + "    </namespaces>\n  </siteinfo>\n");
+
+        long page = 0;
+        while (page < pages && counter.count < targetBytes)
+        {
+            writePage(w, ++page); // The count lags the pages by the few KiB the writer buffers.
+        }
+
+        w.write("</mediawiki>\n");
+        w.flush();
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Corpus: " + page + " pages, " + counter.count + " bytes, seed " + seed);
+        }
+
+        return page;
+    }
+
+    private void writePage(Writer w, long id) throws IOException
+    {
+        text.setLength(0);
+        words(2 + random.nextInt(4));
+        capitalize(0);
+        String title = text.toString();
+
+        w.write("  <page>\n    <title>");
+        escape(w, title);
+        w.write("</title>\n    <ns>");
+        w.write((random.nextInt(10) == 0) ? "1" : "0");
+        w.write("</ns>\n    <id>");
+        w.write(Long.toString(id));
+        w.write("</id>\n");
+        if (random.nextInt(50) == 0)
+        {
+            w.write("    <redirect title=\"");
+            escape(w, title);
+            w.write(" (disambiguation)\" />\n");
+        }
+
+        int revisions = minRevisions + random.nextInt(maxRevisions - minRevisions + 1);
+        for (int r = 0; r < revisions; r++)
+        {
+            writeRevision(w, r > 0);
+        }
+        w.write("  </page>\n");
+    }
+
+    private void writeRevision(Writer w, boolean hasParent) throws IOException
+    {
+        long id = ++revisionId;
+        w.write("    <revision>\n      <id>");
+        w.write(Long.toString(id));
+        w.write("</id>\n");
+        if (hasParent)
+        {
+            w.write("      <parentid>");
+            w.write(Long.toString(id - 1));
+            w.write("</parentid>\n");
+        }
+        w.write(String.format(Locale.ROOT, "      <timestamp>%04d-%02d-%02dT%02d:%02d:%02dZ</timestamp>\n",
+                              2001 + random.nextInt(14), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                              random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+        if (random.nextInt(5) == 0)
+        {
+            w.write("      <contributor>\n        <ip>");
+            w.write(random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256));
+            w.write("</ip>\n      </contributor>\n");
+        }
+        else
+        {
+            int user = random.nextInt(100000);
+            w.write("      <contributor>\n        <username>User ");
+            w.write(Integer.toString(user));
+            w.write("</username>\n        <id>");
+            w.write(Integer.toString(user + 1));
+            w.write("</id>\n      </contributor>\n");
+        }
+        if (random.nextInt(4) == 0)
+        {
+            w.write("      <minor />\n");
+        }
+        if (random.nextInt(3) != 0)
+        {
+            text.setLength(0);
+            words(1 + random.nextInt(12));
+            w.write("      <comment>");
+            escape(w, text);
+            w.write("</comment>\n");
+        }
+
+        text.setLength(0);
+        revisionText(textSize());
+        w.write("      <text xml:space=\"preserve\" bytes=\"");
+        w.write(Long.toString(utf8Length(text)));
+        w.write("\">");
+        escape(w, text);
+        w.write("</text>\n      <sha1>");
+        for (int i = 0; i < 31; i++)
+        {
+            w.write(Character.forDigit(random.nextInt(36), 36));
+        }
+        w.write("</sha1>\n      <model>wikitext</model>\n      <format>text/x-wiki</format>\n    </revision>\n");
+    }
+
+    /**
+     * Draws the size of a revision text from the log-normal distribution.
+     */
+    private int textSize()
+    {
+        double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble()); // Box-Muller.
+        double size = medianTextSize * Math.exp(textSizeSigma * gaussian);
+        return (int) Math.max(1, Math.min(maxTextSize, size));
+    }
+
+    /**
+     * Appends wiki text of about a given number of characters: paragraphs of sentences with links,
+     * bold text, references and nested templates.
+     */
+    private void revisionText(int size)
+    {
+        int start = text.length();
+        while (text.length() - start < size)
+        {
+            int sentence = text.length();
+            words(4 + random.nextInt(12));
+            capitalize(sentence);
+            switch (random.nextInt(8))
+            {
+                case 0:
+                    text.append(" [[");
+                    words(1 + random.nextInt(3));
+                    text.append("]]");
+                    break;
+                case 1:
+                    text.append(" '''");
+                    words(1 + random.nextInt(2));
+                    text.append("'''");
+                    break;
+                case 2:
+                    text.append("<ref>");
+                    words(3 + random.nextInt(6));
+                    text.append("</ref>");
+                    break;
+                case 3:
+                    text.append(' ');
+                    template(random.nextInt(nestingDepth + 1));
+                    break;
+                default:
+                    break;
+            }
+            text.append((random.nextInt(6) == 0) ? ".\n\n" : ". ");
+        }
+    }
+
+    /**
+     * Appends a template whose last parameter holds templates nested a given number of levels.
+     */
+    private void template(int depth)
+    {
+        text.append("{{");
+        words(1);
+        text.append(" & co|year=").append(1900 + random.nextInt(120)).append("|note=");
+        if (depth > 0)
+        {
+            template(depth - 1);
+        }
+        else
+        {
+            text.append("[[");
+            words(2);
+            text.append("|a < b]]");
+        }
+        text.append("}}");
+    }
+
+    /**
+     * Appends words separated by spaces, each one ASCII or, with the probability of the Unicode mix,
+     * of one of the scripts.
+     */
+    private void words(int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                text.append(' ');
+            }
+
+            int letters = 2 + random.nextInt(5);
+            if (random.nextDouble() < unicodeMix)
+            {
+                int[] script = SCRIPTS[random.nextInt(SCRIPTS.length)];
+                for (int l = 0; l < letters; l++)
+                {
+                    text.appendCodePoint(script[0] + random.nextInt(script[1]));
+                }
+            }
+            else
+            {
+                for (int l = 0; l < letters / 2 + 1; l++)
+                {
+                    text.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+            }
+        }
+    }
+
+    private void capitalize(int index)
+    {
+        if (index < text.length())
+        {
+            text.setCharAt(index, Character.toUpperCase(text.charAt(index)));
+        }
+    }
+
+    /**
+     * Returns the number of bytes of a text in UTF-8.
+     */
+    static long utf8Length(CharSequence s)
+    {
+        long bytes = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            bytes += (c < 0x80) ? 1 : (c < 0x800) ? 2 : Character.isSurrogate(c) ? 2 : 3;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes a text escaping the characters that are markup.
+     */
+    private void escape(Writer w, CharSequence s) throws IOException
+    {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (n + 6 > escaped.length)
+            {
+                escaped = Arrays.copyOf(escaped, escaped.length * 2);
+            }
+
+            char c = s.charAt(i);
+            String entity = (c == '<') ? "&lt;" : (c == '>') ? "&gt;" : (c == '&') ? "&amp;" : (c == '"') ? "&quot;" : null;
+            if (entity != null)
+            {
+                entity.getChars(0, entity.length(), escaped, n);
+                n += entity.length();
+            }
+            else
+            {
+                escaped[n++] = c;
+            }
+        }
+        w.write(escaped, 0, n);
+    }
+
+    /**
+     * Parses a size like 512, 64KiB, 16MiB or 10GiB.
+     */
+    static long parseSize(String size)
+    {
+        String s = size.trim().toUpperCase().replace("IB", "").replace("B", "");
+        long unit = 1;
+        switch (s.charAt(s.length() - 1))
+        {
+            case 'K':
+                unit = 1L << 10;
+                break;
+            case 'M':
+                unit = 1L << 20;
+                break;
+            case 'G':
+                unit = 1L << 30;
+                break;
+            default:
+                return Long.parseLong(s);
+        }
+
+        return Long.parseLong(s.substring(0, s.length() - 1).trim()) * unit;
+    }
+
+    /**
+     * Counts the bytes written.
+     */
+    private static final class CountingStream extends FilterOutputStream
+    {
+
+        private long count = 0;
+
+        private CountingStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: CorpusGenerator <file> <size, e.g. 64MiB or 10GiB> [seed] [unicodeMix] [nestingDepth]");
+            System.exit(1);
+        }
+
+        try
+        {
+            CorpusGenerator generator = CorpusGenerator.newBuild((args.length > 2) ? Long.parseLong(args[2]) : 1)
+                    .setTargetBytes(parseSize(args[1]));
+            if (args.length > 3)
+            {
+                generator.setUnicodeMix(Double.parseDouble(args[3]));
+            }
+            if (args.length > 4)
+            {
+                generator.setNestingDepth(Integer.parseInt(args[4]));
+            }
+
+            Path file = Paths.get(args[0]);
+            long start = System.nanoTime();
+            long pages = generator.write(file);
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+            long bytes = Files.size(file);
+            System.out.println("Wrote " + pages + " pages, " + (bytes >> 10) + " KiB in " + millis + " ms (" + (bytes / 1000 / millis) + " MB/s)");
+        }
+        catch (IOException | NumberFormatException ex)
+        {
+            System.err.println("Error generating corpus. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.loader.SchemaRegistry;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks that the {@link CorpusGenerator} writes documents valid against test.xsd, the same for the
+ * same seed and of the size asked, and measures the throughput and the heap of parsing them as they
+ * grow. The sizes, in MiB, can be given as arguments.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class CorpusGeneratorTest
+{
+
+    static final Logger LOG = Logger.getLogger(CorpusGeneratorTest.class.getName());
+    static final Path XSD = Paths.get("test/resources/test.xsd");
+    /** Documents larger than this are only parsed with SAX. */
+    static final long MAX_DOM = 64L << 20;
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    static byte[] generate(long seed, long bytes) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CorpusGenerator.newBuild(seed).setTargetBytes(bytes).setRevisions(1, 3).setUnicodeMix(0.3).setNestingDepth(5).write(out);
+        return out.toByteArray();
+    }
+
+    static boolean valid(Schema schema, byte[] xml) throws IOException
+    {
+        try
+        {
+            SchemaRegistry.getShared().getValidator(schema).validate(new StreamSource(new java.io.ByteArrayInputStream(xml)));
+            return true;
+        }
+        catch (org.xml.sax.SAXException e)
+        {
+            System.err.println("Invalid corpus: " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Parses a file with SAX counting its pages.
+     */
+    static long countPages(Path file) throws Exception
+    {
+        final long[] pages = new long[1];
+        DocumentLoader.getShared().parse(file, new DefaultHandler()
+        {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes)
+            {
+                if ("page".equals(localName))
+                {
+                    pages[0]++;
+                }
+            }
+        });
+
+        return pages[0];
+    }
+
+    long usedHeap()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Generates a document of a given size and returns: the MB/s of the generator, the MB/s of a SAX
+     * parse and the heap retained by its DOM tree in KiB, or -1 if too large.
+     */
+    long[] measure(long bytes) throws Exception
+    {
+        Path file = Files.createTempFile("esxp-corpus", ".xml");
+        try
+        {
+            long start = System.nanoTime();
+            long pages = CorpusGenerator.newBuild(bytes).setTargetBytes(bytes).write(file);
+            long generated = Math.max(1, System.nanoTime() - start);
+            long size = Files.size(file);
+
+            start = System.nanoTime();
+            if (countPages(file) != pages)
+            {
+                throw new IllegalStateException("The pages parsed don't match the pages generated.");
+            }
+            long parsed = Math.max(1, System.nanoTime() - start);
+
+            long heap = -1;
+            if (size <= MAX_DOM)
+            {
+                long before = usedHeap();
+                Document doc = DocumentLoader.getShared().parse(file);
+                heap = (usedHeap() - before) >> 10;
+                if (doc.getDocumentElement() == null)
+                {
+                    heap = -1;
+                }
+            }
+
+            return new long[]
+            {
+                size, pages, size * 1000 / generated, size * 1000 / parsed, heap
+            };
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            Schema schema = SchemaRegistryTest.registry().getSchema(XSD);
+            byte[] a = generate(42, 256 * 1024);
+            byte[] b = generate(42, 256 * 1024);
+            byte[] c = generate(43, 256 * 1024);
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            boolean ok = Arrays.equals(sha.digest(a), sha.digest(b)) && !Arrays.equals(a, c);
+            ok &= valid(schema, a) && valid(schema, c) && valid(schema, generate(7, 1));
+            ok &= a.length >= 256 * 1024 && a.length < 256 * 1024 + (1 << 20);
+
+            CorpusGeneratorTest test = new CorpusGeneratorTest();
+            String[] sizes = (args.length > 0) ? args : new String[]
+            {
+                "1", "4", "16"
+            };
+            StringBuilder result = new StringBuilder("Size (KiB), pages, generated (MB/s), SAX parse (MB/s), DOM heap (KiB)");
+            for (String mib : sizes)
+            {
+                long[] m = test.measure(Long.parseLong(mib) << 20);
+                result.append('\n').append(m[0] >> 10).append(", ").append(m[1]).append(", ").append(m[2]).append(", ").append(m[3]).append(", ").append(m[4]);
+            }
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The generated corpus is not valid, deterministic or of the size asked.");
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.utils.DOMEcho;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that {@link DOMEcho} writes the same output sequentially, in parallel and to a channel,
+ * echoes documents deeper than the stack would allow to recurse, and measures the time it takes to
+ * echo a dump.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class DOMEchoTest
+{
+
+    static final Logger LOG = Logger.getLogger(DOMEchoTest.class.getName());
+    static final int PAGES = 20000;
+    static final int DEPTH = 20000;
+    /** Stack size of the thread that echoes the deep document, too small to recurse once per level. */
+    static final long STACK_SIZE = 256 * 1024;
+    static final int ROUNDS = 5;
+
+    /**
+     * An output stream that discards the bytes, counting them and the calls to write.
+     */
+    static final class Sink extends OutputStream
+    {
+
+        long bytes = 0;
+        long writes = 0;
+
+        @Override
+        public void write(int b)
+        {
+            bytes++;
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            bytes += len;
+            writes++;
+        }
+    }
+
+    static byte[] echo(Node node, ForkJoinPool pool, boolean channel) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DOMEcho echo = channel ? new DOMEcho(Channels.newChannel(out)) : new DOMEcho(out);
+        echo.setPool(pool).echo(node);
+
+        return out.toByteArray();
+    }
+
+    static Document deep() throws ParserConfigurationException
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Node node = doc;
+        for (int i = 0; i < DEPTH; i++)
+        {
+            node = node.appendChild(doc.createElement("e"));
+        }
+        node.appendChild(doc.createTextNode("bottom"));
+
+        return doc;
+    }
+
+    /**
+     * Echoes a document on a thread with a small stack and returns the bytes written, or -1 if it
+     * failed.
+     */
+    static long echoOnSmallStack(final Node node) throws InterruptedException
+    {
+        final Sink sink = new Sink();
+        final boolean[] done = new boolean[1];
+        Thread thread = new Thread(null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    new DOMEcho(sink).echo(node);
+                    done[0] = true;
+                }
+                catch (IOException | StackOverflowError e)
+                {
+                    System.err.println("Error echoing the deep document. Error: " + e.toString());
+                }
+            }
+        }, "echo", STACK_SIZE);
+        thread.start();
+        thread.join();
+
+        return done[0] ? sink.bytes : -1;
+    }
+
+    /**
+     * Returns the best time of several echoes of a document, in milliseconds.
+     */
+    static long time(Node node, ForkJoinPool pool, Sink sink) throws IOException
+    {
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            sink.bytes = 0;
+            sink.writes = 0;
+            long start = System.nanoTime();
+            new DOMEcho(sink).setPool(pool).echo(node);
+            time = Math.min(time, System.nanoTime() - start);
+        }
+
+        return time / 1000000;
+    }
+
+    public static void main(String[] args)
+    {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        try
+        {
+            Document doc = DocumentLoader.getShared().parse(ParallelProcessorTest.dump(PAGES));
+            byte[] expected = echo(doc, null, false);
+            if (!Arrays.equals(expected, echo(doc, null, true))
+                || !Arrays.equals(expected, echo(doc, pool, false))
+                || !Arrays.equals(expected, echo(doc, pool, true)))
+            {
+                System.err.println("Sequential, parallel and channel outputs don't match.");
+                System.exit(1);
+            }
+
+            long deep = echoOnSmallStack(deep());
+            if (deep < (long) DEPTH * (DEPTH - 1)) // At least the indentation of each level.
+            {
+                System.err.println("The deep document was not echoed.");
+                System.exit(1);
+            }
+
+            Sink sink = new Sink();
+            long sequential = time(doc, null, sink);
+            long parallel = time(doc, pool, sink);
+            if (sink.writes > sink.bytes / (32 * 1024) + 1)
+            {
+                System.err.println("The output was written in " + sink.writes + " small writes.");
+                System.exit(1);
+            }
+
+            String result = "Echo of " + (sink.bytes / 1024) + " KiB in " + sink.writes + " writes"
+                            + ", sequential: " + sequential + " ms, parallel: " + parallel + " ms on " + pool.getParallelism() + " threads"
+                            + ", depth " + DEPTH + ": " + (deep / 1024) + " KiB";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (IOException | SAXException | ParserConfigurationException | InterruptedException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
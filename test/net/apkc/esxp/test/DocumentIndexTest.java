@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.NodeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.DocumentIndex;
+import net.apkc.esxp.processor.Processor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that {@link DocumentIndex} finds the same nodes as a walk of the tree from any root node,
+ * that the lookups of the processor on the index answer the same as the ones on the document, that
+ * an index can be shared by threads and that searches from deep root nodes don't depend on depth.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class DocumentIndexTest
+{
+
+    static final Logger LOG = Logger.getLogger(DocumentIndexTest.class.getName());
+    static final String[] TAGS =
+    {
+        "a", "B", "c", "Item", "ITEM", "leaf"
+    };
+    static final String[] QUERIES =
+    {
+        "A", "b", "C", "item", "LEAF", "missing"
+    };
+    static final int THREADS = 4;
+    static final int DEPTH = 20000;
+
+    /**
+     * Builds a random tree of elements named after TAGS, with TEXT and COMMENT nodes in between.
+     */
+    static Document random(long seed) throws ParserConfigurationException
+    {
+        Random random = new Random(seed);
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        List<Element> open = new ArrayList<>();
+        open.add((Element) doc.appendChild(doc.createElement("root")));
+        for (int i = 0; i < 3000; i++)
+        {
+            Element parent = open.get(random.nextInt(open.size()));
+            switch (random.nextInt(4))
+            {
+                case 0:
+                    parent.appendChild(doc.createTextNode("text " + i));
+                    break;
+                case 1:
+                    parent.appendChild(doc.createComment("comment " + i));
+                    break;
+                default:
+                    Element element = doc.createElement(TAGS[random.nextInt(TAGS.length)]);
+                    element.setAttribute("n", String.valueOf(i));
+                    open.add((Element) parent.appendChild(element));
+                    break;
+            }
+        }
+
+        return doc;
+    }
+
+    /**
+     * The first element named as a tag, ignoring case, in the subtree of a root node, root included.
+     */
+    static Node expected(Node root, String tag)
+    {
+        if (root.getNodeType() == Node.ELEMENT_NODE && root.getNodeName().equalsIgnoreCase(tag))
+        {
+            return root;
+        }
+        if (root.getNodeType() != Node.ELEMENT_NODE && root.getNodeType() != Node.DOCUMENT_NODE)
+        {
+            return null;
+        }
+
+        NodeList nodes = (root.getNodeType() == Node.DOCUMENT_NODE) ? ((Document) root).getElementsByTagName("*") : ((Element) root).getElementsByTagName("*");
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            if (nodes.item(i).getNodeName().equalsIgnoreCase(tag))
+            {
+                return nodes.item(i);
+            }
+        }
+
+        return null;
+    }
+
+    static boolean sameNodes(Document doc, DocumentIndex index) throws ParserConfigurationException
+    {
+        NodeList elements = doc.getElementsByTagName("*");
+        for (int i = -1; i < elements.getLength(); i++)
+        {
+            Node root = (i < 0) ? doc : elements.item(i);
+            for (String tag : QUERIES)
+            {
+                if (index.searchNode(root, tag) != expected(root, tag))
+                {
+                    System.err.println("Wrong node for tag \"" + tag + "\" under element #" + i + ".");
+                    return false;
+                }
+            }
+        }
+
+        for (String tag : TAGS)
+        {
+            NodeList all = doc.getElementsByTagName(tag);
+            int count = 0;
+            for (String other : TAGS)
+            {
+                count += other.equalsIgnoreCase(tag) ? doc.getElementsByTagName(other).getLength() : 0;
+            }
+            if (index.getNodes(tag).size() != count || index.getNodes(tag).isEmpty() != (count == 0)
+                || (all.getLength() > 0 && index.getRootNode(tag) != all.item(0)))
+            {
+                System.err.println("Wrong nodes for tag \"" + tag + "\".");
+                return false;
+            }
+        }
+
+        // Nodes of other documents and TEXT nodes have no elements of this index under them.
+        Document other = random(1);
+        return index.searchNode(other.getDocumentElement(), "a") == null
+               && index.searchNode(doc.getDocumentElement().getFirstChild(), "a") == expected(doc.getDocumentElement().getFirstChild(), "a")
+               && index.searchNode(null, "a") == null
+               && index.getDocument() == doc;
+    }
+
+    static boolean sameAnswers(Document doc, DocumentIndex index) throws Exception
+    {
+        Processor processor = Processor.newBuild();
+        for (String root : new String[]
+        {
+            "root", "*", "Item", "missing"
+        })
+        {
+            for (String tag : QUERIES)
+            {
+                if (!processor.searchTagValue(doc, root, tag, false).equals(processor.searchTagValue(index, root, tag, false))
+                    || !processor.searchTagAttributeValue(doc, root, tag, "n", false).equals(processor.searchTagAttributeValue(index, root, tag, "n", false))
+                    || strictMiss(processor, doc, null, root, tag) != strictMiss(processor, null, index, root, tag))
+                {
+                    System.err.println("The lookups don't match for tag \"" + tag + "\" under \"" + root + "\".");
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells if a strict searchTagValue or a searchNode throws, on the document or on the index.
+     */
+    static boolean strictMiss(Processor processor, Document doc, DocumentIndex index, String root, String tag)
+    {
+        boolean missed = false;
+        try
+        {
+            Node node = (doc != null) ? processor.searchNode(doc, root, tag) : processor.searchNode(index, root, tag);
+            if (node == null)
+            {
+                throw new IllegalStateException("searchNode returned NULL.");
+            }
+        }
+        catch (NodeNotFoundException e)
+        {
+            missed = true;
+        }
+        try
+        {
+            if (doc != null)
+            {
+                processor.searchTagValue(doc, root, tag, true);
+            }
+            else
+            {
+                processor.searchTagValue(index, root, tag, true);
+            }
+        }
+        catch (TagNotFoundException e)
+        {
+            missed = !missed; // Not found by both or by none.
+        }
+
+        return missed;
+    }
+
+    static boolean shared(final Document doc, final DocumentIndex index) throws InterruptedException
+    {
+        // DOM node lists aren't thread safe, the threads only touch the index.
+        NodeList list = doc.getElementsByTagName("*");
+        final Node[] elements = new Node[list.getLength()];
+        final Node[][] answers = new Node[elements.length][QUERIES.length];
+        for (int i = 0; i < answers.length; i++)
+        {
+            elements[i] = list.item(i);
+            for (int j = 0; j < QUERIES.length; j++)
+            {
+                answers[i][j] = expected(elements[i], QUERIES[j]);
+            }
+        }
+
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++)
+        {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random(seed);
+                    for (int k = 0; k < 200000; k++)
+                    {
+                        int i = random.nextInt(answers.length);
+                        int j = random.nextInt(QUERIES.length);
+                        if (index.searchNode(elements[i], QUERIES[j]) != answers[i][j])
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        return errors.get() == 0;
+    }
+
+    static boolean deep() throws ParserConfigurationException, SAXException, IOException
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < DEPTH; i++)
+        {
+            b.append("<d>");
+        }
+        b.append("<t>leaf</t>");
+        for (int i = 0; i < DEPTH; i++)
+        {
+            b.append("</d>");
+        }
+
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(b.toString().getBytes("UTF-8")));
+        DocumentIndex index = DocumentIndex.of(doc);
+        Node leaf = index.getNodes("t").get(0);
+        List<Node> chain = index.getNodes("d");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < chain.size(); i++)
+        {
+            if (index.searchNode(chain.get(i), "t") != leaf || index.searchNode(chain.get(i), "d") != chain.get(i))
+            {
+                System.err.println("Wrong node under the deep element #" + i + ".");
+                return false;
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Searches from " + chain.size() + " nested roots: " + millis + "ms");
+
+        return index.searchNode(leaf, "d") == null;
+    }
+
+    static boolean sealed() throws ParserConfigurationException
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = (Element) doc.appendChild(doc.createElement("root"));
+        DocumentIndex index = DocumentIndex.newBuild(doc).add(root);
+        try
+        {
+            index.getNodes("root");
+            return false;
+        }
+        catch (IllegalStateException e)
+        {
+            // Not sealed yet.
+        }
+
+        index.seal();
+        try
+        {
+            index.add(root);
+            return false;
+        }
+        catch (IllegalStateException e)
+        {
+            return index.getNodes("ROOT").size() == 1 && index.searchNode(doc, "root") == root;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            Document doc = random(42);
+            DocumentIndex index = DocumentIndex.of(doc);
+            boolean ok = sameNodes(doc, index) && sameAnswers(doc, index) && shared(doc, index) && deep() && sealed();
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Document index test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
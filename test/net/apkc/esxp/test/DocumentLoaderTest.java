@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.DocumentBuilderFactory;
+import net.apkc.esxp.loader.DocumentLoader;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks that {@link DocumentLoader} parses like a new parser configured the same way, that its
+ * configuration is frozen once used, and measures parsing small messages with it against creating a
+ * parser for each message.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class DocumentLoaderTest
+{
+
+    static final Logger LOG = Logger.getLogger(DocumentLoaderTest.class.getName());
+    static final int MESSAGES = 20000;
+    static final byte[] MESSAGE = ("<page><!-- comment --><title>Page</title><id>1</id><revision><id>10</id>"
+                                   + "<text><![CDATA[Some ]]>text</text></revision></page>").getBytes(StandardCharsets.UTF_8);
+
+    static Document parseWithNewBuilder(byte[] xml) throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setCoalescing(true);
+        factory.setExpandEntityReferences(true);
+        factory.setIgnoringComments(true);
+        factory.setIgnoringElementContentWhitespace(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+
+    static boolean frozen(DocumentLoader loader)
+    {
+        try
+        {
+            loader.setCoalescing(false);
+            return false;
+        }
+        catch (IllegalStateException e)
+        {
+            return true;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            DocumentLoader loader = DocumentLoader.newBuild();
+            ByteBuffer buf = ByteBuffer.wrap(MESSAGE);
+            Document doc = loader.parse(buf);
+            boolean ok = doc.isEqualNode(parseWithNewBuilder(MESSAGE)) && buf.position() == 0
+                         && doc.getElementsByTagName("text").item(0).getChildNodes().getLength() == 1
+                         && doc.getDocumentElement().getFirstChild().getNodeName().equals("title");
+            ok &= frozen(loader) && frozen(DocumentLoader.getShared());
+
+            final int[] elements = new int[1];
+            loader.parse(MESSAGE, new DefaultHandler()
+            {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes)
+                {
+                    elements[0]++;
+                }
+            });
+            ok &= elements[0] == 6;
+
+            for (int i = 0; i < MESSAGES; i++) // Warm up.
+            {
+                loader.parse(MESSAGE);
+                parseWithNewBuilder(MESSAGE);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++)
+            {
+                loader.parse(MESSAGE);
+            }
+            long pooled = (System.nanoTime() - start) / MESSAGES;
+            start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++)
+            {
+                parseWithNewBuilder(MESSAGE);
+            }
+            long created = (System.nanoTime() - start) / MESSAGES;
+
+            String result = "Per message: " + pooled + " ns with the loader, " + created + " ns with a new parser";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The loader didn't parse as a new parser or its configuration wasn't frozen.");
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
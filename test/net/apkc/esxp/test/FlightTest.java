@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.metrics.Flight;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.utils.SAX2DOM;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+
+/**
+ * Records a load, a SAX2DOM build, some lookups and a binding with the Java Flight Recorder and
+ * checks the events of ESXP found in the recording.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class FlightTest
+{
+
+    static final Logger LOG = Logger.getLogger(FlightTest.class.getName());
+    static final int PAGES = 200;
+    static final String[] EVENTS =
+    {
+        "net.apkc.esxp.Load", "net.apkc.esxp.Build", "net.apkc.esxp.Search", "net.apkc.esxp.Walk", "net.apkc.esxp.Bind"
+    };
+    final DocumentLoader loader = DocumentLoader.newBuild();
+    final Processor processor = Processor.newBuild();
+    final byte[] dump = ParallelProcessorTest.dump(PAGES);
+
+    /**
+     * Makes all the work to record.
+     */
+    void work() throws Exception
+    {
+        Document doc = loader.parse(dump);
+        loader.parse(dump, new SAX2DOM());
+
+        processor.searchTagValue(doc, "mediawiki", "title", false);
+        processor.searchTagValue(doc, "mediawiki", "missing", false);
+        processor.getNodeValue(doc.getElementsByTagName("title").item(0), true);
+
+        if (Binder.of(WikiPage.class).bindAll(doc.getDocumentElement()).size() != PAGES)
+        {
+            throw new BindingException("Not all pages were bound.");
+        }
+    }
+
+    List<RecordedEvent> record() throws Exception
+    {
+        Path file = Files.createTempFile("esxp", ".jfr");
+        try (Recording recording = new Recording())
+        {
+            for (String event : EVENTS)
+            {
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            work();
+            recording.stop();
+            recording.dump(file);
+
+            return RecordingFile.readAllEvents(file);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static void check(String name, boolean condition)
+    {
+        if (!condition)
+        {
+            System.err.println("Wrong event: " + name + ".");
+            System.exit(1);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            if (!Flight.ENABLED)
+            {
+                System.err.println("The flight recorder is not available, or the events of src-jfr were not built.");
+                System.exit(1);
+            }
+
+            FlightTest test = new FlightTest();
+            test.work(); // Warms up, without a recording.
+
+            Map<String, Integer> counts = new HashMap<>();
+            String thread = Thread.currentThread().getName();
+            int tagSearches = 0;
+            for (RecordedEvent event : test.record())
+            {
+                String name = event.getEventType().getName();
+                if (!name.startsWith("net.apkc.esxp."))
+                {
+                    continue;
+                }
+                counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+                check(name + " thread", thread.equals(event.getThread().getJavaName()));
+
+                switch (name)
+                {
+                    case "net.apkc.esxp.Load":
+                        check(name + " bytes", event.getLong("bytes") == test.dump.length);
+                        break;
+                    case "net.apkc.esxp.Build":
+                        check(name + " elements", event.getLong("elements") > PAGES && event.getLong("characters") > 0);
+                        break;
+                    case "net.apkc.esxp.Search":
+                        String target = event.getString("target");
+                        check(name + " " + target, event.getBoolean("hit") == !target.equals("missing"));
+                        check(name + " nodes visited", !event.getString("method").equals("getNodeValue") || event.getLong("nodesVisited") >= 2);
+                        if (event.getString("method").equals("searchTagValue"))
+                        {
+                            tagSearches++;
+                        }
+                        break;
+                    case "net.apkc.esxp.Bind":
+                        check(name + " type", event.getClass("type").getName().equals(WikiPage.class.getName()));
+                        break;
+                    default:
+                        check(name + " nodes visited", event.getLong("nodesVisited") > 0);
+                        break;
+                }
+            }
+
+            check("Load count", Integer.valueOf(2).equals(counts.get("net.apkc.esxp.Load")));
+            check("Build count", Integer.valueOf(1).equals(counts.get("net.apkc.esxp.Build")));
+            check("Search count", tagSearches == 2 && counts.get("net.apkc.esxp.Search") > 2); // The binder searches too.
+            check("Bind count", Integer.valueOf(PAGES).equals(counts.get("net.apkc.esxp.Bind")));
+            check("Walk count", counts.containsKey("net.apkc.esxp.Walk"));
+
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Events: " + counts);
+            }
+            System.out.println("Events: " + counts);
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
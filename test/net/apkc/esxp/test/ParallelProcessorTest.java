@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.ParallelProcessor;
+import net.apkc.esxp.processor.RecordHandler;
+import net.apkc.esxp.processor.StreamingProcessor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that the {@link ParallelProcessor} binds the same pages as a {@link Binder} over the whole
+ * DOM tree, reading from memory, from a stream and from a mapped file, that it finds the same
+ * records as the {@link StreamingProcessor} and binds them when their tags differ in case, that a
+ * record which is not well-formed fails with the parser's SAXException, and measures how it scales
+ * with the number of workers.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class ParallelProcessorTest
+{
+
+    static final Logger LOG = Logger.getLogger(ParallelProcessorTest.class.getName());
+    static final int PAGES = 20000;
+    static final byte BYTES = 0x0;
+    static final byte STREAM = 0x1;
+    static final byte FILE = 0x2;
+    byte[] xml;
+    Path file;
+    Binder<WikiPage> binder;
+
+    ParallelProcessorTest configure() throws BindingException, IOException
+    {
+        xml = dump(PAGES);
+        file = Files.createTempFile("esxp", ".xml");
+        file.toFile().deleteOnExit();
+        Files.write(file, xml);
+        binder = Binder.of(WikiPage.class);
+
+        return this;
+    }
+
+    /**
+     * Returns a MediaWiki dump with a given number of pages, with comments, CDATA sections and
+     * markup characters in attribute values between and inside the pages.
+     */
+    static byte[] dump(int pages)
+    {
+        StringBuilder b = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\">\n")
+                .append("  <siteinfo><sitename>Wikipedia</sitename></siteinfo>\n");
+        for (int i = 1; i <= pages; i++)
+        {
+            b.append("  <page>\n")
+                    .append("    <title>Página ").append(i).append("</title>\n")
+                    .append("    <ns>0</ns>\n")
+                    .append("    <id>").append(i).append("</id>\n")
+                    .append("    <revision>\n")
+                    .append("      <id>").append(i * 10).append("</id>\n")
+                    .append("      <timestamp>2014-07-02T00:00:00Z</timestamp>\n")
+                    .append("      <contributor><username>User ").append(i % 100).append("</username><id>").append(i % 100).append("</id></contributor>\n")
+                    .append("      <comment>a &lt;page&gt; &amp; more</comment>\n")
+                    .append("      <text id=\"").append(i * 100).append("\" bytes=\"").append(i * 3).append("\" note=\"a > b\">")
+                    .append((i % 7 == 0) ? "<![CDATA[</page> inside CDATA]]>" : "Text of page " + i)
+                    .append("</text>\n")
+                    .append("      <sha1>").append(Integer.toHexString(i)).append("</sha1>\n")
+                    .append("    </revision>\n")
+                    .append("  </page>\n");
+            if (i % 11 == 0)
+            {
+                b.append("  <!-- <page> in a comment -->\n");
+            }
+        }
+
+        return b.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    List<WikiPage> expected() throws ParserConfigurationException, SAXException, IOException, BindingException
+    {
+        return binder.bindAll(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml)));
+    }
+
+    List<WikiPage> parallel(ForkJoinPool pool, boolean ordered, byte input)
+            throws ParserConfigurationException, SAXException, IOException, BindingException
+    {
+        final List<WikiPage> pages = new ArrayList<>();
+        RecordHandler<WikiPage> handler = new RecordHandler<WikiPage>()
+        {
+            @Override
+            public void handle(WikiPage page)
+            {
+                pages.add(page);
+            }
+        };
+
+        ParallelProcessor<WikiPage> processor = ParallelProcessor.newBuild("page", binder)
+                .setPool(pool)
+                .setOrdered(ordered)
+                .setBatchSize(64 * 1024)
+                .setChunkSize(256 * 1024);
+        switch (input)
+        {
+            case BYTES:
+                processor.process(xml, handler);
+                break;
+            case STREAM:
+                processor.process(new ByteArrayInputStream(xml), handler);
+                break;
+            case FILE:
+                processor.process(file, handler);
+                break;
+        }
+
+        return pages;
+    }
+
+    /**
+     * Returns a dump where the record tags are written as page, Page and PAGE in turn, and the
+     * titles of the PAGE records as Title.
+     */
+    static byte[] mixedCase(byte[] xml)
+    {
+        String dump = new String(xml, StandardCharsets.UTF_8);
+        StringBuilder b = new StringBuilder();
+        int p = 0;
+        for (int i = 0, q; (q = dump.indexOf("  <page>\n", p)) >= 0; i++)
+        {
+            int end = dump.indexOf("  </page>\n", q);
+            String tag = (i % 3 == 0) ? "page" : (i % 3 == 1) ? "Page" : "PAGE";
+            String body = dump.substring(q + 9, end);
+            if (i % 3 == 2)
+            {
+                body = body.replace("<title>", "<Title>").replace("</title>", "</Title>");
+            }
+            b.append(dump, p, q)
+                    .append("  <").append(tag).append(">\n")
+                    .append(body)
+                    .append("  </").append(tag).append(">\n");
+            p = end + 10;
+        }
+
+        return b.append(dump.substring(p)).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that records written as {@code <Page>} and {@code <PAGE>} are found by both processors
+     * and bound by the binder when the tag's name is given in another case.
+     */
+    boolean mixedCase(ForkJoinPool pool) throws ParserConfigurationException, SAXException, IOException, BindingException, XMLStreamException
+    {
+        byte[] plain = dump(1000);
+        byte[] mixed = mixedCase(plain);
+        List<WikiPage> expected = binder.bindAll(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(plain)));
+
+        RecordHandler<Element> elements = new RecordHandler<Element>()
+        {
+            @Override
+            public void handle(Element record)
+            {
+            }
+        };
+        long streamed = StreamingProcessor.newBuild().processRecords(new ByteArrayInputStream(mixed), "Page", elements);
+        if (streamed != expected.size())
+        {
+            System.err.println("Expected " + expected.size() + " records, streaming found " + streamed);
+            return false;
+        }
+
+        final List<WikiPage> pages = new ArrayList<>();
+        ParallelProcessor.newBuild("Page", binder)
+                .setPool(pool)
+                .setBatchSize(16 * 1024)
+                .process(mixed, new RecordHandler<WikiPage>()
+                {
+                    @Override
+                    public void handle(WikiPage page)
+                    {
+                        pages.add(page);
+                    }
+                });
+
+        return same(expected, pages);
+    }
+
+    /**
+     * Checks that a record which is not well-formed fails the run with the SAXException of the
+     * parser, reading from memory and from a stream.
+     */
+    boolean malformed(ForkJoinPool pool) throws ParserConfigurationException, IOException, BindingException
+    {
+        String dump = new String(dump(2000), StandardCharsets.UTF_8);
+        int title = dump.indexOf("</title>", dump.indexOf("<title>Página 1500<"));
+        byte[] broken = (dump.substring(0, title) + "</titl>" + dump.substring(title + 8)).getBytes(StandardCharsets.UTF_8);
+
+        RecordHandler<WikiPage> ignore = new RecordHandler<WikiPage>()
+        {
+            @Override
+            public void handle(WikiPage page)
+            {
+            }
+        };
+        for (byte input = BYTES; input <= STREAM; input++)
+        {
+            ParallelProcessor<WikiPage> processor = ParallelProcessor.newBuild("page", binder)
+                    .setPool(pool)
+                    .setBatchSize(16 * 1024)
+                    .setChunkSize(64 * 1024);
+            try
+            {
+                if (input == BYTES)
+                {
+                    processor.process(broken, ignore);
+                }
+                else
+                {
+                    processor.process(new ByteArrayInputStream(broken), ignore);
+                }
+                System.err.println("A record which is not well-formed was processed.");
+                return false;
+            }
+            catch (SAXException e)
+            {
+                if (!e.getMessage().contains("titl"))
+                {
+                    System.err.println("Unexpected error: " + e.toString());
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    static boolean same(List<WikiPage> expected, List<WikiPage> actual)
+    {
+        if (expected.size() != actual.size())
+        {
+            System.err.println("Expected " + expected.size() + " pages, got " + actual.size());
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++)
+        {
+            if (!expected.get(i).toString().equals(actual.get(i).toString()) || !expected.get(i).getRevText().equals(actual.get(i).getRevText()))
+            {
+                System.err.println("Expected: " + expected.get(i) + "\nActual:   " + actual.get(i));
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            ParallelProcessorTest test = new ParallelProcessorTest().configure();
+            List<WikiPage> expected = test.expected();
+            ForkJoinPool pool = new ForkJoinPool();
+            if (!same(expected, test.parallel(pool, true, BYTES))
+                || !same(expected, test.parallel(pool, true, STREAM))
+                || !same(expected, test.parallel(pool, true, FILE))
+                || test.parallel(pool, false, STREAM).size() != expected.size())
+            {
+                System.err.println("Parallel processor and binder don't match.");
+                System.exit(1);
+            }
+            if (!test.mixedCase(pool))
+            {
+                System.err.println("Parallel and streaming processors don't find the same records.");
+                System.exit(1);
+            }
+            if (!test.malformed(pool))
+            {
+                System.exit(1);
+            }
+            pool.shutdown();
+
+            long base = 0;
+            for (int workers = 1; workers <= Runtime.getRuntime().availableProcessors(); workers *= 2)
+            {
+                pool = new ForkJoinPool(workers);
+                long time = Long.MAX_VALUE;
+                for (int i = 0; i < 5; i++)
+                {
+                    long start = System.nanoTime();
+                    test.parallel(pool, true, FILE);
+                    time = Math.min(time, System.nanoTime() - start);
+                }
+                pool.shutdown();
+                base = (workers == 1) ? time : base;
+
+                String result = "Workers: " + workers + ", " + (time / 1000000) + " ms, speedup: " + String.format("%.2f", (double) base / time);
+                if (LOG.isInfoEnabled())
+                {
+                    LOG.info(result);
+                }
+                System.out.println(result);
+            }
+        }
+        catch (ParserConfigurationException | SAXException | IOException | BindingException | XMLStreamException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import net.apkc.esxp.compact.CompactBuilder;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.PathQuery;
+import net.apkc.esxp.processor.Processor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that compiled path queries select the same nodes as XPath, on a DOM and on a compact
+ * document, and measures a query against walking the tree and checking the parents by hand.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class PathQueryTest
+{
+
+    static final Logger LOG = Logger.getLogger(PathQueryTest.class.getName());
+    static final int PAGES = 300;
+    static final int ROUNDS = 2000;
+    /** Each query and the XPath expression that selects the same nodes. */
+    static final String[][] QUERIES =
+    {
+        {
+            "page/revision/contributor/id", "page/revision/contributor/id"
+        },
+        {
+            "PAGE[3]/Title", "page[3]/title"
+        },
+        {
+            "//id", "//id"
+        },
+        {
+            "page/revision/text/@bytes", "page/revision/text/@bytes"
+        },
+        {
+            "//contributor/*[2]", "//contributor/*[2]"
+        },
+        {
+            "*/revision//id", "*/revision//id"
+        },
+        {
+            "/mediawiki/page[2]/id", "/mediawiki/page[2]/id"
+        },
+        {
+            ".//page[5]//username", ".//page[5]//username"
+        },
+        {
+            "page/missing", "page/missing"
+        }
+    };
+    final Processor processor = Processor.newBuild();
+    Document doc;
+    Document compact;
+
+    PathQueryTest configure() throws ParserConfigurationException, SAXException, IOException
+    {
+        // Without the default namespace, so XPath matches the names as they are.
+        byte[] xml = new String(ParallelProcessorTest.dump(PAGES), StandardCharsets.UTF_8)
+                .replace(" xmlns=\"http://www.mediawiki.org/xml/export-0.8/\"", "")
+                .getBytes(StandardCharsets.UTF_8);
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        CompactBuilder builder = new CompactBuilder();
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(builder);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+        compact = builder.getDocument();
+
+        return this;
+    }
+
+    boolean same() throws XPathExpressionException
+    {
+        for (String[] query : QUERIES)
+        {
+            PathQuery compiled = Processor.compile(query[0]);
+            NodeList expected = (NodeList) XPathFactory.newInstance().newXPath().evaluate(query[1], doc.getDocumentElement(), XPathConstants.NODESET);
+            List<Node> actual = compiled.selectAll(doc.getDocumentElement());
+            List<Node> compactActual = compiled.selectAll(compact.getDocumentElement());
+
+            boolean ok = expected.getLength() == actual.size() && expected.getLength() == compactActual.size();
+            for (int i = 0; ok && i < actual.size(); i++)
+            {
+                ok = actual.get(i) == expected.item(i) && compactActual.get(i).getNodeName().equals(actual.get(i).getNodeName())
+                     && compactActual.get(i).getTextContent().equals(actual.get(i).getTextContent());
+            }
+            ok &= (expected.getLength() == 0) ? compiled.select(doc) == null : compiled.select(doc.getDocumentElement()) == expected.item(0);
+
+            if (!ok)
+            {
+                System.err.println("Query \"" + query[0] + "\" selected " + actual.size() + " nodes and " + compactActual.size()
+                                   + " compact nodes, XPath " + expected.getLength() + ".");
+                return false;
+            }
+        }
+
+        for (String invalid : new String[]
+        {
+            "", "page/", "page[0]", "page[last()]", "@id", "page/@id/title", "page//@id"
+        })
+        {
+            try
+            {
+                Processor.compile(invalid);
+                System.err.println("Query \"" + invalid + "\" should not compile.");
+                return false;
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Expected.
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the time of finding the id of the contributor of the last page, with a query and by
+     * hand, in microseconds.
+     */
+    long[] time() throws TagNotFoundException
+    {
+        PathQuery query = Processor.compile("page[" + PAGES + "]/revision/contributor/id");
+        String expected = String.valueOf(PAGES % 100);
+        long[] time = new long[2];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            if (!processor.searchValue(doc.getDocumentElement(), query, true).equals(expected))
+            {
+                throw new IllegalStateException("Wrong value.");
+            }
+        }
+        time[0] = (System.nanoTime() - start) / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            NodeList ids = doc.getElementsByTagName("id");
+            Node id = null;
+            for (int j = 0; j < ids.getLength(); j++)
+            {
+                if (ids.item(j).getParentNode().getNodeName().equals("contributor"))
+                {
+                    id = ids.item(j);
+                }
+            }
+            if (id == null || !id.getTextContent().equals(expected))
+            {
+                throw new IllegalStateException("Wrong value.");
+            }
+        }
+        time[1] = (System.nanoTime() - start) / 1000;
+
+        return time;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            PathQueryTest test = new PathQueryTest().configure();
+            if (!test.same())
+            {
+                System.exit(1);
+            }
+
+            long[] time = test.time();
+            String result = ROUNDS + " lookups: query " + time[0] + " us, by hand " + time[1] + " us";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (ParserConfigurationException | SAXException | IOException | XPathExpressionException | TagNotFoundException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
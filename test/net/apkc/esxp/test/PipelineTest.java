@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import net.apkc.esxp.exceptions.BindingException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.processor.Binder;
+import net.apkc.esxp.processor.Pipeline;
+import net.apkc.esxp.processor.RecordHandler;
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that the {@link Pipeline} binds the same pages as a {@link Binder} over the whole DOM
+ * tree, also when the record tags differ in case, that a slow sink stops the reader instead of queuing the whole document and that errors of
+ * any stage stop the pipeline, and compares it with reading, parsing and binding one after the other
+ * from a slow stream.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class PipelineTest
+{
+
+    static final Logger LOG = Logger.getLogger(PipelineTest.class.getName());
+    static final int PAGES = 20000;
+    final byte[] xml = ParallelProcessorTest.dump(PAGES);
+    /** Parses like the pipeline, keeping CDATA sections apart. */
+    final DocumentLoader loader = DocumentLoader.newBuild().setNamespaceAware(false).setCoalescing(false);
+    Binder<WikiPage> binder;
+
+    PipelineTest configure() throws BindingException
+    {
+        binder = Binder.of(WikiPage.class);
+        return this;
+    }
+
+    /**
+     * A stream that counts the bytes read and waits a given time for each 64KiB read, like a disk or a
+     * network connection.
+     */
+    static final class SlowStream extends FilterInputStream
+    {
+
+        final long nanosPerBlock;
+        volatile long read;
+
+        SlowStream(byte[] xml, long nanosPerBlock)
+        {
+            super(new ByteArrayInputStream(xml));
+            this.nanosPerBlock = nanosPerBlock;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, Math.min(len, 64 * 1024));
+            if (n > 0 && nanosPerBlock > 0)
+            {
+                long nanos = nanosPerBlock * n / (64 * 1024);
+                try
+                {
+                    Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            read += Math.max(n, 0);
+            return n;
+        }
+    }
+
+    List<WikiPage> pipeline(Pipeline<WikiPage> pipeline, InputStream in) throws IOException, SAXException, BindingException
+    {
+        final List<WikiPage> pages = Collections.synchronizedList(new ArrayList<WikiPage>());
+        pipeline.process(in, new RecordHandler<WikiPage>()
+        {
+            @Override
+            public void handle(WikiPage page)
+            {
+                pages.add(page);
+            }
+        });
+
+        return pages;
+    }
+
+    List<WikiPage> serial(InputStream in) throws IOException, SAXException, BindingException
+    {
+        return binder.bindAll(loader.parse(in));
+    }
+
+    static List<WikiPage> sorted(List<WikiPage> pages)
+    {
+        List<WikiPage> copy = new ArrayList<>(pages);
+        Collections.sort(copy, new Comparator<WikiPage>()
+        {
+            @Override
+            public int compare(WikiPage a, WikiPage b)
+            {
+                return a.toString().compareTo(b.toString());
+            }
+        });
+
+        return copy;
+    }
+
+    /**
+     * Returns the bytes read by the time the sink has waited a while on its first record.
+     */
+    long readWithBlockedSink() throws Exception
+    {
+        final SlowStream in = new SlowStream(xml, 0);
+        final long[] read = new long[1];
+        Pipeline.newBuild("page", binder).setCapacity(2).setBatchSize(4 * 1024).setChunkSize(16 * 1024).process(in, new RecordHandler<WikiPage>()
+        {
+            @Override
+            public void handle(WikiPage page) throws InterruptedException
+            {
+                if (read[0] == 0)
+                {
+                    Thread.sleep(500);
+                    read[0] = in.read;
+                }
+            }
+        });
+
+        return read[0];
+    }
+
+    boolean fails(Pipeline<WikiPage> pipeline, byte[] xml, RecordHandler<WikiPage> handler, Class<? extends Exception> expected)
+    {
+        try
+        {
+            pipeline.process(new ByteArrayInputStream(xml), handler);
+            return false;
+        }
+        catch (Exception e)
+        {
+            return expected.isInstance(e);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            PipelineTest test = new PipelineTest().configure();
+            List<WikiPage> expected = test.serial(new ByteArrayInputStream(test.xml));
+            Pipeline<WikiPage> single = Pipeline.newBuild("page", test.binder).setParseThreads(1).setBatchSize(16 * 1024);
+            Pipeline<WikiPage> wide = Pipeline.newBuild("page", test.binder).setParseThreads(4).setBindThreads(2).setSinkThreads(2).setBatchSize(16 * 1024);
+            boolean ok = ParallelProcessorTest.same(expected, test.pipeline(single, new ByteArrayInputStream(test.xml)))
+                         && ParallelProcessorTest.same(sorted(expected), sorted(test.pipeline(wide, new ByteArrayInputStream(test.xml))));
+
+            // Records written as page, Page and PAGE, bound by a binder of "page" records.
+            byte[] mixed = ParallelProcessorTest.mixedCase(test.xml);
+            ok &= ParallelProcessorTest.same(expected, test.pipeline(single, new ByteArrayInputStream(mixed)))
+                  && ParallelProcessorTest.same(expected, test.pipeline(Pipeline.newBuild("PAGE", test.binder).setBatchSize(16 * 1024), new ByteArrayInputStream(mixed)));
+
+            long blocked = test.readWithBlockedSink();
+            ok &= blocked > 0 && blocked < test.xml.length / 4;
+
+            RecordHandler<WikiPage> failing = new RecordHandler<WikiPage>()
+            {
+                @Override
+                public void handle(WikiPage page) throws Exception
+                {
+                    throw new Exception("Sink failed.");
+                }
+            };
+            byte[] malformed = new String(test.xml, StandardCharsets.UTF_8).replace("<ns>0</ns>", "<ns>0</nz>").getBytes(StandardCharsets.UTF_8);
+            ok &= test.fails(wide, test.xml, failing, BindingException.class) && test.fails(wide, malformed, failing, SAXException.class);
+
+            long serial = Long.MAX_VALUE;
+            long pipelined = Long.MAX_VALUE;
+            long nanosPerBlock = 2000000;
+            for (int i = 0; i < 3; i++)
+            {
+                long start = System.nanoTime();
+                test.serial(new BufferedInputStream(new SlowStream(test.xml, nanosPerBlock), 64 * 1024));
+                serial = Math.min(serial, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                test.pipeline(single, new SlowStream(test.xml, nanosPerBlock));
+                pipelined = Math.min(pipelined, System.nanoTime() - start);
+            }
+
+            String result = "Pages: " + PAGES + " from a slow stream, serial: " + (serial / 1000000) + " ms, pipeline: " + (pipelined / 1000000)
+                            + " ms, read with a blocked sink: " + (blocked / 1024) + " of " + (test.xml.length / 1024) + " KiB";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The pipeline didn't bind the expected pages, bound its memory or stop on errors.");
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
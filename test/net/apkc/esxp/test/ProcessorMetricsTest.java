@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.InvalidNodeException;
+import net.apkc.esxp.metrics.ProcessorMetrics;
+import net.apkc.esxp.metrics.ProcessorMetricsMXBean;
+import net.apkc.esxp.processor.Processor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Checks that the counters of {@link ProcessorMetrics}, read over JMX, match the lookups made by
+ * several threads at once.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class ProcessorMetricsTest
+{
+
+    static final Logger LOG = Logger.getLogger(ProcessorMetricsTest.class.getName());
+    static final int THREADS = 4;
+    static final int ROUNDS = 20000;
+    final Processor processor = Processor.newBuild();
+    Document doc;
+    Node title;
+
+    ProcessorMetricsTest configure() throws ParserConfigurationException
+    {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = (Element) doc.appendChild(doc.createElement("mediawiki"));
+        for (int i = 0; i < 100; i++)
+        {
+            Element page = (Element) root.appendChild(doc.createElement("page"));
+            page.appendChild(doc.createElement("title")).appendChild(doc.createTextNode("  Page   " + i + " "));
+            page.appendChild(doc.createElement("id")).appendChild(doc.createTextNode(String.valueOf(i)));
+        }
+        title = doc.getElementsByTagName("title").item(50);
+
+        return this;
+    }
+
+    /**
+     * Makes one hit and one miss of searchTagValue, one hit of getNodeValue and one strict mode
+     * miss of getNodeAttributeValue.
+     */
+    void lookup() throws Exception
+    {
+        processor.searchTagValue(doc, "mediawiki", "id", false);
+        processor.searchTagValue(doc, "mediawiki", "missing", false);
+        processor.getNodeValue(title, true);
+        try
+        {
+            processor.getNodeAttributeValue(title, "missing", true);
+        }
+        catch (AttributeNotFoundException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Makes all lookups from several threads and returns the time taken, in milliseconds.
+     */
+    long run() throws InterruptedException
+    {
+        final Exception[] errors = new Exception[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++)
+        {
+            final int id = t;
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < ROUNDS; i++)
+                        {
+                            lookup();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        errors[id] = e;
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        for (Exception error : errors)
+        {
+            if (error != null)
+            {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    static long sum(long[] histogram)
+    {
+        long sum = 0;
+        for (long count : histogram)
+        {
+            sum += count;
+        }
+
+        return sum;
+    }
+
+    static void check(String name, long expected, long actual)
+    {
+        if (expected != actual)
+        {
+            System.err.println(name + ": expected " + expected + " but was " + actual + ".");
+            System.exit(1);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        // Must be set before ProcessorMetrics is initialized.
+        System.setProperty(ProcessorMetrics.PROPERTY, "true");
+
+        try
+        {
+            if (!ProcessorMetrics.isEnabled())
+            {
+                System.err.println("Metrics were not enabled.");
+                System.exit(1);
+            }
+
+            ProcessorMetricsTest test = new ProcessorMetricsTest().configure();
+            ProcessorMetricsMXBean metrics = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), new ObjectName(ProcessorMetrics.OBJECT_NAME), ProcessorMetricsMXBean.class);
+            metrics.reset();
+
+            long time = test.run();
+            final long calls = (long) THREADS * ROUNDS;
+            Map<String, Long> lookups = metrics.getLookups();
+            Map<String, Long> hits = metrics.getHits();
+            Map<String, Long> misses = metrics.getMisses();
+            Map<String, Long> strict = metrics.getStrictExceptions();
+            Map<String, long[]> latency = metrics.getLatencyHistograms();
+
+            check("searchTagValue lookups", 2 * calls, lookups.get("searchTagValue"));
+            check("searchTagValue hits", calls, hits.get("searchTagValue"));
+            check("searchTagValue misses", calls, misses.get("searchTagValue"));
+            check("searchTagValue latency", 2 * calls, sum(latency.get("searchTagValue")));
+            check("getNodeValue hits", calls, hits.get("getNodeValue"));
+            check("getNodeValue misses", 0, misses.get("getNodeValue"));
+            check("getNodeAttributeValue strict exceptions", calls, strict.get("getNodeAttributeValue"));
+            check("searchNode lookups", 0, lookups.get("searchNode"));
+            // Both searchTagValue walk the tree for the tag, the hit and getNodeValue walk for the text.
+            check("Walks", 4 * calls, metrics.getWalks());
+            check("Nodes visited histogram", metrics.getWalks(), sum(metrics.getNodesVisitedHistogram()));
+            if (metrics.getNodesVisited() < metrics.getWalks() || metrics.getNormalizedChars() == 0)
+            {
+                System.err.println("Nodes visited or characters normalized were not counted.");
+                System.exit(1);
+            }
+
+            String result = (4 * calls) + " lookups on " + THREADS + " threads in " + time + " ms"
+                            + ", nodes visited per walk: " + (metrics.getNodesVisited() / metrics.getWalks())
+                            + ", normalized chars: " + metrics.getNormalizedChars();
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (ParserConfigurationException | MalformedObjectNameException | InterruptedException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
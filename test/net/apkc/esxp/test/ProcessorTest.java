@@ -29,15 +29,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.stream.StreamSource;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import net.apkc.esxp.exceptions.ParserNotInitializedException;
+import net.apkc.esxp.loader.DocumentLoader;
+import net.apkc.esxp.loader.SchemaRegistry;
 import net.apkc.esxp.processor.Processor;
 import net.apkc.esxp.walker.DOMWalker;
 import net.apkc.esxp.walker.DOMWalkerFactory;
@@ -46,7 +44,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -60,7 +57,31 @@ class ProcessorTest
 {
 
     static final Logger LOG = Logger.getLogger(ProcessorTest.class.getName());
-    final byte WALKER = DOMWalkerFactory.STACK_DOM_WALKER;
+    /** Logs validation errors instead of stopping the parsing. */
+    static final ErrorHandler VALIDATION_ERRORS = new ErrorHandler()
+    {
+        @Override
+        public void warning(SAXParseException e) throws SAXException
+        {
+            LOG.warn("DOM Warning: " + e.toString(), e);
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException
+        {
+            LOG.error("DOM Error: " + e.toString(), e);
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException
+        {
+            LOG.fatal("DOM Fatal: " + e.toString(), e);
+            throw e;
+        }
+    };
+    /** The loaders that validate, one per schema, configured once and reused by every call. */
+    static final Map<Schema, DocumentLoader> LOADERS = new ConcurrentHashMap<>();
+    final byte WALKER = DOMWalkerFactory.SIBLING_DOM_WALKER;
     final boolean STRICT_MODE = false;
     Processor processor = Processor.newBuild();
     Document doc;
@@ -79,53 +100,19 @@ class ProcessorTest
     {
         try
         {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-
+            // The loader's defaults focus on content, so without a schema the shared loader is used.
+            DocumentLoader loader = DocumentLoader.getShared();
             if (schemaStream != null)
             {
-                // Validate the XML file againts our default schema.
-                SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-                Schema schema = factory.newSchema(new StreamSource(schemaStream));
-                dbFactory.setSchema(schema);
+                // Validate the XML file against our schema, compiled only once.
+                loader = loader(SchemaRegistry.getShared().getSchema(schemaStream));
             }
 
-            // Configure to Focus on Content.
-            dbFactory.setValidating(false);
-            dbFactory.setNamespaceAware(true);
-            dbFactory.setCoalescing(true);
-            dbFactory.setExpandEntityReferences(true);
-            dbFactory.setIgnoringComments(true);
-            dbFactory.setIgnoringElementContentWhitespace(true);
-
-            // Create a DOM document.
-            DocumentBuilder builder = dbFactory.newDocumentBuilder();
-            builder.setErrorHandler(new ErrorHandler()
-            {
-                @Override
-                public void warning(SAXParseException e) throws SAXException
-                {
-                    LOG.warn("DOM Warning: " + e.toString(), e);
-                }
-
-                @Override
-                public void error(SAXParseException e) throws SAXException
-                {
-                    LOG.error("DOM Error: " + e.toString(), e);
-                }
-
-                @Override
-                public void fatalError(SAXParseException e) throws SAXException
-                {
-                    LOG.fatal("DOM Fatal: " + e.toString(), e);
-                    throw e;
-                }
-            });
-
-            doc = builder.parse(new InputSource(xmlStream)); // Create document
+            doc = loader.parse(xmlStream); // Create document
             doc.getDocumentElement().normalize(); // Configure
             nodes = doc.getElementsByTagName(rootNode);
         }
-        catch (ParserConfigurationException | SAXException | IOException ex)
+        catch (SAXException | IOException ex)
         {
             System.err.println("Error configuring processor. Error: " + ex.toString());
             System.exit(1);
@@ -134,6 +121,24 @@ class ProcessorTest
         return this;
     }
 
+    /**
+     * Returns the loader that validates against a schema, creating it the first time.
+     */
+    static DocumentLoader loader(Schema schema)
+    {
+        DocumentLoader loader = LOADERS.get(schema);
+        if (loader == null)
+        {
+            DocumentLoader created = DocumentLoader.newBuild()
+                    .setSchema(schema)
+                    .setErrorHandler(VALIDATION_ERRORS);
+            loader = LOADERS.putIfAbsent(schema, created);
+            loader = (loader != null) ? loader : created;
+        }
+
+        return loader;
+    }
+
     List<WikiPage> getPage() throws ParserNotInitializedException
     {
         if (nodes == null)
@@ -210,6 +215,7 @@ class ProcessorTest
                                     break;
                             }
                         }
+                        subParser1.release();
                         break;
                 }
 
@@ -219,6 +225,7 @@ class ProcessorTest
                     page = WikiPage.newBuild();
                 }
             }
+            mainParser.release();
         }
         catch (Exception e)
         {
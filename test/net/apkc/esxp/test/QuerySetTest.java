@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.apkc.esxp.processor.PathQuery;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.processor.QueryHandler;
+import net.apkc.esxp.processor.QuerySet;
+import net.apkc.esxp.utils.TextNormalizer;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that a {@link QuerySet} reports the same values as evaluating each of its queries with a
+ * {@link PathQuery}, on a DOM tree and on SAX and StAX streams, also once its automaton outgrows
+ * {@link QuerySet#MAX_STATES}, and measures a set of one query against a set of several hundred.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class QuerySetTest
+{
+
+    static final Logger LOG = Logger.getLogger(QuerySetTest.class.getName());
+    static final int PAGES = 2000;
+    static final int NOISE = 300;
+    static final int ROUNDS = 5;
+    static final String[] QUERIES =
+    {
+        "page/title", "PAGE/revision/contributor/id", "//id", "page/revision/text/@bytes", "//contributor/*",
+        "*/revision//id", "/mediawiki/page/id", ".//username", "siteinfo/sitename", "//text/@note", "/mediawiki",
+        "//*", "page/revision"
+    };
+    final byte[] xml = ParallelProcessorTest.dump(PAGES);
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    Document doc;
+
+    QuerySetTest configure() throws ParserConfigurationException, SAXException, IOException
+    {
+        factory.setNamespaceAware(true);
+        DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
+        domFactory.setNamespaceAware(true);
+        doc = domFactory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        return this;
+    }
+
+    static QuerySet set(boolean noise)
+    {
+        QuerySet set = QuerySet.newBuild();
+        for (String query : QUERIES)
+        {
+            set.add(query);
+        }
+        for (int i = 0; noise && i < NOISE; i++)
+        {
+            switch (i % 3)
+            {
+                case 0:
+                    set.add("page/revision/field" + i);
+                    break;
+                case 1:
+                    set.add("//tag" + i + "/title");
+                    break;
+                default:
+                    set.add("*/element" + i + "/@attribute");
+                    break;
+            }
+        }
+
+        return set;
+    }
+
+    /**
+     * Returns the values of each query of a set, evaluated one at a time with path queries.
+     */
+    List<List<String>> expected(QuerySet set)
+    {
+        return expected(set, doc);
+    }
+
+    static List<List<String>> expected(QuerySet set, Document doc)
+    {
+        List<List<String>> values = new ArrayList<>();
+        for (int query = 0; query < set.size(); query++)
+        {
+            List<String> list = new ArrayList<>();
+            for (Node node : Processor.compile(set.getQuery(query)).selectAll(doc.getDocumentElement()))
+            {
+                String value = "";
+                if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+                {
+                    value = TextNormalizer.normalize(node.getNodeValue(), TextNormalizer.COLLAPSE);
+                }
+                else
+                {
+                    for (Node child = node.getFirstChild(); child != null && value.isEmpty(); child = child.getNextSibling())
+                    {
+                        if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE)
+                        {
+                            value = TextNormalizer.normalize(child.getNodeValue(), TextNormalizer.COLLAPSE);
+                        }
+                    }
+                }
+                list.add(value);
+            }
+            Collections.sort(list);
+            values.add(list);
+        }
+
+        return values;
+    }
+
+    Collector dom(QuerySet set) throws Exception
+    {
+        Collector collector = new Collector(set.size());
+        set.evaluate(doc, collector);
+        return collector;
+    }
+
+    Collector sax(QuerySet set) throws ParserConfigurationException, SAXException, IOException
+    {
+        Collector collector = new Collector(set.size());
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(set.newContentHandler(collector));
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+        return collector;
+    }
+
+    Collector stax(QuerySet set) throws XMLStreamException
+    {
+        Collector collector = new Collector(set.size());
+        set.evaluate(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml)), collector);
+        return collector;
+    }
+
+    /**
+     * Checks a set whose automaton has more states than the cache keeps: chains of nested elements
+     * with random names, each name matched by a descendant query, enter a different set of steps
+     * for each combination of names.
+     */
+    static boolean capped() throws Exception
+    {
+        Random random = new Random(7);
+        StringBuilder b = new StringBuilder("<root>");
+        for (int chain = 0; chain < 8000; chain++)
+        {
+            int[] names = new int[6];
+            for (int i = 0; i < names.length; i++)
+            {
+                names[i] = random.nextInt(24);
+                b.append("<x").append(names[i]).append('>');
+            }
+            b.append("<y> Chain ").append(chain).append(" </y>");
+            for (int i = names.length - 1; i >= 0; i--)
+            {
+                b.append("</x").append(names[i]).append('>');
+            }
+        }
+        byte[] xml = b.append("</root>").toString().getBytes("UTF-8");
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        QuerySet set = QuerySet.newBuild();
+        for (int i = 0; i < 24; i++)
+        {
+            set.add("//x" + i + "//y");
+        }
+        List<List<String>> expected = expected(set, doc);
+        for (int round = 0; round < 3; round++)
+        {
+            Collector dom = new Collector(set.size());
+            set.evaluate(doc, dom);
+            Collector stax = new Collector(set.size());
+            set.evaluate(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml)), stax);
+            if (!dom.sorted().equals(expected) || !stax.sorted().equals(expected))
+            {
+                System.err.println("Capped set: values differ from the path queries in round " + round + ".");
+                return false;
+            }
+            if (set.getStateCount() > QuerySet.MAX_STATES)
+            {
+                System.err.println("Capped set: " + set.getStateCount() + " states cached.");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the best time of several evaluations over a DOM tree and over a SAX stream, in
+     * microseconds.
+     */
+    long[] time(QuerySet set) throws Exception
+    {
+        long[] time =
+        {
+            Long.MAX_VALUE, Long.MAX_VALUE
+        };
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            long start = System.nanoTime();
+            dom(set);
+            time[0] = Math.min(time[0], (System.nanoTime() - start) / 1000);
+
+            start = System.nanoTime();
+            sax(set);
+            time[1] = Math.min(time[1], (System.nanoTime() - start) / 1000);
+        }
+
+        return time;
+    }
+
+    /**
+     * Gathers the values reported for each query.
+     */
+    static final class Collector implements QueryHandler
+    {
+
+        final List<List<String>> values = new ArrayList<>();
+
+        Collector(int queries)
+        {
+            for (int i = 0; i < queries; i++)
+            {
+                values.add(new ArrayList<String>());
+            }
+        }
+
+        @Override
+        public void handle(int query, String value)
+        {
+            values.get(query).add(value);
+        }
+
+        List<List<String>> sorted()
+        {
+            for (List<String> list : values)
+            {
+                Collections.sort(list);
+            }
+            return values;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            QuerySetTest test = new QuerySetTest().configure();
+            QuerySet set = set(true);
+            List<List<String>> expected = test.expected(set);
+            String[] drivers =
+            {
+                "DOM", "SAX", "StAX"
+            };
+            List<List<List<String>>> results = new ArrayList<>();
+            results.add(test.dom(set).sorted());
+            results.add(test.sax(set).sorted());
+            results.add(test.stax(set).sorted());
+            for (int driver = 0; driver < drivers.length; driver++)
+            {
+                for (int query = 0; query < set.size(); query++)
+                {
+                    if (!results.get(driver).get(query).equals(expected.get(query)))
+                    {
+                        System.err.println(drivers[driver] + ": query \"" + set.getQuery(query) + "\" reported "
+                                           + results.get(driver).get(query).size() + " values, expected " + expected.get(query).size() + ".");
+                        System.exit(1);
+                    }
+                }
+            }
+
+            if (!capped())
+            {
+                System.exit(1);
+            }
+
+            long[] one = test.time(set(false));
+            long[] many = test.time(set);
+            String result = "Queries: " + QUERIES.length + ", DOM " + one[0] + " us, SAX " + one[1] + " us; "
+                            + set.size() + ", DOM " + many[0] + " us, SAX " + many[1] + " us (" + set.getStateCount() + " states)";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.utils.SAX2DOM;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that {@link SAX2DOM} builds only the included subtrees of a dump and drops the excluded
+ * ones, and compares the size of the trees.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SAX2DOMPathTest
+{
+
+    static final Logger LOG = Logger.getLogger(SAX2DOMPathTest.class.getName());
+    static final int PAGES = 5000;
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    final byte[] dump = ParallelProcessorTest.dump(PAGES);
+
+    SAX2DOMPathTest configure()
+    {
+        factory.setNamespaceAware(true);
+
+        return this;
+    }
+
+    Document build(String[] includes, String[] excludes) throws ParserConfigurationException, SAXException, IOException
+    {
+        SAX2DOM handler = new SAX2DOM();
+        for (String path : includes)
+        {
+            handler.includePath(path);
+        }
+        for (String path : excludes)
+        {
+            handler.excludePath(path);
+        }
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(dump)));
+
+        return (Document) handler.getDOM();
+    }
+
+    static int count(Node node)
+    {
+        int count = 1;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            count += count(child);
+        }
+
+        return count;
+    }
+
+    static int count(Document doc, String tag)
+    {
+        return doc.getElementsByTagNameNS("*", tag).getLength();
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            SAX2DOMPathTest test = new SAX2DOMPathTest().configure();
+            Document full = test.build(new String[0], new String[0]);
+            Document metadata = test.build(new String[0], new String[]
+            {
+                "page/revision/text"
+            });
+            Document pruned = test.build(new String[]
+            {
+                "page/title", "page/id", "page/revision/contributor"
+            }, new String[]
+            {
+                "page/revision/contributor/id"
+            });
+
+            boolean ok = count(full, "text") == PAGES && count(metadata, "text") == 0
+                         && count(metadata, "comment") == PAGES && count(metadata, "title") == PAGES
+                         && count(pruned, "title") == PAGES && count(pruned, "username") == PAGES
+                         && count(pruned, "text") == 0 && count(pruned, "siteinfo") == 0
+                         && count(pruned, "id") == PAGES;
+
+            // Pages keep only the elements on the way to the included subtrees, without TEXT.
+            Element page = (Element) pruned.getElementsByTagNameNS("*", "page").item(0);
+            for (Node child = page.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                ok &= child.getNodeType() == Node.ELEMENT_NODE;
+            }
+            ok &= page.getElementsByTagNameNS("*", "title").item(0).getTextContent().equals("Página 1");
+            ok &= page.getElementsByTagNameNS("*", "revision").item(0).getChildNodes().getLength() == 1;
+
+            String result = "Nodes: full " + count(full) + ", excluding text " + count(metadata) + ", included paths " + count(pruned);
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The trees don't have the expected elements.");
+                System.exit(1);
+            }
+        }
+        catch (ParserConfigurationException | SAXException | IOException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.exceptions.TextNotFoundException;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.processor.RecordHandler;
+import net.apkc.esxp.utils.SAX2DOM;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that {@link SAX2DOM} hands each page of a dump to a record handler as a standalone
+ * document, and compares the heap it retains with building the whole dump.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SAX2DOMRecordTest
+{
+
+    static final Logger LOG = Logger.getLogger(SAX2DOMRecordTest.class.getName());
+    static final int PAGES = 50000;
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    final Processor processor = Processor.newBuild();
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    final byte[] dump = ParallelProcessorTest.dump(PAGES);
+    int pages = 0;
+    boolean valid = true;
+
+    SAX2DOMRecordTest configure()
+    {
+        factory.setNamespaceAware(true);
+
+        return this;
+    }
+
+    SAX2DOM parse(boolean records) throws ParserConfigurationException, SAXException, IOException
+    {
+        SAX2DOM handler = new SAX2DOM();
+        handler.excludePath("page/revision/comment");
+        if (records)
+        {
+            handler.setRecordHandler("page", new RecordHandler<Element>()
+            {
+                @Override
+                public void handle(Element page) throws TagNotFoundException, AttributeNotFoundException, TextNotFoundException
+                {
+                    pages++;
+                    Document doc = page.getOwnerDocument();
+                    valid &= page.getParentNode() == doc
+                             && processor.searchTagValue(doc, "page", "title", true).equals("Página " + pages)
+                             && processor.searchTagAttributeValue(doc, "page", "text", "id", true).equals(String.valueOf(pages * 100))
+                             && page.getElementsByTagNameNS("*", "comment").getLength() == 0;
+                }
+            });
+        }
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(dump)));
+
+        return handler;
+    }
+
+    /**
+     * Returns the heap still used by the DOM after parsing, in KiB.
+     */
+    long retainedHeap(boolean records) throws ParserConfigurationException, SAXException, IOException
+    {
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        SAX2DOM handler = parse(records);
+        System.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+
+        if (handler.getDOM() == null)
+        {
+            throw new IllegalStateException("No DOM built.");
+        }
+
+        return Math.max(0, after - before) / 1024;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            SAX2DOMRecordTest test = new SAX2DOMRecordTest().configure();
+            SAX2DOM handler = test.parse(true);
+            Document doc = (Document) handler.getDOM();
+            if (!test.valid || test.pages != PAGES || handler.getRecordCount() != PAGES
+                || doc.getElementsByTagNameNS("*", "page").getLength() != 0
+                || doc.getElementsByTagNameNS("*", "sitename").getLength() != 1
+                || doc.getDocumentElement().getChildNodes().getLength() != 1)
+            {
+                System.err.println("The records weren't handled as expected.");
+                System.exit(1);
+            }
+
+            String result = "Heap retained: whole dump " + test.retainedHeap(false) + " KiB, records " + test.retainedHeap(true) + " KiB";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (ParserConfigurationException | SAXException | IOException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.utils.SAX2DOM;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that {@link SAX2DOM} builds the same tree as a DOM parser, and measures the time it takes
+ * on a dump and on a document with a TEXT node of several MiB, which the parser delivers in many
+ * chunks.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SAX2DOMTextTest
+{
+
+    static final Logger LOG = Logger.getLogger(SAX2DOMTextTest.class.getName());
+    static final int PAGES = 20000;
+    static final int TEXT_SIZE = 8 << 20;
+    static final int ROUNDS = 5;
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    byte[] dump;
+    byte[] largeText;
+
+    SAX2DOMTextTest configure()
+    {
+        factory.setNamespaceAware(true);
+        dump = ParallelProcessorTest.dump(PAGES);
+
+        StringBuilder b = new StringBuilder(TEXT_SIZE + 100).append("<mediawiki><page><text>");
+        for (int i = 0; b.length() < TEXT_SIZE; i++)
+        {
+            b.append("Line ").append(i).append(" of a very long article &amp; more.\n");
+        }
+        largeText = b.append("</text></page></mediawiki>").toString().getBytes(StandardCharsets.UTF_8);
+
+        return this;
+    }
+
+    void parse(ContentHandler handler, byte[] xml) throws ParserConfigurationException, SAXException, IOException
+    {
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+    }
+
+    boolean same(byte[] xml) throws ParserConfigurationException, SAXException, IOException
+    {
+        DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
+        domFactory.setNamespaceAware(true);
+        domFactory.setCoalescing(true);
+        domFactory.setIgnoringComments(true);
+        Document expected = domFactory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        SAX2DOM handler = new SAX2DOM();
+        parse(handler, xml);
+
+        return ((Document) handler.getDOM()).getDocumentElement().isEqualNode(expected.getDocumentElement());
+    }
+
+    /**
+     * Returns the best time of several parses of a document, in microseconds.
+     */
+    long time(byte[] xml) throws ParserConfigurationException, SAXException, IOException
+    {
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            long start = System.nanoTime();
+            parse(new SAX2DOM(), xml);
+            time = Math.min(time, System.nanoTime() - start);
+        }
+
+        return time / 1000;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            SAX2DOMTextTest test = new SAX2DOMTextTest().configure();
+            if (!test.same(test.dump) || !test.same(test.largeText))
+            {
+                System.err.println("SAX2DOM and the DOM parser don't match.");
+                System.exit(1);
+            }
+
+            String result = "Dump: " + (test.dump.length / 1024) + " KiB in " + test.time(test.dump) + " us"
+                            + ", large TEXT node: " + (test.largeText.length / 1024) + " KiB in " + test.time(test.largeText) + " us";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+        }
+        catch (ParserConfigurationException | SAXException | IOException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import net.apkc.esxp.loader.SchemaRegistry;
+import org.apache.log4j.Logger;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that {@link SchemaRegistry} compiles each schema once, also when many threads ask for it at
+ * the same time, and hands out one validator per thread, and measures a compilation against a cached
+ * schema.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SchemaRegistryTest
+{
+
+    static final Logger LOG = Logger.getLogger(SchemaRegistryTest.class.getName());
+    static final Path XSD = Paths.get("test/resources/test.xsd");
+    static final int THREADS = 8;
+    /** A local stand-in for http://www.w3.org/2001/xml.xsd, imported by test.xsd. */
+    static final String XML_XSD = "<schema xmlns=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"" + XMLConstants.XML_NS_URI + "\">"
+                                  + "<attribute name=\"lang\" type=\"language\"/><attribute name=\"space\" type=\"NCName\"/></schema>";
+    static final String VALID = "<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\" xml:lang=\"en\">"
+                                + "<page><title>Page</title><ns>0</ns><id>1</id><revision><id>10</id><timestamp>2014-07-02T00:00:00Z</timestamp>"
+                                + "<contributor><username>User</username><id>1</id></contributor><text xml:space=\"preserve\">Text</text>"
+                                + "<sha1>1</sha1><model>wikitext</model><format>text/x-wiki</format></revision></page></mediawiki>";
+
+    static SchemaRegistry registry() throws ParserConfigurationException
+    {
+        final DOMImplementationLS ls = (DOMImplementationLS) DocumentBuilderFactory.newInstance().newDocumentBuilder().getDOMImplementation();
+        return SchemaRegistry.newBuild().setResourceResolver(new LSResourceResolver()
+        {
+            @Override
+            public LSInput resolveResource(String type, String namespace, String publicId, String systemId, String baseURI)
+            {
+                if (!XMLConstants.XML_NS_URI.equals(namespace))
+                {
+                    return null;
+                }
+
+                LSInput input = ls.createLSInput();
+                input.setStringData(XML_XSD);
+                input.setSystemId(systemId);
+                return input;
+            }
+        });
+    }
+
+    static boolean valid(Validator validator, String xml) throws IOException
+    {
+        try
+        {
+            validator.validate(new StreamSource(new ByteArrayInputStream(xml.getBytes("UTF-8"))));
+            return true;
+        }
+        catch (SAXException e)
+        {
+            return false;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            final SchemaRegistry registry = registry();
+            final byte[] xsd = Files.readAllBytes(XSD);
+            final CountDownLatch ready = new CountDownLatch(THREADS);
+            Future<?>[] results = new Future<?>[THREADS];
+            for (int i = 0; i < THREADS; i++)
+            {
+                results[i] = threads.submit(new Callable<Object[]>()
+                {
+                    @Override
+                    public Object[] call() throws Exception
+                    {
+                        ready.countDown();
+                        ready.await();
+                        Schema schema = registry.getSchema(xsd);
+                        return new Object[]
+                        {
+                            schema, registry.getValidator(schema)
+                        };
+                    }
+                });
+            }
+
+            boolean ok = true;
+            Object[] first = (Object[]) results[0].get();
+            for (int i = 1; i < THREADS; i++)
+            {
+                Object[] result = (Object[]) results[i].get();
+                ok &= result[0] == first[0] && result[1] != first[1];
+            }
+            long start = System.nanoTime();
+            Schema schema = registry.getSchema(new ByteArrayInputStream(xsd));
+            long cached = (System.nanoTime() - start) / 1000;
+            ok &= schema == first[0] && registry.size() == 1;
+
+            start = System.nanoTime();
+            ok &= registry.getSchema(XSD) != schema && registry.size() == 2;
+            long compiled = (System.nanoTime() - start) / 1000;
+            ok &= registry.getSchema(XSD.toUri().toURL()) == registry.getSchema(XSD);
+
+            Validator validator = registry.getValidator(schema);
+            ok &= validator == registry.getValidator(schema) && valid(validator, VALID)
+                  && !valid(validator, VALID.replace("<ns>0</ns>", "<ns>zero</ns>")) && valid(registry.getValidator(schema), VALID);
+
+            String result = "Schema compiled in " + compiled + " us, cached in " + cached + " us";
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info(result);
+            }
+            System.out.println(result);
+
+            if (!ok)
+            {
+                System.err.println("The registry didn't share the schema or the validators as expected.");
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.DocumentIndex;
+import net.apkc.esxp.processor.FieldSelector;
+import net.apkc.esxp.processor.Processor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that {@link Processor#searchValues(org.w3c.dom.Node, FieldSelector, String[], boolean)} and
+ * its overloads retrieve, for each field of a {@link FieldSelector}, the value that
+ * searchTagValue or searchTagAttributeValue retrieves for it, count the same fields as found and
+ * raise an exception in strict mode in the same cases.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SearchValuesTest
+{
+
+    static final Logger LOG = Logger.getLogger(SearchValuesTest.class.getName());
+    static final String[] ROOTS =
+    {
+        "mediawiki", "root", "*", "page", "Item", "missing"
+    };
+    final Processor processor = Processor.newBuild();
+
+    /**
+     * Fields of the dump and of the random documents, including missing tags and attributes, tags
+     * without TEXT data and the same tag twice with different case.
+     */
+    static FieldSelector fields()
+    {
+        return FieldSelector.newBuild()
+                .addTag("title")
+                .addTag("TIMESTAMP")
+                .addAttribute("text", "bytes")
+                .addAttribute("text", "missing")
+                .addTag("contributor")
+                .addTag("revision")
+                .addTag("redirect")
+                .addAttribute("redirect", "title")
+                .addTag("a")
+                .addAttribute("B", "n")
+                .addTag("item")
+                .addAttribute("ITEM", "n")
+                .addTag("leaf")
+                .addTag("root");
+    }
+
+    /**
+     * The values of the fields retrieved one at a time.
+     *
+     * @return The number of fields found.
+     */
+    int expected(Document doc, String root, FieldSelector fields, String[] values) throws Exception
+    {
+        int found = 0;
+        for (int field = 0; field < fields.size(); field++)
+        {
+            String attribute = fields.getAttribute(field);
+            values[field] = (attribute == null)
+                            ? processor.searchTagValue(doc, root, fields.getTag(field), false)
+                            : processor.searchTagAttributeValue(doc, root, fields.getTag(field), attribute, false);
+            if (!values[field].isEmpty())
+            {
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Tells if some field of a selector throws in strict mode when looked up one at a time.
+     */
+    boolean expectedStrictMiss(Document doc, String root, FieldSelector fields)
+    {
+        for (int field = 0; field < fields.size(); field++)
+        {
+            try
+            {
+                String attribute = fields.getAttribute(field);
+                if (attribute == null)
+                {
+                    processor.searchTagValue(doc, root, fields.getTag(field), true);
+                }
+                else
+                {
+                    processor.searchTagAttributeValue(doc, root, fields.getTag(field), attribute, true);
+                }
+            }
+            catch (TagNotFoundException | AttributeNotFoundException e)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Tells if a strict searchValues throws, on the document (0), on the root node (1) or on the
+     * index (2).
+     */
+    boolean strictMiss(int overload, Document doc, DocumentIndex index, String root, FieldSelector fields)
+    {
+        String[] values = new String[fields.size()];
+        try
+        {
+            switch (overload)
+            {
+                case 0:
+                    processor.searchValues(doc, root, fields, values, true);
+                    break;
+                case 1:
+                    processor.searchValues(doc.getElementsByTagName(root).item(0), fields, values, true);
+                    break;
+                default:
+                    processor.searchValues(index, root, fields, values, true);
+                    break;
+            }
+
+            return false;
+        }
+        catch (TagNotFoundException | AttributeNotFoundException e)
+        {
+            return true;
+        }
+    }
+
+    boolean check(String name, Document doc, FieldSelector fields) throws Exception
+    {
+        DocumentIndex index = DocumentIndex.of(doc);
+        String[] expected = new String[fields.size()];
+        String[] values = new String[fields.size()];
+        Map<String, String> map = new HashMap<>();
+        for (String root : ROOTS)
+        {
+            int found = expected(doc, root, fields, expected);
+            boolean miss = expectedStrictMiss(doc, root, fields);
+
+            int[] counts = new int[4];
+            for (int overload = 0; overload < 4; overload++)
+            {
+                map.clear();
+                switch (overload)
+                {
+                    case 0:
+                        counts[overload] = processor.searchValues(doc, root, fields, values, false);
+                        break;
+                    case 1:
+                        counts[overload] = processor.searchValues(index, root, fields, values, false);
+                        break;
+                    case 2:
+                        counts[overload] = processor.searchValues(doc, root, fields, map, false);
+                        break;
+                    default:
+                        counts[overload] = processor.searchValues(index, root, fields, map, false);
+                        break;
+                }
+
+                for (int field = 0; field < fields.size(); field++)
+                {
+                    String value = (overload < 2) ? values[field] : map.get(fields.getKey(field));
+                    if (!expected[field].equals(value))
+                    {
+                        System.err.println(name + ": field " + fields.getKey(field) + " under \"" + root + "\" was \"" + value + "\" instead of \"" + expected[field] + "\".");
+                        return false;
+                    }
+                }
+                if (counts[overload] != found)
+                {
+                    System.err.println(name + ": found " + counts[overload] + " fields under \"" + root + "\" instead of " + found + ".");
+                    return false;
+                }
+            }
+
+            if (strictMiss(0, doc, index, root, fields) != miss
+                || strictMiss(2, doc, index, root, fields) != miss
+                || (!root.equals("*") && doc.getElementsByTagName(root).getLength() > 0 && strictMiss(1, doc, index, root, fields) != miss))
+            {
+                System.err.println(name + ": strict mode doesn't match under \"" + root + "\".");
+                return false;
+            }
+        }
+
+        // Each field alone, so strict mode is checked field by field.
+        for (int field = 0; field < fields.size(); field++)
+        {
+            FieldSelector single = (fields.getAttribute(field) == null)
+                                   ? FieldSelector.newBuild().addTag(fields.getTag(field))
+                                   : FieldSelector.newBuild().addAttribute(fields.getTag(field), fields.getAttribute(field));
+            for (String root : ROOTS)
+            {
+                boolean miss = expectedStrictMiss(doc, root, single);
+                if (strictMiss(0, doc, index, root, single) != miss || strictMiss(2, doc, index, root, single) != miss)
+                {
+                    System.err.println(name + ": strict mode doesn't match for field " + fields.getKey(field) + " under \"" + root + "\".");
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            SearchValuesTest test = new SearchValuesTest();
+            FieldSelector fields = fields();
+            Document dump = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(ParallelProcessorTest.dump(50)));
+            boolean ok = test.check("dump", dump, fields);
+            for (long seed = 0; ok && seed < 5; seed++)
+            {
+                ok = test.check("random #" + seed, DocumentIndexTest.random(seed), fields);
+            }
+
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Search values test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
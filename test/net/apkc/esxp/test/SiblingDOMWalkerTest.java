@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that {@link net.apkc.esxp.walker.SiblingDOMWalker} visits the same nodes, in the same
+ * order, as {@link net.apkc.esxp.walker.StackDOMWalker}: from every node of several trees as the
+ * root, processing ELEMENT and TEXT nodes, skipping the children of random nodes, and with walkers
+ * reused from the pool after being released.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SiblingDOMWalkerTest
+{
+
+    static final Logger LOG = Logger.getLogger(SiblingDOMWalkerTest.class.getName());
+    static final byte[] MODES =
+    {
+        DOMWalker.ELEMENT_NODES, DOMWalker.TEXT_NODES
+    };
+    static final int PAGES = 20000;
+
+    /**
+     * Walks a tree with a walker from the pool and releases it.
+     *
+     * @param skip The seed of the nodes whose children are skipped, or -1 to skip none.
+     *
+     * @return The nodes visited.
+     */
+    static List<Node> walk(byte walkerID, Node root, byte mode, long skip) throws Exception
+    {
+        Random random = new Random(skip);
+        List<Node> nodes = new ArrayList<>();
+        DOMWalker walker = DOMWalkerFactory.getWalker(walkerID);
+        try
+        {
+            walker.configure(root, mode);
+            while (walker.hasNext())
+            {
+                nodes.add(walker.nextNode());
+                if (skip >= 0 && random.nextInt(4) == 0)
+                {
+                    walker.skipChildren();
+                }
+            }
+            if (walker.nextNode() != null)
+            {
+                throw new IllegalStateException("nextNode() returned a node after the end of the walk.");
+            }
+        }
+        finally
+        {
+            walker.release();
+        }
+
+        return nodes;
+    }
+
+    static boolean same(String name, Node root, byte mode, long skip) throws Exception
+    {
+        List<Node> expected = walk(DOMWalkerFactory.STACK_DOM_WALKER, root, mode, skip);
+        List<Node> actual = walk(DOMWalkerFactory.SIBLING_DOM_WALKER, root, mode, skip);
+        if (expected.size() != actual.size())
+        {
+            System.err.println(name + ": visited " + actual.size() + " nodes instead of " + expected.size() + " (mode " + mode + ", skip " + skip + ").");
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++)
+        {
+            if (expected.get(i) != actual.get(i))
+            {
+                System.err.println(name + ": node #" + i + " was " + actual.get(i) + " instead of " + expected.get(i) + " (mode " + mode + ", skip " + skip + ").");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares the walks from every node of a tree: the document, its elements and leaves.
+     */
+    static boolean allRoots(String name, Document doc) throws Exception
+    {
+        List<Node> roots = new ArrayList<>();
+        roots.add(doc);
+        for (Node node = doc.getFirstChild(); node != null;)
+        {
+            roots.add(node);
+            if (node.getFirstChild() != null)
+            {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != null && node.getNextSibling() == null)
+            {
+                node = node.getParentNode();
+            }
+            node = (node != null) ? node.getNextSibling() : null;
+        }
+
+        for (int i = 0; i < roots.size(); i++)
+        {
+            for (byte mode : MODES)
+            {
+                if (!same(name + " root #" + i, roots.get(i), mode, -1) || !same(name + " root #" + i, roots.get(i), mode, i))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    static boolean pooled() throws Exception
+    {
+        DOMWalker walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER);
+        walker.release();
+        if (DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER) != walker)
+        {
+            System.err.println("A released walker was not reused.");
+            return false;
+        }
+        walker.release();
+
+        // A walker released in the middle of a walk starts clean when reused.
+        Document doc = DocumentIndexTest.random(7);
+        walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.SIBLING_DOM_WALKER).configure(doc, DOMWalker.TEXT_NODES);
+        walker.nextNode();
+        walker.nextNode();
+        walker.release();
+
+        return same("reused", doc.getDocumentElement(), DOMWalker.ELEMENT_NODES, 3);
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            boolean ok = pooled();
+            for (long seed = 0; ok && seed < 3; seed++)
+            {
+                ok = allRoots("random #" + seed, DocumentIndexTest.random(seed));
+            }
+
+            Document dump = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(ParallelProcessorTest.dump(PAGES)));
+            for (byte mode : MODES)
+            {
+                ok = ok && same("dump", dump, mode, -1) && same("dump", dump.getDocumentElement(), mode, 11);
+            }
+
+            NodeList pages = dump.getElementsByTagName("page");
+            for (int i = 0; ok && i < 200; i++)
+            {
+                ok = allRoots("page #" + i, pageDocument(pages.item(i)));
+            }
+
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Sibling walker test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Copies a page to its own document, so every node of it is walked as the root.
+     */
+    static Document pageDocument(Node page) throws Exception
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        doc.appendChild(doc.importNode(page, true));
+
+        return doc;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import net.apkc.esxp.exceptions.AttributeNotFoundException;
+import net.apkc.esxp.exceptions.NodeNotFoundException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.processor.RecordHandler;
+import net.apkc.esxp.processor.StreamingProcessor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that {@link StreamingProcessor} finds the same tags, values and nodes as {@link Processor}
+ * on a DOM tree parsed with coalescing and without comments and processing instructions, in strict
+ * and non-strict mode, on a
+ * dump, on documents with mixed content, CDATA, comments and tags of different case, and on random
+ * documents. Also checks that processRecords hands over every record of a dump built as a DOM
+ * parser would, and that the heap it uses stays bounded on a document much larger than that bound.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class StreamingProcessorTest
+{
+
+    static final Logger LOG = Logger.getLogger(StreamingProcessorTest.class.getName());
+    static final String MIXED = "<?xml version=\"1.0\"?>\n"
+                                + "<root xmlns:x=\"urn:x\">\n"
+                                + "  <a>  <!-- comment -->  <b>inner</b> tail of a </a>\n"
+                                + "  <Item n=\"1\">x<![CDATA[ <cdata> ]]>z</Item>\n"
+                                + "  <item n=\"2\">second</item>\n"
+                                + "  <empty/>\n"
+                                + "  <ws>   \n   </ws>\n"
+                                + "  <split>one<!-- comment -->two</split>\n"
+                                + "  <text><b>only inside</b></text>\n"
+                                + "  <nested><NESTED>deep &amp; deeper</NESTED></nested>\n"
+                                + "  <x:pre x:attr=\"p\">prefixed</x:pre>\n"
+                                + "  <?pi data?>\n"
+                                + "</root>\n";
+    static final String[] ROOTS =
+    {
+        "mediawiki", "root", "*", "page", "revision", "Item", "nested", "missing"
+    };
+    static final String[] ATTRIBUTES =
+    {
+        "n", "id", "bytes", "x:attr", "missing"
+    };
+    static final int RANDOM_DOCUMENTS = 5;
+    static final long LARGE_BYTES = 128L << 20;
+    static final long HEAP_BOUND = 32L << 20;
+    final Processor processor = Processor.newBuild();
+    final StreamingProcessor streaming;
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    StreamingProcessorTest() throws Exception
+    {
+        streaming = StreamingProcessor.newBuild();
+        factory.setNamespaceAware(true);
+        factory.setCoalescing(true);
+        factory.setIgnoringComments(true);
+    }
+
+    /**
+     * Parses a document as StreamingProcessor reads it: with CDATA as TEXT data, without comments and
+     * processing instructions and with the TEXT data around them merged.
+     */
+    Document parse(byte[] xml) throws Exception
+    {
+        Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        List<Node> instructions = new ArrayList<>();
+        for (Node node = doc.getFirstChild(); node != null;)
+        {
+            if (node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE)
+            {
+                instructions.add(node);
+            }
+            if (node.getFirstChild() != null)
+            {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != null && node.getNextSibling() == null)
+            {
+                node = node.getParentNode();
+            }
+            node = (node != null) ? node.getNextSibling() : null;
+        }
+        for (Node instruction : instructions)
+        {
+            instruction.getParentNode().removeChild(instruction);
+        }
+        doc.normalize();
+
+        return doc;
+    }
+
+    /**
+     * The tags to search in a document: each tag name, in upper case too, and a missing one.
+     */
+    static Set<String> tags(Document doc)
+    {
+        Set<String> tags = new LinkedHashSet<>();
+        NodeList all = doc.getElementsByTagName("*");
+        for (int i = 0; i < all.getLength(); i++)
+        {
+            tags.add(all.item(i).getNodeName());
+            tags.add(all.item(i).getNodeName().toUpperCase());
+        }
+        tags.add("missing");
+
+        return tags;
+    }
+
+    /**
+     * Runs a lookup and returns its result, or the class of the exception it raised.
+     */
+    abstract static class Lookup
+    {
+
+        abstract Object run() throws Exception;
+
+        Object result()
+        {
+            try
+            {
+                Object result = run();
+                return (result instanceof Node) ? result : String.valueOf(result);
+            }
+            catch (Exception e)
+            {
+                return e.getClass();
+            }
+        }
+    }
+
+    boolean same(String name, final byte[] xml) throws Exception
+    {
+        final Document doc = parse(xml);
+        for (final String root : ROOTS)
+        {
+            for (final String tag : tags(doc))
+            {
+                for (final boolean strict : new boolean[]
+                {
+                    false, true
+                })
+                {
+                    Object expected = new Lookup()
+                    {
+                        @Override
+                        Object run() throws Exception
+                        {
+                            return processor.searchTagValue(doc, root, tag, strict);
+                        }
+                    }.result();
+                    Object actual = new Lookup()
+                    {
+                        @Override
+                        Object run() throws Exception
+                        {
+                            return streaming.searchTagValue(new ByteArrayInputStream(xml), root, tag, strict);
+                        }
+                    }.result();
+                    if (!expected.equals(actual))
+                    {
+                        System.err.println(name + ": searchTagValue(" + root + ", " + tag + ", " + strict + ") was " + actual + " instead of " + expected + ".");
+                        return false;
+                    }
+
+                    for (final String attribute : ATTRIBUTES)
+                    {
+                        expected = new Lookup()
+                        {
+                            @Override
+                            Object run() throws Exception
+                            {
+                                return processor.searchTagAttributeValue(doc, root, tag, attribute, strict);
+                            }
+                        }.result();
+                        actual = new Lookup()
+                        {
+                            @Override
+                            Object run() throws Exception
+                            {
+                                return streaming.searchTagAttributeValue(new ByteArrayInputStream(xml), root, tag, attribute, strict);
+                            }
+                        }.result();
+                        // Processor reports a missing attribute in strict mode as a missing tag.
+                        if (actual == AttributeNotFoundException.class)
+                        {
+                            actual = TagNotFoundException.class;
+                        }
+                        if (!expected.equals(actual))
+                        {
+                            System.err.println(name + ": searchTagAttributeValue(" + root + ", " + tag + ", " + attribute + ", " + strict + ") was " + actual + " instead of " + expected + ".");
+                            return false;
+                        }
+                    }
+                }
+
+                Node expected = searchNode(doc, null, root, tag);
+                Node actual = searchNode(null, xml, root, tag);
+                if ((expected == null) != (actual == null) || (expected != null && !expected.isEqualNode(actual)))
+                {
+                    System.err.println(name + ": searchNode(" + root + ", " + tag + ") was " + actual + " instead of " + expected + ".");
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Searches a node on the DOM tree or on the XML, and returns NULL if not found.
+     */
+    Node searchNode(Document doc, byte[] xml, String root, String tag)
+    {
+        try
+        {
+            return (doc != null) ? processor.searchNode(doc, root, tag) : streaming.searchNode(new ByteArrayInputStream(xml), root, tag);
+        }
+        catch (NodeNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that processRecords hands over each page of a dump, equal to the page in the DOM tree.
+     */
+    boolean records(byte[] xml) throws Exception
+    {
+        final NodeList pages = parse(xml).getElementsByTagName("page");
+        final List<String> errors = new ArrayList<>();
+        final AtomicLong count = new AtomicLong();
+        long records = streaming.processRecords(new ByteArrayInputStream(xml), "PAGE", new RecordHandler<Element>()
+        {
+            @Override
+            public void handle(Element record)
+            {
+                int i = (int) count.getAndIncrement();
+                if (record.getOwnerDocument().getDocumentElement() != record || !record.isEqualNode(pages.item(i)))
+                {
+                    errors.add("Record #" + i + " doesn't match its page.");
+                }
+            }
+        });
+
+        if (records != pages.getLength() || count.get() != records || !errors.isEmpty())
+        {
+            System.err.println("Handled " + records + " records of " + pages.getLength() + " pages. " + errors);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Processes the records of a generated dump much larger than the heap bound, streamed as it is
+     * written, and checks the heap used after collecting the garbage every few thousand records.
+     */
+    boolean boundedHeap() throws Exception
+    {
+        final PipedInputStream in = new PipedInputStream(1 << 16);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        final long[] written = new long[1];
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    written[0] = CorpusGenerator.newBuild(6).setTargetBytes(LARGE_BYTES).write(out);
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    LOG.error("Error writing the dump. Error: " + e.toString(), e);
+                }
+            }
+        });
+        writer.start();
+
+        System.gc();
+        final long baseline = memory.getHeapMemoryUsage().getUsed();
+        final long[] peak = new long[1];
+        final AtomicLong ids = new AtomicLong();
+        final List<String> errors = new ArrayList<>();
+        long records = streaming.processRecords(in, "page", new RecordHandler<Element>()
+        {
+            @Override
+            public void handle(Element page) throws Exception
+            {
+                long id = ids.incrementAndGet();
+                if (!processor.searchTagValue(page.getOwnerDocument(), "page", "id", true).equals(String.valueOf(id)) && errors.size() < 10)
+                {
+                    errors.add("Page #" + id + " has a wrong id.");
+                }
+                if (id % 5000 == 0)
+                {
+                    System.gc();
+                    peak[0] = Math.max(peak[0], memory.getHeapMemoryUsage().getUsed() - baseline);
+                }
+            }
+        });
+        writer.join();
+
+        String result = "Records of a " + (LARGE_BYTES >> 20) + " MiB dump: " + records + ", peak heap after GC: " + (peak[0] >> 10) + " KiB";
+        if (LOG.isInfoEnabled())
+        {
+            LOG.info(result);
+        }
+        System.out.println(result);
+
+        if (records != written[0] || !errors.isEmpty() || peak[0] > HEAP_BOUND)
+        {
+            System.err.println("Handled " + records + " records of " + written[0] + ". " + errors);
+            return false;
+        }
+
+        return true;
+    }
+
+    static byte[] serialize(Document doc) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            StreamingProcessorTest test = new StreamingProcessorTest();
+            byte[] dump = ParallelProcessorTest.dump(30);
+            boolean ok = test.same("mixed", MIXED.getBytes(StandardCharsets.UTF_8)) && test.same("dump", dump);
+            for (long seed = 0; ok && seed < RANDOM_DOCUMENTS; seed++)
+            {
+                ok = test.same("random #" + seed, serialize(DocumentIndexTest.random(seed)));
+            }
+            ok = ok && test.records(ParallelProcessorTest.dump(2000)) && test.boundedHeap();
+
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Streaming processor test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.processor.DocumentIndex;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.utils.SAX2DOM;
+import net.apkc.esxp.utils.SymbolTable;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that {@link SymbolTable} matches names, by symbol and by folded name, with the semantics of
+ * {@link String#equalsIgnoreCase(String)}, and that a document indexed by {@link SAX2DOM} while
+ * building it answers the same as one indexed afterwards with {@link DocumentIndex#of(Document)}.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class SymbolTableTest
+{
+
+    static final Logger LOG = Logger.getLogger(SymbolTableTest.class.getName());
+    static final char[] CHARS =
+    {
+        'a', 'A', 'i', 'I', 'k', 'K', 's', 'S', 'ı', 'İ', 'K', 'ſ', 'ß', 'é', 'É', '-', ':'
+    };
+    static final int NAMES = 20000;
+    static final int PAGES = 2000;
+
+    static boolean equalsIgnoreCase()
+    {
+        Random random = new Random(14);
+        String[] names = new String[NAMES];
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < NAMES; i++)
+        {
+            char[] name = new char[1 + random.nextInt(4)];
+            for (int j = 0; j < name.length; j++)
+            {
+                name[j] = CHARS[random.nextInt(CHARS.length)];
+            }
+            names[i] = new String(name);
+            table.add(names[i]);
+        }
+
+        for (int i = 0; i < NAMES; i++)
+        {
+            String other = names[random.nextInt(NAMES)];
+            if ((table.lookup(names[i]) == table.lookup(other)) != names[i].equalsIgnoreCase(other)
+                || SymbolTable.matches(SymbolTable.fold(names[i]), other) != names[i].equalsIgnoreCase(other)
+                || table.add(names[i]) != table.lookup(names[i]))
+            {
+                System.err.println("Symbols don't match for \"" + names[i] + "\" and \"" + other + "\".");
+                return false;
+            }
+        }
+
+        return table.lookup("unknown") == SymbolTable.NOT_FOUND;
+    }
+
+    static SAX2DOM build(byte[] xml, boolean indexing) throws ParserConfigurationException, SAXException, IOException
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        SAX2DOM handler = new SAX2DOM();
+        handler.setIndexing(indexing);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+
+        return handler;
+    }
+
+    static boolean sameAnswers() throws ParserConfigurationException, SAXException, IOException, TagNotFoundException
+    {
+        byte[] xml = ParallelProcessorTest.dump(PAGES);
+        SAX2DOM builder = build(xml, true);
+        DocumentIndex indexed = builder.getIndex();
+        Document lazy = (Document) build(xml, false).getDOM();
+        DocumentIndex walked = DocumentIndex.of(lazy);
+        Processor processor = Processor.newBuild();
+
+        String[] tags =
+        {
+            "TITLE", "Id", "username", "SHA1", "siteinfo", "text", "missing"
+        };
+        for (String tag : tags)
+        {
+            if (indexed.getNodes(tag).size() != walked.getNodes(tag).size()
+                || !processor.searchTagValue(indexed, "mediawiki", tag, false).equals(processor.searchTagValue(lazy, "mediawiki", tag, false)))
+            {
+                System.err.println("The indexes don't match for tag \"" + tag + "\".");
+                return false;
+            }
+        }
+
+        // The index built while parsing belongs to the document built.
+        return indexed.getDocument() == builder.getDOM() && indexed.getNodes("page").size() == PAGES;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            boolean ok = equalsIgnoreCase() && sameAnswers();
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Symbol table test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (ParserConfigurationException | SAXException | IOException | TagNotFoundException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
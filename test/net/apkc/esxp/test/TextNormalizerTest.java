@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.utils.SAX2DOM;
+import net.apkc.esxp.utils.TextNormalizer;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks each mode of {@link TextNormalizer}, on strings and on regions of char arrays, against its
+ * definition with regular expressions, along with isNormalized, the marking of documents normalized
+ * at parse time and the text stored by {@link SAX2DOM} in each mode.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class TextNormalizerTest
+{
+
+    static final Logger LOG = Logger.getLogger(TextNormalizerTest.class.getName());
+    static final byte[] MODES =
+    {
+        TextNormalizer.RAW, TextNormalizer.TRIM, TextNormalizer.COLLAPSE, TextNormalizer.XSD_REPLACE, TextNormalizer.XSD_COLLAPSE
+    };
+    /** All whitespace of the modes, other characters lower than space and some that aren't space. */
+    static final char[] CHARS =
+    {
+        ' ', ' ', '\t', '\n', '\r', '\f', 0x0B, 0x01, 0x1F, ' ', ' ', 'a', 'b', 'x'
+    };
+    /** Characters that can appear in XML, with the ones that need a character reference escaped. */
+    static final String[] XML_CHARS =
+    {
+        " ", " ", "\t", "\n", "&#13;", "&#9;", "&#10;", " ", "a", "b", "&amp;"
+    };
+    static final int STRINGS = 200000;
+
+    /**
+     * The definition of each mode.
+     */
+    static String reference(String text, byte mode)
+    {
+        switch (mode)
+        {
+            case TextNormalizer.TRIM:
+                return text.trim();
+            case TextNormalizer.COLLAPSE:
+                return text.replaceAll("\\s+", " ").trim();
+            case TextNormalizer.XSD_REPLACE:
+                return text.replaceAll("[\\t\\n\\r]", " ");
+            case TextNormalizer.XSD_COLLAPSE:
+                return text.replaceAll("[\\t\\n\\r]", " ").replaceAll(" +", " ").replaceAll("^ | $", "");
+            default:
+                return text;
+        }
+    }
+
+    static boolean strings()
+    {
+        Random random = new Random(3);
+        for (int i = 0; i < STRINGS; i++)
+        {
+            char[] chars = new char[random.nextInt(16)];
+            for (int j = 0; j < chars.length; j++)
+            {
+                chars[j] = CHARS[random.nextInt(CHARS.length)];
+            }
+            String text = new String(chars);
+
+            for (byte mode : MODES)
+            {
+                String expected = reference(text, mode);
+                String actual = TextNormalizer.normalize(text, mode);
+                if (!expected.equals(actual)
+                    || (expected.equals(text) && actual != text)
+                    || TextNormalizer.isNormalized(text, mode) != expected.equals(text))
+                {
+                    System.err.println("Mode " + mode + " fails for \"" + escape(text) + "\": \"" + escape(actual) + "\" instead of \"" + escape(expected) + "\".");
+                    return false;
+                }
+
+                // The same text in the middle of a larger array, which must be left untouched around it.
+                int start = random.nextInt(4);
+                char[] region = new char[start + chars.length + 3];
+                region[0] = region[region.length - 1] = '|';
+                System.arraycopy(chars, 0, region, start, chars.length);
+                char[] copy = region.clone();
+                int length = TextNormalizer.normalize(region, start, chars.length, mode);
+                if (!expected.equals(new String(region, start, length))
+                    || !new String(region, 0, start).equals(new String(copy, 0, start))
+                    || !new String(region, start + chars.length, 3).equals(new String(copy, start + chars.length, 3)))
+                {
+                    System.err.println("Mode " + mode + " fails for the array \"" + escape(text) + "\".");
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    static boolean marks() throws Exception
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = (Element) doc.appendChild(doc.createElement("root"));
+        root.appendChild(doc.createTextNode("  a \t b  "));
+        Processor collapse = Processor.newBuild();
+        Processor trim = Processor.newBuild().setTextMode(TextNormalizer.TRIM);
+
+        if (TextNormalizer.isMarkedNormalized(doc, TextNormalizer.COLLAPSE) || !collapse.getNodeValue(root, true).equals("a b"))
+        {
+            return false;
+        }
+
+        // Marked as collapsed, text is taken as is by a processor in that mode only.
+        TextNormalizer.markNormalized(doc, TextNormalizer.COLLAPSE);
+        if (!TextNormalizer.isMarkedNormalized(doc, TextNormalizer.COLLAPSE)
+            || !TextNormalizer.isMarkedNormalized(root.getFirstChild(), TextNormalizer.COLLAPSE)
+            || TextNormalizer.isMarkedNormalized(root, TextNormalizer.TRIM)
+            || !collapse.getNodeValue(root, true).equals("  a \t b  ")
+            || !trim.getNodeValue(root, true).equals("a \t b"))
+        {
+            return false;
+        }
+
+        // Marking as RAW clears the mark.
+        TextNormalizer.markNormalized(doc, TextNormalizer.RAW);
+        return !TextNormalizer.isMarkedNormalized(root, TextNormalizer.COLLAPSE)
+               && !TextNormalizer.isMarkedNormalized(root, TextNormalizer.RAW)
+               && collapse.getNodeValue(root, true).equals("a b");
+    }
+
+    /**
+     * Builds random documents with SAX2DOM in each mode and checks each TEXT and attribute value
+     * against the mode applied to what a DOM parser reads.
+     */
+    static boolean sax2dom() throws Exception
+    {
+        Random random = new Random(5);
+        StringBuilder b = new StringBuilder("<root>");
+        for (int i = 0; i < 2000; i++)
+        {
+            b.append("<t a=\"").append(xml(random)).append("\">").append(xml(random)).append("<![CDATA[ ]]>").append(xml(random)).append("</t>");
+        }
+        byte[] xml = b.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+        NodeList expected = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml)).getElementsByTagName("t");
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        for (byte mode : MODES)
+        {
+            SAX2DOM handler = new SAX2DOM();
+            handler.setTextMode(mode);
+            XMLReader reader = factory.newSAXParser().getXMLReader();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+            Document doc = (Document) handler.getDOM();
+            NodeList actual = doc.getElementsByTagName("t");
+
+            for (int i = 0; i < expected.getLength(); i++)
+            {
+                Element e = (Element) expected.item(i);
+                Element a = (Element) actual.item(i);
+                if (!reference(e.getAttribute("a"), mode).equals(a.getAttribute("a"))
+                    || !reference(e.getTextContent(), mode).equals(a.getTextContent()))
+                {
+                    System.err.println("SAX2DOM mode " + mode + " fails for tag #" + i + ".");
+                    return false;
+                }
+            }
+
+            if (TextNormalizer.isMarkedNormalized(doc, mode) != (mode != TextNormalizer.RAW))
+            {
+                System.err.println("SAX2DOM didn't mark the document normalized in mode " + mode + ".");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static String xml(Random random)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = random.nextInt(10); i > 0; i--)
+        {
+            b.append(XML_CHARS[random.nextInt(XML_CHARS.length)]);
+        }
+
+        return b.toString();
+    }
+
+    static String escape(String text)
+    {
+        StringBuilder b = new StringBuilder();
+        for (char c : text.toCharArray())
+        {
+            b.append((c < ' ' || c > '~') ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+        }
+
+        return b.toString();
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            boolean ok = strings() && marks() && sax2dom();
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Text normalizer test: " + (ok ? "OK" : "FAILED"));
+            }
+
+            if (!ok)
+            {
+                System.exit(1);
+            }
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014, Andreas P. Koenzen <akc at apkc.net>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.apkc.esxp.test;
+
+import java.lang.management.ManagementFactory;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.apkc.esxp.exceptions.TagNotFoundException;
+import net.apkc.esxp.exceptions.TextNotFoundException;
+import net.apkc.esxp.processor.Processor;
+import net.apkc.esxp.walker.DOMWalker;
+import net.apkc.esxp.walker.DOMWalkerFactory;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Checks that lookups with pooled walkers don't allocate once the JVM is warmed up.
+ *
+ * @author Andreas P. Koenzen <akc at apkc.net>
+ * @version 0.1
+ */
+class WalkerAllocationTest
+{
+
+    static final Logger LOG = Logger.getLogger(WalkerAllocationTest.class.getName());
+    static final int WARM_UP = 200000;
+    static final int LOOKUPS = 1000000;
+    final Processor processor = Processor.newBuild();
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Document doc;
+    Node title;
+
+    WalkerAllocationTest configure() throws ParserConfigurationException
+    {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = (Element) doc.appendChild(doc.createElement("mediawiki"));
+        for (int i = 0; i < 100; i++)
+        {
+            Element page = (Element) root.appendChild(doc.createElement("page"));
+            page.appendChild(doc.createElement("title")).appendChild(doc.createTextNode("Page " + i));
+            page.appendChild(doc.createElement("id")).appendChild(doc.createTextNode(String.valueOf(i)));
+        }
+        title = doc.getElementsByTagName("title").item(50);
+
+        return this;
+    }
+
+    int lookup() throws TextNotFoundException, TagNotFoundException
+    {
+        return processor.getNodeValue(title, true).length() + processor.searchTagValue(doc, "mediawiki", "id", true).length();
+    }
+
+    long allocatedBytesPerLookup() throws TextNotFoundException, TagNotFoundException
+    {
+        int sink = 0;
+        for (int i = 0; i < WARM_UP; i++)
+        {
+            sink += lookup();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            sink += lookup();
+        }
+        long end = threads.getThreadAllocatedBytes(threadId);
+
+        if (sink == 0)
+        {
+            throw new IllegalStateException("Lookups returned no text.");
+        }
+
+        return (end - start) / LOOKUPS;
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            DOMWalker walker = DOMWalkerFactory.getWalker(DOMWalkerFactory.STACK_DOM_WALKER);
+            walker.release();
+            if (DOMWalkerFactory.getWalker(DOMWalkerFactory.STACK_DOM_WALKER) != walker)
+            {
+                System.err.println("Released walker was not reused.");
+                System.exit(1);
+            }
+
+            long bytes = new WalkerAllocationTest().configure().allocatedBytesPerLookup();
+            if (LOG.isInfoEnabled())
+            {
+                LOG.info("Allocated bytes per lookup: " + bytes);
+            }
+            System.out.println("Allocated bytes per lookup: " + bytes);
+
+            if (bytes > 0)
+            {
+                System.exit(1);
+            }
+        }
+        catch (ParserConfigurationException | TextNotFoundException | TagNotFoundException ex)
+        {
+            System.err.println("Error executing test. Error: " + ex.toString());
+            System.exit(1);
+        }
+    }
+}
@@ -28,10 +28,12 @@ package net.apkc.esxp.test;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import net.apkc.esxp.processor.NodePath;
 import net.apkc.esxp.processor.UnmarshalledObject;
 
 /**
- * Example class for how to implement an {@link UnmarshalledObject}.
+ * Example class for how to implement an {@link UnmarshalledObject}. The setters are annotated with
+ * {@link NodePath}, so pages can be unmarshalled with a {@link net.apkc.esxp.processor.Binder} too.
  *
  * @author Andreas P. Koenzen <akc at apkc.net>
  * @version 0.1
@@ -142,6 +144,7 @@ class WikiPage extends UnmarshalledObject
         return revFormat;
     }
 
+    @NodePath("page/title")
     WikiPage setTitle(String p)
     {
         // Don't allow null values!
@@ -154,6 +157,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/ns")
     WikiPage setNS(String p)
     {
         // Don't allow null values!
@@ -166,6 +170,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/id")
     WikiPage setId(String p)
     {
         // Don't allow null values!
@@ -178,6 +183,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/id")
     WikiPage setRevId(String p)
     {
         // Don't allow null values!
@@ -190,6 +196,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/parentid")
     WikiPage setRevParentId(String p)
     {
         // Don't allow null values!
@@ -202,6 +209,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/timestamp")
     WikiPage setRevTimestamp(String p)
     {
         // Don't allow null values!
@@ -214,6 +222,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/contributor/username")
     WikiPage setRevContributorUsername(String p)
     {
         // Don't allow null values!
@@ -226,6 +235,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/contributor/id")
     WikiPage setRevContributorId(String p)
     {
         // Don't allow null values!
@@ -238,6 +248,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/minor")
     WikiPage setRevMinor(String p)
     {
         // Don't allow null values!
@@ -250,6 +261,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/comment")
     WikiPage setRevComment(String p)
     {
         // Don't allow null values!
@@ -262,6 +274,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/text")
     WikiPage setRevText(String p)
     {
         // Don't allow null values!
@@ -274,6 +287,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath(value = "page/revision/text", attribute = "id")
     WikiPage setRevTextId(String p)
     {
         // Don't allow null values!
@@ -286,6 +300,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath(value = "page/revision/text", attribute = "bytes")
     WikiPage setRevTextBytes(String p)
     {
         // Don't allow null values!
@@ -298,6 +313,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/sha1")
     WikiPage setRevSHA1(String p)
     {
         // Don't allow null values!
@@ -310,6 +326,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/model")
     WikiPage setRevModel(String p)
     {
         // Don't allow null values!
@@ -322,6 +339,7 @@ class WikiPage extends UnmarshalledObject
         return this;
     }
 
+    @NodePath("page/revision/format")
     WikiPage setRevFormat(String p)
     {
         // Don't allow null values!